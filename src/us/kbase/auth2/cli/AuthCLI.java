@@ -2,6 +2,7 @@ package us.kbase.auth2.cli;
 
 import static us.kbase.auth2.lib.Utils.nonNull;
 
+import java.io.BufferedWriter;
 import java.io.Console;
 import java.io.IOException;
 import java.io.PrintStream;
@@ -14,14 +15,26 @@ import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
@@ -36,6 +49,7 @@ import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.RateLimiter;
 
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
@@ -124,6 +138,7 @@ public class AuthCLI {
 	private final ConsoleWrapper console;
 	private final PrintStream out;
 	private final PrintStream err;
+	private final String globusUserURL;
 	
 	/** Create a new CLI instance.
 	 * @param args the program arguments.
@@ -136,6 +151,16 @@ public class AuthCLI {
 			final ConsoleWrapper console,
 			final PrintStream out,
 			final PrintStream err) {
+		this(args, console, out, err, GLOBUS_USER_URL);
+	}
+	
+	/* This constructor is for testing purposes only. */
+	private AuthCLI(
+			final String[] args,
+			final ConsoleWrapper console,
+			final PrintStream out,
+			final PrintStream err,
+			final String globusUserURL) {
 		nonNull(args, "args");
 		nonNull(console, "console");
 		nonNull(out, "out");
@@ -144,6 +169,7 @@ public class AuthCLI {
 		this.console = console;
 		this.out = out;
 		this.err = err;
+		this.globusUserURL = globusUserURL;
 		quietLogger();
 	}
 		
@@ -181,8 +207,8 @@ public class AuthCLI {
 		
 		//TODO POSTPROD remove this code and all dependent code
 		
-		/* The code below in the next block is not covered by tests and will be removed after
-		 * the auth2 service is released in KBase production and the Globus endpoint shutdown.
+		/* The code below in the next block will be removed after the auth2 service is released
+		 * in KBase production and the Globus endpoint shutdown.
 		 */
 		
 		} else if (a.globus_users != null && !a.globus_users.trim().isEmpty()) {
@@ -250,11 +276,32 @@ public class AuthCLI {
 					"if importing users");
 			return 1;
 		}
+		if (a.importThreads < 1 || a.importBatchSize < 1 || a.importRate < 0) {
+			out.println("The import thread count and batch size must be at least 1 " +
+					"and the import rate at least 0");
+			return 1;
+		}
 		final LocalDateTime now = LocalDateTime.now();
 		final Path p = Paths.get(a.globus_users);
 		final List<String> users;
+		final Path completedPath = a.importCompleted == null ?
+				null : Paths.get(a.importCompleted);
+		final BufferedWriter completed;
 		try {
 			users = getUserList(a, p);
+			if (completedPath != null) {
+				if (Files.exists(completedPath)) {
+					final int count = users.size();
+					// removeAll calls contains() on the argument for every user
+					users.removeAll(new HashSet<>(getUserList(a, completedPath)));
+					out.println(String.format("Skipping %s users already imported per file %s",
+							count - users.size(), completedPath));
+				}
+				completed = Files.newBufferedWriter(completedPath, StandardCharsets.UTF_8,
+						StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			} else {
+				completed = null;
+			}
 		} catch (NoSuchFileException e) {
 			printError("No such file", e, a);
 			return 1;
@@ -265,50 +312,206 @@ public class AuthCLI {
 			printError(e, a);
 			return 1;
 		}
-		final Client cli = ClientBuilder.newClient();
-		int success = 0;
-		for (final String user: users) {
-			out.println("Importing user " + user);
-			
-			final URI nexusUserURL = UriBuilder.fromPath(GLOBUS_USER_URL + user).build();
-			String nexusEmail = null;
-			String nexusFullname = null;
-			try {
-				final Map<String, Object> nexusRet = globusGetRequest(
-						cli, a.nexusToken, nexusUserURL);
-				// response includes a Globus v2 Oauth id but Globus says not to rely on it
-				nexusFullname = ((String) nexusRet.get("full_name")).trim();
-				nexusEmail = ((String) nexusRet.get("email")).trim();
-			} catch (IdentityRetrievalException | IOException e) {
-				if (printNexusErrorAndCheckIfFatal(user, a, e)) {
-					continue;
+		final GlobusImporter imp = new GlobusImporter(a, auth, globusAPIURL, completed,
+				users.size());
+		// each batch is fetched and imported by a single thread, so batches run concurrently
+		final ExecutorService executor = Executors.newFixedThreadPool(a.importThreads);
+		int ret = 0;
+		try {
+			final List<Future<?>> batches = new LinkedList<>();
+			for (int i = 0; i < users.size(); i += a.importBatchSize) {
+				final List<String> batch = users.subList(
+						i, Math.min(i + a.importBatchSize, users.size()));
+				batches.add(executor.submit(() -> imp.importBatch(batch)));
+			}
+			for (final Future<?> f: batches) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					printError("Unexpected error importing users", e.getCause(), a);
+					ret = 1;
+				}
+			}
+		} catch (InterruptedException e) {
+			printError("Import interrupted", e, a);
+			ret = 1;
+		} finally {
+			executor.shutdownNow();
+			imp.close();
+		}
+		final Duration d = Duration.between(now, LocalDateTime.now());
+		out.println(String.format("Imported %s out of %s users from file %s in %s (%s users/s)",
+				imp.imported.get(), users.size(), p, getDurationString(d),
+				getRate(imp.imported.get(), d)));
+		if (!imp.failures.isEmpty()) {
+			err.println(String.format("Failed to import %s users:", imp.failures.size()));
+			for (final Entry<String, String> f: imp.failures.entrySet()) {
+				err.println("\t" + f.getKey() + ": " + f.getValue());
+			}
+		}
+		// users in a batch that failed unexpectedly aren't listed, but aren't recorded either
+		if ((ret != 0 || !imp.failures.isEmpty()) && completedPath != null) {
+			err.println("Run the import again with the same completed users file " +
+					"to retry the failed users");
+		}
+		return ret;
+	}
+	
+	private static String getRate(final int count, final Duration d) {
+		final long ms = Math.max(1, d.toMillis());
+		return String.format("%.1f", count * 1000.0 / ms);
+	}
+	
+	/* Imports batches of users. For each batch, the users are fetched one at a time from Nexus,
+	 * and then their Globus OAuth2 identities are fetched in a single request. Batches may be
+	 * imported concurrently.
+	 */
+	private class GlobusImporter {
+		
+		private final Args a;
+		private final Authentication auth;
+		private final URL globusAPIURL;
+		private final Client cli = ClientBuilder.newClient();
+		private final RateLimiter limiter; // null for no limit
+		private final BufferedWriter completed; // null if not recording completed users
+		private final int total;
+		private final LocalDateTime start = LocalDateTime.now();
+		private final AtomicInteger processed = new AtomicInteger();
+		private final AtomicInteger imported = new AtomicInteger();
+		// sorted by user name for the final report
+		private final Map<String, String> failures = new ConcurrentSkipListMap<>();
+		
+		private GlobusImporter(
+				final Args a,
+				final Authentication auth,
+				final URL globusAPIURL,
+				final BufferedWriter completed,
+				final int total) {
+			this.a = a;
+			this.auth = auth;
+			this.globusAPIURL = globusAPIURL;
+			this.limiter = a.importRate > 0 ? RateLimiter.create(a.importRate) : null;
+			this.completed = completed;
+			this.total = total;
+		}
+		
+		private void acquire() {
+			if (limiter != null) {
+				limiter.acquire();
+			}
+		}
+		
+		private void importBatch(final List<String> users) {
+			// user -> full name & email, which may be null if the Nexus request failed
+			final Map<String, String[]> nexusUsers = new LinkedHashMap<>();
+			for (final String user: users) {
+				final URI nexusUserURL = UriBuilder.fromPath(globusUserURL + user).build();
+				acquire();
+				try {
+					final Map<String, Object> nexusRet = globusGetRequest(
+							cli, a.nexusToken, nexusUserURL);
+					// response includes a Globus v2 Oauth id but Globus says not to rely on it
+					nexusUsers.put(user, new String[] {
+							((String) nexusRet.get("full_name")).trim(),
+							((String) nexusRet.get("email")).trim()});
+				} catch (IdentityRetrievalException | IOException e) {
+					if (printNexusErrorAndCheckIfFatal(user, a, e)) {
+						fail(user, "Nexus: " + e.getMessage());
+					} else {
+						nexusUsers.put(user, new String[2]);
+					}
 				}
 			}
-			final RemoteIdentity ri;
+			if (!nexusUsers.isEmpty()) {
+				importUsers(nexusUsers);
+			}
+			final int count = processed.addAndGet(users.size());
+			final Duration d = Duration.between(start, LocalDateTime.now());
+			out.println(String.format(
+					"Processed %s of %s users: %s imported, %s failed, %s users/s",
+					count, total, imported.get(), failures.size(),
+					getRate(count, d)));
+		}
+		
+		private void importUsers(final Map<String, String[]> nexusUsers) {
+			final Map<String, Map<String, String>> identities;
+			acquire();
 			try {
-				ri = getGlobusV2AuthIdentity(cli, globusAPIURL, a.oauth2Token,
-						user + "@globusid.org", nexusFullname, nexusEmail);
+				identities = getGlobusV2AuthIdentities(cli, globusAPIURL, a.oauth2Token,
+						nexusUsers.keySet());
 			} catch (IdentityRetrievalException e) {
-				printError("\tError in identity retrieval from Globus OAuth2 API for user " + user,
-						e, a);
-				continue;
+				for (final String user: nexusUsers.keySet()) {
+					printError("\tError in identity retrieval from Globus OAuth2 API for user " +
+							user, e, a);
+					fail(user, "Globus OAuth2: " + e.getMessage());
+				}
+				return;
 			}
-			out.println("\tID       : " + ri.getRemoteID().getProviderIdentityId());
-			out.println("\tUsername : " + ri.getDetails().getUsername());
-			out.println("\tFull name: " + ri.getDetails().getFullname());
-			out.println("\tEmail    : " + ri.getDetails().getEmail());
-			try {
-				auth.importUser(getGlobusUserName(ri), ri);
-				success++;
-			} catch (UserExistsException | IllegalParameterException | IdentityLinkedException |
-					AuthStorageException e) {
-				printError("\tError for user " + user, e, a);
+			for (final Entry<String, String[]> nu: nexusUsers.entrySet()) {
+				final String user = nu.getKey();
+				final Map<String, String> id = identities.get(toGlobusUserName(user));
+				if (id == null) {
+					err.println("\tNo identity returned from Globus OAuth2 API for user " + user);
+					fail(user, "Globus OAuth2: no identity returned");
+					continue;
+				}
+				final RemoteIdentity ri = toGlobusRemoteIdentity(
+						id, nu.getValue()[0], nu.getValue()[1]);
+				try {
+					auth.importUser(getGlobusUserName(ri), ri);
+				} catch (UserExistsException | IllegalParameterException |
+						IdentityLinkedException | AuthStorageException e) {
+					printError("\tError for user " + user, e, a);
+					fail(user, e.getMessage());
+					continue;
+				}
+				imported.incrementAndGet();
+				printImported(user, ri);
+				recordCompleted(user);
+			}
+		}
+		
+		private void fail(final String user, final String reason) {
+			failures.put(user, reason);
+		}
+		
+		private void printImported(final String user, final RemoteIdentity ri) {
+			// keep the lines for a user together when importing concurrently
+			synchronized (out) {
+				out.println("Imported user " + user);
+				out.println("\tID       : " + ri.getRemoteID().getProviderIdentityId());
+				out.println("\tUsername : " + ri.getDetails().getUsername());
+				out.println("\tFull name: " + ri.getDetails().getFullname());
+				out.println("\tEmail    : " + ri.getDetails().getEmail());
+			}
+		}
+		
+		private void recordCompleted(final String user) {
+			if (completed == null) {
+				return;
+			}
+			synchronized (completed) {
+				try {
+					completed.write(user);
+					completed.newLine();
+					// flush every user so an interrupted import can be resumed accurately
+					completed.flush();
+				} catch (IOException e) {
+					printError("\tError recording completed user " + user, e, a);
+				}
+			}
+		}
+		
+		private void close() {
+			cli.close();
+			if (completed != null) {
+				try {
+					completed.close();
+				} catch (IOException e) {
+					printError("Error closing completed users file", e, a);
+				}
 			}
 		}
-		final Duration d = Duration.between(now, LocalDateTime.now());
-		out.println(String.format("Imported %s out of %s users from file %s in %s",
-				success, users.size(), p, getDurationString(d)));
-		return 0;
 	}
 
 	private UserName getGlobusUserName(final RemoteIdentity ri)
@@ -349,22 +552,29 @@ public class AuthCLI {
 		return skip;
 	}
 
-	private RemoteIdentity getGlobusV2AuthIdentity(
+	private static String toGlobusUserName(final String nexusUserName) {
+		// Globus user names are case insensitive, so don't rely on the case of the response
+		return (nexusUserName + "@globusid.org").toLowerCase();
+	}
+	
+	// returns the identities keyed by the lower case Globus user name
+	private Map<String, Map<String, String>> getGlobusV2AuthIdentities(
 			final Client cli,
 			final URL globusAPIURL,
 			final String globusOAuthV2Token,
-			final String username,
-			final String nexusFullname,
-			final String nexusEmail) throws IdentityRetrievalException {
-		/* we use the globusV2 OAuth full name & email if it exists, otherwise use Nexus
-		 * we don't check for used / unused status because the nexus user may not exist in globus
+			final Collection<String> nexusUserNames) throws IdentityRetrievalException {
+		/* we don't check for used / unused status because the nexus user may not exist in globus
 		 * Oauth v2. If so a v2 record will be created, but will be marked as unused. If a nexus
 		 * user has used the v2 Oauth a record will already exist corresponding to the nexus
 		 * account.
 		 */
+		final List<String> usernames = new LinkedList<>();
+		for (final String u: nexusUserNames) {
+			usernames.add(u + "@globusid.org");
+		}
 		final URI idtarget = UriBuilder.fromUri(toURI(globusAPIURL))
 				.path(GLOBUS_IDENTITES_PATH)
-				.queryParam("usernames", username)
+				.queryParam("usernames", String.join(",", usernames))
 				.build();
 						
 		final Map<String, Object> ret = globusOAuthV2GetRequest(
@@ -372,7 +582,18 @@ public class AuthCLI {
 		@SuppressWarnings("unchecked")
 		final List<Map<String, String>> sids =
 				(List<Map<String, String>>) ret.get("identities");
-		final Map<String, String> id = sids.get(0);
+		final Map<String, Map<String, String>> ids = new HashMap<>();
+		for (final Map<String, String> id: sids) {
+			ids.put(((String) id.get("username")).toLowerCase(), id);
+		}
+		return ids;
+	}
+	
+	private RemoteIdentity toGlobusRemoteIdentity(
+			final Map<String, String> id,
+			final String nexusFullname,
+			final String nexusEmail) {
+		// we use the globusV2 OAuth full name & email if it exists, otherwise use Nexus
 		final String uid = (String) id.get("id");
 		final String glusername = (String) id.get("username");
 		final String name = (String) id.get("name");
@@ -496,9 +717,12 @@ public class AuthCLI {
 			final String msg,
 			final Throwable e,
 			final Args a) {
-		err.println(msg + ": " + e.getMessage());
-		if (a.verbose) {
-			e.printStackTrace(err);
+		// keep stack traces together when importing concurrently
+		synchronized (err) {
+			err.println(msg + ": " + e.getMessage());
+			if (a.verbose) {
+				e.printStackTrace(err);
+			}
 		}
 	}
 
@@ -539,5 +763,25 @@ public class AuthCLI {
 				"-n option, and a OAuth2 Globus token in the -g option. " +
 				"Globus must be configured as an identity provider in the deploy.cfg file.")
 		private String globus_users;
+		
+		@Parameter(names = {"--import-threads"}, description =
+				"The number of batches of users to import concurrently when importing users.")
+		private int importThreads = 4;
+		
+		@Parameter(names = {"--import-batch-size"}, description =
+				"The number of users to retrieve from the Globus OAuth2 API in each request " +
+				"when importing users.")
+		private int importBatchSize = 50;
+		
+		@Parameter(names = {"--import-rate"}, description =
+				"The maximum number of requests per second to send to Globus when importing " +
+				"users. 0 for no limit.")
+		private int importRate = 0;
+		
+		@Parameter(names = {"--import-completed-file"}, description =
+				"A file in which to record the names of successfully imported users. Users " +
+				"already listed in the file are skipped, so an interrupted or partially failed " +
+				"import can be resumed by running it again with the same file.")
+		private String importCompleted;
 	}
 }
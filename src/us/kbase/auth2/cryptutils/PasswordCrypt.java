@@ -9,7 +9,9 @@ import javax.crypto.spec.PBEKeySpec;
 
 /** Generates and checks salted passwords.
  * 
- * PBKDF2WithHmacSHA256 with 20000 iterations is used for encrypting passwords.
+ * By default, PBKDF2WithHmacSHA256 with 20000 iterations is used for encrypting passwords. Other
+ * parameters may be provided, and {@link #calibrate(String, int, int)} chooses the number of
+ * iterations for a target hashing time on the current machine.
  * SHA1PRNG is used with the SecureRandom class for generating salts.
  * 
  * The code is slightly modified from
@@ -20,27 +22,88 @@ import javax.crypto.spec.PBEKeySpec;
  */
 public class PasswordCrypt {
 	
-	// PBKDF2 with SHA-256 as the hashing algorithm.
-	private static final String CRYPTALG = "PBKDF2WithHmacSHA256";
-	// sha256 will make 256 byte keys, surprisingly
-	private static final int DERIVED_KEY_LENGTH = 256;
 	/* The NIST recommends at least 1,000 iterations:
 	 * http://csrc.nist.gov/publications/nistpubs/800-132/nist-sp800-132.pdf
 	 * iOS 4.x reportedly uses 10,000:
 	 * http://blog.crackpassword.com/2010/09/smartphone-forensics-cracking-blackberry-backup-passwords/
+	 * Calibration never chooses fewer iterations than the original parameters.
 	 */
-	private static final int ITERATIONS = 20000;
+	private static final int MIN_CALIBRATED_ITERATIONS =
+			PasswordHashParameters.ORIGINAL.getIterations();
+	private static final int CALIBRATION_ITERATIONS = 10000;
+	private static final int CALIBRATION_ROUNDS = 5;
 	
-	/** Create a new password crypt instance.
+	private final PasswordHashParameters parameters;
+	
+	/** Create a new password crypt instance that encrypts passwords with
+	 * {@link PasswordHashParameters#ORIGINAL}.
 	 * @throws NoSuchAlgorithmException if one of the required cryptography algorithms is not
 	 * available.
 	 */
 	public PasswordCrypt() throws NoSuchAlgorithmException {
+		this(PasswordHashParameters.ORIGINAL);
+	}
+	
+	/** Create a new password crypt instance.
+	 * @param parameters the parameters with which to encrypt passwords.
+	 * @throws NoSuchAlgorithmException if the algorithm in the parameters is not available.
+	 */
+	public PasswordCrypt(final PasswordHashParameters parameters)
+			throws NoSuchAlgorithmException {
+		if (parameters == null) {
+			throw new NullPointerException("parameters");
+		}
 		// not clear if this is thread safe. Doesn't explicitly say so.
-		SecretKeyFactory.getInstance(CRYPTALG); // fail early
+		SecretKeyFactory.getInstance(parameters.getAlgorithm()); // fail early
+		this.parameters = parameters;
 	}
 	
-	/** Checks a password matches an encrypted password.
+	/** Choose parameters such that hashing a password takes approximately the target time on the
+	 * current machine. The number of iterations is rounded up to the nearest thousand and is
+	 * never less than the number of iterations in {@link PasswordHashParameters#ORIGINAL}.
+	 * 
+	 * Calibration takes a few tens of milliseconds and should be performed once at startup.
+	 * @param algorithm the name of the key derivation algorithm.
+	 * @param keyLength the length of the derived key in bits.
+	 * @param targetMillis the target time in milliseconds to hash a password.
+	 * @return the calibrated parameters.
+	 * @throws NoSuchAlgorithmException if the algorithm is not available.
+	 */
+	public static PasswordHashParameters calibrate(
+			final String algorithm,
+			final int keyLength,
+			final int targetMillis)
+			throws NoSuchAlgorithmException {
+		if (targetMillis < 1) {
+			throw new IllegalArgumentException("targetMillis must be at least 1");
+		}
+		final PasswordHashParameters sample = new PasswordHashParameters(
+				algorithm, CALIBRATION_ITERATIONS, keyLength);
+		final PasswordCrypt pc = new PasswordCrypt(sample);
+		final char[] pwd = "calibration password".toCharArray();
+		final byte[] salt = new byte[] {1, 2, 3, 4, 5, 6, 7, 8};
+		pc.getEncryptedPassword(pwd, salt); // warm up
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < CALIBRATION_ROUNDS; i++) {
+			final long start = System.nanoTime();
+			pc.getEncryptedPassword(pwd, salt);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		final double iterationsPerMilli = CALIBRATION_ITERATIONS * 1000000.0 / Math.max(best, 1);
+		final long iterations = Math.min(Integer.MAX_VALUE - 1000,
+				(long) Math.ceil(iterationsPerMilli * targetMillis / 1000) * 1000);
+		return new PasswordHashParameters(algorithm,
+				(int) Math.max(MIN_CALIBRATED_ITERATIONS, iterations), keyLength);
+	}
+	
+	/** Get the parameters with which this instance encrypts passwords.
+	 * @return the parameters.
+	 */
+	public PasswordHashParameters getParameters() {
+		return parameters;
+	}
+	
+	/** Checks a password matches a password encrypted with this instance's parameters.
 	 * @param attemptedPassword the password.
 	 * @param encryptedPassword the password encrypted by this module.
 	 * @param salt the salt used to encrypt the password.
@@ -50,9 +113,25 @@ public class PasswordCrypt {
 			final char[] attemptedPassword,
 			final byte[] encryptedPassword,
 			final byte[] salt) {
-		// Encrypt the clear-text password using the same salt that was used to
+		return authenticate(attemptedPassword, encryptedPassword, salt, parameters);
+	}
+	
+	/** Checks a password matches an encrypted password.
+	 * @param attemptedPassword the password.
+	 * @param encryptedPassword the password encrypted by this module.
+	 * @param salt the salt used to encrypt the password.
+	 * @param parameters the parameters used to encrypt the password.
+	 * @return true if the password matches the encrypted password, false otherwise.
+	 */
+	public boolean authenticate(
+			final char[] attemptedPassword,
+			final byte[] encryptedPassword,
+			final byte[] salt,
+			final PasswordHashParameters parameters) {
+		// Encrypt the clear-text password using the same salt and parameters that were used to
 		// encrypt the original password
-		byte[] encryptedAttemptedPassword = getEncryptedPassword(attemptedPassword, salt);
+		byte[] encryptedAttemptedPassword = getEncryptedPassword(
+				attemptedPassword, salt, parameters);
 
 		// Authentication succeeds if encrypted password that the user entered
 		// is equal to the stored hash
@@ -82,12 +161,25 @@ public class PasswordCrypt {
 		return eq;
 	}
 
-	/** Encrypt a password.
+	/** Encrypt a password with this instance's parameters.
 	 * @param password the password to encrypt.
 	 * @param salt the salt with which to encrypt the password.
 	 * @return the encrypted password.
 	 */
 	public byte[] getEncryptedPassword(char[] password, byte[] salt) {
+		return getEncryptedPassword(password, salt, parameters);
+	}
+	
+	/** Encrypt a password.
+	 * @param password the password to encrypt.
+	 * @param salt the salt with which to encrypt the password.
+	 * @param parameters the parameters with which to encrypt the password.
+	 * @return the encrypted password.
+	 */
+	public byte[] getEncryptedPassword(
+			final char[] password,
+			final byte[] salt,
+			final PasswordHashParameters parameters) {
 		if (password == null || salt == null) {
 			throw new NullPointerException("password and salt cannot be null");
 		}
@@ -97,14 +189,20 @@ public class PasswordCrypt {
 		if (salt.length < 1) {
 			throw new IllegalArgumentException("salt must be at least 1 byte");
 		}
-		final KeySpec spec = new PBEKeySpec(password, salt, ITERATIONS, DERIVED_KEY_LENGTH);
+		if (parameters == null) {
+			throw new NullPointerException("parameters");
+		}
+		final KeySpec spec = new PBEKeySpec(password, salt, parameters.getIterations(),
+				parameters.getKeyLength());
 		try {
-			return SecretKeyFactory.getInstance(CRYPTALG).generateSecret(spec).getEncoded();
+			return SecretKeyFactory.getInstance(parameters.getAlgorithm())
+					.generateSecret(spec).getEncoded();
 		} catch (InvalidKeySpecException e) {
 			throw new RuntimeException("This should never happen", e);
 		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException(
-					"checked alg existed at startup, now it doesn't. That's annoying", e);
+			// stored parameters may name an algorithm that is unavailable on this machine
+			throw new IllegalStateException(
+					"Password hash algorithm is not available: " + parameters.getAlgorithm(), e);
 		}
 	}
 }
@@ -0,0 +1,128 @@
+package us.kbase.auth2.cryptutils;
+
+/** The parameters with which a password is hashed. The parameters are stored with each password
+ * hash, so that the parameters for new hashes can change without invalidating existing hashes.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class PasswordHashParameters {
+
+	/** PBKDF2 with SHA-256 as the hashing algorithm. */
+	public static final String PBKDF2_SHA256 = "PBKDF2WithHmacSHA256";
+
+	/** The parameters used for all password hashes created before the parameters were stored
+	 * with the hash.
+	 */
+	public static final PasswordHashParameters ORIGINAL =
+			new PasswordHashParameters(PBKDF2_SHA256, 20000, 256);
+
+	private final String algorithm;
+	private final int iterations;
+	private final int keyLength;
+
+	/** Create password hash parameters.
+	 * @param algorithm the name of the key derivation algorithm, as provided to
+	 * {@link javax.crypto.SecretKeyFactory#getInstance(String)}.
+	 * @param iterations the number of iterations of the algorithm.
+	 * @param keyLength the length of the derived key in bits.
+	 */
+	public PasswordHashParameters(
+			final String algorithm,
+			final int iterations,
+			final int keyLength) {
+		if (algorithm == null || algorithm.trim().isEmpty()) {
+			throw new IllegalArgumentException("algorithm cannot be null or empty");
+		}
+		if (iterations < 1) {
+			throw new IllegalArgumentException("iterations must be at least 1");
+		}
+		if (keyLength < 8 || keyLength % 8 != 0) {
+			throw new IllegalArgumentException("keyLength must be a positive multiple of 8");
+		}
+		this.algorithm = algorithm;
+		this.iterations = iterations;
+		this.keyLength = keyLength;
+	}
+
+	/** Get the name of the key derivation algorithm.
+	 * @return the algorithm.
+	 */
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	/** Get the number of iterations of the algorithm.
+	 * @return the number of iterations.
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	/** Get the length of the derived key in bits.
+	 * @return the key length.
+	 */
+	public int getKeyLength() {
+		return keyLength;
+	}
+
+	/** Check whether a hash made with these parameters should be replaced by a hash made with
+	 * other parameters. This is the case if the algorithm or key length differ, or if the other
+	 * parameters use more iterations.
+	 *
+	 * Hashes are never replaced with hashes that use fewer iterations, so that servers with
+	 * different parameters sharing the same hashes do not repeatedly replace each other's hashes.
+	 * @param other the other parameters.
+	 * @return true if a hash made with these parameters should be replaced.
+	 */
+	public boolean isWeakerThan(final PasswordHashParameters other) {
+		if (other == null) {
+			throw new NullPointerException("other");
+		}
+		return !algorithm.equals(other.algorithm) || keyLength != other.keyLength ||
+				iterations < other.iterations;
+	}
+
+	@Override
+	public String toString() {
+		return "PasswordHashParameters [algorithm=" + algorithm + ", iterations=" + iterations +
+				", keyLength=" + keyLength + "]";
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((algorithm == null) ? 0 : algorithm.hashCode());
+		result = prime * result + iterations;
+		result = prime * result + keyLength;
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		PasswordHashParameters other = (PasswordHashParameters) obj;
+		if (algorithm == null) {
+			if (other.algorithm != null) {
+				return false;
+			}
+		} else if (!algorithm.equals(other.algorithm)) {
+			return false;
+		}
+		if (iterations != other.iterations) {
+			return false;
+		}
+		if (keyLength != other.keyLength) {
+			return false;
+		}
+		return true;
+	}
+}
@@ -4,11 +4,12 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.UUID;
 
-import org.apache.commons.codec.binary.Base32;
 
-
-/** Generates salts, tokens and temporary passwords randomly using the SHA1PRNG algorithm, and
- * UUIDs with the UUID.randomUUID() method.
+/** Generates salts, tokens, temporary passwords, and UUIDs randomly using the SHA1PRNG algorithm.
+ *
+ * Each thread uses its own SecureRandom instance, so that threads generating data concurrently
+ * don't contend for a shared instance. Each instance seeds itself from the system's entropy
+ * source on first use.
  * @author gaprice@lbl.gov
  *
  */
@@ -18,10 +19,22 @@ public class SHA1RandomDataGenerator implements RandomDataGenerator {
 			"abcdefghijkmnpqrstuvwxyzABCDEFGHJKLMNPQRSTUVWXYZ23456789+!@$%&*"
 			.toCharArray();
 	
+	private static final char[] BASE32_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ234567".toCharArray();
+	
 	// Inspiration from http://stackoverflow.com/a/41156/643675
 	
-	// note SecureRandom is thread safe
-	private final SecureRandom random;
+	private static final String ALGORITHM = "SHA1PRNG";
+	
+	/* SecureRandom is thread safe, but its methods are synchronized, and so a single instance
+	 * serializes all the threads using it.
+	 */
+	private final ThreadLocal<SecureRandom> random = ThreadLocal.withInitial(() -> {
+		try {
+			return SecureRandom.getInstance(ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("This should be impossible", e); // checked in constructor
+		}
+	});
 	
 	/** Create a random data generator.
 	 * @throws NoSuchAlgorithmException if a required algorithm is missing.
@@ -29,14 +42,33 @@ public class SHA1RandomDataGenerator implements RandomDataGenerator {
 	public SHA1RandomDataGenerator() throws NoSuchAlgorithmException {
 		// sha1 is ok for generating random bits:
 		// http://nvlpubs.nist.gov/nistpubs/SpecialPublications/NIST.SP.800-131Ar1.pdf
-		random = SecureRandom.getInstance("SHA1PRNG");
+		SecureRandom.getInstance(ALGORITHM); // fail early
 	}
 	
 	@Override
 	public String getToken() {
 		final byte[] b = new byte[20]; //160 bits so 32 b32 chars
-		random.nextBytes(b);
-		return new Base32().encodeAsString(b);
+		random.get().nextBytes(b);
+		return base32(b);
+	}
+	
+	/* RFC 4648 Base32 encoding. Encodes directly into the output characters rather than
+	 * creating a codec for each token. The input length must be a multiple of 5 bytes, and so
+	 * padding is never needed.
+	 */
+	private static String base32(final byte[] b) {
+		final char[] out = new char[b.length / 5 * 8];
+		int o = 0;
+		for (int i = 0; i < b.length; i += 5) {
+			long bits = 0;
+			for (int j = 0; j < 5; j++) {
+				bits = (bits << 8) | (b[i + j] & 0xff);
+			}
+			for (int j = 7; j >= 0; j--) {
+				out[o++] = BASE32_CHARS[(int) (bits >>> (j * 5)) & 0x1f];
+			}
+		}
+		return new String(out);
 	}
 	
 	@Override
@@ -44,9 +76,10 @@ public class SHA1RandomDataGenerator implements RandomDataGenerator {
 		if (length < 8) {
 			throw new IllegalArgumentException("length must be > 7");
 		}
+		final SecureRandom r = random.get();
 		final char[] pwd = new char[length];
 		for (int i = 0; i < length; i++) {
-			final int index = (int) (random.nextDouble() * PWD_ALLOWED_CHARS.length);
+			final int index = (int) (r.nextDouble() * PWD_ALLOWED_CHARS.length);
 			pwd[i] = PWD_ALLOWED_CHARS[index];
 		}
 		return pwd;
@@ -56,12 +89,25 @@ public class SHA1RandomDataGenerator implements RandomDataGenerator {
 	public byte[] generateSalt() {
 		// Generate a 8 byte (64 bit) salt as recommended by RSA PKCS5
 		final byte[] salt = new byte[8];
-		random.nextBytes(salt);
+		random.get().nextBytes(salt);
 		return salt;
 	}
 	
+	/* Equivalent to UUID.randomUUID(), which uses a single SecureRandom instance for the entire
+	 * JVM.
+	 */
 	@Override
 	public UUID randomUUID() {
-		return UUID.randomUUID();
+		final byte[] b = new byte[16];
+		random.get().nextBytes(b);
+		b[6] = (byte) ((b[6] & 0x0f) | 0x40); // version 4
+		b[8] = (byte) ((b[8] & 0x3f) | 0x80); // IETF variant
+		long msb = 0;
+		long lsb = 0;
+		for (int i = 0; i < 8; i++) {
+			msb = (msb << 8) | (b[i] & 0xff);
+			lsb = (lsb << 8) | (b[i + 8] & 0xff);
+		}
+		return new UUID(msb, lsb);
 	}
 }
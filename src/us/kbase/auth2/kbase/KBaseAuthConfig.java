@@ -6,6 +6,7 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -19,6 +20,7 @@ import com.google.common.base.Optional;
 
 import us.kbase.auth2.lib.identity.IdentityProviderConfig;
 import us.kbase.auth2.lib.identity.IdentityProviderConfig.IdentityProviderConfigurationException;
+import us.kbase.auth2.lib.token.TokenSigner;
 import us.kbase.auth2.service.AuthStartupConfig;
 import us.kbase.auth2.service.SLF4JAutoLogger;
 import us.kbase.auth2.service.exceptions.AuthConfigurationException;
@@ -40,7 +42,24 @@ public class KBaseAuthConfig implements AuthStartupConfig {
 	private static final String KEY_MONGO_DB = "mongo-db";
 	private static final String KEY_MONGO_USER = "mongo-user";
 	private static final String KEY_MONGO_PWD = "mongo-pwd";
+	private static final String KEY_MONGO_TOKEN_READ_PREF = "mongo-token-read-preference";
 	private static final String KEY_COOKIE_NAME = "token-cookie-name";
+	private static final String KEY_TOKEN_CACHE_SIZE = "token-cache-size";
+	private static final String KEY_TOKEN_CACHE_TTL = "token-cache-ttl-sec";
+	private static final String KEY_USER_CACHE_SIZE = "user-cache-size";
+	private static final String KEY_USER_CACHE_TTL = "user-cache-ttl-sec";
+	private static final String KEY_DISPLAY_NAME_CACHE_SIZE = "display-name-cache-size";
+	private static final String KEY_TOKEN_FILTER_REBUILD = "token-filter-rebuild-sec";
+	private static final String KEY_USER_SEARCH_INDEX = "user-search-index";
+	private static final String KEY_TOKEN_SIGNING_KEY = "token-signing-key";
+	private static final String KEY_PWD_HASH_ITERATIONS = "password-hash-iterations";
+	private static final String KEY_PWD_HASH_TARGET = "password-hash-target-ms";
+	private static final String KEY_LOGIN_THROTTLE_USER = "login-throttle-user-failures";
+	private static final String KEY_LOGIN_THROTTLE_ADDRESS = "login-throttle-ip-failures";
+	private static final String KEY_LOGIN_THROTTLE_MAX_DELAY = "login-throttle-max-delay-sec";
+	private static final String KEY_UA_PARSERS = "user-agent-parsers";
+	private static final String KEY_UA_CACHE_SIZE = "user-agent-cache-size";
+	private static final String KEY_USER_UPDATE_FLUSH = "user-update-flush-ms";
 	private static final String KEY_ID_PROV = "identity-providers";
 	private static final String KEY_PREFIX_ID_PROVS = "identity-provider-";
 	private static final String KEY_SUFFIX_ID_PROVS_FACTORY = "-factory";
@@ -60,7 +79,24 @@ public class KBaseAuthConfig implements AuthStartupConfig {
 	private final String mongoDB;
 	private final Optional<String> mongoUser;
 	private final Optional<char[]> mongoPwd;
+	private final Optional<String> mongoTokenReadPref;
 	private final String cookieName;
+	private final int tokenCacheSize;
+	private final int tokenCacheTTLSec;
+	private final int userCacheSize;
+	private final int userCacheTTLSec;
+	private final int displayNameCacheSize;
+	private final int tokenFilterRebuildSec;
+	private final boolean userSearchIndex;
+	private final Optional<byte[]> tokenSigningKey;
+	private final int pwdHashIterations;
+	private final int pwdHashTargetMS;
+	private final int loginThrottleUserFailures;
+	private final int loginThrottleAddressFailures;
+	private final int loginThrottleMaxDelaySec;
+	private final int userAgentParsers;
+	private final int userAgentCacheSize;
+	private final int userUpdateFlushMS;
 	private final Set<IdentityProviderConfig> providers;
 
 	public KBaseAuthConfig() throws AuthConfigurationException {
@@ -95,7 +131,31 @@ public class KBaseAuthConfig implements AuthStartupConfig {
 			mongoPwd = mongop.isPresent() ?
 					Optional.of(mongop.get().toCharArray()) : Optional.absent();
 			mongop = null; //GC
+			mongoTokenReadPref = Optional.fromNullable(
+					getString(KEY_MONGO_TOKEN_READ_PREF, cfg));
 			cookieName = getString(KEY_COOKIE_NAME, cfg, true);
+			tokenCacheSize = getNonNegativeInt(KEY_TOKEN_CACHE_SIZE, cfg, 0);
+			tokenCacheTTLSec = getNonNegativeInt(KEY_TOKEN_CACHE_TTL, cfg, 0);
+			userCacheSize = getNonNegativeInt(KEY_USER_CACHE_SIZE, cfg, 0);
+			userCacheTTLSec = getNonNegativeInt(KEY_USER_CACHE_TTL, cfg, 0);
+			displayNameCacheSize = getNonNegativeInt(KEY_DISPLAY_NAME_CACHE_SIZE, cfg, 0);
+			tokenFilterRebuildSec = getNonNegativeInt(KEY_TOKEN_FILTER_REBUILD, cfg, 0);
+			userSearchIndex = getBoolean(KEY_USER_SEARCH_INDEX, cfg);
+			tokenSigningKey = getTokenSigningKey(cfg);
+			pwdHashIterations = getNonNegativeInt(KEY_PWD_HASH_ITERATIONS, cfg, 0);
+			pwdHashTargetMS = getNonNegativeInt(KEY_PWD_HASH_TARGET, cfg, 0);
+			if (pwdHashIterations > 0 && pwdHashTargetMS > 0) {
+				throw new AuthConfigurationException(String.format(
+						"At most one of the %s and %s params may be provided in config file " +
+						"%s section %s", KEY_PWD_HASH_ITERATIONS, KEY_PWD_HASH_TARGET,
+						cfg.get(TEMP_KEY_CFG_FILE), CFG_LOC));
+			}
+			loginThrottleUserFailures = getNonNegativeInt(KEY_LOGIN_THROTTLE_USER, cfg, 0);
+			loginThrottleAddressFailures = getNonNegativeInt(KEY_LOGIN_THROTTLE_ADDRESS, cfg, 0);
+			loginThrottleMaxDelaySec = getNonNegativeInt(KEY_LOGIN_THROTTLE_MAX_DELAY, cfg, 0);
+			userAgentParsers = getNonNegativeInt(KEY_UA_PARSERS, cfg, 1);
+			userAgentCacheSize = getNonNegativeInt(KEY_UA_CACHE_SIZE, cfg, 10000);
+			userUpdateFlushMS = getNonNegativeInt(KEY_USER_UPDATE_FLUSH, cfg, 0);
 			providers = getProviders(cfg);
 		} catch (AuthConfigurationException e) {
 			if (!nullLogger) {
@@ -230,6 +290,67 @@ public class KBaseAuthConfig implements AuthStartupConfig {
 		}
 	}
 
+	private Optional<byte[]> getTokenSigningKey(final Map<String, String> config)
+			throws AuthConfigurationException {
+		final String key = getString(KEY_TOKEN_SIGNING_KEY, config);
+		if (key == null) {
+			return Optional.absent();
+		}
+		final String err = String.format(
+				"Parameter %s in configuration file %s, section %s, must be a Base64 encoded " +
+				"key of at least %s bytes", KEY_TOKEN_SIGNING_KEY,
+				config.get(TEMP_KEY_CFG_FILE), CFG_LOC, TokenSigner.MIN_KEY_LENGTH);
+		final byte[] k;
+		try {
+			k = Base64.getDecoder().decode(key);
+		} catch (IllegalArgumentException e) {
+			throw new AuthConfigurationException(err);
+		}
+		if (k.length < TokenSigner.MIN_KEY_LENGTH) {
+			throw new AuthConfigurationException(err);
+		}
+		return Optional.of(k);
+	}
+	
+	// returns the default if no value
+	private int getNonNegativeInt(
+			final String paramName,
+			final Map<String, String> config,
+			final int defaultValue)
+			throws AuthConfigurationException {
+		final String s = getString(paramName, config);
+		if (s == null) {
+			return defaultValue;
+		}
+		final String err = String.format(
+				"Parameter %s in configuration file %s, section %s, must be a " +
+				"non-negative integer", paramName, config.get(TEMP_KEY_CFG_FILE), CFG_LOC);
+		final int i;
+		try {
+			i = Integer.parseInt(s);
+		} catch (NumberFormatException e) {
+			throw new AuthConfigurationException(err);
+		}
+		if (i < 0) {
+			throw new AuthConfigurationException(err);
+		}
+		return i;
+	}
+
+	private boolean getBoolean(final String paramName, final Map<String, String> config)
+			throws AuthConfigurationException {
+		final String s = getString(paramName, config);
+		if (s == null) {
+			return false;
+		}
+		if (!s.equals("true") && !s.equals("false")) {
+			throw new AuthConfigurationException(String.format(
+					"Parameter %s in configuration file %s, section %s, must be true or false",
+					paramName, config.get(TEMP_KEY_CFG_FILE), CFG_LOC));
+		}
+		return s.equals("true");
+	}
+
 	private static Path getConfigPathFromEnv()
 			throws AuthConfigurationException {
 		final String file = System.getProperty(KB_DEP) == null ?
@@ -292,8 +413,93 @@ public class KBaseAuthConfig implements AuthStartupConfig {
 		return mongoPwd;
 	}
 	
+	@Override
+	public Optional<String> getMongoTokenReadPreference() {
+		return mongoTokenReadPref;
+	}
+	
 	@Override
 	public String getTokenCookieName() {
 		return cookieName;
 	}
+
+	@Override
+	public int getTokenCacheSize() {
+		return tokenCacheSize;
+	}
+	
+	@Override
+	public int getTokenCacheTimeToLiveSec() {
+		return tokenCacheTTLSec;
+	}
+	
+	@Override
+	public int getUserCacheSize() {
+		return userCacheSize;
+	}
+	
+	@Override
+	public int getUserCacheTimeToLiveSec() {
+		return userCacheTTLSec;
+	}
+	
+	@Override
+	public int getDisplayNameCacheSize() {
+		return displayNameCacheSize;
+	}
+	
+	@Override
+	public int getTokenFilterRebuildIntervalSec() {
+		return tokenFilterRebuildSec;
+	}
+	
+	@Override
+	public boolean isUserSearchIndexEnabled() {
+		return userSearchIndex;
+	}
+	
+	@Override
+	public Optional<byte[]> getTokenSigningKey() {
+		return tokenSigningKey;
+	}
+	
+	@Override
+	public int getPasswordHashIterations() {
+		return pwdHashIterations;
+	}
+	
+	@Override
+	public int getPasswordHashTargetMillis() {
+		return pwdHashTargetMS;
+	}
+	
+	@Override
+	public int getLoginThrottleUserFailures() {
+		return loginThrottleUserFailures;
+	}
+	
+	@Override
+	public int getLoginThrottleAddressFailures() {
+		return loginThrottleAddressFailures;
+	}
+	
+	@Override
+	public int getLoginThrottleMaxDelaySec() {
+		return loginThrottleMaxDelaySec;
+	}
+	
+	@Override
+	public int getUserAgentParsers() {
+		return userAgentParsers;
+	}
+	
+	@Override
+	public int getUserAgentCacheSize() {
+		return userAgentCacheSize;
+	}
+	
+	@Override
+	public int getUserUpdateFlushIntervalMillis() {
+		return userUpdateFlushMS;
+	}
 }
@@ -6,6 +6,7 @@ import static us.kbase.auth2.lib.Utils.clear;
 import static us.kbase.auth2.lib.Utils.nonNull;
 import static us.kbase.auth2.lib.Utils.noNulls;
 
+import java.net.InetAddress;
 import java.net.URL;
 import java.security.NoSuchAlgorithmException;
 import java.time.Clock;
@@ -23,6 +24,15 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -34,6 +44,7 @@ import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 
 import us.kbase.auth2.cryptutils.PasswordCrypt;
+import us.kbase.auth2.cryptutils.PasswordHashParameters;
 import us.kbase.auth2.cryptutils.RandomDataGenerator;
 import us.kbase.auth2.cryptutils.SHA1RandomDataGenerator;
 import us.kbase.auth2.lib.exceptions.ErrorType;
@@ -61,6 +72,7 @@ import us.kbase.auth2.lib.exceptions.AuthenticationException;
 import us.kbase.auth2.lib.exceptions.DisabledUserException;
 import us.kbase.auth2.lib.exceptions.InvalidTokenException;
 import us.kbase.auth2.lib.exceptions.LinkFailedException;
+import us.kbase.auth2.lib.exceptions.LoginThrottledException;
 import us.kbase.auth2.lib.exceptions.MissingParameterException;
 import us.kbase.auth2.lib.exceptions.NoSuchIdentityException;
 import us.kbase.auth2.lib.exceptions.NoSuchIdentityProviderException;
@@ -69,6 +81,7 @@ import us.kbase.auth2.lib.exceptions.NoSuchRoleException;
 import us.kbase.auth2.lib.exceptions.NoSuchTokenException;
 import us.kbase.auth2.lib.exceptions.NoSuchUserException;
 import us.kbase.auth2.lib.exceptions.PasswordMismatchException;
+import us.kbase.auth2.lib.exceptions.ServiceUnavailableException;
 import us.kbase.auth2.lib.exceptions.IdentityProviderErrorException;
 import us.kbase.auth2.lib.exceptions.UnLinkFailedException;
 import us.kbase.auth2.lib.exceptions.UnauthorizedException;
@@ -79,15 +92,27 @@ import us.kbase.auth2.lib.identity.RemoteIdentityID;
 import us.kbase.auth2.lib.storage.AuthStorage;
 import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
 import us.kbase.auth2.lib.storage.exceptions.StorageInitException;
+import us.kbase.auth2.lib.token.IncomingHashedToken;
 import us.kbase.auth2.lib.token.NewToken;
+import us.kbase.auth2.lib.token.RevokedTokens;
+import us.kbase.auth2.lib.token.SignedToken;
 import us.kbase.auth2.lib.token.StoredToken;
 import us.kbase.auth2.lib.token.TemporaryToken;
+import us.kbase.auth2.lib.token.TokenAndUser;
+import us.kbase.auth2.lib.token.TokenAndUserAuthInfo;
+import us.kbase.auth2.lib.token.TokenAuthInfo;
+import us.kbase.auth2.lib.token.TokenCache;
 import us.kbase.auth2.lib.token.TokenName;
+import us.kbase.auth2.lib.token.TokenRevocation;
+import us.kbase.auth2.lib.token.TokenRevocations;
 import us.kbase.auth2.lib.token.TokenSet;
+import us.kbase.auth2.lib.token.TokenSigner;
 import us.kbase.auth2.lib.token.TokenType;
 import us.kbase.auth2.lib.user.AuthUser;
 import us.kbase.auth2.lib.user.LocalUser;
 import us.kbase.auth2.lib.user.NewUser;
+import us.kbase.auth2.lib.user.UserAuthInfo;
+import us.kbase.auth2.lib.user.UserCache;
 import us.kbase.auth2.lib.token.IncomingToken;
 
 /** The main class for the Authentication application.
@@ -136,7 +161,27 @@ public class Authentication {
 	private static final int LINK_TOKEN_LIFETIME_MS = 10 * 60 * 1000;
 	private static final int LOGIN_TOKEN_LIFETIME_MS = 30 * 60 * 1000;
 	private static final int MAX_RETURNED_USERS = 10000;
+	
+	/** The maximum number of tokens that may be looked up at once. */
+	public static final int MAX_TOKEN_BATCH = 1000;
+	
+	// how often the in memory list of revoked tokens is updated from the storage system
+	private static final int REVOKED_TOKENS_UPDATE_INTERVAL_MS = 5000;
+	// signed tokens are rejected if the revoked token list can't be updated for this long
+	private static final int REVOKED_TOKENS_MAX_AGE_MS = 60000;
+	// the maximum time a request waits for an update of a revoked token list that's too old
+	private static final int REVOKED_TOKENS_MAX_WAIT_MS = 2000;
+	// the overlap between updates, so revocations are not missed due to clock skew
+	private static final int REVOKED_TOKENS_UPDATE_OVERLAP_MS = 60000;
+	private static final int MAX_TOKEN_REVOCATIONS = 1000;
+	/* revocations following a gap in the sequence numbers are withheld for this long, since the
+	 * revocations in the gap may still be in the process of being written
+	 */
+	private static final int TOKEN_REVOCATION_GAP_WAIT_MS = 10000;
 	private static final int TEMP_PWD_LENGTH = 10;
+	// hashing is CPU bound, so more threads than processors only adds contention
+	private static final int PWD_HASH_THREADS = Runtime.getRuntime().availableProcessors();
+	private static final int PWD_HASH_QUEUE_LIMIT = 4 * PWD_HASH_THREADS;
 	
 	private static final UserName DEFAULT_SUGGESTED_USER_NAME;
 	private static final DisplayName UNKNOWN_DISPLAY_NAME;
@@ -161,15 +206,21 @@ public class Authentication {
 			String.CASE_INSENSITIVE_ORDER);
 	private final RandomDataGenerator randGen;
 	private final PasswordCrypt pwdcrypt;
+	private final PasswordHashPool pwdpool;
+	private final LoginThrottle loginThrottle;
 	private final ConfigManager cfg;
 	private final Clock clock;
 	private final ExternalConfig defaultExternalConfig;
+	private final TokenCache tokenCache;
+	private final UserCache userCache;
+	private final Optional<TokenSigner> tokenSigner;
+	private final RevokedTokensManager revokedTokens = new RevokedTokensManager();
 	
 	// note that this value is supposed to be a constant, but is mutable for testing purposes.
 	// do not make it mutable for any other reason.
 	private int cfgUpdateIntervalMillis = 30000;
 	
-	/** Create a new Authentication instance.
+	/** Create a new Authentication instance with all optional features disabled.
 	 * @param storage the storage system to use for information persistance.
 	 * @param identityProviderSet the set of identity providers that are supported for standard
 	 * accounts. E.g. Google, Globus, etc.
@@ -183,9 +234,31 @@ public class Authentication {
 			final Set<IdentityProvider> identityProviderSet,
 			final ExternalConfig defaultExternalConfig)
 			throws StorageInitException {
+		this(storage, identityProviderSet, defaultExternalConfig,
+				AuthenticationOptions.getBuilder().build());
+	}
+	
+	/** Create a new Authentication instance.
+	 * @param storage the storage system to use for information persistance.
+	 * @param identityProviderSet the set of identity providers that are supported for standard
+	 * accounts. E.g. Google, Globus, etc.
+	 * @param defaultExternalConfig the external configuration default settings. Any settings
+	 * that do not already exist in the storage system will be persisted. Pre-existing settings
+	 * are not overwritten.
+	 * @param options the optional caches, token signer, password hash parameters, and login
+	 * throttle for the instance.
+	 * @throws StorageInitException if the storage system cannot be accessed.
+	 */
+	public Authentication(
+			final AuthStorage storage,
+			final Set<IdentityProvider> identityProviderSet,
+			final ExternalConfig defaultExternalConfig,
+			final AuthenticationOptions options)
+			throws StorageInitException {
 		this(storage,
 				identityProviderSet,
 				defaultExternalConfig,
+				options,
 				getDefaultRandomGenerator(),
 				Clock.systemDefaultZone()); // don't care about time zone, not using it
 	}
@@ -203,21 +276,30 @@ public class Authentication {
 			final AuthStorage storage,
 			final Set<IdentityProvider> identityProviderSet,
 			final ExternalConfig defaultExternalConfig,
+			final AuthenticationOptions options,
 			final RandomDataGenerator randGen,
 			final Clock clock)
 			throws StorageInitException {
+		nonNull(storage, "storage");
+		nonNull(identityProviderSet, "identityProviderSet");
+		noNulls(identityProviderSet, "Null identity provider in set");
+		nonNull(defaultExternalConfig, "defaultExternalConfig");
+		nonNull(options, "options");
 		this.clock = clock;
 		this.randGen = randGen;
+		final PasswordHashParameters passwordHashParameters = options.getPasswordHashParameters();
 		try {
-			pwdcrypt = new PasswordCrypt();
+			pwdcrypt = new PasswordCrypt(passwordHashParameters);
 		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException("This should be impossible", e);
+			throw new IllegalArgumentException("Password hash algorithm is not available: " +
+					passwordHashParameters.getAlgorithm(), e);
 		}
-		nonNull(storage, "storage");
-		nonNull(identityProviderSet, "identityProviderSet");
-		noNulls(identityProviderSet, "Null identity provider in set");
-		nonNull(defaultExternalConfig, "defaultExternalConfig");
+		pwdpool = new PasswordHashPool(pwdcrypt, PWD_HASH_THREADS, PWD_HASH_QUEUE_LIMIT);
+		this.loginThrottle = options.getLoginThrottle();
 		this.defaultExternalConfig = defaultExternalConfig;
+		this.tokenCache = options.getTokenCache();
+		this.userCache = options.getUserCache();
+		this.tokenSigner = options.getTokenSigner();
 		this.storage = storage;
 		for (final IdentityProvider idp: identityProviderSet) {
 			nonNull(idp.getProviderName(), "provider name");
@@ -235,65 +317,223 @@ public class Authentication {
 					e.getMessage(), e);
 		}
 		try {
-			cfg = new ConfigManager(storage);
+			cfg = new ConfigManager();
 		} catch (AuthStorageException e) {
 			throw new StorageInitException("Failed to initialize config manager: " +
 					e.getMessage(), e);
 		}
 	}
 	
-	// for test purposes. Resets the next update time to be the previous update + millis.
+	// for test purposes. Changes the update interval, which applies to the current snapshot.
 	@SuppressWarnings("unused")
 	private void setConfigUpdateInterval(int millis) {
-		final Instant prevUpdate = cfg.getNextUpdateTime();
-		final Instant newUpdate = prevUpdate.minusMillis(cfgUpdateIntervalMillis)
-				.plusMillis(millis);
 		cfgUpdateIntervalMillis = millis;
-		cfg.setNextUpdateTime(newUpdate);
 	}
 	
 	/* Caches the configuration to avoid pulling the configuration from the storage system
-	 * on every request. Synchronized to prevent multiple storage accesses for one update.
+	 * on every request. The configuration is held in an immutable snapshot published via a
+	 * volatile field, so reading the configuration never blocks.
+	 * 
+	 * Once the snapshot is older than the update interval, the next request schedules a refresh
+	 * on a background thread and continues with the current snapshot. If the snapshot is older
+	 * than twice the update interval, for example because background refreshes are failing,
+	 * requests refresh the configuration themselves so storage errors are not hidden behind an
+	 * increasingly stale configuration.
 	 */
 	private class ConfigManager {
 	
-		private AuthConfigSet<CollectingExternalConfig> cfg;
-		private Instant nextConfigUpdate;
+		private volatile ConfigSnapshot snapshot;
+		private final AtomicBoolean refreshScheduled = new AtomicBoolean(false);
+		// a single thread that exits when idle, since refreshes are infrequent
+		private final ExecutorService refresher = new ThreadPoolExecutor(
+				0, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+					final Thread t = new Thread(r, "Authentication config refresh");
+					t.setDaemon(true);
+					return t;
+				});
 		
-		public ConfigManager(final AuthStorage storage)
-				throws AuthStorageException {
+		public ConfigManager() throws AuthStorageException {
 			updateConfig();
 		}
 		
-		// for testing purposes.
-		public synchronized Instant getNextUpdateTime() {
-			return nextConfigUpdate;
-		}
-		
-		// for testing purposes.
-		public synchronized void setNextUpdateTime(final Instant time) {
-			nextConfigUpdate = time;
+		public ConfigSnapshot getConfig() throws AuthStorageException {
+			final ConfigSnapshot s = snapshot;
+			final Instant now = Instant.now();
+			if (now.isAfter(s.updateTime.plusMillis(2L * cfgUpdateIntervalMillis))) {
+				return updateConfig(s);
+			}
+			if (now.isAfter(s.updateTime.plusMillis(cfgUpdateIntervalMillis)) &&
+					refreshScheduled.compareAndSet(false, true)) {
+				refresher.execute(() -> refresh(s));
+			}
+			return s;
 		}
 		
-		public synchronized AuthConfigSet<CollectingExternalConfig> getConfig()
-				throws AuthStorageException {
-			if (Instant.now().isAfter(nextConfigUpdate)) {
-				updateConfig();
+		private void refresh(final ConfigSnapshot stale) {
+			try {
+				updateConfig(stale);
+			} catch (AuthStorageException | RuntimeException e) {
+				// requests will try again once the snapshot is old enough
+				LoggerFactory.getLogger(Authentication.class).error(
+						"Failed to refresh the configuration: " + e.getMessage(), e);
+			} finally {
+				refreshScheduled.set(false);
 			}
-			return cfg;
 		}
 		
 		public AuthConfig getAppConfig() throws AuthStorageException {
-			return getConfig().getCfg();
+			return getConfig().getAppConfig();
+		}
+		
+		// updates the configuration unless another thread has already replaced the stale snapshot
+		private synchronized ConfigSnapshot updateConfig(final ConfigSnapshot stale)
+				throws AuthStorageException {
+			if (snapshot != stale) {
+				return snapshot;
+			}
+			return updateConfig();
 		}
 	
-		public synchronized void updateConfig() throws AuthStorageException {
+		public synchronized ConfigSnapshot updateConfig() throws AuthStorageException {
+			final AuthConfigSet<CollectingExternalConfig> cfg;
 			try {
 				cfg = storage.getConfig(new CollectingExternalConfigMapper());
 			} catch (ExternalConfigMappingException e) {
 				throw new RuntimeException("This should be impossible", e);
 			}
-			nextConfigUpdate = Instant.now().plusMillis(cfgUpdateIntervalMillis);
+			snapshot = new ConfigSnapshot(cfg, Instant.now());
+			return snapshot;
+		}
+	}
+	
+	/* An immutable configuration snapshot. The external configuration is mapped at most once
+	 * per snapshot for each mapper class, rather than on every request.
+	 */
+	private static class ConfigSnapshot {
+		
+		private final AuthConfigSet<CollectingExternalConfig> cfg;
+		private final Instant updateTime;
+		private final Map<Class<?>, ExternalConfig> extcfgs = new ConcurrentHashMap<>();
+		
+		private ConfigSnapshot(
+				final AuthConfigSet<CollectingExternalConfig> cfg,
+				final Instant updateTime) {
+			this.cfg = cfg;
+			this.updateTime = updateTime;
+		}
+		
+		private AuthConfig getAppConfig() {
+			return cfg.getCfg();
+		}
+		
+		private <T extends ExternalConfig> T getExternalConfig(final ExternalConfigMapper<T> mapper)
+				throws ExternalConfigMappingException {
+			// a mapper class always maps to the same ExternalConfig class
+			@SuppressWarnings("unchecked")
+			final T cached = (T) extcfgs.get(mapper.getClass());
+			if (cached != null) {
+				return cached;
+			}
+			final T extcfg = mapper.fromMap(cfg.getExtcfg().getMap());
+			if (extcfg != null) {
+				// concurrent requests may both map the config, which is harmless
+				extcfgs.putIfAbsent(mapper.getClass(), extcfg);
+			}
+			return extcfg;
+		}
+	}
+	
+	/* Keeps the in memory revoked token list used to check signed tokens current. Once the list
+	 * is older than the update interval, the next check schedules an update on a background
+	 * thread and continues with the current list, so checks don't query the storage system
+	 * after the list is first loaded. Tokens revoked by another instance are therefore accepted
+	 * by this instance for somewhat longer than the update interval.
+	 * 
+	 * If the list is older than the maximum age, for example because the instance was idle or
+	 * the storage system is unavailable, checks wait briefly for the background update and fail
+	 * if it doesn't succeed, rather than accept tokens that may have been revoked.
+	 */
+	private class RevokedTokensManager {
+		
+		private final RevokedTokens revoked = new RevokedTokens();
+		// the time of the last successful update
+		private volatile Instant lastUpdate = null;
+		private final AtomicBoolean refreshScheduled = new AtomicBoolean(false);
+		// notified when a background update completes or fails
+		private final Object refreshDone = new Object();
+		// a single thread that exits when idle, as for the config manager
+		private final ExecutorService refresher = new ThreadPoolExecutor(
+				0, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+					final Thread t = new Thread(r, "Authentication revoked token refresh");
+					t.setDaemon(true);
+					return t;
+				});
+		
+		public boolean isRevoked(final UUID tokenID) throws AuthStorageException {
+			final Instant last = lastUpdate;
+			if (last == null) {
+				update(); // nothing to check against yet
+			} else {
+				final Instant now = clock.instant();
+				if (!now.isBefore(last.plusMillis(REVOKED_TOKENS_UPDATE_INTERVAL_MS)) &&
+						refreshScheduled.compareAndSet(false, true)) {
+					refresher.execute(this::refresh);
+				}
+				if (isTooOld(now)) {
+					waitForRefresh(now);
+				}
+			}
+			return revoked.isRevoked(tokenID);
+		}
+		
+		private boolean isTooOld(final Instant now) {
+			return now.isAfter(lastUpdate.plusMillis(REVOKED_TOKENS_MAX_AGE_MS));
+		}
+		
+		private void waitForRefresh(final Instant now) throws AuthStorageException {
+			final long end = System.nanoTime() + REVOKED_TOKENS_MAX_WAIT_MS * 1000000L;
+			synchronized (refreshDone) {
+				while (refreshScheduled.get() && isTooOld(now)) {
+					final long waitMS = (end - System.nanoTime()) / 1000000;
+					if (waitMS <= 0) {
+						break;
+					}
+					try {
+						refreshDone.wait(waitMS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
+					}
+				}
+			}
+			if (isTooOld(now)) {
+				throw new AuthStorageException(
+						"The revoked token list could not be updated since " + lastUpdate);
+			}
+		}
+		
+		private void refresh() {
+			try {
+				update();
+			} catch (AuthStorageException | RuntimeException e) {
+				// the next check after the update interval will try again
+				LoggerFactory.getLogger(Authentication.class).error(
+						"Failed to refresh the revoked token list: " + e.getMessage(), e);
+			} finally {
+				synchronized (refreshDone) {
+					refreshScheduled.set(false);
+					refreshDone.notifyAll();
+				}
+			}
+		}
+		
+		public synchronized void update() throws AuthStorageException {
+			final Instant now = clock.instant();
+			final Instant since = lastUpdate == null ? Instant.EPOCH :
+				lastUpdate.minusMillis(REVOKED_TOKENS_UPDATE_OVERLAP_MS);
+			revoked.addAll(storage.getRevokedTokens(since));
+			revoked.removeExpired(now);
+			lastUpdate = now;
 		}
 	}
 	
@@ -371,17 +611,19 @@ public class Authentication {
 			final LocalUser root = LocalUser.getLocalUserBuilder(
 					UserName.ROOT, dn, clock.instant()).build();
 			try {
-				storage.createLocalUser(root, new PasswordHashAndSalt(passwordHash, salt));
+				storage.createLocalUser(root, new PasswordHashAndSalt(
+						passwordHash, salt, pwdcrypt.getParameters()));
 				// only way to avoid a race condition. Checking existence before creating user
 				// means if user is added between check and update update will fail
 				logInfo("created root user");
 			} catch (UserExistsException uee) {
 				try {
-					storage.changePassword(
-							UserName.ROOT, new PasswordHashAndSalt(passwordHash, salt), false);
+					storage.changePassword(UserName.ROOT, new PasswordHashAndSalt(
+							passwordHash, salt, pwdcrypt.getParameters()), false);
 					logInfo("changed root user password");
 					if (storage.getUser(UserName.ROOT).isDisabled()) {
 						storage.enableAccount(UserName.ROOT, UserName.ROOT);
+						userCache.invalidate(UserName.ROOT);
 						logInfo("enabled root user");
 					}
 				} catch (NoSuchUserException nsue) {
@@ -408,6 +650,7 @@ public class Authentication {
 	 * @throws UnauthorizedException if the user for the token is not an admin, the username to
 	 * be created is the root user name, or the token is not a login token.
 	 * @throws InvalidTokenException if the token is invalid.
+	 * @throws ServiceUnavailableException if too many password operations are in progress.
 	 */
 	public Password createLocalUser(
 			final IncomingToken adminToken,
@@ -415,11 +658,11 @@ public class Authentication {
 			final DisplayName displayName,
 			final EmailAddress email)
 			throws AuthStorageException, UserExistsException, UnauthorizedException,
-			InvalidTokenException {
+			InvalidTokenException, ServiceUnavailableException {
 		nonNull(userName, "userName");
 		nonNull(displayName, "displayName");
 		nonNull(email, "email");
-		final AuthUser admin = getUser(adminToken,
+		final UserAuthInfo admin = getUserAuthInfo(adminToken,
 				new OpReqs("create local user {}", userName.getName())
 						.types(TokenType.LOGIN).roles(Role.ROOT, Role.CREATE_ADMIN, Role.ADMIN));
 		if (userName.isRoot()) {
@@ -435,11 +678,12 @@ public class Authentication {
 			pwd = new Password(randGen.getTemporaryPassword(TEMP_PWD_LENGTH));
 			salt = randGen.generateSalt();
 			pwd_copy = pwd.getPassword();
-			passwordHash = pwdcrypt.getEncryptedPassword(pwd_copy, salt);
+			passwordHash = pwdpool.getEncryptedPassword(pwd_copy, salt);
 			final LocalUser lu = LocalUser.getLocalUserBuilder(
 					userName, displayName, clock.instant())
 					.withEmailAddress(email).withForceReset(true).build();
-			storage.createLocalUser(lu, new PasswordHashAndSalt(passwordHash, salt));
+			storage.createLocalUser(lu, new PasswordHashAndSalt(
+					passwordHash, salt, pwdpool.getParameters()));
 			logInfo("Local user {} created by admin {}",
 					userName.getName(), admin.getUserName().getName());
 		} catch (NoSuchRoleException e) {
@@ -472,15 +716,18 @@ public class Authentication {
 	 * @throws PasswordMismatchException if the username and password do not match.
 	 * @throws DisabledUserException if the user is disabled.
 	 * @throws UnauthorizedException if the user is not an admin and non-admin login is disabled.
+	 * @throws ServiceUnavailableException if too many password operations are in progress.
+	 * @throws LoginThrottledException if there have been too many recent failed logins for the
+	 * user or from the address in the token context.
 	 */
 	public LocalLoginResult localLogin(
 			final UserName userName,
 			final Password password,
 			final TokenCreationContext tokenCtx)
 			throws AuthStorageException, PasswordMismatchException, DisabledUserException,
-				UnauthorizedException {
+				UnauthorizedException, ServiceUnavailableException, LoginThrottledException {
 		nonNull(tokenCtx, "tokenCtx");
-		final LocalUser u = getLocalUser(userName, password);
+		final LocalUser u = getLocalUser(userName, password, tokenCtx.getIpAddress(), true);
 		if (u.isPwdResetRequired()) {
 			logInfo("Local user {} log in attempt. Password reset is required",
 					userName.getName());
@@ -489,9 +736,16 @@ public class Authentication {
 		return new LocalLoginResult(login(u.getUserName(), tokenCtx));
 	}
 
-	private LocalUser getLocalUser(final UserName userName, final Password password)
+	/* ipAddress is the address of the client, if known, for throttling failed logins.
+	 * if rehash is true, rehashes the password if the stored hash's parameters are outdated
+	 */
+	private LocalUser getLocalUser(
+			final UserName userName,
+			final Password password,
+			final Optional<InetAddress> ipAddress,
+			final boolean rehash)
 			throws AuthStorageException, PasswordMismatchException, DisabledUserException,
-				UnauthorizedException {
+				UnauthorizedException, ServiceUnavailableException, LoginThrottledException {
 		nonNull(password, "password");
 		final char[] pwd_copy = password.getPassword(); // no way to test this is cleared
 		password.clear();
@@ -499,17 +753,20 @@ public class Authentication {
 		PasswordHashAndSalt creds = null;
 		try {
 			nonNull(userName, "userName");
+			loginThrottle.check(userName, ipAddress); // before the expensive password hash
 			try {
 				creds = storage.getPasswordHashAndSalt(userName);
-				if (!pwdcrypt.authenticate(pwd_copy, creds.getPasswordHash(), creds.getSalt())) {
+				if (!pwdpool.authenticate(pwd_copy, creds.getPasswordHash(), creds.getSalt(),
+						creds.getParameters())) {
+					loginThrottle.recordFailure(userName, ipAddress);
 					throw new PasswordMismatchException(userName.getName());
 				}
-				Password.clearPasswordArray(pwd_copy);
-				creds.clear();
 				u = storage.getLocalUser(userName);
 			} catch (NoSuchLocalUserException e) {
+				loginThrottle.recordFailure(userName, ipAddress);
 				throw new PasswordMismatchException(userName.getName());
 			}
+			loginThrottle.recordSuccess(userName);
 			if (!cfg.getAppConfig().isLoginAllowed() && !Role.isAdmin(u.getRoles())) {
 				throw new UnauthorizedException("User " + userName.getName() +
 						" cannot log in because non-admin login is disabled");
@@ -517,6 +774,9 @@ public class Authentication {
 			if (u.isDisabled()) {
 				throw new DisabledUserException(userName.getName());
 			}
+			if (rehash && creds.getParameters().isWeakerThan(pwdpool.getParameters())) {
+				rehashPassword(userName, pwd_copy, creds);
+			}
 		} finally {
 			Password.clearPasswordArray(pwd_copy);
 			if (creds != null) {
@@ -526,6 +786,31 @@ public class Authentication {
 		return u;
 	}
 
+	/* Replaces a password hash made with outdated parameters. The password has already been
+	 * verified, so failures are logged and the login proceeds; the next login will try again.
+	 */
+	private void rehashPassword(
+			final UserName userName,
+			final char[] password,
+			final PasswordHashAndSalt oldCreds) {
+		final byte[] salt = randGen.generateSalt();
+		byte[] passwordHash = null;
+		try {
+			passwordHash = pwdpool.getEncryptedPassword(password, salt);
+			final PasswordHashAndSalt newCreds = new PasswordHashAndSalt(
+					passwordHash, salt, pwdpool.getParameters());
+			if (storage.replacePasswordHash(userName, oldCreds, newCreds)) {
+				logInfo("Rehashed password for local user {}", userName.getName());
+			}
+		} catch (ServiceUnavailableException | AuthStorageException e) {
+			LoggerFactory.getLogger(getClass()).warn("Failed to rehash password for local " +
+					"user {}: {}", userName.getName(), e.getMessage());
+		} finally {
+			clear(passwordHash);
+			clear(salt);
+		}
+	}
+	
 	/** Change a local user's password.
 	 * 
 	 * Clears the passwords as soon as they're no longer needed or when an error occurs.
@@ -539,13 +824,17 @@ public class Authentication {
 	 * @throws IllegalPasswordException if the new password is not a legal password or if the
 	 * new and old passwords are identical.
 	 * @throws AuthStorageException if an error occurred accessing the storage system.
+	 * @throws ServiceUnavailableException if too many password operations are in progress.
+	 * @throws LoginThrottledException if there have been too many recent failed logins for the
+	 * user.
 	 */
 	public void localPasswordChange(
 			final UserName userName,
 			final Password password,
 			final Password pwdnew)
 			throws PasswordMismatchException, DisabledUserException, UnauthorizedException,
-				AuthStorageException, IllegalPasswordException {
+				AuthStorageException, IllegalPasswordException, ServiceUnavailableException,
+				LoginThrottledException {
 		byte[] salt = null;
 		byte[] passwordHash = null;
 		try {
@@ -555,13 +844,15 @@ public class Authentication {
 				throw new IllegalPasswordException("Old and new passwords are identical.");
 			}
 			pwdnew.checkValidity();
-			getLocalUser(userName, password); //checks pwd validity and nulls
+			//checks pwd validity and nulls
+			getLocalUser(userName, password, Optional.absent(), false);
 			salt = randGen.generateSalt();
 			final char [] pwd_copy = pwdnew.getPassword();
 			pwdnew.clear();
-			passwordHash = pwdcrypt.getEncryptedPassword(pwd_copy, salt);
+			passwordHash = pwdpool.getEncryptedPassword(pwd_copy, salt);
 			Password.clearPasswordArray(pwd_copy);
-			storage.changePassword(userName, new PasswordHashAndSalt(passwordHash, salt), false);
+			storage.changePassword(userName, new PasswordHashAndSalt(
+					passwordHash, salt, pwdpool.getParameters()), false);
 			logInfo("Password change for local user " + userName.getName());
 		} catch (NoSuchUserException e) {
 			// we know user already exists and is local so this can't happen
@@ -590,12 +881,13 @@ public class Authentication {
 	 * have the administrator role or the token is not a login token.
 	 * @throws AuthStorageException if an error occurred accessing the storage system.
 	 * @throws NoSuchUserException if there is no user corresponding to the given user name.
+	 * @throws ServiceUnavailableException if too many password operations are in progress.
 	 */
 	public Password resetPassword(final IncomingToken token, final UserName userName)
 			throws InvalidTokenException, UnauthorizedException, AuthStorageException,
-			NoSuchUserException {
+			NoSuchUserException, ServiceUnavailableException {
 		nonNull(userName, "userName");
-		final AuthUser admin = checkCanResetPassword(
+		final UserAuthInfo admin = checkCanResetPassword(
 				token, userName, "reset password for user {}", userName.getName());
 		Password pwd = null;
 		byte[] salt = null;
@@ -604,9 +896,10 @@ public class Authentication {
 			final char[] temporaryPassword = randGen.getTemporaryPassword(TEMP_PWD_LENGTH);
 			pwd = new Password(temporaryPassword);
 			salt = randGen.generateSalt();
-			passwordHash = pwdcrypt.getEncryptedPassword(temporaryPassword, salt);
+			passwordHash = pwdpool.getEncryptedPassword(temporaryPassword, salt);
 			Password.clearPasswordArray(temporaryPassword);
-			storage.changePassword(userName, new PasswordHashAndSalt(passwordHash, salt), true);
+			storage.changePassword(userName, new PasswordHashAndSalt(
+					passwordHash, salt, pwdpool.getParameters()), true);
 			logInfo("Admin {} changed user {}'s password", admin.getUserName().getName(),
 					userName.getName());
 		} catch (Throwable t) {
@@ -624,7 +917,7 @@ public class Authentication {
 		return pwd;
 	}
 	
-	private AuthUser checkCanResetPassword(
+	private UserAuthInfo checkCanResetPassword(
 			final IncomingToken token,
 			final UserName userName,
 			final String format,
@@ -632,7 +925,7 @@ public class Authentication {
 			throws InvalidTokenException, UnauthorizedException, AuthStorageException,
 				NoSuchUserException {
 		// this method is gross. rethink. ideally based on the grantable roles somehow.
-		final AuthUser admin = getUser(token, new OpReqs(format, args)
+		final UserAuthInfo admin = getUserAuthInfo(token, new OpReqs(format, args)
 				.types(TokenType.LOGIN).roles(Role.ROOT, Role.CREATE_ADMIN, Role.ADMIN)); 
 		final AuthUser user;
 		try {
@@ -694,7 +987,7 @@ public class Authentication {
 			throws InvalidTokenException, UnauthorizedException, AuthStorageException,
 			NoSuchUserException {
 		nonNull(userName, "userName");
-		final AuthUser admin = checkCanResetPassword(token, userName,
+		final UserAuthInfo admin = checkCanResetPassword(token, userName,
 				"force password reset for user {}", userName.getName());
 		storage.forcePasswordReset(userName);
 		logInfo("Admin {} required user {} to reset their password on the next login",
@@ -711,8 +1004,9 @@ public class Authentication {
 	 */
 	public void forceResetAllPasswords(final IncomingToken token)
 			throws InvalidTokenException, UnauthorizedException, AuthStorageException {
-		final AuthUser admin = getUser(token, new OpReqs("force password reset for all users")
-				.types(TokenType.LOGIN).roles(Role.ROOT, Role.CREATE_ADMIN));
+		final UserAuthInfo admin = getUserAuthInfo(token,
+				new OpReqs("force password reset for all users")
+					.types(TokenType.LOGIN).roles(Role.ROOT, Role.CREATE_ADMIN));
 		storage.forcePasswordReset();
 		logInfo("Admin {} required all users to reset their password on the next login",
 				admin.getUserName().getName());
@@ -720,25 +1014,33 @@ public class Authentication {
 	
 	private NewToken login(final UserName userName, final TokenCreationContext tokenCtx)
 			throws AuthStorageException {
-		final NewToken nt = new NewToken(StoredToken.getBuilder(
+		final NewToken nt = newToken(StoredToken.getBuilder(
 					TokenType.LOGIN, randGen.randomUUID(), userName)
 				.withLifeTime(clock.instant(),
 						cfg.getAppConfig().getTokenLifetimeMS(TokenLifetimeType.LOGIN))
 				.withContext(tokenCtx)
-				.build(),
-				randGen.getToken());
+				.build());
 		storage.storeToken(nt.getStoredToken(), nt.getTokenHash());
 		setLastLogin(userName);
 		logInfo("Logged in user {} with token {}",
 				userName.getName(), nt.getStoredToken().getId());
 		return nt;
 	}
+	
+	// creates a signed token if a signer is available, or a random token otherwise
+	private NewToken newToken(final StoredToken storedToken) {
+		return new NewToken(storedToken, tokenSigner.isPresent() ?
+				tokenSigner.get().sign(storedToken) : randGen.getToken());
+	}
 
 	// used when it's known that the user exists
 	private void setLastLogin(final UserName userName)
 			throws AuthStorageException {
 		try {
-			storage.setLastLogin(userName, clock.instant());
+			final Instant lastLogin = clock.instant();
+			storage.setLastLogin(userName, lastLogin);
+			// the storage system may buffer the date, so a reloaded user could be stale
+			userCache.setLastLogin(userName, lastLogin);
 		} catch (NoSuchUserException e) {
 			throw new AuthStorageException(
 					"Something is very broken. User should exist but doesn't: "
@@ -762,7 +1064,8 @@ public class Authentication {
 	 */
 	public TokenSet getTokens(final IncomingToken token)
 			throws AuthStorageException, InvalidTokenException, UnauthorizedException {
-		final StoredToken ht = getToken(token, new OpReqs("get tokens").types(TokenType.LOGIN));
+		final StoredToken ht = getStoredToken(
+				token, new OpReqs("get tokens").types(TokenType.LOGIN));
 		final TokenSet tokenSet = new TokenSet(ht, storage.getTokens(ht.getUserName()));
 		logInfo("User {} accessed their tokens", ht.getUserName().getName());
 		return tokenSet;
@@ -781,9 +1084,9 @@ public class Authentication {
 	public Set<StoredToken> getTokens(final IncomingToken token, final UserName userName)
 			throws InvalidTokenException, UnauthorizedException, AuthStorageException {
 		nonNull(userName, "userName");
-		final AuthUser admin = getUser(token,
+		final UserAuthInfo admin = getUserAuthInfo(token,
 				new OpReqs("get tokens for user {}", userName.getName())
-				.types(TokenType.LOGIN).roles(Role.ADMIN));
+					.types(TokenType.LOGIN).roles(Role.ADMIN));
 		final Set<StoredToken> tokens = storage.getTokens(userName);
 		logInfo("Admin {} accessed user {}'s tokens",
 				admin.getUserName().getName(), userName.getName());
@@ -798,13 +1101,130 @@ public class Authentication {
 	 */
 	public StoredToken getToken(final IncomingToken token)
 			throws AuthStorageException, InvalidTokenException {
-		final StoredToken st = getTokenSuppressUnauthorized(token, "get token");
+		final StoredToken st;
+		try {
+			st = getStoredToken(token, new OpReqs("get token"));
+		} catch (UnauthorizedException e) {
+			throw new RuntimeException("Didn't require any particular token", e);
+		}
 		logInfo("User {} accessed {} token {}", st.getUserName().getName(), st.getTokenType(),
 				st.getId());
 		return st;
 	}
 
-	private StoredToken getTokenSuppressUnauthorized(
+	/** Get details about multiple tokens in a single request. A maximum of 1000 tokens may be
+	 * looked up at once.
+	 * @param tokens the tokens in question.
+	 * @return the details of each valid token, keyed by the token. Invalid tokens will be
+	 * missing.
+	 * @throws AuthStorageException if an error occurred accessing the storage system.
+	 * @throws IllegalParameterException if the number of tokens is greater than the limit.
+	 */
+	public Map<IncomingToken, StoredToken> getTokens(final Set<IncomingToken> tokens)
+			throws AuthStorageException, IllegalParameterException {
+		nonNull(tokens, "tokens");
+		noNulls(tokens, "Null token in tokens");
+		if (tokens.size() > MAX_TOKEN_BATCH) {
+			throw new IllegalParameterException(
+					"Token count exceeds maximum of " + MAX_TOKEN_BATCH);
+		}
+		final Map<IncomingHashedToken, IncomingToken> hashed = new HashMap<>();
+		for (final IncomingToken t: tokens) {
+			try {
+				checkSignedToken(t);
+				hashed.put(t.getHashedToken(), t);
+			} catch (InvalidTokenException e) {
+				// no need to look up a token that's known to be invalid
+			}
+		}
+		final Map<IncomingHashedToken, StoredToken> found = tokenCache.getAll(
+				hashed.keySet(), storage::getTokens);
+		final Map<IncomingToken, StoredToken> ret = new HashMap<>();
+		for (final Entry<IncomingHashedToken, StoredToken> e: found.entrySet()) {
+			final StoredToken st = e.getValue();
+			ret.put(hashed.get(e.getKey()), st);
+			logInfo("User {} accessed {} token {}", st.getUserName().getName(),
+					st.getTokenType(), st.getId());
+		}
+		return ret;
+	}
+
+	/** Follow the token revocation log. Every token deletion, including deletions due to
+	 * disabling an account, is added to the log with an increasing sequence number. Services
+	 * that cache token lookups may follow the log and evict revoked tokens within seconds,
+	 * rather than waiting for the cache time to expire.
+	 * 
+	 * A client should start by calling this method with no sequence number, which returns the
+	 * current sequence number, and then repeatedly call the method with the next sequence number
+	 * from the previous call.
+	 * 
+	 * Revocations are added to the log just before the token is deleted, so a client should
+	 * treat a token in the log as revoked rather than looking it up again. Revocations are
+	 * discarded from the log once the token expires. If the log is reset, the returned
+	 * revocations are marked as reset and the client should treat any token it holds as
+	 * potentially revoked.
+	 * 
+	 * Services that possess the token signing key and verify signed tokens locally can build
+	 * their list of revoked tokens by following the log from sequence number 0, which returns
+	 * every revoked token that has not yet expired.
+	 * 
+	 * This method returns immediately, so clients should poll the log at the interval at which
+	 * they need to evict revoked tokens.
+	 * @param token a service token.
+	 * @param afterSequence the sequence number from which to return revocations, exclusive.
+	 * Pass absent to get the current sequence number.
+	 * @return the revocations.
+	 * @throws InvalidTokenException if the token is invalid.
+	 * @throws UnauthorizedException if the token is not a service token.
+	 * @throws AuthStorageException if an error occurred accessing the storage system.
+	 */
+	public TokenRevocations getTokenRevocations(
+			final IncomingToken token,
+			final Optional<Long> afterSequence)
+			throws InvalidTokenException, UnauthorizedException, AuthStorageException {
+		nonNull(afterSequence, "afterSequence");
+		if (afterSequence.isPresent() && afterSequence.get() < 0) {
+			throw new IllegalArgumentException("afterSequence must be >= 0");
+		}
+		final TokenAuthInfo st = getToken(token, new OpReqs("get token revocations")
+				.types(TokenType.SERV));
+		final TokenRevocations revs;
+		if (afterSequence.isPresent()) {
+			revs = getTokenRevocations(afterSequence.get());
+		} else {
+			revs = new TokenRevocations(
+					Collections.emptyList(), storage.getTokenRevocationSequence(), false);
+		}
+		logInfo("User {} accessed the token revocation log", st.getUserName().getName());
+		return revs;
+	}
+	
+	private TokenRevocations getTokenRevocations(final long afterSequence)
+			throws AuthStorageException {
+		final List<TokenRevocation> revs = storage.getTokenRevocations(
+				afterSequence, MAX_TOKEN_REVOCATIONS);
+		final long current = storage.getTokenRevocationSequence();
+		if (afterSequence > current) {
+			// the log was reset
+			return new TokenRevocations(Collections.emptyList(), current, true);
+		}
+		final Instant gapCutoff = clock.instant().minusMillis(TOKEN_REVOCATION_GAP_WAIT_MS);
+		final List<TokenRevocation> ret = new LinkedList<>();
+		long next = afterSequence;
+		for (final TokenRevocation r: revs) {
+			/* stop at a recent gap. Revocations missing from an older gap will never appear, or
+			 * were discarded when the token expired
+			 */
+			if (r.getSequence() != next + 1 && r.getRevocationTime().isAfter(gapCutoff)) {
+				break;
+			}
+			ret.add(r);
+			next = r.getSequence();
+		}
+		return new TokenRevocations(ret, next, false);
+	}
+
+	private TokenAuthInfo getTokenSuppressUnauthorized(
 			final IncomingToken token,
 			final String format,
 			final Object... args)
@@ -816,31 +1236,104 @@ public class Authentication {
 		}
 	}
 	
-	// converts a no such token exception into an invalid token exception.
-	private StoredToken getToken(final IncomingToken token, final OpReqs reqs)
+	/* Gets only the token fields required to check the token. Use getStoredToken() if the
+	 * entire token is required.
+	 */
+	private TokenAuthInfo getToken(final IncomingToken token, final OpReqs reqs)
 			throws AuthStorageException, InvalidTokenException, UnauthorizedException {
-		nonNull(token, "token");
-		try {
-			final Set<TokenType> allowedTypes = reqs.allowedTokenTypes;
-			final StoredToken st = storage.getToken(token.getHashedToken());
-			if (!allowedTypes.isEmpty() && !allowedTypes.contains(st.getTokenType())) {
-				logDisallowedTokenType(st, reqs);
-				throw new UnauthorizedException(st.getTokenType().getDescription() +
-						" tokens are not allowed for this operation");
+		final Optional<SignedToken> st = checkSignedToken(token);
+		final TokenAuthInfo t;
+		if (st.isPresent()) {
+			// the token was verified in memory, so there's nothing to retrieve
+			t = st.get().getAuthInfo();
+		} else if (tokenCache.isEnabled()) {
+			// the cache holds entire tokens
+			t = getStoredToken(token).getAuthInfo();
+		} else {
+			try {
+				t = storage.getTokenAuthInfo(token.getHashedToken());
+			} catch (NoSuchTokenException e) {
+				throw new InvalidTokenException();
 			}
-			return st;
+		}
+		checkTokenType(t.getUserName(), t.getTokenType(), reqs);
+		return t;
+	}
+	
+	private StoredToken getStoredToken(final IncomingToken token, final OpReqs reqs)
+			throws AuthStorageException, InvalidTokenException, UnauthorizedException {
+		checkSignedToken(token);
+		return checkTokenType(getStoredToken(token), reqs);
+	}
+	
+	// converts a no such token exception into an invalid token exception.
+	private StoredToken getStoredToken(final IncomingToken token)
+			throws AuthStorageException, InvalidTokenException {
+		try {
+			return tokenCache.get(token.getHashedToken(), storage::getToken);
 		} catch (NoSuchTokenException e) {
 			throw new InvalidTokenException();
 		}
 	}
+	
+	/* Checks a signed token in memory. Throws an exception if the token is a signed token and
+	 * the signature is invalid, or the token is expired or revoked. Returns the contents of the
+	 * token if the token is a valid signed token, or absent if signed tokens are not enabled or
+	 * the token is not a signed token, in which case the token must be checked against the
+	 * storage system.
+	 */
+	private Optional<SignedToken> checkSignedToken(final IncomingToken token)
+			throws InvalidTokenException, AuthStorageException {
+		nonNull(token, "token");
+		if (!tokenSigner.isPresent() || !TokenSigner.isSigned(token.getToken())) {
+			return Optional.absent();
+		}
+		final Optional<SignedToken> st = tokenSigner.get().verify(token.getToken());
+		if (!st.isPresent() || st.get().isExpired(clock.instant())) {
+			throw new InvalidTokenException();
+		}
+		if (revokedTokens.isRevoked(st.get().getId())) {
+			throw new InvalidTokenException();
+		}
+		return st;
+	}
+	
+	// call after deleting tokens so revoked signed tokens are immediately invalid here
+	private void tokensRevoked() throws AuthStorageException {
+		if (tokenSigner.isPresent()) {
+			revokedTokens.update();
+		}
+	}
+	
+	private StoredToken checkTokenType(final StoredToken st, final OpReqs reqs)
+			throws UnauthorizedException {
+		checkTokenType(st.getUserName(), st.getTokenType(), reqs);
+		return st;
+	}
+	
+	private void checkTokenType(
+			final UserName userName,
+			final TokenType tokenType,
+			final OpReqs reqs)
+			throws UnauthorizedException {
+		final Set<TokenType> allowedTypes = reqs.allowedTokenTypes;
+		if (!allowedTypes.isEmpty() && !allowedTypes.contains(tokenType)) {
+			logDisallowedTokenType(userName, tokenType, reqs);
+			throw new UnauthorizedException(tokenType.getDescription() +
+					" tokens are not allowed for this operation");
+		}
+	}
 
-	private void logDisallowedTokenType(final StoredToken st, final OpReqs reqs) {
+	private void logDisallowedTokenType(
+			final UserName userName,
+			final TokenType tokenType,
+			final OpReqs reqs) {
 		
 		final List<String> types = reqs.allowedTokenTypes.stream().map(r -> r.getID())
 				.collect(Collectors.toList());
 		final String typesStr = String.join(", ", types);
-		final Object[] args = ArrayUtils.addAll(new Object[] {st.getUserName().getName(),
-						st.getTokenType().getDescription(), typesStr}, reqs.args);
+		final Object[] args = ArrayUtils.addAll(new Object[] {userName.getName(),
+						tokenType.getDescription(), typesStr}, reqs.args);
 		logErr("User {} with token type {} attempted an operation that requires a " +
 				"token type of one of [{}]: " + reqs.format, args);
 	}
@@ -870,7 +1363,7 @@ public class Authentication {
 			throw new IllegalArgumentException("Cannot create a login token without logging in");
 		}
 		// check for disabled user for all token type targets as well
-		final AuthUser au = getUser(token,
+		final UserAuthInfo au = getUserAuthInfo(token,
 				new OpReqs("create {} token", tokenType.getDescription()).types(TokenType.LOGIN));
 		if (!TokenType.AGENT.equals(tokenType)) {
 			final Role reqRole = TokenType.SERV.equals(tokenType) ?
@@ -884,11 +1377,10 @@ public class Authentication {
 		final AuthConfig c = cfg.getAppConfig();
 		final long life = c.getTokenLifetimeMS(TOKEN_LIFE_TYPE.get(tokenType));
 		final UUID id = randGen.randomUUID();
-		final NewToken nt = new NewToken(StoredToken.getBuilder(tokenType, id, au.getUserName())
+		final NewToken nt = newToken(StoredToken.getBuilder(tokenType, id, au.getUserName())
 				.withLifeTime(clock.instant(), life)
 				.withContext(tokenCtx)
-				.withTokenName(tokenName).build(),
-				randGen.getToken());
+				.withTokenName(tokenName).build());
 		storage.storeToken(nt.getStoredToken(), nt.getTokenHash());
 		logInfo("User {} created {} token {}", au.getUserName().getName(), tokenType, id);
 		return nt;
@@ -929,38 +1421,131 @@ public class Authentication {
 			final IncomingToken token,
 			final OpReqs reqs)
 			throws AuthStorageException, InvalidTokenException, UnauthorizedException {
-		final StoredToken ht = getToken(token, reqs);
-		final AuthUser u = getUser(ht.getUserName());
+		final AuthUser u;
+		final Optional<SignedToken> st = checkSignedToken(token);
+		if (st.isPresent()) {
+			// the token was verified in memory, so only the user needs to be retrieved
+			checkTokenType(st.get().getUserName(), st.get().getTokenType(), reqs);
+			u = getUser(st.get().getUserName());
+		} else if (tokenCache.isEnabled() || userCache.isEnabled()) {
+			u = getUser(getToken(token, reqs).getUserName());
+		} else {
+			// nothing to check in memory, so get the token and user in one storage request
+			u = getTokenAndUser(token, reqs);
+		}
+		checkRoles(u.getUserName(), u.getRoles(), reqs);
+		return u;
+	}
+	
+	/* Equivalent to getUser(token, reqs), but gets only the user fields required to check the
+	 * user's roles. Use getUser() if the entire user is required.
+	 */
+	private UserAuthInfo getUserAuthInfo(
+			final IncomingToken token,
+			final OpReqs reqs)
+			throws AuthStorageException, InvalidTokenException, UnauthorizedException {
+		final UserAuthInfo u;
+		final Optional<SignedToken> st = checkSignedToken(token);
+		if (st.isPresent()) {
+			checkTokenType(st.get().getUserName(), st.get().getTokenType(), reqs);
+			u = getUserAuthInfo(st.get().getUserName());
+		} else if (tokenCache.isEnabled() || userCache.isEnabled()) {
+			u = getUserAuthInfo(getToken(token, reqs).getUserName());
+		} else {
+			final TokenAndUserAuthInfo tu;
+			try {
+				tu = storage.getTokenAndUserAuthInfo(token.getHashedToken());
+			} catch (NoSuchTokenException e) {
+				throw new InvalidTokenException();
+			} catch (NoSuchUserException e) {
+				throw new RuntimeException("There seems to be an error in the " +
+						"storage system. Token was valid, but no user", e);
+			}
+			checkTokenType(tu.getToken().getUserName(), tu.getToken().getTokenType(), reqs);
+			u = tu.getUser();
+			checkDisabled(u.getUserName(), u.isDisabled());
+		}
+		checkRoles(u.getUserName(), u.getRoles(), reqs);
+		return u;
+	}
+	
+	private void checkRoles(final UserName userName, final Set<Role> roles, final OpReqs reqs)
+			throws UnauthorizedException {
 		if (reqs.requiredRoles.size() > 0) {
-			final Set<Role> has = u.getRoles().stream().flatMap(r -> r.included().stream())
+			final Set<Role> has = roles.stream().flatMap(r -> r.included().stream())
 					.collect(Collectors.toSet());
 			has.retainAll(reqs.requiredRoles); // intersection
 			if (has.isEmpty()) {
-				logUnauthorized(u.getUserName(), reqs);
+				logUnauthorized(userName, reqs);
 				throw new UnauthorizedException();
 			}
 		}
-		return u;
+	}
+
+	// converts a no such token exception into an invalid token exception.
+	private AuthUser getTokenAndUser(final IncomingToken token, final OpReqs reqs)
+			throws AuthStorageException, InvalidTokenException, UnauthorizedException {
+		nonNull(token, "token");
+		final TokenAndUser tu;
+		try {
+			tu = storage.getTokenAndUser(token.getHashedToken());
+		} catch (NoSuchTokenException e) {
+			throw new InvalidTokenException();
+		} catch (NoSuchUserException e) {
+			throw new RuntimeException("There seems to be an error in the " +
+					"storage system. Token was valid, but no user", e);
+		}
+		checkTokenType(tu.getToken(), reqs);
+		return checkDisabled(tu.getUser());
 	}
 
 	// assumes that the token has already been checked and is valid for this user.
 	private AuthUser getUser(final UserName userName)
 			throws AuthStorageException, DisabledUserException {
-		final AuthUser u;
 		try {
-			u = storage.getUser(userName);
+			return checkDisabled(userCache.get(userName, storage::getUser));
 		} catch (NoSuchUserException e) {
 			throw new RuntimeException("There seems to be an error in the " +
 					"storage system. Token was valid, but no user", e);
 		}
-		if (u.isDisabled()) {
-			// apparently this disabled user still has some tokens, so kill 'em all
-			storage.deleteTokens(u.getUserName());
-			throw new DisabledUserException(u.getUserName().getName());
+	}
+	
+	// assumes that the token has already been checked and is valid for this user.
+	private UserAuthInfo getUserAuthInfo(final UserName userName)
+			throws AuthStorageException, DisabledUserException {
+		final UserAuthInfo u;
+		try {
+			if (userCache.isEnabled()) {
+				// the cache holds entire users
+				u = userCache.get(userName, storage::getUser).getAuthInfo();
+			} else {
+				u = storage.getUserAuthInfo(userName);
+			}
+		} catch (NoSuchUserException e) {
+			throw new RuntimeException("There seems to be an error in the " +
+					"storage system. Token was valid, but no user", e);
 		}
+		checkDisabled(u.getUserName(), u.isDisabled());
+		return u;
+	}
+	
+	private AuthUser checkDisabled(final AuthUser u)
+			throws AuthStorageException, DisabledUserException {
+		checkDisabled(u.getUserName(), u.isDisabled());
 		return u;
 	}
 	
+	private void checkDisabled(final UserName userName, final boolean disabled)
+			throws AuthStorageException, DisabledUserException {
+		if (disabled) {
+			// apparently this disabled user still has some tokens, so kill 'em all
+			storage.deleteTokens(userName);
+			tokenCache.invalidate(userName);
+			tokensRevoked();
+			throw new DisabledUserException(userName.getName());
+		}
+	}
+	
 	private void logUnauthorized(final UserName name, final OpReqs reqs) {
 		final List<String> roles = reqs.requiredRoles.stream()
 				.map(r -> r.getID()).collect(Collectors.toList());
@@ -1017,7 +1602,7 @@ public class Authentication {
 			throws AuthStorageException, NoSuchUserException,
 			InvalidTokenException, UnauthorizedException {
 		nonNull(userName, "userName");
-		final AuthUser admin = getUser(adminToken,
+		final UserAuthInfo admin = getUserAuthInfo(adminToken,
 				new OpReqs("get user {} as admin", userName.getName())
 				.types(TokenType.LOGIN).roles(Role.ROOT, Role.CREATE_ADMIN, Role.ADMIN));
 		final AuthUser user = storage.getUser(userName);
@@ -1052,7 +1637,8 @@ public class Authentication {
 					"User count exceeds maximum of " + MAX_RETURNED_USERS);
 		}
 		
-		final Map<UserName, DisplayName> displayNames = storage.getUserDisplayNames(userNames);
+		final Map<UserName, DisplayName> displayNames = new HashMap<>(
+				userCache.getDisplayNames(userNames, storage::getUserDisplayNames));
 		displayNames.remove(UserName.ROOT);
 		return displayNames;
 	}
@@ -1072,11 +1658,22 @@ public class Authentication {
 			final IncomingToken token,
 			final UserSearchSpec spec)
 			throws InvalidTokenException, UnauthorizedException, AuthStorageException {
+		checkUserSearch(token, spec);
+		final Map<UserName, DisplayName> displayNames = storage.getUserDisplayNames(
+				spec, MAX_RETURNED_USERS);
+		if (!spec.isRootIncluded()) {
+			displayNames.remove(UserName.ROOT);
+		}
+		return displayNames;
+	}
+	
+	private void checkUserSearch(final IncomingToken token, final UserSearchSpec spec)
+			throws InvalidTokenException, UnauthorizedException, AuthStorageException {
 		nonNull(spec, "spec");
 		if (spec.isRegex()) {
 			throw new UnauthorizedException("Regex search is currently for internal use only");
 		}
-		final AuthUser user = getUser(token, new OpReqs("search users"));
+		final UserAuthInfo user = getUserAuthInfo(token, new OpReqs("search users"));
 		if (!Role.isAdmin(user.getRoles())) {
 			if (spec.isCustomRoleSearch() || spec.isRoleSearch()) {
 				throw new UnauthorizedException("Only admins may search on roles");
@@ -1089,12 +1686,66 @@ public class Authentication {
 						"Only admins may search with root or disabled users included");
 			}
 		}
-		final Map<UserName, DisplayName> displayNames = storage.getUserDisplayNames(
-				spec, MAX_RETURNED_USERS);
-		if (!spec.isRootIncluded()) {
-			displayNames.remove(UserName.ROOT);
-		}
-		return displayNames;
+	}
+	
+	/** A user search that has been authorized but not yet run. Separating the two allows the
+	 * results of the search to be consumed as they're read from the storage system, e.g. when
+	 * streaming them to a client, once the search is known to be permitted.
+	 * @author gaprice@lbl.gov
+	 *
+	 */
+	public interface UserSearch {
+		
+		/** Run the search.
+		 * @param consumer the consumer of the user names and display names of the users found.
+		 * The users are passed to the consumer in user name order.
+		 * @return the user name of the last user read from the storage system if the search
+		 * limit was reached, in which case more users may be found by searching after that user
+		 * name. Otherwise absent.
+		 * @throws AuthStorageException if an error occurred accessing the storage system.
+		 */
+		Optional<UserName> run(BiConsumer<UserName, DisplayName> consumer)
+				throws AuthStorageException;
+	}
+	
+	/** Authorize a search for users, returning the search to run when the results can be
+	 * consumed. Users are found in user name order, and successive pages of results may be
+	 * retrieved by setting the user name after which the search starts in the specification.
+	 * @param token a token for the user requesting the search.
+	 * @param spec the search specification.
+	 * @param limit the maximum number of users to find, from 1 to 10000.
+	 * @return the search.
+	 * @throws InvalidTokenException if the token is invalid.
+	 * @throws UnauthorizedException if the user does not have the administrator, create
+	 * administrator, or root role and a role search, prefix-less search is requested or the
+	 * results are to include the root use or disabled users.
+	 * @throws IllegalParameterException if the limit is out of range.
+	 * @throws AuthStorageException if an error occurred accessing the storage system.
+	 */
+	public UserSearch searchUsers(
+			final IncomingToken token,
+			final UserSearchSpec spec,
+			final int limit)
+			throws InvalidTokenException, UnauthorizedException, IllegalParameterException,
+				AuthStorageException {
+		checkUserSearch(token, spec);
+		if (limit < 1 || limit > MAX_RETURNED_USERS) {
+			throw new IllegalParameterException(
+					"Limit must be between 1 and " + MAX_RETURNED_USERS);
+		}
+		return consumer -> {
+			nonNull(consumer, "consumer");
+			final AtomicInteger count = new AtomicInteger();
+			final AtomicReference<UserName> last = new AtomicReference<>();
+			storage.searchUsers(spec, limit, (u, d) -> {
+				count.incrementAndGet();
+				last.set(u);
+				if (spec.isRootIncluded() || !UserName.ROOT.equals(u)) {
+					consumer.accept(u, d);
+				}
+			});
+			return count.get() < limit ? Optional.absent() : Optional.of(last.get());
+		};
 	}
 	
 
@@ -1123,45 +1774,32 @@ public class Authentication {
 			final boolean forceNumericSuffix,
 			final boolean startAt2)
 			throws AuthStorageException {
-		// lots of opportunities for speed optimization in this method, but it probably doesn't
-		// matter
-		
 		final String sugName = suggestedUserName.getName();
 		final String sugStrip = sugName.replaceAll("\\d*$", "");
-		/* this might return a lot of names, but not super likely and it'd take a *lot* to cause
-		 * problems. Make this smarter if necessary. E.g. could store username and numeric suffix
-		 * db side and search and sort db side.
-		 */
-		final UserSearchSpec spec = UserSearchSpec.getBuilder()
-				// checked that this does indeed use an index for the mongo implementation
-				.withSearchRegex("^" + Pattern.quote(sugStrip) + "\\d*$")
-				.withSearchOnUserName(true).withIncludeDisabled(true).build();
-		final Map<UserName, DisplayName> users = storage.getUserDisplayNames(spec, -1);
-		final boolean match = users.containsKey(suggestedUserName);
 		final boolean hasNumSuffix = sugStrip.length() != sugName.length();
 		// based on the only method that calls this method, if forceNumericSuffix is true,
 		// the suggestedUserName will not hasNumSuffix
-		if (!match && (!forceNumericSuffix || hasNumSuffix)) {
-			return Optional.of(suggestedUserName);
-		}
-		final Set<String> names = users.keySet().stream().map(u -> u.getName())
-				.collect(Collectors.toSet());
-		final long start = startAt2 ? 2 : 1;
-		for (long i = start; i < Long.MAX_VALUE; i++) {
-			final String potential = sugStrip + i;
-			if (potential.length() > UserName.MAX_NAME_LENGTH) {
-				return Optional.absent();
-			}
-			if (!names.contains(potential)) {
-				try {
-					return Optional.of(new UserName(potential));
-				} catch (IllegalParameterException | MissingParameterException e) {
-					throw new RuntimeException("this should be impossible", e);
-				}
+		if (!forceNumericSuffix || hasNumSuffix) {
+			final UserSearchSpec spec = UserSearchSpec.getBuilder()
+					.withSearchRegex("^" + Pattern.quote(sugName) + "$")
+					.withSearchOnUserName(true).withIncludeDisabled(true).build();
+			if (storage.getUserDisplayNames(spec, -1).isEmpty()) {
+				return Optional.of(suggestedUserName);
 			}
 		}
-		// this means there's > 10^63 names in the database. Not testing this path.
-		return Optional.absent();
+		// the storage system finds the suffix from an index rather than reading every user
+		// with the same base name
+		final long suffix = storage.getLowestAvailableUserNameSuffix(
+				sugStrip, startAt2 ? 2 : 1);
+		final String potential = sugStrip + suffix;
+		if (potential.length() > UserName.MAX_NAME_LENGTH) {
+			return Optional.absent();
+		}
+		try {
+			return Optional.of(new UserName(potential));
+		} catch (IllegalParameterException | MissingParameterException e) {
+			throw new RuntimeException("this should be impossible", e);
+		}
 	}
 
 	/** Revoke a token.
@@ -1178,9 +1816,11 @@ public class Authentication {
 			throws AuthStorageException,
 			NoSuchTokenException, InvalidTokenException, UnauthorizedException {
 		nonNull(tokenID, "tokenID");
-		final StoredToken ht = getToken(token, new OpReqs("revoke token {}", tokenID)
+		final TokenAuthInfo ht = getToken(token, new OpReqs("revoke token {}", tokenID)
 				.types(TokenType.LOGIN));
 		storage.deleteToken(ht.getUserName(), tokenID);
+		tokenCache.invalidate(tokenID);
+		tokensRevoked();
 		logInfo("User {} revoked token {}", ht.getUserName().getName(), ht.getId());
 	}
 
@@ -1206,10 +1846,12 @@ public class Authentication {
 				NoSuchTokenException {
 		nonNull(userName, "userName");
 		nonNull(tokenID, "tokenID");
-		final AuthUser admin = getUser(token,
+		final UserAuthInfo admin = getUserAuthInfo(token,
 				new OpReqs("revoke token {} for user {}", tokenID, userName.getName())
-				.types(TokenType.LOGIN).roles(Role.ADMIN));
+					.types(TokenType.LOGIN).roles(Role.ADMIN));
 		storage.deleteToken(userName, tokenID);
+		tokenCache.invalidate(tokenID);
+		tokensRevoked();
 		logInfo("Admin {} revoked user {}'s token {}", admin.getUserName().getName(),
 				userName.getName(), tokenID);
 		
@@ -1228,6 +1870,8 @@ public class Authentication {
 		try {
 			t = storage.getToken(token.getHashedToken());
 			storage.deleteToken(t.getUserName(), t.getId());
+			tokenCache.invalidate(token.getHashedToken());
+			tokensRevoked();
 			logInfo("User {} revoked token {}", t.getUserName().getName(), t.getId());
 			return Optional.of(t);
 		} catch (NoSuchTokenException e) {
@@ -1255,6 +1899,8 @@ public class Authentication {
 			t = storage.getToken(token.getHashedToken());
 			final long deleted = storage.deleteTemporarySessionData(t.getUserName());
 			storage.deleteToken(t.getUserName(), t.getId());
+			tokenCache.invalidate(token.getHashedToken());
+			tokensRevoked();
 			logInfo("User {} revoked token {} and {} temporary session instances",
 					t.getUserName().getName(), t.getId(), deleted);
 			return Optional.of(t);
@@ -1272,9 +1918,11 @@ public class Authentication {
 	 */
 	public void revokeTokens(final IncomingToken token)
 			throws AuthStorageException, InvalidTokenException, UnauthorizedException {
-		final StoredToken ht = getToken(token, new OpReqs("revoke owned tokens")
+		final TokenAuthInfo ht = getToken(token, new OpReqs("revoke owned tokens")
 				.types(TokenType.LOGIN));
 		storage.deleteTokens(ht.getUserName());
+		tokenCache.invalidate(ht.getUserName());
+		tokensRevoked();
 		logInfo("User {} revoked all their tokens", ht.getUserName().getName());
 	}
 	
@@ -1287,9 +1935,11 @@ public class Authentication {
 	 */
 	public void revokeAllTokens(final IncomingToken token)
 			throws InvalidTokenException, UnauthorizedException, AuthStorageException {
-		final AuthUser admin = getUser(token, new OpReqs("revoke all tokens")
+		final UserAuthInfo admin = getUserAuthInfo(token, new OpReqs("revoke all tokens")
 				.types(TokenType.LOGIN).roles(Role.ADMIN));
 		storage.deleteTokens();
+		tokenCache.invalidateAll();
+		tokensRevoked();
 		logInfo("Admin {} revoked all tokens system wide", admin.getUserName().getName());
 	}
 	
@@ -1305,10 +1955,12 @@ public class Authentication {
 	public void revokeAllTokens(final IncomingToken token, final UserName userName)
 			throws InvalidTokenException, UnauthorizedException, AuthStorageException {
 		nonNull(userName, "userName");
-		final AuthUser admin = getUser(token,
+		final UserAuthInfo admin = getUserAuthInfo(token,
 				new OpReqs("revoke all tokens for user {}", userName.getName())
-				.types(TokenType.LOGIN).roles(Role.ADMIN));
+					.types(TokenType.LOGIN).roles(Role.ADMIN));
 		storage.deleteTokens(userName);
+		tokenCache.invalidate(userName);
+		tokensRevoked();
 		logInfo("Admin {} revoked all tokens for user {}",
 				admin.getUserName().getName(), userName.getName());
 	}
@@ -1324,7 +1976,7 @@ public class Authentication {
 	public void removeRoles(final IncomingToken token, final Set<Role> removeRoles)
 			throws InvalidTokenException, UnauthorizedException,
 			AuthStorageException {
-		final StoredToken ht = getToken(token, new OpReqs("remove roles").types(TokenType.LOGIN));
+		final TokenAuthInfo ht = getToken(token, new OpReqs("remove roles").types(TokenType.LOGIN));
 		try {
 			updateRoles(token, ht.getUserName(), Collections.emptySet(), removeRoles);
 		} catch (NoSuchUserException e) {
@@ -1374,7 +2026,7 @@ public class Authentication {
 		if (userName.isRoot()) {
 			throw new UnauthorizedException("Cannot change ROOT roles");
 		}
-		final AuthUser actinguser = getUser(userToken,
+		final UserAuthInfo actinguser = getUserAuthInfo(userToken,
 				new OpReqs("update roles for user {}", userName.getName()).types(TokenType.LOGIN));
 		
 		final Set<Role> add = new HashSet<>(addRoles);
@@ -1389,6 +2041,7 @@ public class Authentication {
 			throwUnauthorizedToManageRoles(actinguser, "remove", sub);
 		}
 		storage.updateRoles(userName, addRoles, removeRoles);
+		userCache.invalidate(userName);
 		logRoleUpdate(actinguser.getUserName(), userName, addRoles, removeRoles);
 	}
 
@@ -1408,7 +2061,7 @@ public class Authentication {
 	}
 
 	private void throwUnauthorizedToManageRoles(
-			final AuthUser actingUser,
+			final UserAuthInfo actingUser,
 			final String action,
 			final Set<Role> roles)
 			throws UnauthorizedException {
@@ -1438,8 +2091,9 @@ public class Authentication {
 			final CustomRole role)
 			throws AuthStorageException, InvalidTokenException, UnauthorizedException {
 		nonNull(role, "role");
-		final AuthUser admin = getUser(token, new OpReqs("set custom role {}", role.getID())
-				.types(TokenType.LOGIN).roles(Role.ADMIN));
+		final UserAuthInfo admin = getUserAuthInfo(token,
+				new OpReqs("set custom role {}", role.getID())
+					.types(TokenType.LOGIN).roles(Role.ADMIN));
 		storage.setCustomRole(role);
 		logInfo("Admin {} set custom role {}", admin.getUserName().getName(), role.getID());
 	}
@@ -1463,9 +2117,11 @@ public class Authentication {
 		if (roleId == null || roleId.trim().isEmpty()) {
 			throw new MissingParameterException("roleId cannot be null or empty");
 		}
-		final AuthUser admin = getUser(token, new OpReqs("delete custom role {}", roleId)
-				.types(TokenType.LOGIN).roles(Role.ADMIN));
+		final UserAuthInfo admin = getUserAuthInfo(token,
+				new OpReqs("delete custom role {}", roleId)
+					.types(TokenType.LOGIN).roles(Role.ADMIN));
 		storage.deleteCustomRole(roleId);
+		userCache.invalidateAll();
 		logInfo("Admin {} deleted custom role {}", admin.getUserName().getName(), roleId);
 	}
 
@@ -1483,7 +2139,7 @@ public class Authentication {
 			throws AuthStorageException, InvalidTokenException, UnauthorizedException {
 		final UserName name;
 		if (forceAdmin) {
-			name = getUser(token, new OpReqs("get custom roles as admin")
+			name = getUserAuthInfo(token, new OpReqs("get custom roles as admin")
 					.types(TokenType.LOGIN).roles(Role.ROOT, Role.CREATE_ADMIN, Role.ADMIN))
 					.getUserName();
 		} else {
@@ -1534,10 +2190,11 @@ public class Authentication {
 		 * to set roles for users that users can't change. However, there's no reason not to allow
 		 * users to remove standard roles, which are privileges, not tags 
 		 */
-		final AuthUser admin = getUser(userToken,
+		final UserAuthInfo admin = getUserAuthInfo(userToken,
 				new OpReqs("update custom roles for user {}", userName.getName())
 				.types(TokenType.LOGIN).roles(Role.ADMIN));
 		storage.updateCustomRoles(userName, addRoles, removeRoles);
+		userCache.invalidate(userName);
 		logCustomRoleUpdate(admin.getUserName(), userName, addRoles, removeRoles);
 	}
 	
@@ -1721,7 +2378,7 @@ public class Authentication {
 			throws AuthStorageException {
 		final String token = randGen.getToken();
 		final TemporaryToken tt = new TemporaryToken(data, token);
-		storage.storeTemporarySessionData(data, IncomingToken.hash(token));
+		storage.storeTemporarySessionData(data, tt.getTokenHash());
 		return tt;
 	}
 
@@ -1981,6 +2638,7 @@ public class Authentication {
 		}
 		try {
 			storage.addPolicyIDs(user, pids);
+			userCache.invalidate(user);
 		} catch (NoSuchUserException e) {
 			throw new AuthStorageException(
 					"Something is very broken. User should exist but doesn't: "
@@ -2000,9 +2658,11 @@ public class Authentication {
 	public void removePolicyID(final IncomingToken token, final PolicyID policyID)
 			throws InvalidTokenException, UnauthorizedException, AuthStorageException {
 		nonNull(policyID, "policyID");
-		final AuthUser admin = getUser(token, new OpReqs("remove policy ID {}", policyID.getName())
-				.types(TokenType.LOGIN).roles(Role.ADMIN));
+		final UserAuthInfo admin = getUserAuthInfo(token,
+				new OpReqs("remove policy ID {}", policyID.getName())
+					.types(TokenType.LOGIN).roles(Role.ADMIN));
 		storage.removePolicyID(policyID);
+		userCache.invalidateAll();
 		logInfo("Admin {} removed policy ID {} from the system", admin.getUserName().getName(),
 				policyID.getName());
 	}
@@ -2150,7 +2810,7 @@ public class Authentication {
 					randGen.randomUUID(), clock.instant(), LINK_TOKEN_LIFETIME_MS)
 					.link(u.getUserName(), ids);
 			final TemporaryToken tt = new TemporaryToken(data, token.getToken());
-			storage.storeTemporarySessionData(data, IncomingToken.hash(token.getToken()));
+			storage.storeTemporarySessionData(data, tt.getTokenHash());
 			logInfo("Stored temporary token {} with {} link identities", tt.getId(), ids.size());
 			lt = new LinkToken(tt);
 		}
@@ -2166,6 +2826,7 @@ public class Authentication {
 			throws AuthStorageException, LinkFailedException {
 		try {
 			final boolean linked = storage.link(userName, remoteIdentity);
+			userCache.invalidate(userName);
 			logSingleLinkResult(userName, remoteIdentity, linked);
 			return new LinkToken();
 		} catch (NoSuchUserException e) {
@@ -2177,7 +2838,7 @@ public class Authentication {
 					randGen.randomUUID(), clock.instant(), LINK_TOKEN_LIFETIME_MS)
 					.link(userName, allIds);
 			final TemporaryToken tt = new TemporaryToken(data, token.getToken());
-			storage.storeTemporarySessionData(data, IncomingToken.hash(token.getToken()));
+			storage.storeTemporarySessionData(data, tt.getTokenHash());
 			logInfo("A race condition means that the identity {} is already linked to a user " +
 					"other than {}. Stored identity set with {} linked identities with " +
 					"temporary token {}",
@@ -2397,6 +3058,7 @@ public class Authentication {
 			// could make a bulk op, but probably not necessary. Wait for now.
 			try {
 				linked += storage.link(userName, ri) ? 1 : 0;
+				userCache.invalidate(userName);
 			} catch (NoSuchUserException e) {
 				throw new AuthStorageException("User magically disappeared from database: " +
 						userName.getName(), e);
@@ -2439,6 +3101,7 @@ public class Authentication {
 		try {
 			// throws no such id exception if not already linked
 			storage.unlink(au.getUserName(), identityID);
+			userCache.invalidate(au.getUserName());
 			// could get the identity from the AuthUser and log more info, but meh for now
 			logInfo("Unlinked identity {} from user {}", identityID, au.getUserName().getName());
 		} catch (NoSuchUserException e) {
@@ -2476,12 +3139,13 @@ public class Authentication {
 			throws InvalidTokenException, AuthStorageException, UnauthorizedException {
 		nonNull(update, "update");
 		// should check the token before returning even if there's no update
-		final StoredToken ht = getToken(token, new OpReqs("update user").types(TokenType.LOGIN));
+		final TokenAuthInfo ht = getToken(token, new OpReqs("update user").types(TokenType.LOGIN));
 		if (!update.hasUpdates()) {
 			return; //noop
 		}
 		try {
 			storage.updateUser(ht.getUserName(), update);
+			userCache.invalidate(ht.getUserName());
 			logUserUpdate(ht.getUserName(), update);
 		} catch (NoSuchUserException e) {
 			throw new RuntimeException("There seems to be an error in the " +
@@ -2529,14 +3193,16 @@ public class Authentication {
 			IllegalParameterException, NoSuchUserException, MissingParameterException {
 		nonNull(userName, "userName");
 		checkString(reason, "reason", 1000);
-		final AuthUser admin = getUser(token, new OpReqs("disable account {}", userName.getName())
-				.types(TokenType.LOGIN).roles(Role.ROOT, Role.CREATE_ADMIN, Role.ADMIN));
+		final UserAuthInfo admin = getUserAuthInfo(token,
+				new OpReqs("disable account {}", userName.getName())
+					.types(TokenType.LOGIN).roles(Role.ROOT, Role.CREATE_ADMIN, Role.ADMIN));
 		if (userName.isRoot() && !admin.isRoot()) {
 			throw new UnauthorizedException(String.format(
 					"User %s cannot disable the root account", admin.getUserName().getName()));
 		}
 		storage.deleteTokens(userName); //not really necessary but doesn't hurt
 		storage.disableAccount(userName, admin.getUserName(), reason);
+		userCache.invalidate(userName);
 		/* there's a tiny chance a login could be in process right now and have have passed the
 		 * disabled check, and then have the token created after the next line, but that's
 		 * so improbable I'm not going to worry about it
@@ -2544,6 +3210,8 @@ public class Authentication {
 		 * as well as a backup
 		 */
 		storage.deleteTokens(userName);
+		tokenCache.invalidate(userName);
+		tokensRevoked();
 		logInfo("Admin {} disabled account {}", admin.getUserName().getName(), userName.getName());
 	}
 	
@@ -2562,14 +3230,16 @@ public class Authentication {
 			throws UnauthorizedException, InvalidTokenException, AuthStorageException,
 				NoSuchUserException {
 		nonNull(userName, "userName");
-		final AuthUser admin = getUser(token, new OpReqs("enable account {}", userName.getName())
-				.types(TokenType.LOGIN).roles(Role.ROOT, Role.CREATE_ADMIN, Role.ADMIN));
+		final UserAuthInfo admin = getUserAuthInfo(token,
+				new OpReqs("enable account {}", userName.getName())
+					.types(TokenType.LOGIN).roles(Role.ROOT, Role.CREATE_ADMIN, Role.ADMIN));
 		if (userName.isRoot()) {
 			throw new UnauthorizedException(String.format(
 					"User %s cannot enable the root user via this method",
 					admin.getUserName().getName()));
 		}
 		storage.enableAccount(userName, admin.getUserName());
+		userCache.invalidate(userName);
 		logInfo("Admin {} enabled account {}", admin.getUserName().getName(), userName.getName());
 	}
 	
@@ -2590,7 +3260,7 @@ public class Authentication {
 			throws InvalidTokenException, UnauthorizedException,
 			AuthStorageException, NoSuchIdentityProviderException {
 		nonNull(update, "update");
-		final AuthUser admin = getUser(token, new OpReqs("update configuration")
+		final UserAuthInfo admin = getUserAuthInfo(token, new OpReqs("update configuration")
 				.types(TokenType.LOGIN).roles(Role.ADMIN));
 		for (final String provider: update.getProviders().keySet()) {
 			// since idProviderSet is case insensitive
@@ -2685,7 +3355,7 @@ public class Authentication {
 	 */
 	public void resetConfigToDefault(final IncomingToken token)
 			throws InvalidTokenException, UnauthorizedException, AuthStorageException {
-		final AuthUser admin = getUser(token, new OpReqs("reset configuration")
+		final UserAuthInfo admin = getUserAuthInfo(token, new OpReqs("reset configuration")
 				.types(TokenType.LOGIN).roles(Role.ADMIN));
 		storage.updateConfig(buildDefaultConfig(), true);
 		cfg.updateConfig();
@@ -2726,17 +3396,31 @@ public class Authentication {
 			throws InvalidTokenException, UnauthorizedException,
 			AuthStorageException, ExternalConfigMappingException {
 		nonNull(mapper, "mapper");
-		final AuthUser admin = getUser(token, new OpReqs("get configuration")
+		final UserAuthInfo admin = getUserAuthInfo(token, new OpReqs("get configuration")
 				.types(TokenType.LOGIN).roles(Role.ADMIN));
-		final AuthConfigSet<CollectingExternalConfig> acs = cfg.getConfig();
+		final ConfigSnapshot snapshot = cfg.getConfig();
 		final AuthConfigSetWithUpdateTime<T> config = new AuthConfigSetWithUpdateTime<T>(
-				acs.getCfg().filterProviders(idProviderSet.keySet()),
-				mapper.fromMap(acs.getExtcfg().getMap()),
+				snapshot.getAppConfig().filterProviders(idProviderSet.keySet()),
+				snapshot.getExternalConfig(mapper),
 				cfgUpdateIntervalMillis);
 		logInfo("Admin {} accessed the configuration", admin.getUserName().getName());
 		return config;
 	}
 	
+	/** Get the throttle for local account logins, for monitoring the number of throttled logins.
+	 * @return the login throttle.
+	 */
+	public LoginThrottle getLoginThrottle() {
+		return loginThrottle;
+	}
+	
+	/** Get the pool on which passwords are hashed, for monitoring the pool's utilization.
+	 * @return the password hash pool.
+	 */
+	public PasswordHashPool getPasswordHashPool() {
+		return pwdpool;
+	}
+	
 	/** Returns the suggested cache time for tokens in milliseconds.
 	 * @return the suggested cache time.
 	 * @throws AuthStorageException if an error occurred accessing the storage system. 
@@ -2761,8 +3445,7 @@ public class Authentication {
 			final ExternalConfigMapper<T> mapper)
 			throws AuthStorageException, ExternalConfigMappingException {
 		nonNull(mapper, "mapper");
-		final AuthConfigSet<CollectingExternalConfig> acs = cfg.getConfig();
-		return mapper.fromMap(acs.getExtcfg().getMap());
+		return cfg.getConfig().getExternalConfig(mapper);
 	}
 
 	/** Imports a user from an external service without requiring credentials.
@@ -0,0 +1,165 @@
+package us.kbase.auth2.lib;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import com.google.common.base.Optional;
+
+import us.kbase.auth2.cryptutils.PasswordHashParameters;
+import us.kbase.auth2.lib.token.TokenCache;
+import us.kbase.auth2.lib.token.TokenSigner;
+import us.kbase.auth2.lib.user.UserCache;
+
+/** The optional dependencies and settings of an {@link Authentication} instance. Any option that
+ * is not set is disabled or uses its original default.
+ *
+ * The caches and login throttle are managed by the {@link Authentication} instance they are
+ * provided to, and so a set of options should not be used to create more than one instance.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class AuthenticationOptions {
+
+	private final TokenCache tokenCache;
+	private final UserCache userCache;
+	private final Optional<TokenSigner> tokenSigner;
+	private final PasswordHashParameters passwordHashParameters;
+	private final LoginThrottle loginThrottle;
+
+	private AuthenticationOptions(
+			final TokenCache tokenCache,
+			final UserCache userCache,
+			final Optional<TokenSigner> tokenSigner,
+			final PasswordHashParameters passwordHashParameters,
+			final LoginThrottle loginThrottle) {
+		this.tokenCache = tokenCache;
+		this.userCache = userCache;
+		this.tokenSigner = tokenSigner;
+		this.passwordHashParameters = passwordHashParameters;
+		this.loginThrottle = loginThrottle;
+	}
+
+	/** Get the cache for validated tokens. Disabled by default.
+	 * @return the token cache.
+	 */
+	public TokenCache getTokenCache() {
+		return tokenCache;
+	}
+
+	/** Get the cache for users. Disabled by default.
+	 * @return the user cache.
+	 */
+	public UserCache getUserCache() {
+		return userCache;
+	}
+
+	/** Get the signer for new tokens, if any.
+	 * @return the token signer.
+	 */
+	public Optional<TokenSigner> getTokenSigner() {
+		return tokenSigner;
+	}
+
+	/** Get the parameters with which to hash new passwords. Defaults to
+	 * {@link PasswordHashParameters#ORIGINAL}.
+	 * @return the password hash parameters.
+	 */
+	public PasswordHashParameters getPasswordHashParameters() {
+		return passwordHashParameters;
+	}
+
+	/** Get the throttle for local account logins. Disabled by default.
+	 * @return the login throttle.
+	 */
+	public LoginThrottle getLoginThrottle() {
+		return loginThrottle;
+	}
+
+	/** Get a builder for a set of options.
+	 * @return a new builder.
+	 */
+	public static Builder getBuilder() {
+		return new Builder();
+	}
+
+	/** A builder for a set of {@link Authentication} options.
+	 * @author gaprice@lbl.gov
+	 *
+	 */
+	public static class Builder {
+
+		private TokenCache tokenCache = TokenCache.getDisabledCache();
+		private UserCache userCache = UserCache.getDisabledCache();
+		private Optional<TokenSigner> tokenSigner = Optional.absent();
+		private PasswordHashParameters passwordHashParameters = PasswordHashParameters.ORIGINAL;
+		private LoginThrottle loginThrottle = LoginThrottle.getDisabledThrottle();
+
+		private Builder() {}
+
+		/** Set a cache for validated tokens. The cache should not be shared with other
+		 * {@link Authentication} instances.
+		 * @param tokenCache the token cache.
+		 * @return this builder.
+		 */
+		public Builder withTokenCache(final TokenCache tokenCache) {
+			nonNull(tokenCache, "tokenCache");
+			this.tokenCache = tokenCache;
+			return this;
+		}
+
+		/** Set a cache for users. The cache should not be shared with other
+		 * {@link Authentication} instances.
+		 * @param userCache the user cache.
+		 * @return this builder.
+		 */
+		public Builder withUserCache(final UserCache userCache) {
+			nonNull(userCache, "userCache");
+			this.userCache = userCache;
+			return this;
+		}
+
+		/** Set a signer for tokens. If set, all new login, agent, developer, and service tokens
+		 * will be signed tokens, which are verified in memory, and random tokens will continue
+		 * to be accepted. Otherwise new tokens will be random tokens.
+		 * @param tokenSigner the token signer, or absent to issue random tokens.
+		 * @return this builder.
+		 */
+		public Builder withTokenSigner(final Optional<TokenSigner> tokenSigner) {
+			nonNull(tokenSigner, "tokenSigner");
+			this.tokenSigner = tokenSigner;
+			return this;
+		}
+
+		/** Set the parameters with which to hash new passwords. Passwords hashed with weaker
+		 * parameters are rehashed when the user next logs in. See
+		 * {@link PasswordHashParameters#isWeakerThan(PasswordHashParameters)}.
+		 * @param passwordHashParameters the password hash parameters.
+		 * @return this builder.
+		 */
+		public Builder withPasswordHashParameters(
+				final PasswordHashParameters passwordHashParameters) {
+			nonNull(passwordHashParameters, "passwordHashParameters");
+			this.passwordHashParameters = passwordHashParameters;
+			return this;
+		}
+
+		/** Set a throttle for local account logins, which rejects logins after repeated
+		 * failures without checking the password. The throttle should not be shared with other
+		 * {@link Authentication} instances.
+		 * @param loginThrottle the login throttle.
+		 * @return this builder.
+		 */
+		public Builder withLoginThrottle(final LoginThrottle loginThrottle) {
+			nonNull(loginThrottle, "loginThrottle");
+			this.loginThrottle = loginThrottle;
+			return this;
+		}
+
+		/** Build the options.
+		 * @return the options.
+		 */
+		public AuthenticationOptions build() {
+			return new AuthenticationOptions(tokenCache, userCache, tokenSigner,
+					passwordHashParameters, loginThrottle);
+		}
+	}
+}
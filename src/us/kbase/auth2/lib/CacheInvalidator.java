@@ -0,0 +1,63 @@
+package us.kbase.auth2.lib;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.util.UUID;
+
+import us.kbase.auth2.lib.storage.StorageChangeListener;
+import us.kbase.auth2.lib.token.TokenCache;
+import us.kbase.auth2.lib.user.UserCache;
+
+/** A storage change listener that removes tokens and users from token and user caches when they
+ * are changed in the storage system. Used to keep the caches coherent when multiple processes
+ * share a storage system.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class CacheInvalidator implements StorageChangeListener {
+	
+	private final TokenCache tokenCache;
+	private final UserCache userCache;
+	
+	/** Create a cache invalidator.
+	 * @param tokenCache the token cache to keep coherent with the storage system.
+	 * @param userCache the user cache to keep coherent with the storage system.
+	 */
+	public CacheInvalidator(final TokenCache tokenCache, final UserCache userCache) {
+		nonNull(tokenCache, "tokenCache");
+		nonNull(userCache, "userCache");
+		this.tokenCache = tokenCache;
+		this.userCache = userCache;
+	}
+
+	@Override
+	public void tokenDeleted(final UserName userName, final UUID tokenID) {
+		tokenCache.invalidate(tokenID);
+	}
+
+	@Override
+	public void tokensDeleted(final UserName userName) {
+		tokenCache.invalidate(userName);
+	}
+
+	@Override
+	public void allTokensDeleted() {
+		tokenCache.invalidateAll();
+	}
+
+	@Override
+	public void userChanged(final UserName userName) {
+		userCache.invalidate(userName);
+	}
+
+	@Override
+	public void allUsersChanged() {
+		userCache.invalidateAll();
+	}
+
+	@Override
+	public void changesMissed() {
+		tokenCache.invalidateAll();
+		userCache.invalidateAll();
+	}
+}
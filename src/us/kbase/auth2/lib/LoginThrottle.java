@@ -0,0 +1,215 @@
+package us.kbase.auth2.lib;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import us.kbase.auth2.lib.exceptions.LoginThrottledException;
+
+/** Throttles local account logins after repeated failures, so that password guessing attempts
+ * are rejected before the password is hashed.
+ *
+ * Failures are counted per user and per client address. Once the number of failures for a user
+ * or address reaches the failure limit, further logins for that user or from that address are
+ * rejected for one second, and the rejection period doubles with each subsequent failure up to
+ * the maximum delay. Logins rejected by the throttle do not count as failures. A successful
+ * login clears the user's failure count, but not the address's. A user's or address's failures
+ * are forgotten after twice the maximum delay has passed without a failure.
+ *
+ * Note that the failure counts are local to this process. If multiple service instances share a
+ * storage system, an attacker can make up to the failure limit attempts against each instance
+ * before being throttled.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class LoginThrottle {
+
+	private static final long BASE_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+	// bounds the memory used by attempts to log in as many different users
+	private static final long MAX_TRACKED = 100000;
+
+	private static class Failures {
+
+		private final int count;
+		private final long throttledUntil; // in ticker nanos
+
+		private Failures(final int count, final long throttledUntil) {
+			this.count = count;
+			this.throttledUntil = throttledUntil;
+		}
+	}
+
+	private final int userFailureLimit;
+	private final int addressFailureLimit;
+	private final long maxDelayNanos;
+	private final boolean enabled;
+	private final Ticker ticker;
+	private final Cache<UserName, Failures> users;
+	private final Cache<InetAddress, Failures> addresses;
+	private final LongAdder throttled = new LongAdder();
+
+	/** Create a login throttle.
+	 * @param userFailureLimit the number of failed logins for a user after which logins for that
+	 * user are throttled. 0 disables throttling by user.
+	 * @param addressFailureLimit the number of failed logins from a client address after which
+	 * logins from that address are throttled. 0 disables throttling by address.
+	 * @param maxDelayMS the maximum time, in milliseconds, that logins are rejected after a
+	 * failure. 0 disables the throttle.
+	 */
+	public LoginThrottle(
+			final int userFailureLimit,
+			final int addressFailureLimit,
+			final long maxDelayMS) {
+		this(userFailureLimit, addressFailureLimit, maxDelayMS, Ticker.systemTicker());
+	}
+
+	/* This constructor is for testing purposes only. */
+	private LoginThrottle(
+			final int userFailureLimit,
+			final int addressFailureLimit,
+			final long maxDelayMS,
+			final Ticker ticker) {
+		if (userFailureLimit < 0) {
+			throw new IllegalArgumentException("userFailureLimit must be at least 0");
+		}
+		if (addressFailureLimit < 0) {
+			throw new IllegalArgumentException("addressFailureLimit must be at least 0");
+		}
+		if (maxDelayMS < 0) {
+			throw new IllegalArgumentException("maxDelayMS must be at least 0");
+		}
+		this.userFailureLimit = userFailureLimit;
+		this.addressFailureLimit = addressFailureLimit;
+		this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMS);
+		this.ticker = ticker;
+		enabled = maxDelayMS > 0 && (userFailureLimit > 0 || addressFailureLimit > 0);
+		users = buildCache(ticker, maxDelayMS);
+		addresses = buildCache(ticker, maxDelayMS);
+	}
+
+	private static <K> Cache<K, Failures> buildCache(final Ticker ticker, final long maxDelayMS) {
+		return CacheBuilder.newBuilder()
+				.maximumSize(MAX_TRACKED)
+				.expireAfterWrite(2 * maxDelayMS, TimeUnit.MILLISECONDS)
+				.ticker(ticker)
+				.build();
+	}
+
+	/** Get a disabled login throttle.
+	 * @return a login throttle that never rejects logins.
+	 */
+	public static LoginThrottle getDisabledThrottle() {
+		return new LoginThrottle(0, 0, 0);
+	}
+
+	/** Returns true if this throttle is enabled.
+	 * @return true if the throttle is enabled.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/** Check whether a login may proceed.
+	 * @param userName the name of the user attempting to log in.
+	 * @param address the address of the client attempting to log in, if known.
+	 * @throws LoginThrottledException if there have been too many recent failed logins for the
+	 * user or from the address.
+	 */
+	public void check(final UserName userName, final Optional<InetAddress> address)
+			throws LoginThrottledException {
+		nonNull(userName, "userName");
+		nonNull(address, "address");
+		if (!enabled) {
+			return;
+		}
+		final long now = ticker.read();
+		if (userFailureLimit > 0) {
+			checkThrottled(users.getIfPresent(userName), now,
+					"for user " + userName.getName());
+		}
+		if (addressFailureLimit > 0 && address.isPresent()) {
+			checkThrottled(addresses.getIfPresent(address.get()), now, "from this address");
+		}
+	}
+
+	private void checkThrottled(final Failures f, final long now, final String source)
+			throws LoginThrottledException {
+		// the ticker may wrap, so compare the difference rather than the values
+		if (f != null && f.throttledUntil - now > 0) {
+			throttled.increment();
+			final long seconds = TimeUnit.NANOSECONDS.toSeconds(
+					f.throttledUntil - now + BASE_DELAY_NANOS - 1);
+			throw new LoginThrottledException(String.format(
+					"Too many failed logins %s, try again in %s second%s",
+					source, seconds, seconds == 1 ? "" : "s"));
+		}
+	}
+
+	/** Record a failed login.
+	 * @param userName the name of the user that failed to log in.
+	 * @param address the address of the client that failed to log in, if known.
+	 */
+	public void recordFailure(final UserName userName, final Optional<InetAddress> address) {
+		nonNull(userName, "userName");
+		nonNull(address, "address");
+		if (!enabled) {
+			return;
+		}
+		final long now = ticker.read();
+		if (userFailureLimit > 0) {
+			recordFailure(users, userName, userFailureLimit, now);
+		}
+		if (addressFailureLimit > 0 && address.isPresent()) {
+			recordFailure(addresses, address.get(), addressFailureLimit, now);
+		}
+	}
+
+	private <K> void recordFailure(
+			final Cache<K, Failures> cache,
+			final K key,
+			final int limit,
+			final long now) {
+		// compute retries rather than locks if another thread updates the entry concurrently
+		cache.asMap().compute(key, (k, f) -> {
+			final int count = f == null ? 1 : f.count + 1;
+			return new Failures(count, count < limit ? now : now + getDelay(count - limit));
+		});
+	}
+
+	private long getDelay(final int excessFailures) {
+		// 1s << 34 overflows a long in nanos. 2^32 seconds is longer than any sane max delay
+		final int shift = Math.min(excessFailures, 32);
+		return Math.min(maxDelayNanos, BASE_DELAY_NANOS << shift);
+	}
+
+	/** Record a successful login, clearing the user's failure count.
+	 * @param userName the name of the user that logged in.
+	 */
+	public void recordSuccess(final UserName userName) {
+		nonNull(userName, "userName");
+		if (enabled) {
+			users.invalidate(userName);
+		}
+	}
+
+	/** Get the number of logins rejected by the throttle.
+	 * @return the number of throttled logins.
+	 */
+	public long getThrottledCount() {
+		return throttled.sum();
+	}
+
+	/** Get the approximate number of users and addresses with recent failed logins.
+	 * @return the number of users and addresses being tracked.
+	 */
+	public long size() {
+		return users.size() + addresses.size();
+	}
+}
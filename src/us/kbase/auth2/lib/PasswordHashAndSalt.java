@@ -1,7 +1,11 @@
 package us.kbase.auth2.lib;
 
-/** Wrapper around credentials for a user, consisting of a hashed password and a salt used to
- * hash that password.
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import us.kbase.auth2.cryptutils.PasswordHashParameters;
+
+/** Wrapper around credentials for a user, consisting of a hashed password, a salt used to
+ * hash that password, and the parameters with which the password was hashed.
  * 
  * Note that the password and salt are not copied in the constructor and therefore changes to the
  * input arrays will be reflected in the class. For this reason equals() and hashCode() are not
@@ -13,12 +17,27 @@ public class PasswordHashAndSalt {
 	
 	final byte[] passwordHash;
 	final byte[] salt;
+	final PasswordHashParameters parameters;
 	
-	/** Create user credentials. Note this class can be mutated by manipulating the input arrays.
+	/** Create user credentials for a password hashed with
+	 * {@link PasswordHashParameters#ORIGINAL}. Note this class can be mutated by manipulating the
+	 * input arrays.
 	 * @param passwordHash the hash of the a user's password.
 	 * @param salt the salt used when hashing the password.
 	 */
 	public PasswordHashAndSalt(byte[] passwordHash, byte[] salt) {
+		this(passwordHash, salt, PasswordHashParameters.ORIGINAL);
+	}
+	
+	/** Create user credentials. Note this class can be mutated by manipulating the input arrays.
+	 * @param passwordHash the hash of the a user's password.
+	 * @param salt the salt used when hashing the password.
+	 * @param parameters the parameters used when hashing the password.
+	 */
+	public PasswordHashAndSalt(
+			final byte[] passwordHash,
+			final byte[] salt,
+			final PasswordHashParameters parameters) {
 		// what's the right # here? Have to rely on user to some extent
 		if (passwordHash == null || passwordHash.length < 10) {
 			throw new IllegalArgumentException("passwordHash missing or too small");
@@ -26,8 +45,10 @@ public class PasswordHashAndSalt {
 		if (salt == null || salt.length < 2) {
 			throw new IllegalArgumentException("salt missing or too small");
 		}
+		nonNull(parameters, "parameters");
 		this.passwordHash = passwordHash;
 		this.salt = salt;
+		this.parameters = parameters;
 	}
 
 	/** Get the password hash. Note that mutating the returned array will mutate this class.
@@ -44,6 +65,13 @@ public class PasswordHashAndSalt {
 		return salt;
 	}
 	
+	/** Get the parameters used when hashing the password.
+	 * @return the parameters.
+	 */
+	public PasswordHashParameters getParameters() {
+		return parameters;
+	}
+	
 	/** Zero the contents of the hash and salt arrays. */
 	public void clear() {
 		Utils.clear(passwordHash);
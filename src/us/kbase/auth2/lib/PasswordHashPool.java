@@ -0,0 +1,182 @@
+package us.kbase.auth2.lib;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import us.kbase.auth2.cryptutils.PasswordCrypt;
+import us.kbase.auth2.cryptutils.PasswordHashParameters;
+import us.kbase.auth2.lib.exceptions.ServiceUnavailableException;
+
+/** Hashes passwords on a dedicated, bounded pool of threads.
+ *
+ * Hashing a password is deliberately expensive. Running the hashes on a separate pool limits
+ * the CPU that password operations can consume, and the queue limit bounds the number of
+ * requests waiting on the pool. When the pool and queue are full, further requests fail
+ * immediately rather than waiting, so a burst of logins cannot tie up every request thread.
+ *
+ * The pool threads exit when idle.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class PasswordHashPool {
+
+	private final PasswordCrypt pwdcrypt;
+	private final int threads;
+	private final int queueLimit;
+	private final ThreadPoolExecutor executor;
+	private final LongAdder rejected = new LongAdder();
+
+	/** Create a password hash pool.
+	 * @param pwdcrypt the password encrypter to run in the pool.
+	 * @param threads the number of threads in the pool.
+	 * @param queueLimit the maximum number of hashes that may wait for a thread.
+	 */
+	public PasswordHashPool(
+			final PasswordCrypt pwdcrypt,
+			final int threads,
+			final int queueLimit) {
+		nonNull(pwdcrypt, "pwdcrypt");
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be at least 1");
+		}
+		if (queueLimit < 1) {
+			throw new IllegalArgumentException("queueLimit must be at least 1");
+		}
+		this.pwdcrypt = pwdcrypt;
+		this.threads = threads;
+		this.queueLimit = queueLimit;
+		final AtomicInteger threadCount = new AtomicInteger();
+		executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(queueLimit), r -> {
+			final Thread t = new Thread(r, "Password hashing " + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		executor.allowCoreThreadTimeOut(true);
+	}
+
+	/** Get the parameters with which the pool encrypts passwords.
+	 * @return the parameters.
+	 */
+	public PasswordHashParameters getParameters() {
+		return pwdcrypt.getParameters();
+	}
+
+	/** Encrypt a password. See {@link PasswordCrypt#getEncryptedPassword(char[], byte[])}.
+	 * @param password the password to encrypt.
+	 * @param salt the salt with which to encrypt the password.
+	 * @return the encrypted password.
+	 * @throws ServiceUnavailableException if the pool is saturated.
+	 */
+	public byte[] getEncryptedPassword(final char[] password, final byte[] salt)
+			throws ServiceUnavailableException {
+		return run(() -> pwdcrypt.getEncryptedPassword(password, salt));
+	}
+
+	/** Check a password matches an encrypted password. See
+	 * {@link PasswordCrypt#authenticate(char[], byte[], byte[])}.
+	 * @param attemptedPassword the password.
+	 * @param encryptedPassword the encrypted password.
+	 * @param salt the salt used to encrypt the password.
+	 * @return true if the password matches the encrypted password, false otherwise.
+	 * @throws ServiceUnavailableException if the pool is saturated.
+	 */
+	public boolean authenticate(
+			final char[] attemptedPassword,
+			final byte[] encryptedPassword,
+			final byte[] salt)
+			throws ServiceUnavailableException {
+		return run(() -> pwdcrypt.authenticate(attemptedPassword, encryptedPassword, salt));
+	}
+
+	/** Check a password matches an encrypted password. See
+	 * {@link PasswordCrypt#authenticate(char[], byte[], byte[], PasswordHashParameters)}.
+	 * @param attemptedPassword the password.
+	 * @param encryptedPassword the encrypted password.
+	 * @param salt the salt used to encrypt the password.
+	 * @param parameters the parameters used to encrypt the password.
+	 * @return true if the password matches the encrypted password, false otherwise.
+	 * @throws ServiceUnavailableException if the pool is saturated.
+	 */
+	public boolean authenticate(
+			final char[] attemptedPassword,
+			final byte[] encryptedPassword,
+			final byte[] salt,
+			final PasswordHashParameters parameters)
+			throws ServiceUnavailableException {
+		return run(() -> pwdcrypt.authenticate(
+				attemptedPassword, encryptedPassword, salt, parameters));
+	}
+
+	private <T> T run(final Callable<T> hash) throws ServiceUnavailableException {
+		final Future<T> result;
+		try {
+			result = executor.submit(hash);
+		} catch (RejectedExecutionException e) {
+			rejected.increment();
+			throw new ServiceUnavailableException(
+					"Too many password operations are in progress, please try again later");
+		}
+		try {
+			// the hash is short and the caller holds the password, so don't abandon it early
+			return Uninterruptibles.getUninterruptibly(result);
+		} catch (ExecutionException e) {
+			// the hashes don't throw checked exceptions
+			throw Throwables.propagate(e.getCause());
+		}
+	}
+
+	/** Get the number of threads in the pool.
+	 * @return the number of threads.
+	 */
+	public int getThreadCount() {
+		return threads;
+	}
+
+	/** Get the maximum number of hashes that may wait for a thread.
+	 * @return the queue limit.
+	 */
+	public int getQueueLimit() {
+		return queueLimit;
+	}
+
+	/** Get the approximate number of threads currently hashing passwords.
+	 * @return the number of active threads.
+	 */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	/** Get the number of hashes waiting for a thread.
+	 * @return the number of queued hashes.
+	 */
+	public int getQueuedCount() {
+		return executor.getQueue().size();
+	}
+
+	/** Get the approximate number of hashes completed since the pool was created.
+	 * @return the number of completed hashes.
+	 */
+	public long getCompletedCount() {
+		return executor.getCompletedTaskCount();
+	}
+
+	/** Get the number of hashes rejected because the pool was saturated.
+	 * @return the number of rejected hashes.
+	 */
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+}
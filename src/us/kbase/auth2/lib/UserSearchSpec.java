@@ -30,6 +30,7 @@ public class UserSearchSpec {
 	private final boolean isRegex;
 	private final boolean includeRoot;
 	private final boolean includeDisabled;
+	private final Optional<UserName> searchAfter;
 
 	private UserSearchSpec(
 			final Optional<String> prefix,
@@ -39,7 +40,8 @@ public class UserSearchSpec {
 			final Set<String> searchCustomRoles,
 			final boolean isRegex,
 			final boolean includeRoot,
-			final boolean includeDisabled) {
+			final boolean includeDisabled,
+			final Optional<UserName> searchAfter) {
 		this.prefix = prefix;
 		this.searchUser = searchUser;
 		this.searchDisplayName = searchDisplayName;
@@ -48,6 +50,7 @@ public class UserSearchSpec {
 		this.isRegex = isRegex;
 		this.includeRoot = includeRoot;
 		this.includeDisabled = includeDisabled;
+		this.searchAfter = searchAfter;
 	}
 
 	/** Returns the user and/or display name prefix or regex for the search, if any.
@@ -137,6 +140,14 @@ public class UserSearchSpec {
 		return includeDisabled;
 	}
 	
+	/** Returns the user name after which the search should start, if any. Only users with user
+	 * names that sort after this name will be returned.
+	 * @return the user name after which the search starts.
+	 */
+	public Optional<UserName> getSearchAfter() {
+		return searchAfter;
+	}
+	
 	/** Returns the field by which users should be ordered when applying a limit.
 	 * 
 	 * Returns the first field for which the is*Search() method returns true, in the order:
@@ -192,6 +203,7 @@ public class UserSearchSpec {
 		result = prime * result + ((prefix == null) ? 0 : prefix.hashCode());
 		result = prime * result + ((searchCustomRoles == null) ? 0 : searchCustomRoles.hashCode());
 		result = prime * result + (searchDisplayName ? 1231 : 1237);
+		result = prime * result + ((searchAfter == null) ? 0 : searchAfter.hashCode());
 		result = prime * result + ((searchRoles == null) ? 0 : searchRoles.hashCode());
 		result = prime * result + (searchUser ? 1231 : 1237);
 		return result;
@@ -235,6 +247,13 @@ public class UserSearchSpec {
 		if (searchDisplayName != other.searchDisplayName) {
 			return false;
 		}
+		if (searchAfter == null) {
+			if (other.searchAfter != null) {
+				return false;
+			}
+		} else if (!searchAfter.equals(other.searchAfter)) {
+			return false;
+		}
 		if (searchRoles == null) {
 			if (other.searchRoles != null) {
 				return false;
@@ -262,6 +281,7 @@ public class UserSearchSpec {
 		private boolean isRegex = false;
 		private boolean includeRoot = false;
 		private boolean includeDisabled = false;
+		private Optional<UserName> searchAfter = Optional.absent();
 		
 		private Builder() {}
 		
@@ -375,12 +395,23 @@ public class UserSearchSpec {
 			return this;
 		}
 		
+		/** Start the search after a user name. Used to page through the results of a search
+		 * ordered by user name, where the user name is that of the last user in the prior page.
+		 * @param userName the user name after which the search should start.
+		 * @return this builder.
+		 */
+		public Builder withSearchAfter(final UserName userName) {
+			nonNull(userName, "userName");
+			this.searchAfter = Optional.of(userName);
+			return this;
+		}
+		
 		/** Build a UserSearchSpec instance.
 		 * @return a UserSearchSpec.
 		 */
 		public UserSearchSpec build() {
 			return new UserSearchSpec(prefix, searchUser, searchDisplayName, searchRoles,
-					searchCustomRoles, isRegex, includeRoot, includeDisabled);
+					searchCustomRoles, isRegex, includeRoot, includeDisabled, searchAfter);
 		}
 	}
 }
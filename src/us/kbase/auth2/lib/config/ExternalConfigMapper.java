@@ -12,6 +12,10 @@ import us.kbase.auth2.lib.exceptions.ExternalConfigMappingException;
  * Note that any mapper should handle the possibility that some expected key-value pairs may not be
  * defined in the Authentication storage system.
  * 
+ * The Authentication instance caches the result of a mapping for each mapper class until the
+ * configuration changes, so the result should depend only on the key-value pairs, and the
+ * ExternalConfig class should be immutable.
+ * 
  * @author gaprice@lbl.gov
  *
  * @param <T> the type of the ExternalConfig that is the target of the mapper.
@@ -24,6 +24,8 @@ public enum ErrorType {
 	ID_PROVIDER_ERROR		(10040, "Identity provider error"),
 	/** The password and username did not match. */
 	PASSWORD_MISMATCH		(10050, "Password / username mismatch"),
+	/** Too many failed login attempts have been made for an account or from an address. */
+	LOGIN_THROTTLED			(10060, "Too many failed logins"),
 	/** The user is not authorized to perform the requested action. */
 	UNAUTHORIZED			(20000, "Unauthorized"),
 	/** The account to be accessed is disabled. */
@@ -59,7 +61,9 @@ public enum ErrorType {
 	/** The attempt to unlink one account from another failed. */
 	UNLINK_FAILED			(60010, "Account unlink failed"),
 	/** The requested operation is not supported. */
-	UNSUPPORTED_OP			(70000, "Unsupported operation");
+	UNSUPPORTED_OP			(70000, "Unsupported operation"),
+	/** The service is temporarily unable to handle the request. */
+	SERVICE_UNAVAILABLE		(80000, "Service unavailable");
 	
 	private static final Map<Integer, ErrorType> ERROR_MAP = new HashMap<>();
 	static {
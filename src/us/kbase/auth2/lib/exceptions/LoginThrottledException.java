@@ -0,0 +1,13 @@
+package us.kbase.auth2.lib.exceptions;
+
+/** Thrown when a login is rejected without checking the password because of too many recent
+ * failed login attempts.
+ * @author gaprice@lbl.gov 
+ */
+@SuppressWarnings("serial")
+public class LoginThrottledException extends AuthenticationException {
+	
+	public LoginThrottledException(final String message) {
+		super(ErrorType.LOGIN_THROTTLED, message);
+	}
+}
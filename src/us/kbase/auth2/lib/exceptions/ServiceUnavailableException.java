@@ -0,0 +1,14 @@
+package us.kbase.auth2.lib.exceptions;
+
+/** Thrown when the service is temporarily unable to handle a request, for example because it is
+ * overloaded.
+ * @author gaprice@lbl.gov
+ *
+ */
+@SuppressWarnings("serial")
+public class ServiceUnavailableException extends AuthException {
+
+	public ServiceUnavailableException(final String message) {
+		super(ErrorType.SERVICE_UNAVAILABLE, message);
+	}
+}
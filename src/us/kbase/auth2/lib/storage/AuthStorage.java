@@ -1,9 +1,11 @@
 package us.kbase.auth2.lib.storage;
 
 import java.time.Instant;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.function.BiConsumer;
 
 import com.google.common.base.Optional;
 
@@ -36,9 +38,14 @@ import us.kbase.auth2.lib.identity.RemoteIdentity;
 import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
 import us.kbase.auth2.lib.token.IncomingHashedToken;
 import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenAndUser;
+import us.kbase.auth2.lib.token.TokenAndUserAuthInfo;
+import us.kbase.auth2.lib.token.TokenAuthInfo;
+import us.kbase.auth2.lib.token.TokenRevocation;
 import us.kbase.auth2.lib.user.AuthUser;
 import us.kbase.auth2.lib.user.LocalUser;
 import us.kbase.auth2.lib.user.NewUser;
+import us.kbase.auth2.lib.user.UserAuthInfo;
 
 /** A storage system for the auth server.
  * 
@@ -83,6 +90,26 @@ public interface AuthStorage {
 	void changePassword(UserName name, PasswordHashAndSalt creds, boolean forceReset)
 			throws NoSuchUserException, AuthStorageException;
 	
+	/** Replace a local user's password hash with a hash of the same password made with
+	 * different parameters. Unlike {@link #changePassword(UserName, PasswordHashAndSalt, boolean)},
+	 * the password reset state and date are not altered.
+	 * 
+	 * The hash is only replaced if the stored hash and salt match the old credentials, so that
+	 * a concurrent password change is not overwritten.
+	 * @param name the name of the user.
+	 * @param oldCreds the credentials to be replaced.
+	 * @param newCreds the new credentials.
+	 * @return true if the credentials were replaced, false if the user does not exist, is not a
+	 * local user, or the stored credentials do not match the old credentials.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 */
+	boolean replacePasswordHash(
+			UserName name,
+			PasswordHashAndSalt oldCreds,
+			PasswordHashAndSalt newCreds)
+			throws AuthStorageException;
+	
 	/** Force a local user to reset their password on the next login.
 	 * @param name the name of the user.
 	 * @throws NoSuchUserException if the user doesn't exist or is not a local user.
@@ -141,6 +168,19 @@ public interface AuthStorage {
 	AuthUser getUser(UserName userName)
 			throws AuthStorageException, NoSuchUserException;
 	
+	/** Get the subset of a local or non-local user's fields required to authorize a request.
+	 * This is equivalent to calling {@link #getUser(UserName)} followed by
+	 * {@link AuthUser#getAuthInfo()}, but implementations may avoid retrieving the remainder of
+	 * the user's fields.
+	 * @param userName the user to get.
+	 * @return the user authorization information.
+	 * @throws NoSuchUserException if the user does not exist.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 */
+	UserAuthInfo getUserAuthInfo(UserName userName)
+			throws AuthStorageException, NoSuchUserException;
+	
 	/** Gets a user linked to a remote identity. Returns an empty Optional if the user doesn't
 	 * exist. If the provider details (provider username, email address, and full name) are
 	 * different, the details are updated in the storage system.
@@ -177,6 +217,39 @@ public interface AuthStorage {
 			UserSearchSpec spec,
 			int maxReturnedUsers)
 			throws AuthStorageException;
+	
+	/** Search for users based on a search specification, passing each user to a consumer as the
+	 * user is read from the storage system rather than collecting the users first. Users are
+	 * passed in user name order, starting after the search specification's search after user
+	 * name, if any.
+	 * 
+	 * Note that auth storage implementations have no knowledge of root users and therefore
+	 * ignore the root user selection in the search specification.
+	 * 
+	 * @param spec the specification for the search.
+	 * @param maxReturnedUsers the maximum number of users to pass to the consumer. Must be at
+	 * least 1.
+	 * @param consumer the consumer of the user names and display names of the discovered users.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 */
+	void searchUsers(
+			UserSearchSpec spec,
+			int maxReturnedUsers,
+			BiConsumer<UserName, DisplayName> consumer)
+			throws AuthStorageException;
+	
+	/** Get the lowest numeric suffix that, when appended to a base user name, does not result in
+	 * the name of an existing user, including disabled users. Suffixes with leading zeros are
+	 * never returned.
+	 * @param baseName the user name without a numeric suffix.
+	 * @param minimumSuffix the lowest suffix to consider. Must be at least 1.
+	 * @return the lowest available suffix.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 */
+	long getLowestAvailableUserNameSuffix(String baseName, long minimumSuffix)
+			throws AuthStorageException;
 
 	/** Get a local user.
 	 * @param userName the user to get.
@@ -246,6 +319,56 @@ public interface AuthStorage {
 	 */
 	StoredToken getToken(IncomingHashedToken token)
 			throws AuthStorageException, NoSuchTokenException;
+	
+	/** Get multiple tokens from the database based on the hashes of the tokens.
+	 * @param tokens the hashed tokens from which to retrieve details.
+	 * @return the tokens, keyed by the hashed token. Hashes that match no token are omitted.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 */
+	Map<IncomingHashedToken, StoredToken> getTokens(Set<IncomingHashedToken> tokens)
+			throws AuthStorageException;
+
+	/** Get a token and the user that owns the token from the database based on the hash of the
+	 * token. This is equivalent to calling {@link #getToken(IncomingHashedToken)} followed by
+	 * {@link #getUser(UserName)}, but implementations may retrieve both in a single request.
+	 * @param token the hashed token from which to retrieve details.
+	 * @return the token and the user that owns the token.
+	 * @throws NoSuchTokenException if no token matches the incoming token hash.
+	 * @throws NoSuchUserException if the user that owns the token does not exist.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 */
+	TokenAndUser getTokenAndUser(IncomingHashedToken token)
+			throws AuthStorageException, NoSuchTokenException, NoSuchUserException;
+	
+	/** Get the subset of a token's fields required to authenticate a request from the database
+	 * based on the hash of the token. This is equivalent to calling
+	 * {@link #getToken(IncomingHashedToken)} followed by {@link StoredToken#getAuthInfo()}, but
+	 * implementations may avoid retrieving the remainder of the token's fields.
+	 * @param token the hashed token from which to retrieve details.
+	 * @return the token authentication information.
+	 * @throws NoSuchTokenException if no token matches the incoming token hash.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 */
+	TokenAuthInfo getTokenAuthInfo(IncomingHashedToken token)
+			throws AuthStorageException, NoSuchTokenException;
+	
+	/** Get the authentication information for a token and the authorization information for
+	 * the user that owns the token from the database based on the hash of the token. This is
+	 * equivalent to calling {@link #getTokenAuthInfo(IncomingHashedToken)} followed by
+	 * {@link #getUserAuthInfo(UserName)}, but implementations may retrieve both in a single
+	 * request.
+	 * @param token the hashed token from which to retrieve details.
+	 * @return the token and user information.
+	 * @throws NoSuchTokenException if no token matches the incoming token hash.
+	 * @throws NoSuchUserException if the user that owns the token does not exist.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 */
+	TokenAndUserAuthInfo getTokenAndUserAuthInfo(IncomingHashedToken token)
+			throws AuthStorageException, NoSuchTokenException, NoSuchUserException;
 
 	/** Get all the tokens for a user.
 	 * @param userName the user for which to retrieve tokens.
@@ -255,7 +378,7 @@ public interface AuthStorage {
 	 */
 	Set<StoredToken> getTokens(UserName userName) throws AuthStorageException;
 
-	/** Deletes a token from the database.
+	/** Deletes a token from the database. The token is added to the list of revoked tokens.
 	 * @param userName the user that owns the token.
 	 * @param tokenId the ID of the token.
 	 * @throws NoSuchTokenException if the user does not possess a token with the given ID.
@@ -265,7 +388,7 @@ public interface AuthStorage {
 	void deleteToken(UserName userName, UUID tokenId)
 			throws AuthStorageException, NoSuchTokenException;
 
-	/** Deletes all tokens for a user.
+	/** Deletes all tokens for a user. The tokens are added to the list of revoked tokens.
 	 * @param userName the user whose tokens will be deleted.
 	 * @throws AuthStorageException if a problem connecting with the storage
 	 * system occurs.
@@ -277,6 +400,40 @@ public interface AuthStorage {
 	 * system occurs.
 	 */
 	void deleteTokens() throws AuthStorageException;
+	
+	/** Get the tokens that have been revoked, via any of the token deletion methods, since a
+	 * given time. Revoked tokens are retained until their expiration date.
+	 * @param since the time from which to return revoked tokens, inclusive.
+	 * @return the expiration date of each revoked token, keyed by the token ID.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 */
+	Map<UUID, Instant> getRevokedTokens(Instant since) throws AuthStorageException;
+	
+	/** Get entries from the token revocation log. Each token deleted via any of the token
+	 * deletion methods is added to the log before the deletion, when the token is added to the
+	 * revoked token list, with a sequence number greater than that of any previous entry. If
+	 * the entry can't be written the token is not deleted. Note that sequence numbers are
+	 * allocated before entries are written, and so an entry may briefly appear before entries
+	 * with lower sequence numbers, and a sequence number may never be used.
+	 * 
+	 * As for the revoked token list, entries are retained until the expiration date of the
+	 * token.
+	 * @param afterSequence return entries with a sequence number greater than this number.
+	 * @param limit the maximum number of entries to return.
+	 * @return the entries, in sequence order.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 */
+	List<TokenRevocation> getTokenRevocations(long afterSequence, int limit)
+			throws AuthStorageException;
+	
+	/** Get the most recently allocated sequence number for the token revocation log.
+	 * @return the sequence number, or 0 if no sequence numbers have been allocated.
+	 * @throws AuthStorageException if a problem connecting with the storage
+	 * system occurs.
+	 */
+	long getTokenRevocationSequence() throws AuthStorageException;
 
 	/** Update roles for a user.
 	 * If a role is in addRoles and removeRoles it will be removed.
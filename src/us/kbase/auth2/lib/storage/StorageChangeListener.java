@@ -0,0 +1,44 @@
+package us.kbase.auth2.lib.storage;
+
+import java.util.UUID;
+
+import us.kbase.auth2.lib.UserName;
+
+/** A listener for changes to the data in an authentication storage system. The changes may have
+ * been made by this process or by other processes sharing the storage system. Used to keep in
+ * memory caches of the data coherent.
+ * 
+ * Listener methods are called from a thread owned by the storage system and so must be thread
+ * safe.
+ * @author gaprice@lbl.gov
+ *
+ */
+public interface StorageChangeListener {
+
+	/** Called when a token is deleted.
+	 * @param userName the user that owned the token.
+	 * @param tokenID the ID of the token.
+	 */
+	void tokenDeleted(UserName userName, UUID tokenID);
+	
+	/** Called when all of a user's tokens are deleted.
+	 * @param userName the user that owned the tokens.
+	 */
+	void tokensDeleted(UserName userName);
+	
+	/** Called when all tokens are deleted. */
+	void allTokensDeleted();
+	
+	/** Called when a user is changed.
+	 * @param userName the name of the user.
+	 */
+	void userChanged(UserName userName);
+	
+	/** Called when all users may have changed. */
+	void allUsersChanged();
+	
+	/** Called when changes may have been missed, for example when (re)connecting to the storage
+	 * system. Any cached data should be discarded.
+	 */
+	void changesMissed();
+}
@@ -0,0 +1,310 @@
+package us.kbase.auth2.lib.storage.mongo;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+import com.mongodb.CursorType;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.exceptions.IllegalParameterException;
+import us.kbase.auth2.lib.exceptions.MissingParameterException;
+import us.kbase.auth2.lib.storage.StorageChangeListener;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+
+/** Tails the capped collection of changes made to the database by this and other processes,
+ * and passes the changes to a {@link StorageChangeListener}. Also keeps the custom role
+ * catalog, and optionally the token filter and user search index, current.
+ *
+ * If the connection to the database is interrupted, the feed reconnects and calls
+ * {@link StorageChangeListener#changesMissed()}. The token filter and user search index are
+ * disabled while the feed is down and rebuilt when it reconnects.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class ChangeFeed {
+
+	/** The type of a change recorded in the change collection.
+	 * @author gaprice@lbl.gov
+	 *
+	 */
+	public enum ChangeType {
+
+		/** The change collection was created. */
+		START			("start"),
+		/** A token was created. */
+		NEW_TOKEN		("newtoken"),
+		/** A user was created. */
+		NEW_USER		("newuser"),
+		/** A token was deleted. */
+		TOKEN			("token"),
+		/** All of a user's tokens were deleted. */
+		USER_TOKENS		("usertokens"),
+		/** All tokens were deleted. */
+		ALL_TOKENS		("alltokens"),
+		/** A user was changed. */
+		USER			("user"),
+		/** All users may have changed. */
+		ALL_USERS		("allusers");
+
+		private final String id;
+
+		private ChangeType(final String id) {
+			this.id = id;
+		}
+
+		/** Get the ID of the change type as stored in the change collection.
+		 * @return the ID.
+		 */
+		public String getID() {
+			return id;
+		}
+
+		/** Get a change type by its ID.
+		 * @param id the ID.
+		 * @return the change type, or null if there is no such type.
+		 */
+		public static ChangeType getType(final String id) {
+			for (final ChangeType ct: values()) {
+				if (ct.id.equals(id)) {
+					return ct;
+				}
+			}
+			return null;
+		}
+	}
+
+	private static final int RETRY_MS = 1000;
+	/* the maximum time the server waits for new changes before returning an empty batch. An
+	 * empty batch tells the token filter that it's caught up, so this bounds how far the filter
+	 * lags behind new tokens.
+	 */
+	private static final int AWAIT_MS = 100;
+
+	private final MongoCollection<Document> changes;
+	private final StorageChangeListener listener;
+	private final CustomRoleCatalog customRoleCatalog;
+	private final TokenFilter filter;
+	private final long tokenFilterRebuildIntervalMS;
+	private final Optional<UserSearchIndex> index;
+	private volatile boolean stopped = false;
+	private volatile Thread thread = null;
+	private volatile long lastLagMS = -1;
+	private volatile long maxLagMS = -1;
+	// only accessed by the feed thread
+	private Instant nextTokenFilterRebuild = Instant.MAX;
+
+	/** Create a change feed. The feed does not read changes until it is started.
+	 * @param changes the capped collection of changes.
+	 * @param listener the listener to receive the changes.
+	 * @param customRoleCatalog the custom role catalog, refreshed when the feed (re)connects.
+	 * @param filter the token filter.
+	 * @param tokenFilterRebuildIntervalMS the interval, in milliseconds, between rebuilds of the
+	 * token filter. 0 disables the token filter.
+	 * @param index the user search index, if enabled.
+	 */
+	public ChangeFeed(
+			final MongoCollection<Document> changes,
+			final StorageChangeListener listener,
+			final CustomRoleCatalog customRoleCatalog,
+			final TokenFilter filter,
+			final long tokenFilterRebuildIntervalMS,
+			final Optional<UserSearchIndex> index) {
+		nonNull(changes, "changes");
+		nonNull(listener, "listener");
+		nonNull(customRoleCatalog, "customRoleCatalog");
+		nonNull(filter, "filter");
+		nonNull(index, "index");
+		if (tokenFilterRebuildIntervalMS < 0) {
+			throw new IllegalArgumentException(
+					"tokenFilterRebuildIntervalMS must be at least 0");
+		}
+		this.changes = changes;
+		this.listener = listener;
+		this.customRoleCatalog = customRoleCatalog;
+		this.filter = filter;
+		this.tokenFilterRebuildIntervalMS = tokenFilterRebuildIntervalMS;
+		this.index = index;
+	}
+
+	/** Start reading changes from a daemon thread. */
+	public void start() {
+		final Thread t = new Thread(this::run, "MongoStorage change feed");
+		t.setDaemon(true);
+		thread = t;
+		t.start();
+	}
+
+	/** Stop reading changes and disable the token filter and user search index. The listener
+	 * may receive at most one more change after this method is called. The feed thread exits
+	 * shortly afterwards, and does not log errors caused by the database connection being closed
+	 * after the feed is stopped.
+	 */
+	public void stop() {
+		stopped = true;
+		final Thread t = thread;
+		if (t != null) {
+			t.interrupt(); // wakes the thread if it's waiting to reconnect
+		}
+		filter.disable();
+		if (index.isPresent()) {
+			index.get().disable();
+		}
+	}
+
+	/** Get the time between when the most recently received change was made and when it was
+	 * received by the change feed.
+	 * @return the change lag in milliseconds, or -1 if no changes have been received.
+	 */
+	public long getLastLagMS() {
+		return lastLagMS;
+	}
+
+	/** Get the maximum time between when a change was made and when it was received by the
+	 * change feed.
+	 * @return the maximum change lag in milliseconds, or -1 if no changes have been received.
+	 */
+	public long getMaxLagMS() {
+		return maxLagMS;
+	}
+
+	/** Returns true if the feed thread has been started and has not yet exited.
+	 * @return true if the feed is running.
+	 */
+	public boolean isRunning() {
+		final Thread t = thread;
+		return t != null && t.isAlive();
+	}
+
+	private void run() {
+		while (!stopped) {
+			try {
+				tail();
+			} catch (AuthStorageException | RuntimeException e) { // incl. MongoException
+				if (stopped) {
+					break; // expected if the client was closed after stopping the feed
+				}
+				LoggerFactory.getLogger(getClass()).error(
+						"Error reading change feed: " + e.getMessage(), e);
+			}
+			// tokens created while the feed is down would be missing from the filter
+			filter.disable();
+			if (index.isPresent()) {
+				index.get().disable();
+			}
+			if (!stopped) {
+				try {
+					Thread.sleep(RETRY_MS);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	private void tail() throws AuthStorageException {
+		final Instant start = Instant.now();
+		/* changes may have been made since the cursor was last open. The cursor starts at
+		 * the beginning of the collection, so changes made after this point will be seen
+		 * even if they're made before the cursor is opened.
+		 */
+		listener.changesMissed();
+		customRoleCatalog.refresh();
+		/* tokens created while the filter is rebuilt are added from the change feed when
+		 * processing resumes, since their changes are recorded before the token is stored.
+		 */
+		rebuildTokenFilter();
+		// as for the token filter, users changed during the build are updated by the feed
+		if (index.isPresent()) {
+			index.get().rebuild();
+		}
+		try (final MongoCursor<Document> cur = changes.find()
+				.cursorType(CursorType.TailableAwait)
+				.maxAwaitTime(AWAIT_MS, TimeUnit.MILLISECONDS)
+				.noCursorTimeout(true)
+				.iterator()) {
+			while (!stopped) {
+				final Instant polled = Instant.now();
+				// waits on the server for a short time for new changes
+				final Document change = cur.tryNext();
+				if (change != null) {
+					process(change, start);
+				} else if (cur.getServerCursor() == null) {
+					return; // the server closed the cursor, e.g. the collection was dropped
+				} else {
+					// every change made before the poll has been processed
+					filter.caughtUp(polled);
+				}
+				if (index.isPresent()) {
+					// batch the reads of changed users, since the feed replays old changes
+					index.get().refresh(change == null);
+				}
+				if (Instant.now().isAfter(nextTokenFilterRebuild) || filter.isOverfilled()) {
+					rebuildTokenFilter();
+				}
+			}
+		}
+	}
+
+	private void rebuildTokenFilter() throws AuthStorageException {
+		if (tokenFilterRebuildIntervalMS > 0) {
+			filter.rebuild();
+			nextTokenFilterRebuild = Instant.now().plusMillis(tokenFilterRebuildIntervalMS);
+		}
+	}
+
+	private void process(final Document change, final Instant start)
+			throws AuthStorageException {
+		final Instant time = change.getDate(Fields.CHANGE_TIME).toInstant();
+		// changes made before the feed started are already accounted for by changesMissed()
+		if (!time.isBefore(start)) {
+			lastLagMS = Math.max(0, Instant.now().toEpochMilli() - time.toEpochMilli());
+			maxLagMS = Math.max(maxLagMS, lastLagMS);
+		}
+		final String user = change.getString(Fields.CHANGE_USER_NAME);
+		final ChangeType type = ChangeType.getType(change.getString(Fields.CHANGE_TYPE));
+		if (type == null) {
+			// written by a newer version of the server, so be safe
+			listener.changesMissed();
+		} else if (ChangeType.NEW_TOKEN.equals(type)) {
+			filter.put(change.getString(Fields.CHANGE_TOKEN_HASH));
+		} else if (ChangeType.NEW_USER.equals(type)) {
+			if (index.isPresent()) {
+				index.get().changed(getUserName(user));
+			}
+		} else if (ChangeType.TOKEN.equals(type)) {
+			listener.tokenDeleted(getUserName(user),
+					UUID.fromString(change.getString(Fields.CHANGE_TOKEN_ID)));
+		} else if (ChangeType.USER_TOKENS.equals(type)) {
+			listener.tokensDeleted(getUserName(user));
+		} else if (ChangeType.ALL_TOKENS.equals(type)) {
+			listener.allTokensDeleted();
+		} else if (ChangeType.USER.equals(type)) {
+			listener.userChanged(getUserName(user));
+			if (index.isPresent()) {
+				index.get().changed(getUserName(user));
+			}
+		} else if (ChangeType.ALL_USERS.equals(type)) {
+			listener.allUsersChanged();
+			if (index.isPresent()) {
+				index.get().rebuild();
+			}
+		} // else START, nothing to do
+	}
+
+	private UserName getUserName(final String namestr) throws AuthStorageException {
+		try {
+			return new UserName(namestr);
+		} catch (MissingParameterException | IllegalParameterException e) {
+			throw new AuthStorageException("Illegal value stored in db: " + e.getMessage(), e);
+		}
+	}
+}
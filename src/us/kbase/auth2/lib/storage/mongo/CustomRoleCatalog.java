@@ -0,0 +1,107 @@
+package us.kbase.auth2.lib.storage.mongo;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.bson.types.ObjectId;
+
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+
+/** Caches the custom role catalog - the mapping of role object IDs, which are stored in the
+ * user documents, to role IDs - to avoid querying the roles collection every time a user is
+ * read. The number of custom roles is expected to be small.
+ *
+ * The catalog should be refreshed when roles are set or deleted, and when a user has a role
+ * that is not in the catalog. The catalog is also refreshed on an interval so that roles
+ * deleted via other processes are eventually removed.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class CustomRoleCatalog {
+
+	/** Loads the custom role catalog from the database.
+	 * @author gaprice@lbl.gov
+	 *
+	 */
+	public interface CatalogLoader {
+
+		/** Load the custom role catalog.
+		 * @return the role IDs, keyed by the role object ID.
+		 * @throws AuthStorageException if a problem connecting with the storage system occurs.
+		 */
+		Map<ObjectId, String> load() throws AuthStorageException;
+	}
+
+	private final CatalogLoader loader;
+	private final long refreshIntervalMS;
+	private final Clock clock;
+	private volatile Map<ObjectId, String> roles = null;
+	private volatile Instant nextRefresh = Instant.MIN;
+	private final AtomicBoolean reloading = new AtomicBoolean();
+
+	/** Create a custom role catalog. The catalog is loaded on first use.
+	 * @param loader the loader for the catalog.
+	 * @param refreshIntervalMS the interval, in milliseconds, after which the catalog is
+	 * reloaded.
+	 */
+	public CustomRoleCatalog(final CatalogLoader loader, final long refreshIntervalMS) {
+		this(loader, refreshIntervalMS, Clock.systemDefaultZone()); // don't care about time zone
+	}
+
+	// this should only be used for tests
+	private CustomRoleCatalog(
+			final CatalogLoader loader,
+			final long refreshIntervalMS,
+			final Clock clock) {
+		nonNull(loader, "loader");
+		if (refreshIntervalMS < 0) {
+			throw new IllegalArgumentException("refreshIntervalMS must be at least 0");
+		}
+		this.loader = loader;
+		this.refreshIntervalMS = refreshIntervalMS;
+		this.clock = clock;
+	}
+
+	/** Get the catalog, reloading it if the refresh interval has passed. Only one caller reloads
+	 * the catalog, and other callers receive the current catalog rather than waiting for the
+	 * reload, except when the catalog has never been loaded.
+	 * @return the role IDs, keyed by the role object ID.
+	 * @throws AuthStorageException if a problem connecting with the storage system occurs.
+	 */
+	public Map<ObjectId, String> get() throws AuthStorageException {
+		final Map<ObjectId, String> current = roles;
+		if (current == null) {
+			return load();
+		}
+		if (clock.instant().isAfter(nextRefresh) && reloading.compareAndSet(false, true)) {
+			try {
+				return refresh();
+			} finally {
+				reloading.set(false);
+			}
+		}
+		return current;
+	}
+
+	private synchronized Map<ObjectId, String> load() throws AuthStorageException {
+		// another caller may have loaded the catalog while this caller was waiting
+		return roles == null ? refresh() : roles;
+	}
+
+	/** Reload the catalog.
+	 * @return the role IDs, keyed by the role object ID.
+	 * @throws AuthStorageException if a problem connecting with the storage system occurs.
+	 */
+	// synchronized so an older read of the roles collection can't overwrite a newer one
+	public synchronized Map<ObjectId, String> refresh() throws AuthStorageException {
+		roles = Collections.unmodifiableMap(new HashMap<>(loader.load()));
+		nextRefresh = clock.instant().plusMillis(refreshIntervalMS);
+		return roles;
+	}
+}
@@ -25,6 +25,12 @@ public class Fields {
 	/** The canonical version of the display name. E.g. split into parts, whitespace removed, etc.
 	 */
 	public static final String USER_DISPLAY_NAME_CANONICAL = "dispcan";
+	/** The user name with any trailing digits removed. */
+	public static final String USER_NAME_BASE = "userbase";
+	/** The numeric suffix of the user name. Absent if the user name has no suffix or the suffix
+	 * has leading zeros.
+	 */
+	public static final String USER_NAME_SUFFIX = "usersuf";
 	/** The user's email address. */
 	public static final String USER_EMAIL = "email";
 	/** The user's remote identities. */
@@ -55,6 +61,18 @@ public class Fields {
 	public static final String USER_PWD_HSH = "pwdhsh";
 	/** The salt used for hashing the password. For local accounts only. */
 	public static final String USER_SALT = "salt";
+	/** The algorithm used for hashing the password. For local accounts only. Absent for
+	 * passwords hashed before the parameters were recorded, which used the original parameters.
+	 */
+	public static final String USER_PWD_ALGORITHM = "pwdalg";
+	/** The number of iterations used for hashing the password. For local accounts only. Absent
+	 * if {@link #USER_PWD_ALGORITHM} is absent.
+	 */
+	public static final String USER_PWD_ITERATIONS = "pwditer";
+	/** The length in bits of the password hash. For local accounts only. Absent if
+	 * {@link #USER_PWD_ALGORITHM} is absent.
+	 */
+	public static final String USER_PWD_KEY_LENGTH = "pwdkeylen";
 	/** Whether the a password reset is required for the user on the next login.
 	 * For local accounts only.
 	 */
@@ -181,6 +199,10 @@ public class Fields {
 	public static final String DB_SCHEMA_UPDATE = "inupdate";
 	/** The version of the database schema. */
 	public static final String DB_SCHEMA_VERSION = "schemaver";
+	/** Whether the user name parts have been added to the users created before the parts were
+	 * stored.
+	 */
+	public static final String DB_SCHEMA_USER_NAME_PARTS = "usernameparts";
 
 	/* *********************
 	 * configuration fields
@@ -213,4 +235,46 @@ public class Fields {
 	public static final String CONFIG_APP_TOKEN_LIFE_DEV = "tokenlifedev";
 	/** The lifetime of a server token. */
 	public static final String CONFIG_APP_TOKEN_LIFE_SERV = "tokenlifeserv";
+	
+	/* *************
+	 * change fields
+	 * *************
+	 */
+	
+	/** The type of the change. */
+	public static final String CHANGE_TYPE = "type";
+	/** The user affected by the change, if any. */
+	public static final String CHANGE_USER_NAME = "user";
+	/** The ID of the token affected by the change, if any. */
+	public static final String CHANGE_TOKEN_ID = "tokid";
+	/** The hash of the token affected by the change, if any. */
+	public static final String CHANGE_TOKEN_HASH = "hash";
+	/** The time the change was made. */
+	public static final String CHANGE_TIME = "time";
+	
+	/* ********************
+	 * revoked token fields
+	 * ********************
+	 */
+	
+	/** The ID of the revoked token. */
+	public static final String REVOKED_ID = "id";
+	/** The date the revoked token expires. */
+	public static final String REVOKED_EXPIRY = "expires";
+	/** The time the token was revoked. */
+	public static final String REVOKED_TIME = "revoked";
+	/** The user that owned the revoked token. */
+	public static final String REVOKED_USER_NAME = "user";
+	/** The sequence number of the revocation in the token revocation log. Absent for tokens
+	 * revoked before the log existed.
+	 */
+	public static final String REVOKED_SEQUENCE = "seq";
+	
+	/* **************
+	 * counter fields
+	 * **************
+	 */
+	
+	/** The most recently allocated value of the counter. */
+	public static final String COUNTER_VALUE = "value";
 }
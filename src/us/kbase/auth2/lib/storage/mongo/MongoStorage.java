@@ -21,30 +21,45 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import org.bson.Document;
 import org.bson.types.ObjectId;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Optional;
 import com.mongodb.ErrorCategory;
+import com.mongodb.MongoCommandException;
 import com.mongodb.MongoException;
 import com.mongodb.MongoWriteException;
+import com.mongodb.ReadPreference;
 import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.CreateCollectionOptions;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.FindOneAndDeleteOptions;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
 import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.ReturnDocument;
 import com.mongodb.client.model.UpdateOneModel;
 import com.mongodb.client.model.UpdateOptions;
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
 
+import us.kbase.auth2.cryptutils.PasswordHashParameters;
 import us.kbase.auth2.lib.CustomRole;
 import us.kbase.auth2.lib.DisplayName;
 import us.kbase.auth2.lib.EmailAddress;
@@ -88,15 +103,24 @@ import us.kbase.auth2.lib.identity.RemoteIdentity;
 import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
 import us.kbase.auth2.lib.identity.RemoteIdentityID;
 import us.kbase.auth2.lib.storage.AuthStorage;
+import us.kbase.auth2.lib.storage.StorageChangeListener;
 import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
 import us.kbase.auth2.lib.storage.exceptions.StorageInitException;
+import us.kbase.auth2.lib.storage.mongo.ChangeFeed.ChangeType;
+import us.kbase.auth2.lib.storage.mongo.UserSearchIndex.IndexedUser;
+import us.kbase.auth2.lib.storage.mongo.UserUpdateBuffer.PendingUpdate;
 import us.kbase.auth2.lib.token.IncomingHashedToken;
 import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenAndUser;
+import us.kbase.auth2.lib.token.TokenAndUserAuthInfo;
+import us.kbase.auth2.lib.token.TokenAuthInfo;
 import us.kbase.auth2.lib.token.TokenName;
+import us.kbase.auth2.lib.token.TokenRevocation;
 import us.kbase.auth2.lib.token.TokenType;
 import us.kbase.auth2.lib.user.AuthUser;
 import us.kbase.auth2.lib.user.LocalUser;
 import us.kbase.auth2.lib.user.NewUser;
+import us.kbase.auth2.lib.user.UserAuthInfo;
 
 /** A MongoDB based implementation of the authentication storage system.
  * 
@@ -123,6 +147,11 @@ public class MongoStorage implements AuthStorage {
 	
 	private static final int SCHEMA_VERSION = 1;
 	
+	private static final int CUSTOM_ROLE_CATALOG_REFRESH_MS = 30 * 1000;
+	
+	// the field in which the user document is placed when looking up a token and user together
+	private static final String LOOKUP_USER_DOC = "userdoc";
+	
 	private static final String COL_CONFIG = "config";
 	private static final String COL_CONFIG_APPLICATION = "config_app";
 	private static final String COL_CONFIG_PROVIDERS = "config_prov";
@@ -131,6 +160,42 @@ public class MongoStorage implements AuthStorage {
 	private static final String COL_TOKEN = "tokens";
 	private static final String COL_TEMP_DATA = "tempdata";
 	private static final String COL_CUST_ROLES = "cust_roles";
+	private static final String COL_REVOKED = "revoked";
+	// the maximum number of tokens to revoke in one database request
+	private static final int REVOKE_BATCH_SIZE = 1000;
+	// the maximum number of users to update in one database request when adding name parts
+	private static final int USER_NAME_PARTS_BATCH = 1000;
+	private static final Pattern TRAILING_DIGITS = Pattern.compile("\\d*$");
+	// the token fields required to revoke a token
+	private static final Document REVOKE_PROJECTION = new Document(Fields.TOKEN_ID, 1)
+			.append(Fields.TOKEN_USER_NAME, 1).append(Fields.TOKEN_EXPIRY, 1);
+	// the token fields required to authenticate a request
+	private static final Document TOKEN_AUTH_PROJECTION = new Document(Fields.TOKEN_ID, 1)
+			.append(Fields.TOKEN_TYPE, 1).append(Fields.TOKEN_USER_NAME, 1)
+			.append(Fields.TOKEN_EXPIRY, 1);
+	// the user fields required to authorize a request
+	private static final Document USER_AUTH_PROJECTION = new Document(Fields.USER_NAME, 1)
+			.append(Fields.USER_ROLES, 1).append(Fields.USER_DISABLED_REASON, 1);
+	// the token and user fields required to authenticate and authorize a request
+	private static final Document TOKEN_AND_USER_AUTH_PROJECTION =
+			new Document(TOKEN_AUTH_PROJECTION)
+					.append(LOOKUP_USER_DOC + "." + Fields.USER_NAME, 1)
+					.append(LOOKUP_USER_DOC + "." + Fields.USER_ROLES, 1)
+					.append(LOOKUP_USER_DOC + "." + Fields.USER_DISABLED_REASON, 1);
+	// the user fields required to answer user searches from the user search index
+	private static final Document USER_SEARCH_INDEX_PROJECTION = new Document(Fields.USER_NAME, 1)
+			.append(Fields.USER_DISPLAY_NAME, 1)
+			.append(Fields.USER_DISPLAY_NAME_CANONICAL, 1)
+			.append(Fields.USER_DISABLED_REASON, 1);
+	// holds counters from which sequence numbers are allocated, keyed by the counter name
+	private static final String COL_COUNTERS = "counters";
+	private static final String COUNTER_REVOCATIONS = "revocations";
+	// a capped collection, so old changes are automatically removed
+	private static final String COL_CHANGES = "changes";
+	private static final long CHANGES_MAX_BYTES = 5 * 1024 * 1024;
+	private static final long CHANGES_MAX_DOCS = 10000;
+	// mongo error code for an attempt to create a collection that already exists
+	private static final int NAMESPACE_EXISTS = 48;
 	
 	private static final Map<TokenLifetimeType, String>
 			TOKEN_LIFETIME_FIELD_MAP;
@@ -144,6 +209,10 @@ public class MongoStorage implements AuthStorage {
 		TOKEN_LIFETIME_FIELD_MAP = Collections.unmodifiableMap(m);
 	}
 	
+	// covers display name lookups by user name, so the user documents are not read
+	private static final List<String> USER_DISPLAY_NAME_INDEX = Arrays.asList(
+			Fields.USER_NAME, Fields.USER_DISPLAY_NAME, Fields.USER_DISABLED_REASON);
+	
 	private static final Map<String, Map<List<String>, IndexOptions>> INDEXES;
 	private static final IndexOptions IDX_UNIQ = new IndexOptions().unique(true);
 	private static final IndexOptions IDX_SPARSE = new IndexOptions().sparse(true);
@@ -157,11 +226,15 @@ public class MongoStorage implements AuthStorage {
 		final Map<List<String>, IndexOptions> users = new HashMap<>();
 		//find users and ensure user names are unique
 		users.put(Arrays.asList(Fields.USER_NAME), IDX_UNIQ);
+		//get display names for user names
+		users.put(USER_DISPLAY_NAME_INDEX, null);
 		//find user by identity id and ensure identities only possessed by one user
 		users.put(Arrays.asList(Fields.USER_IDENTITIES + Fields.FIELD_SEP +
 				Fields.IDENTITIES_ID), IDX_UNIQ_SPARSE);
 		//find users by display name
 		users.put(Arrays.asList(Fields.USER_DISPLAY_NAME_CANONICAL), null);
+		//find available numeric suffixes for user names
+		users.put(Arrays.asList(Fields.USER_NAME_BASE, Fields.USER_NAME_SUFFIX), null);
 		//find users by roles
 		users.put(Arrays.asList(Fields.USER_ROLES), IDX_SPARSE);
 		//find users by custom roles
@@ -200,6 +273,18 @@ public class MongoStorage implements AuthStorage {
 				new IndexOptions().expireAfter(0L, TimeUnit.SECONDS));
 		INDEXES.put(COL_TEMP_DATA, temptoken);
 		
+		//revoked token indexes
+		final Map<List<String>, IndexOptions> revoked = new HashMap<>();
+		revoked.put(Arrays.asList(Fields.REVOKED_ID), IDX_UNIQ);
+		// find tokens revoked since a given time
+		revoked.put(Arrays.asList(Fields.REVOKED_TIME), null);
+		// the revocation is no longer needed after the token expires
+		revoked.put(Arrays.asList(Fields.REVOKED_EXPIRY),
+				new IndexOptions().expireAfter(0L, TimeUnit.SECONDS));
+		// follow the token revocation log. Tokens revoked before the log existed have no sequence
+		revoked.put(Arrays.asList(Fields.REVOKED_SEQUENCE), IDX_UNIQ_SPARSE);
+		INDEXES.put(COL_REVOKED, revoked);
+		
 		//config indexes
 		final Map<List<String>, IndexOptions> cfg = new HashMap<>();
 		//ensure only one config object
@@ -224,25 +309,575 @@ public class MongoStorage implements AuthStorage {
 	}
 	
 	private final MongoDatabase db;
+	private final ReadPreference tokenReadPreference;
+	private final boolean tokenReadsFromPrimary;
 	private final Clock clock;
+	private final boolean lookupSupported;
+	private final CustomRoleCatalog customRoleCatalog = new CustomRoleCatalog(
+			() -> toRoleCatalog(getCustomRoles(new Document())), CUSTOM_ROLE_CATALOG_REFRESH_MS);
+	private ChangeFeed changeFeed = null;
+	private volatile boolean recordChanges = true;
+	// a new filter is created for each change feed, since it's maintained by the feed thread
+	private volatile TokenFilter tokenFilter = newTokenFilter();
+	private final LongAdder tokenFilterRejects = new LongAdder();
+	// a new index is created for each change feed, since it's maintained by the feed thread
+	private volatile UserSearchIndex userSearchIndex = newUserSearchIndex();
+	private final LongAdder userSearchIndexHits = new LongAdder();
+	private volatile UserUpdateBuffer userUpdateBuffer = null;
+	private final LongAdder userUpdatesFlushed = new LongAdder();
+	// a single thread that exits when idle. Used for cleanup tasks that needn't block requests
+	private final ExecutorService cleanupExecutor = new ThreadPoolExecutor(
+			0, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+				final Thread t = new Thread(r, "MongoStorage cleanup");
+				t.setDaemon(true);
+				return t;
+			});
 	
 	/** Create a new MongoDB authentication storage system.
 	 * @param db the MongoDB database to use for storage.
 	 * @throws StorageInitException if the storage system could not be initialized.
 	 */
 	public MongoStorage(final MongoDatabase db) throws StorageInitException {
-		this(db, Clock.systemDefaultZone()); //don't use timezone
+		this(db, ReadPreference.primary());
+	}
+	
+	/** Create a new MongoDB authentication storage system that validates tokens against members
+	 * of a replica set other than the primary.
+	 * 
+	 * All reads other than token validation are sent to the primary, regardless of the database
+	 * read preference. Token validation reads that do not find a token or its user are repeated
+	 * against the primary, so a token can be validated immediately after it is created. However,
+	 * a token may continue to validate on a lagging secondary for the duration of the
+	 * replication lag after it is revoked.
+	 * @param db the MongoDB database to use for storage.
+	 * @param tokenReadPreference the read preference for token validation reads.
+	 * @throws StorageInitException if the storage system could not be initialized.
+	 */
+	public MongoStorage(final MongoDatabase db, final ReadPreference tokenReadPreference)
+			throws StorageInitException {
+		this(db, tokenReadPreference, Clock.systemDefaultZone()); //don't use timezone
 	}
 	
 	// this should only be used for tests
 	private MongoStorage(final MongoDatabase db, final Clock clock) throws StorageInitException {
+		this(db, ReadPreference.primary(), clock);
+	}
+	
+	private MongoStorage(
+			final MongoDatabase db,
+			final ReadPreference tokenReadPreference,
+			final Clock clock)
+			throws StorageInitException {
 		nonNull(db, "db");
-		this.db = db;
+		nonNull(tokenReadPreference, "tokenReadPreference");
+		// writes followed by reads, like the change feed, require the primary
+		this.db = db.withReadPreference(ReadPreference.primary());
+		this.tokenReadPreference = tokenReadPreference;
+		tokenReadsFromPrimary = ReadPreference.primary().equals(tokenReadPreference);
 		this.clock = clock;
 		
 		//TODO MISC port over schemamanager from UJS (will need changes for schema key & mdb ver)
 		ensureIndexes(); // MUST come before checkConfig();
 		checkConfig();
+		addUserNameParts();
+		ensureChangeCollection();
+		lookupSupported = isLookupSupported();
+	}
+	
+	/* Stores the user name parts for users created before the parts were stored. Runs once per
+	 * database and then records that it's done in the config document, so later startups don't
+	 * scan the users collection.
+	 */
+	private void addUserNameParts() throws StorageInitException {
+		final MongoCollection<Document> cfg = db.getCollection(COL_CONFIG);
+		final Document schema = new Document(Fields.DB_SCHEMA_KEY, Fields.DB_SCHEMA_VALUE);
+		final MongoCollection<Document> col = db.getCollection(COL_USERS);
+		final List<UpdateOneModel<Document>> updates = new LinkedList<>();
+		try {
+			if (Boolean.TRUE.equals(cfg.find(schema).first().get(
+					Fields.DB_SCHEMA_USER_NAME_PARTS))) {
+				return;
+			}
+			for (final Document d: col.find(new Document(
+					Fields.USER_NAME_BASE, new Document("$exists", false)))
+					.projection(new Document(Fields.USER_NAME, 1))) {
+				final String name = d.getString(Fields.USER_NAME);
+				updates.add(new UpdateOneModel<>(new Document(Fields.USER_NAME, name),
+						new Document("$set", appendUserNameParts(new Document(), name))));
+				if (updates.size() >= USER_NAME_PARTS_BATCH) {
+					col.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+					updates.clear();
+				}
+			}
+			if (!updates.isEmpty()) {
+				col.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+			}
+			cfg.updateOne(schema, new Document("$set",
+					new Document(Fields.DB_SCHEMA_USER_NAME_PARTS, true)));
+		} catch (MongoException e) {
+			throw new StorageInitException(
+					"Failed to update user name suffixes: " + e.getMessage(), e);
+		}
+	}
+	
+	/* Adds the user name without trailing digits and the numeric suffix, if any, so available
+	 * suffixes can be found from the index. Suffixes with leading zeros are never suggested, and
+	 * suffixes with more than 18 digits might not fit in a long, so neither is stored.
+	 */
+	private static Document appendUserNameParts(final Document user, final String userName) {
+		final String base = TRAILING_DIGITS.matcher(userName).replaceFirst("");
+		final String suffix = userName.substring(base.length());
+		user.append(Fields.USER_NAME_BASE, base);
+		if (!suffix.isEmpty() && suffix.charAt(0) != '0' && suffix.length() <= 18) {
+			user.append(Fields.USER_NAME_SUFFIX, Long.parseLong(suffix));
+		}
+		return user;
+	}
+	
+	private void ensureChangeCollection() throws StorageInitException {
+		createCappedCollection(COL_CHANGES, CHANGES_MAX_BYTES, CHANGES_MAX_DOCS);
+		final boolean empty;
+		try {
+			empty = db.getCollection(COL_CHANGES).find().limit(1).first() == null;
+		} catch (MongoException e) {
+			throw new StorageInitException(
+					"There was a problem communicating with the database: " + e.getMessage(), e);
+		}
+		if (empty) {
+			// a tailable cursor on an empty capped collection is immediately closed
+			try {
+				db.getCollection(COL_CHANGES).insertOne(
+						makeChange(ChangeType.START, null, null, null));
+			} catch (MongoException e) {
+				throw new StorageInitException("There was a problem communicating with the " +
+						"database: " + e.getMessage(), e);
+			}
+		}
+	}
+	
+	private void createCappedCollection(
+			final String collection,
+			final long maxBytes,
+			final long maxDocs)
+			throws StorageInitException {
+		try {
+			db.createCollection(collection, new CreateCollectionOptions()
+					.capped(true)
+					.sizeInBytes(maxBytes)
+					.maxDocuments(maxDocs));
+		} catch (MongoCommandException e) {
+			if (e.getErrorCode() == NAMESPACE_EXISTS) {
+				return; // not the first startup
+			}
+			throw new StorageInitException(
+					"There was a problem communicating with the database: " + e.getMessage(), e);
+		} catch (MongoException e) {
+			throw new StorageInitException(
+					"There was a problem communicating with the database: " + e.getMessage(), e);
+		}
+	}
+	
+	// the $lookup aggregation stage is only available in MongoDB 3.2+
+	private boolean isLookupSupported() throws StorageInitException {
+		final Document buildinfo;
+		try {
+			buildinfo = db.runCommand(new Document("buildinfo", 1));
+		} catch (MongoException me) {
+			throw new StorageInitException(
+					"There was a problem communicating with the database: " + me.getMessage(), me);
+		}
+		@SuppressWarnings("unchecked")
+		final List<Integer> ver = (List<Integer>) buildinfo.get("versionArray");
+		return ver.get(0) > 3 || (ver.get(0) == 3 && ver.get(1) >= 2);
+	}
+	
+	/** Start listening for changes made to the data in the database by this or any other process
+	 * sharing the database. The listener is called from a separate daemon thread.
+	 * 
+	 * Changes are stored in a capped collection which is tailed by the listening thread. If the
+	 * connection to the database is interrupted or the listener falls far enough behind that
+	 * changes are removed from the capped collection before they are read,
+	 * {@link StorageChangeListener#changesMissed()} is called.
+	 * 
+	 * Only one listener may be registered.
+	 * @param listener the listener.
+	 */
+	public void startChangeFeed(final StorageChangeListener listener) {
+		startChangeFeed(listener, 0);
+	}
+	
+	/** Start listening for changes as {@link #startChangeFeed(StorageChangeListener)}, and
+	 * optionally enable the token filter.
+	 * 
+	 * The token filter is an in memory Bloom filter of the hashes of all the unexpired tokens in
+	 * the database. Requests for tokens that are definitely not in the filter are rejected
+	 * without querying the database, which protects the database from floods of invalid or
+	 * expired tokens. The filter is kept current with tokens created by this and other processes
+	 * via the change feed, and is rebuilt from the database on the given interval to remove
+	 * deleted and expired tokens. Until the filter is built, and whenever the change feed is
+	 * interrupted, all token requests query the database.
+	 * 
+	 * Tokens are recorded in the change feed before they are stored, and a token that is not in
+	 * the filter is only rejected once the change feed has processed every change made before
+	 * the token was first presented. Requests never wait for the change feed, so the first
+	 * request for a missing token queries the database, and later requests for the same token
+	 * are rejected by the filter.
+	 * 
+	 * The filter does not reject tokens until a rebuild verifies that every token created since
+	 * the previous build was recorded in the change feed, and so is not used while any process
+	 * sharing the database is running a version of the server that does not record token
+	 * creation.
+	 * @param listener the listener.
+	 * @param tokenFilterRebuildIntervalMS the interval, in milliseconds, between rebuilds of the
+	 * token filter. 0 disables the token filter.
+	 */
+	public void startChangeFeed(
+			final StorageChangeListener listener,
+			final long tokenFilterRebuildIntervalMS) {
+		startChangeFeed(listener, tokenFilterRebuildIntervalMS, false);
+	}
+	
+	/** Start listening for changes as
+	 * {@link #startChangeFeed(StorageChangeListener, long)}, and optionally enable the user
+	 * search index.
+	 * 
+	 * The user search index is an in memory index of the user names and the tokens of the
+	 * canonical display names of all the users in the database. User and display name prefix
+	 * searches that do not search on roles or custom roles are answered from the index rather
+	 * than the database. The index is built when the change feed starts and kept current via
+	 * the change feed, so changes to users, including changes made by this process, are
+	 * reflected in search results after the change feed lag. Until the index is built, and
+	 * whenever the change feed is interrupted, searches query the database.
+	 * 
+	 * Every process sharing the database must be running a version of the server that records
+	 * user creation in the change feed.
+	 * @param listener the listener.
+	 * @param tokenFilterRebuildIntervalMS the interval, in milliseconds, between rebuilds of the
+	 * token filter. 0 disables the token filter.
+	 * @param userSearchIndex true to enable the user search index.
+	 */
+	public synchronized void startChangeFeed(
+			final StorageChangeListener listener,
+			final long tokenFilterRebuildIntervalMS,
+			final boolean userSearchIndex) {
+		nonNull(listener, "listener");
+		if (tokenFilterRebuildIntervalMS < 0) {
+			throw new IllegalArgumentException(
+					"tokenFilterRebuildIntervalMS must be at least 0");
+		}
+		if (changeFeed != null) {
+			throw new IllegalStateException("A change listener is already registered");
+		}
+		// the feed consumes the changes made by this process as well as other processes
+		recordChanges = true;
+		tokenFilter = newTokenFilter();
+		this.userSearchIndex = newUserSearchIndex();
+		changeFeed = new ChangeFeed(db.getCollection(COL_CHANGES), listener, customRoleCatalog,
+				tokenFilter, tokenFilterRebuildIntervalMS, userSearchIndex ?
+						Optional.of(this.userSearchIndex) : Optional.absent());
+		changeFeed.start();
+	}
+	
+	/** Stop listening for changes. Has no effect if {@link #startChangeFeed} has not been called.
+	 * The listener may receive at most one more change after this method is called. Must be
+	 * called before closing the client for this storage instance, or the change feed thread
+	 * continues to try to reconnect.
+	 */
+	public synchronized void stopChangeFeed() {
+		if (changeFeed != null) {
+			changeFeed.stop();
+			changeFeed = null;
+		}
+	}
+	
+	/** Stop recording changes to tokens and users in the change feed, which saves a database
+	 * write for each change. Changes are recorded by default. This should only be called when
+	 * no process sharing the database listens to the change feed, since those processes will
+	 * otherwise not see changes made by this process until their caches expire, and changes
+	 * made by this process will not appear in their user search indexes. Token filters in other
+	 * processes are not affected, since they are not used while any process does not record
+	 * new tokens.
+	 * @throws IllegalStateException if the change feed is running in this process.
+	 */
+	public synchronized void stopRecordingChanges() {
+		if (changeFeed != null) {
+			throw new IllegalStateException(
+					"Changes cannot be ignored while the change feed is running");
+		}
+		recordChanges = false;
+	}
+	
+	/** Returns true if the token filter is built and verified and is being used to reject
+	 * requests for tokens that do not exist. See
+	 * {@link #startChangeFeed(StorageChangeListener, long)}.
+	 * @return true if the token filter is in use.
+	 */
+	public boolean isTokenFilterActive() {
+		return tokenFilter.isActive();
+	}
+	
+	/** Get the number of token requests that were rejected by the token filter without querying
+	 * the database.
+	 * @return the number of rejected token requests.
+	 */
+	public long getTokenFilterRejectCount() {
+		return tokenFilterRejects.sum();
+	}
+	
+	/** Returns true if the user search index is built and is being used to answer user
+	 * searches. See {@link #startChangeFeed(StorageChangeListener, long, boolean)}.
+	 * @return true if the user search index is in use.
+	 */
+	public boolean isUserSearchIndexActive() {
+		return userSearchIndex.isActive();
+	}
+	
+	/** Get the number of user searches that were answered by the user search index without
+	 * querying the database.
+	 * @return the number of searches answered by the index.
+	 */
+	public long getUserSearchIndexHitCount() {
+		return userSearchIndexHits.sum();
+	}
+	
+	/** Get the time between when the most recently received change was made and when it was
+	 * received by the change feed. The time is calculated based on the clocks of the process
+	 * that made the change and this process, and so is affected by clock skew.
+	 * @return the change lag in milliseconds, or -1 if no changes have been received.
+	 */
+	public synchronized long getChangeFeedLastLagMS() {
+		return changeFeed == null ? -1 : changeFeed.getLastLagMS();
+	}
+	
+	/** Get the maximum time between when a change was made and when it was received by the
+	 * change feed. See {@link #getChangeFeedLastLagMS()}.
+	 * @return the maximum change lag in milliseconds, or -1 if no changes have been received.
+	 */
+	public synchronized long getChangeFeedMaxLagMS() {
+		return changeFeed == null ? -1 : changeFeed.getMaxLagMS();
+	}
+	
+	/** Start buffering last login dates and changes to the details of remote identities, and
+	 * write the buffered updates to the database in batches from a separate daemon thread.
+	 * Logins and identity lookups then no longer wait for these writes. Multiple updates for the
+	 * same user between writes are coalesced, and the latest update wins.
+	 * 
+	 * While the buffer is running, {@link #setLastLogin(UserName, Instant)} does not throw
+	 * {@link NoSuchUserException}, and updates for users that no longer exist are discarded.
+	 * If a batch cannot be written, the updates are retried with the next batch. Buffered
+	 * updates are lost if the process exits without calling {@link #stopUserUpdateBuffer()}.
+	 * @param flushIntervalMS the interval, in milliseconds, between writes of the buffered
+	 * updates.
+	 */
+	public synchronized void startUserUpdateBuffer(final long flushIntervalMS) {
+		if (flushIntervalMS < 1) {
+			throw new IllegalArgumentException("flushIntervalMS must be at least 1");
+		}
+		if (userUpdateBuffer != null) {
+			throw new IllegalStateException("The user update buffer is already running");
+		}
+		userUpdateBuffer = new UserUpdateBuffer(this::writeUserUpdates, flushIntervalMS);
+		userUpdateBuffer.start();
+	}
+	
+	/** Stop buffering user updates and write any buffered updates to the database. Has no
+	 * effect if {@link #startUserUpdateBuffer(long)} has not been called.
+	 */
+	public synchronized void stopUserUpdateBuffer() {
+		if (userUpdateBuffer != null) {
+			final UserUpdateBuffer buffer = userUpdateBuffer;
+			// updates made after this point are written directly
+			userUpdateBuffer = null;
+			buffer.stop();
+		}
+	}
+	
+	/** Get the number of users with updates waiting to be written to the database.
+	 * @return the number of users, or 0 if the user update buffer is not running.
+	 */
+	public int getUserUpdateBufferSize() {
+		final UserUpdateBuffer buffer = userUpdateBuffer;
+		return buffer == null ? 0 : buffer.size();
+	}
+	
+	/** Get the time taken by the most recent write of buffered user updates to the database.
+	 * @return the write time in milliseconds, or -1 if no updates have been written.
+	 */
+	public synchronized long getUserUpdateLastFlushMS() {
+		return userUpdateBuffer == null ? -1 : userUpdateBuffer.getLastFlushMS();
+	}
+	
+	/** Get the maximum time taken by a write of buffered user updates to the database.
+	 * @return the maximum write time in milliseconds, or -1 if no updates have been written.
+	 */
+	public synchronized long getUserUpdateMaxFlushMS() {
+		return userUpdateBuffer == null ? -1 : userUpdateBuffer.getMaxFlushMS();
+	}
+	
+	/** Get the number of buffered user updates that were written to the database. Updates that
+	 * were coalesced with a later update for the same user are not counted.
+	 * @return the number of updates written.
+	 */
+	public long getUserUpdateFlushedCount() {
+		return userUpdatesFlushed.sum();
+	}
+	
+	/* Records a change so that other processes sharing the database can update any in memory
+	 * caches. The change itself has already been made, but if it can't be recorded the operation
+	 * fails, since otherwise revoked tokens and changed users might be served from the caches of
+	 * other processes until the caches expire.
+	 */
+	private void recordChange(final ChangeType type, final UserName user, final UUID tokenID)
+			throws AuthStorageException {
+		if (recordChanges) {
+			try {
+				db.getCollection(COL_CHANGES).insertOne(makeChange(type, user, tokenID, null));
+			} catch (MongoException e) {
+				throw new AuthStorageException(
+						"Connection to database failed: " + e.getMessage(), e);
+			}
+		}
+	}
+	
+	private Document makeChange(
+			final ChangeType type,
+			final UserName user,
+			final UUID tokenID,
+			final String tokenHash) {
+		return new Document(Fields.CHANGE_TYPE, type.getID())
+				.append(Fields.CHANGE_USER_NAME, user == null ? null : user.getName())
+				.append(Fields.CHANGE_TOKEN_ID, tokenID == null ? null : tokenID.toString())
+				.append(Fields.CHANGE_TOKEN_HASH, tokenHash)
+				.append(Fields.CHANGE_TIME, Date.from(Instant.now()));
+	}
+	
+	private TokenFilter newTokenFilter() {
+		return new TokenFilter(new TokenFilter.TokenSource() {
+			
+			@Override
+			public long count() throws AuthStorageException {
+				try {
+					return db.getCollection(COL_TOKEN).count(unexpiredTokensQuery());
+				} catch (MongoException e) {
+					throw new AuthStorageException(
+							"Connection to database failed: " + e.getMessage(), e);
+				}
+			}
+			
+			@Override
+			public void read(final BiConsumer<String, Instant> consumer)
+					throws AuthStorageException {
+				try {
+					for (final Document d: db.getCollection(COL_TOKEN)
+							.find(unexpiredTokensQuery()).projection(
+									new Document(Fields.TOKEN_TOKEN, 1)
+											.append(Fields.TOKEN_CREATION, 1)
+											.append(Fields.MONGO_ID, 0))) {
+						consumer.accept(d.getString(Fields.TOKEN_TOKEN),
+								d.getDate(Fields.TOKEN_CREATION).toInstant());
+					}
+				} catch (MongoException e) {
+					throw new AuthStorageException(
+							"Connection to database failed: " + e.getMessage(), e);
+				}
+			}
+		});
+	}
+	
+	private Document unexpiredTokensQuery() {
+		return new Document(Fields.TOKEN_EXPIRY, new Document("$gt", Date.from(Instant.now())));
+	}
+	
+	// counts the tokens rejected by the token filter
+	private boolean mightContainToken(final String tokenHash, final Instant presented) {
+		if (tokenFilter.mightContain(tokenHash, presented)) {
+			return true;
+		}
+		tokenFilterRejects.increment();
+		return false;
+	}
+	
+	private UserSearchIndex newUserSearchIndex() {
+		return new UserSearchIndex(new UserSearchIndex.UserSource() {
+			
+			@Override
+			public void readAll(final Consumer<IndexedUser> consumer)
+					throws AuthStorageException {
+				readIndexedUsers(new Document(), consumer);
+			}
+			
+			@Override
+			public void read(final Set<UserName> userNames, final Consumer<IndexedUser> consumer)
+					throws AuthStorageException {
+				final List<String> names = userNames.stream().map(n -> n.getName())
+						.collect(Collectors.toList());
+				readIndexedUsers(new Document(Fields.USER_NAME, new Document("$in", names)),
+						consumer);
+			}
+		});
+	}
+	
+	private void readIndexedUsers(final Document query, final Consumer<IndexedUser> consumer)
+			throws AuthStorageException {
+		try (final MongoCursor<Document> cur = db.getCollection(COL_USERS).find(query)
+				.projection(USER_SEARCH_INDEX_PROJECTION).iterator()) {
+			while (cur.hasNext()) {
+				final Document user = cur.next();
+				@SuppressWarnings("unchecked")
+				final List<String> tokens =
+						(List<String>) user.get(Fields.USER_DISPLAY_NAME_CANONICAL);
+				consumer.accept(new IndexedUser(
+						getUserName(user.getString(Fields.USER_NAME)),
+						getDisplayName(user.getString(Fields.USER_DISPLAY_NAME)),
+						tokens,
+						user.get(Fields.USER_DISABLED_REASON) != null));
+			}
+		} catch (MongoException e) {
+			throw new AuthStorageException(
+					"Connection to database failed: " + e.getMessage(), e);
+		}
+	}
+	
+	private void writeUserUpdates(final Map<UserName, PendingUpdate> updates)
+			throws AuthStorageException {
+		final List<UpdateOneModel<Document>> writes = new LinkedList<>();
+		long count = 0;
+		for (final Entry<UserName, PendingUpdate> e: updates.entrySet()) {
+			final PendingUpdate u = e.getValue();
+			if (u.getLastLogin().isPresent()) {
+				// another process may have recorded a later login
+				writes.add(new UpdateOneModel<>(
+						new Document(Fields.USER_NAME, e.getKey().getName()),
+						new Document("$max", new Document(
+								Fields.USER_LAST_LOGIN, Date.from(u.getLastLogin().get())))));
+			}
+			for (final RemoteIdentity ri: u.getIdentities()) {
+				// the id might have been unlinked, in which case the update is a no-op
+				writes.add(new UpdateOneModel<>(makeUserQuery(ri), makeIdentityUpdate(ri)));
+			}
+			count += u.size();
+		}
+		try {
+			// unordered, so the remaining updates are applied if one fails
+			db.getCollection(COL_USERS).bulkWrite(writes, new BulkWriteOptions().ordered(false));
+		} catch (MongoException e) {
+			throw new AuthStorageException(
+					"Connection to database failed: " + e.getMessage(), e);
+		}
+		userUpdatesFlushed.add(count);
+		if (recordChanges) {
+			final List<Document> changes = new LinkedList<>();
+			for (final UserName userName: updates.keySet()) {
+				changes.add(makeChange(ChangeType.USER, userName, null, null));
+			}
+			try {
+				// if this fails the buffer retries the updates, which are idempotent
+				db.getCollection(COL_CHANGES).insertMany(changes);
+			} catch (MongoException e) {
+				throw new AuthStorageException(
+						"Connection to database failed: " + e.getMessage(), e);
+			}
+		}
 	}
 	
 	private void checkConfig() throws StorageInitException  {
@@ -288,13 +923,18 @@ public class MongoStorage implements AuthStorage {
 
 	private void ensureIndexes() throws StorageInitException {
 		for (String col: INDEXES.keySet()) {
+			final MongoCollection<Document> dbcol = db.getCollection(col);
+			// creating an existing index is a no-op, but costs a round trip per index
+			final Set<Document> existing = getIndexSpecs(dbcol);
 			for (List<String> idx: INDEXES.get(col).keySet()) {
-				final Document index = new Document();
 				final IndexOptions opts = INDEXES.get(col).get(idx);
+				if (existing.contains(toIndexSpec(idx, opts == null ? new IndexOptions() : opts))) {
+					continue;
+				}
+				final Document index = new Document();
 				for (String field: idx) {
 					index.put(field, 1);
 				}
-				final MongoCollection<Document> dbcol = db.getCollection(col);
 				try {
 					if (opts == null) {
 						dbcol.createIndex(index);
@@ -308,6 +948,47 @@ public class MongoStorage implements AuthStorage {
 			}
 		}
 	}
+	
+	/* Returns the existing ascending indexes in the same form as toIndexSpec(). An index with the
+	 * same keys but different options is left for createIndex() to fail on.
+	 */
+	private Set<Document> getIndexSpecs(final MongoCollection<Document> col)
+			throws StorageInitException {
+		final Set<Document> specs = new HashSet<>();
+		try {
+			for (final Document index: col.listIndexes()) {
+				final Document key = (Document) index.get("key");
+				final List<String> fields = new LinkedList<>();
+				for (final Entry<String, Object> field: key.entrySet()) {
+					if (field.getValue() instanceof Number &&
+							((Number) field.getValue()).doubleValue() == 1) {
+						fields.add(field.getKey());
+					}
+				}
+				if (fields.size() != key.size()) {
+					continue; // not an index created by ensureIndexes()
+				}
+				final IndexOptions opts = new IndexOptions()
+						.unique(Boolean.TRUE.equals(index.get("unique")))
+						.sparse(Boolean.TRUE.equals(index.get("sparse")));
+				final Number ttl = (Number) index.get("expireAfterSeconds");
+				if (ttl != null) {
+					opts.expireAfter(ttl.longValue(), TimeUnit.SECONDS);
+				}
+				specs.add(toIndexSpec(fields, opts));
+			}
+		} catch (MongoException me) {
+			throw new StorageInitException("Failed to list indexes: " + me.getMessage(), me);
+		}
+		return specs;
+	}
+	
+	private Document toIndexSpec(final List<String> fields, final IndexOptions opts) {
+		return new Document("key", fields)
+				.append("unique", opts.isUnique())
+				.append("sparse", opts.isSparse())
+				.append("ttl", opts.getExpireAfter(TimeUnit.SECONDS));
+	}
 
 	@Override
 	public void createLocalUser(final LocalUser local, final PasswordHashAndSalt creds)
@@ -323,8 +1004,8 @@ public class MongoStorage implements AuthStorage {
 		final Optional<Instant> time = local.getEnableToggleDate();
 		final Optional<String> reason = local.getReasonForDisabled();
 		final Optional<Instant> reset = local.getLastPwdReset();
-		final Document u = new Document(
-				Fields.USER_NAME, local.getUserName().getName())
+		final Document u = appendUserNameParts(new Document(
+				Fields.USER_NAME, local.getUserName().getName()), local.getUserName().getName())
 				.append(Fields.USER_LOCAL, true)
 				.append(Fields.USER_EMAIL, local.getEmail().getAddress())
 				.append(Fields.USER_DISPLAY_NAME, local.getDisplayName().getName())
@@ -346,6 +1027,7 @@ public class MongoStorage implements AuthStorage {
 						Date.from(reset.get()) : null)
 				.append(Fields.USER_PWD_HSH, encpwdhsh)
 				.append(Fields.USER_SALT, encsalt);
+		u.putAll(toDocument(creds.getParameters()));
 		try {
 			db.getCollection(COL_USERS).insertOne(u);
 		} catch (MongoWriteException mwe) {
@@ -357,6 +1039,7 @@ public class MongoStorage implements AuthStorage {
 		} catch (MongoException e) {
 			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
 		}
+		recordChange(ChangeType.NEW_USER, local.getUserName(), null);
 	}
 	
 	@Override
@@ -395,13 +1078,37 @@ public class MongoStorage implements AuthStorage {
 				new Document(Fields.USER_NAME, userName.getName())
 						.append(Fields.USER_LOCAL, true),
 				new Document(Fields.USER_SALT, 1)
-						.append(Fields.USER_PWD_HSH, 1));
+						.append(Fields.USER_PWD_HSH, 1)
+						.append(Fields.USER_PWD_ALGORITHM, 1)
+						.append(Fields.USER_PWD_ITERATIONS, 1)
+						.append(Fields.USER_PWD_KEY_LENGTH, 1));
 		if (d == null) {
 			throw new NoSuchLocalUserException(userName.getName());
 		}
 		return new PasswordHashAndSalt(
 				Base64.getDecoder().decode(d.getString(Fields.USER_PWD_HSH)),
-				Base64.getDecoder().decode(d.getString(Fields.USER_SALT)));
+				Base64.getDecoder().decode(d.getString(Fields.USER_SALT)),
+				getPasswordHashParameters(d));
+	}
+	
+	private PasswordHashParameters getPasswordHashParameters(final Document user)
+			throws AuthStorageException {
+		final String alg = user.getString(Fields.USER_PWD_ALGORITHM);
+		if (alg == null) {
+			return PasswordHashParameters.ORIGINAL; // hashed before parameters were stored
+		}
+		try {
+			return new PasswordHashParameters(alg, user.getInteger(Fields.USER_PWD_ITERATIONS),
+					user.getInteger(Fields.USER_PWD_KEY_LENGTH));
+		} catch (IllegalArgumentException | NullPointerException e) {
+			throw new AuthStorageException("Illegal value stored in db: " + e.getMessage(), e);
+		}
+	}
+	
+	private Document toDocument(final PasswordHashParameters params) {
+		return new Document(Fields.USER_PWD_ALGORITHM, params.getAlgorithm())
+				.append(Fields.USER_PWD_ITERATIONS, params.getIterations())
+				.append(Fields.USER_PWD_KEY_LENGTH, params.getKeyLength());
 	}
 	
 	private void addRoles(final AuthUser.AbstractBuilder<?> b, final Document user) {
@@ -528,9 +1235,37 @@ public class MongoStorage implements AuthStorage {
 				.append(Fields.USER_RESET_PWD_LAST, Date.from(clock.instant()))
 				.append(Fields.USER_PWD_HSH, pwdhsh)
 				.append(Fields.USER_SALT, encsalt);
+		set.putAll(toDocument(creds.getParameters()));
 		updateUser(name, set);
 	}
 	
+	@Override
+	public boolean replacePasswordHash(
+			final UserName name,
+			final PasswordHashAndSalt oldCreds,
+			final PasswordHashAndSalt newCreds)
+			throws AuthStorageException {
+		nonNull(name, "name");
+		nonNull(oldCreds, "oldCreds");
+		nonNull(newCreds, "newCreds");
+		final Document query = new Document(Fields.USER_NAME, name.getName())
+				.append(Fields.USER_LOCAL, true)
+				.append(Fields.USER_PWD_HSH,
+						Base64.getEncoder().encodeToString(oldCreds.getPasswordHash()))
+				.append(Fields.USER_SALT, Base64.getEncoder().encodeToString(oldCreds.getSalt()));
+		final Document set = new Document(Fields.USER_PWD_HSH,
+						Base64.getEncoder().encodeToString(newCreds.getPasswordHash()))
+				.append(Fields.USER_SALT, Base64.getEncoder().encodeToString(newCreds.getSalt()));
+		set.putAll(toDocument(newCreds.getParameters()));
+		try {
+			// the user's cached state doesn't include credentials, so don't record a change
+			return db.getCollection(COL_USERS).updateOne(query, new Document("$set", set))
+					.getMatchedCount() == 1;
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+	}
+	
 	@Override
 	public void forcePasswordReset(final UserName name)
 			throws NoSuchUserException, AuthStorageException {
@@ -560,8 +1295,9 @@ public class MongoStorage implements AuthStorage {
 				.collect(Collectors.toSet());
 		final Collection<ObjectId> customRoles = getCustomRoleIds(
 				newUser.getCustomRoles()).values();
-		final Document u = new Document(
-				Fields.USER_NAME, newUser.getUserName().getName())
+		final Document u = appendUserNameParts(new Document(
+				Fields.USER_NAME, newUser.getUserName().getName()),
+				newUser.getUserName().getName())
 				.append(Fields.USER_LOCAL, false)
 				.append(Fields.USER_EMAIL, newUser.getEmail().getAddress())
 				.append(Fields.USER_DISPLAY_NAME, newUser.getDisplayName().getName())
@@ -597,6 +1333,7 @@ public class MongoStorage implements AuthStorage {
 		} catch (MongoException e) {
 			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
 		}
+		recordChange(ChangeType.NEW_USER, newUser.getUserName(), null);
 	}
 
 	private List<Document> toDocument(final Map<PolicyID, Instant> policyIDs) {
@@ -675,6 +1412,11 @@ public class MongoStorage implements AuthStorage {
 				.append(Fields.TOKEN_IP, ctx.getIpAddress().isPresent() ?
 						ctx.getIpAddress().get().getHostAddress() : null)
 				.append(Fields.TOKEN_CUSTOM_CONTEXT, toCustomContextList(ctx.getCustomContext()));
+		/* the token filter treats a token as absent once the change feed has processed the
+		 * changes made before the token was presented, so the token must be announced before
+		 * it's stored. An announced token that fails to store is harmless.
+		 */
+		announceToken(token, hash);
 		try {
 			db.getCollection(COL_TOKEN).insertOne(td);
 		} catch (MongoWriteException mwe) {
@@ -695,6 +1437,20 @@ public class MongoStorage implements AuthStorage {
 			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
 		}
 	}
+	
+	private void announceToken(final StoredToken token, final String hash)
+			throws AuthStorageException {
+		tokenFilter.put(hash);
+		if (recordChanges) {
+			try {
+				db.getCollection(COL_CHANGES).insertOne(makeChange(
+						ChangeType.NEW_TOKEN, token.getUserName(), token.getId(), hash));
+			} catch (MongoException e) {
+				throw new AuthStorageException(
+						"Connection to database failed: " + e.getMessage(), e);
+			}
+		}
+	}
 
 	private List<Document> toCustomContextList(
 			final Map<String, String> customContext) {
@@ -724,8 +1480,21 @@ public class MongoStorage implements AuthStorage {
 			final Document query,
 			final Document projection)
 			throws AuthStorageException {
+		return findOne(collection, query, projection, ReadPreference.primary());
+	}
+	
+	/* Use this for finding documents where indexes should force only a single
+	 * document. Assumes the indexes are doing their job.
+	 */
+	private Document findOne(
+			final String collection,
+			final Document query,
+			final Document projection,
+			final ReadPreference readPreference)
+			throws AuthStorageException {
 		try {
-			return db.getCollection(collection).find(query).projection(projection).first();
+			return db.getCollection(collection).withReadPreference(readPreference)
+					.find(query).projection(projection).first();
 		} catch (MongoException e) {
 			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
 		}
@@ -734,21 +1503,183 @@ public class MongoStorage implements AuthStorage {
 	@Override
 	public StoredToken getToken(final IncomingHashedToken token)
 			throws AuthStorageException, NoSuchTokenException {
+		final StoredToken st = getToken(findToken(token, new Document(Fields.TOKEN_TOKEN, 0)));
+		checkExpired(st.getExpirationDate());
+		return st;
+	}
+	
+	@Override
+	public TokenAuthInfo getTokenAuthInfo(final IncomingHashedToken token)
+			throws AuthStorageException, NoSuchTokenException {
+		final TokenAuthInfo t = toTokenAuthInfo(findToken(token, TOKEN_AUTH_PROJECTION));
+		checkExpired(t.getExpirationDate());
+		return t;
+	}
+	
+	private Document findToken(final IncomingHashedToken token, final Document projection)
+			throws AuthStorageException, NoSuchTokenException {
 		nonNull(token, "token");
-		final Document t = findOne(COL_TOKEN,
-				new Document(Fields.TOKEN_TOKEN, token.getTokenHash()),
-				new Document(Fields.TOKEN_TOKEN, 0));
+		if (!mightContainToken(token.getTokenHash(), Instant.now())) {
+			throw new NoSuchTokenException("Token not found");
+		}
+		final Document query = new Document(Fields.TOKEN_TOKEN, token.getTokenHash());
+		Document t = findOne(COL_TOKEN, query, projection, tokenReadPreference);
+		if (t == null && !tokenReadsFromPrimary) {
+			// the token may have been created too recently to have been replicated
+			t = findOne(COL_TOKEN, query, projection);
+		}
 		if (t == null) {
 			throw new NoSuchTokenException("Token not found");
 		}
-		final StoredToken htoken = getToken(t);
+		return t;
+	}
+	
+	@Override
+	public Map<IncomingHashedToken, StoredToken> getTokens(
+			final Set<IncomingHashedToken> tokens)
+			throws AuthStorageException {
+		nonNull(tokens, "tokens");
+		noNulls(tokens, "Null token in tokens");
+		final Map<String, IncomingHashedToken> hashes = new HashMap<>();
+		final Instant presented = Instant.now();
+		for (final IncomingHashedToken t: tokens) {
+			if (mightContainToken(t.getTokenHash(), presented)) {
+				hashes.put(t.getTokenHash(), t);
+			}
+		}
+		final Map<IncomingHashedToken, StoredToken> ret = new HashMap<>();
+		if (hashes.isEmpty()) {
+			return ret;
+		}
+		final Set<String> found = getTokens(hashes, tokenReadPreference, ret);
+		if (!tokenReadsFromPrimary && found.size() < hashes.size()) {
+			// some of the tokens may have been created too recently to have been replicated
+			hashes.keySet().removeAll(found);
+			getTokens(hashes, ReadPreference.primary(), ret);
+		}
+		return ret;
+	}
+	
+	// returns the hashes of the tokens that were found, including expired tokens
+	private Set<String> getTokens(
+			final Map<String, IncomingHashedToken> hashes,
+			final ReadPreference readPreference,
+			final Map<IncomingHashedToken, StoredToken> results)
+			throws AuthStorageException {
+		final Set<String> found = new HashSet<>();
+		final Instant now = Instant.now();
+		try {
+			// one query on the token hash index for all the tokens
+			final FindIterable<Document> docs = db.getCollection(COL_TOKEN)
+					.withReadPreference(readPreference)
+					.find(new Document(Fields.TOKEN_TOKEN, new Document("$in", hashes.keySet())));
+			for (final Document d: docs) {
+				final StoredToken st = getToken(d);
+				found.add(d.getString(Fields.TOKEN_TOKEN));
+				// expired tokens are removed by mongo on a ~1 min interval, so check here
+				if (!now.isAfter(st.getExpirationDate())) {
+					results.put(hashes.get(d.getString(Fields.TOKEN_TOKEN)), st);
+				}
+			}
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+		return found;
+	}
+	
+	private void checkExpired(final Instant expirationDate) throws NoSuchTokenException {
 		/* although expired tokens are automatically deleted from the DB by mongo, the thread
 		 * only runs ~1/min, so check here
 		 */
-		if (Instant.now().isAfter(htoken.getExpirationDate())) {
+		if (Instant.now().isAfter(expirationDate)) {
+			throw new NoSuchTokenException("Token not found");
+		}
+	}
+	
+	@Override
+	public TokenAndUser getTokenAndUser(final IncomingHashedToken token)
+			throws AuthStorageException, NoSuchTokenException, NoSuchUserException {
+		nonNull(token, "token");
+		if (!lookupSupported) {
+			final StoredToken st = getToken(token); // checks the token filter
+			return new TokenAndUser(st, getUser(st.getUserName()));
+		}
+		final Document t = findTokenAndUser(token, null);
+		final StoredToken st = getToken(t);
+		checkExpired(st.getExpirationDate());
+		final List<Document> users = getLookupUsers(t);
+		if (users.isEmpty()) {
+			throw new NoSuchUserException(st.getUserName().getName());
+		}
+		// the user document includes the password hash & salt, but they're ignored
+		return new TokenAndUser(st, toUser(users.get(0)));
+	}
+	
+	@Override
+	public TokenAndUserAuthInfo getTokenAndUserAuthInfo(final IncomingHashedToken token)
+			throws AuthStorageException, NoSuchTokenException, NoSuchUserException {
+		nonNull(token, "token");
+		if (!lookupSupported) {
+			final TokenAuthInfo t = getTokenAuthInfo(token); // checks the token filter
+			return new TokenAndUserAuthInfo(t, getUserAuthInfo(t.getUserName()));
+		}
+		final Document t = findTokenAndUser(token, TOKEN_AND_USER_AUTH_PROJECTION);
+		final TokenAuthInfo ti = toTokenAuthInfo(t);
+		checkExpired(ti.getExpirationDate());
+		final List<Document> users = getLookupUsers(t);
+		if (users.isEmpty()) {
+			throw new NoSuchUserException(ti.getUserName().getName());
+		}
+		return new TokenAndUserAuthInfo(ti, toUserAuthInfo(users.get(0)));
+	}
+	
+	// projection may be null, in which case the entire token and user documents are returned
+	private Document findTokenAndUser(final IncomingHashedToken token, final Document projection)
+			throws AuthStorageException, NoSuchTokenException {
+		if (!mightContainToken(token.getTokenHash(), Instant.now())) {
 			throw new NoSuchTokenException("Token not found");
 		}
-		return htoken;
+		Document t = getTokenAndUser(token, projection, tokenReadPreference);
+		if (!tokenReadsFromPrimary && (t == null || getLookupUsers(t).isEmpty())) {
+			// the token or user may have been created too recently to have been replicated
+			t = getTokenAndUser(token, projection, ReadPreference.primary());
+		}
+		if (t == null) {
+			throw new NoSuchTokenException("Token not found");
+		}
+		return t;
+	}
+	
+	private Document getTokenAndUser(
+			final IncomingHashedToken token,
+			final Document projection,
+			final ReadPreference readPreference)
+			throws AuthStorageException {
+		final List<Document> pipeline = new LinkedList<>();
+		pipeline.add(new Document("$match",
+				new Document(Fields.TOKEN_TOKEN, token.getTokenHash())));
+		if (projection != null) {
+			// drop the token context before the lookup rather than after
+			pipeline.add(new Document("$project", TOKEN_AUTH_PROJECTION));
+		}
+		pipeline.add(new Document("$lookup", new Document("from", COL_USERS)
+				.append("localField", Fields.TOKEN_USER_NAME)
+				.append("foreignField", Fields.USER_NAME)
+				.append("as", LOOKUP_USER_DOC)));
+		if (projection != null) {
+			pipeline.add(new Document("$project", projection));
+		}
+		try {
+			return db.getCollection(COL_TOKEN).withReadPreference(readPreference)
+					.aggregate(pipeline).first();
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private List<Document> getLookupUsers(final Document tokenAndUser) {
+		return (List<Document>) tokenAndUser.get(LOOKUP_USER_DOC);
 	}
 	
 	private StoredToken getToken(final Document t) throws AuthStorageException {
@@ -764,6 +1695,14 @@ public class MongoStorage implements AuthStorage {
 				.build();
 	}
 	
+	private TokenAuthInfo toTokenAuthInfo(final Document t) throws AuthStorageException {
+		return new TokenAuthInfo(
+				UUID.fromString(t.getString(Fields.TOKEN_ID)),
+				TokenType.getType(t.getString(Fields.TOKEN_TYPE)),
+				getUserName(t.getString(Fields.TOKEN_USER_NAME)),
+				t.getDate(Fields.TOKEN_EXPIRY).toInstant());
+	}
+	
 	private TokenCreationContext toTokenCreationContext(final Document t)
 			throws AuthStorageException {
 		final TokenCreationContext.Builder b = TokenCreationContext.getBuilder()
@@ -811,6 +1750,27 @@ public class MongoStorage implements AuthStorage {
 			throws AuthStorageException, NoSuchUserException {
 		return toUser(getUserDoc(userName, false));
 	}
+	
+	@Override
+	public UserAuthInfo getUserAuthInfo(final UserName userName)
+			throws AuthStorageException, NoSuchUserException {
+		nonNull(userName, "userName");
+		final Document user = findOne(COL_USERS,
+				new Document(Fields.USER_NAME, userName.getName()), USER_AUTH_PROJECTION);
+		if (user == null) {
+			throw new NoSuchUserException(userName.getName());
+		}
+		return toUserAuthInfo(user);
+	}
+	
+	private UserAuthInfo toUserAuthInfo(final Document user) throws AuthStorageException {
+		@SuppressWarnings("unchecked")
+		final List<String> roles = (List<String>) user.get(Fields.USER_ROLES);
+		return new UserAuthInfo(
+				getUserName(user.getString(Fields.USER_NAME)),
+				roles.stream().map(s -> Role.getRole(s)).collect(Collectors.toSet()),
+				user.getString(Fields.USER_DISABLED_REASON) != null);
+	}
 
 	private AuthUser toUser(final Document user) throws AuthStorageException {
 		@SuppressWarnings("unchecked")
@@ -850,9 +1810,31 @@ public class MongoStorage implements AuthStorage {
 		}
 		final List<String> queryusers = users.stream().map(u -> u.getName())
 				.collect(Collectors.toList());
-		final Document query = new Document(Fields.USER_NAME, new Document("$in", queryusers))
-				.append(Fields.USER_DISABLED_REASON, null);
-		return getDisplayNames(query, Fields.USER_NAME, -1);
+		// disabled users are filtered here rather than in the query, since a query for a null
+		// field can't be answered from the index alone
+		final Document query = new Document(Fields.USER_NAME, new Document("$in", queryusers));
+		final Document projection = new Document(Fields.USER_NAME, 1)
+				.append(Fields.USER_DISPLAY_NAME, 1)
+				.append(Fields.USER_DISABLED_REASON, 1)
+				.append(Fields.MONGO_ID, 0);
+		final Document hint = new Document();
+		for (final String field: USER_DISPLAY_NAME_INDEX) {
+			hint.append(field, 1);
+		}
+		try {
+			final FindIterable<Document> docs = db.getCollection(COL_USERS)
+					.find(query).projection(projection).modifiers(new Document("$hint", hint));
+			final Map<UserName, DisplayName> ret = new HashMap<>();
+			for (final Document d: docs) {
+				if (d.get(Fields.USER_DISABLED_REASON) == null) {
+					ret.put(getUserName(d.getString(Fields.USER_NAME)),
+							getDisplayName(d.getString(Fields.USER_DISPLAY_NAME)));
+				}
+			}
+			return ret;
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
 	}
 
 	private Map<UserName, DisplayName> getDisplayNames(
@@ -879,6 +1861,52 @@ public class MongoStorage implements AuthStorage {
 		}
 	}
 	
+	@Override
+	public long getLowestAvailableUserNameSuffix(final String baseName, final long minimumSuffix)
+			throws AuthStorageException {
+		checkStringNoCheckedException(baseName, "baseName");
+		if (minimumSuffix < 1) {
+			throw new IllegalArgumentException("minimumSuffix must be at least 1");
+		}
+		try {
+			final Document max = db.getCollection(COL_USERS).find(new Document(
+					Fields.USER_NAME_BASE, baseName)
+					.append(Fields.USER_NAME_SUFFIX, new Document("$gte", minimumSuffix)))
+					.projection(new Document(Fields.USER_NAME_SUFFIX, 1)
+							.append(Fields.MONGO_ID, 0))
+					.sort(new Document(Fields.USER_NAME_BASE, -1)
+							.append(Fields.USER_NAME_SUFFIX, -1))
+					.first();
+			if (max == null) {
+				return minimumSuffix;
+			}
+			// the lowest available suffix is in [low, high], and high is always available
+			long low = minimumSuffix;
+			long high = max.getLong(Fields.USER_NAME_SUFFIX) + 1;
+			// no gaps is the common case, e.g. when every suggestion was accepted
+			if (countUserNameSuffixes(baseName, low, high - 1) == high - low) {
+				return high;
+			}
+			while (low < high) {
+				final long mid = low + (high - low) / 2;
+				if (countUserNameSuffixes(baseName, low, mid) == mid - low + 1) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+	}
+	
+	// counts the suffixes in [low, high] from the index without reading the user documents
+	private long countUserNameSuffixes(final String baseName, final long low, final long high) {
+		return db.getCollection(COL_USERS).count(new Document(Fields.USER_NAME_BASE, baseName)
+				.append(Fields.USER_NAME_SUFFIX, new Document("$gte", low).append("$lte", high)));
+	}
+	
 	private static final Map<UserSearchSpec.SearchField, String> SEARCHFIELD_TO_FIELD;
 	static {
 		final Map<UserSearchSpec.SearchField, String> m = new HashMap<>();
@@ -895,6 +1923,46 @@ public class MongoStorage implements AuthStorage {
 			final int limit)
 			throws AuthStorageException {
 		nonNull(spec, "spec");
+		if (spec.getSearchPrefix().isPresent() && !spec.isRegex() && !spec.isRoleSearch() &&
+				!spec.isCustomRoleSearch() && !spec.getSearchAfter().isPresent()) {
+			final Optional<Map<UserName, DisplayName>> ret = userSearchIndex.search(spec, limit);
+			if (ret.isPresent()) {
+				userSearchIndexHits.increment();
+				return ret.get();
+			}
+		}
+		return getDisplayNames(toQuery(spec), SEARCHFIELD_TO_FIELD.get(spec.orderBy()), limit);
+	}
+	
+	@Override
+	public void searchUsers(
+			final UserSearchSpec spec,
+			final int limit,
+			final BiConsumer<UserName, DisplayName> consumer)
+			throws AuthStorageException {
+		nonNull(spec, "spec");
+		nonNull(consumer, "consumer");
+		if (limit < 1) {
+			throw new IllegalArgumentException("limit must be at least 1");
+		}
+		// paging after a user name requires the unique user name as the sort key
+		final FindIterable<Document> docs = db.getCollection(COL_USERS).find(toQuery(spec))
+				.projection(new Document(Fields.USER_NAME, 1).append(Fields.USER_DISPLAY_NAME, 1))
+				.sort(new Document(Fields.USER_NAME, 1))
+				.limit(limit);
+		// each user is passed on as it's read, so the results are never all held in memory
+		try (final MongoCursor<Document> cur = docs.iterator()) {
+			while (cur.hasNext()) {
+				final Document d = cur.next();
+				consumer.accept(getUserName(d.getString(Fields.USER_NAME)),
+						getDisplayName(d.getString(Fields.USER_DISPLAY_NAME)));
+			}
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+	}
+	
+	private Document toQuery(final UserSearchSpec spec) throws AuthStorageException {
 		final Document query = new Document();
 		if (spec.getSearchPrefix().isPresent()) {
 			final String prefix = spec.getSearchPrefix().get();
@@ -927,7 +1995,17 @@ public class MongoStorage implements AuthStorage {
 		if (!spec.isDisabledIncluded()) {
 			query.put(Fields.USER_DISABLED_REASON, null);
 		}
-		return getDisplayNames(query, SEARCHFIELD_TO_FIELD.get(spec.orderBy()), limit);
+		if (spec.getSearchAfter().isPresent()) {
+			final String after = spec.getSearchAfter().get().getName();
+			final Object name = query.get(Fields.USER_NAME);
+			if (name == null) {
+				query.put(Fields.USER_NAME, new Document("$gt", after));
+			} else {
+				// a user name only prefix search
+				((Document) name).append("$gt", after);
+			}
+		}
+		return query;
 	}
 
 	@Override
@@ -935,10 +2013,16 @@ public class MongoStorage implements AuthStorage {
 			throws AuthStorageException, NoSuchTokenException {
 		nonNull(userName, "userName");
 		nonNull(tokenId, "tokenId");
+		final Document query = new Document(Fields.TOKEN_USER_NAME, userName.getName())
+				.append(Fields.TOKEN_ID, tokenId.toString());
 		try {
-			final DeleteResult dr = db.getCollection(COL_TOKEN)
-					.deleteOne(new Document(Fields.TOKEN_USER_NAME, userName.getName())
-							.append(Fields.TOKEN_ID, tokenId.toString()));
+			final Document token = db.getCollection(COL_TOKEN).find(query)
+					.projection(REVOKE_PROJECTION).first();
+			if (token != null) {
+				// revoke before deleting so there's no window where the token is in neither
+				revokeTokens(Arrays.asList(token));
+			}
+			final DeleteResult dr = db.getCollection(COL_TOKEN).deleteOne(query);
 			if (dr.getDeletedCount() != 1L) {
 				throw new NoSuchTokenException(String.format(
 						"No token %s for user %s exists",
@@ -947,6 +2031,7 @@ public class MongoStorage implements AuthStorage {
 		} catch (MongoException e) {
 			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
 		}
+		recordChange(ChangeType.TOKEN, userName, tokenId);
 	}
 
 	@Override
@@ -954,19 +2039,128 @@ public class MongoStorage implements AuthStorage {
 			throws AuthStorageException {
 		nonNull(userName, "userName");
 		deleteTokens(new Document(Fields.TOKEN_USER_NAME, userName.getName()));
+		recordChange(ChangeType.USER_TOKENS, userName, null);
 	}
 
-	private void deleteTokens(final Document document) throws AuthStorageException {
-		try {
-			db.getCollection(COL_TOKEN).deleteMany(document);
+	/* Tokens are revoked and then deleted in batches by ID, so any token that is deleted is
+	 * guaranteed to be in the revocation list and log. A token created while the deletion is in
+	 * progress may not be deleted.
+	 */
+	private void deleteTokens(final Document query) throws AuthStorageException {
+		try (final MongoCursor<Document> cur = db.getCollection(COL_TOKEN).find(query)
+				.projection(REVOKE_PROJECTION).batchSize(REVOKE_BATCH_SIZE).iterator()) {
+			final List<Document> batch = new LinkedList<>();
+			while (cur.hasNext()) {
+				batch.add(cur.next());
+				if (batch.size() >= REVOKE_BATCH_SIZE) {
+					revokeAndDeleteTokens(batch);
+					batch.clear();
+				}
+			}
+			revokeAndDeleteTokens(batch);
 		} catch (MongoException e) {
 			throw new AuthStorageException("Connection to database failed", e);
 		}
 	}
 	
+	private void revokeAndDeleteTokens(final List<Document> tokens) {
+		if (tokens.isEmpty()) {
+			return;
+		}
+		revokeTokens(tokens);
+		db.getCollection(COL_TOKEN).deleteMany(new Document(Fields.TOKEN_ID, new Document("$in",
+				tokens.stream().map(t -> t.getString(Fields.TOKEN_ID))
+						.collect(Collectors.toList()))));
+	}
+	
+	/* expects token documents projected with REVOKE_PROJECTION. Each revocation is given a
+	 * sequence number for the token revocation log. If two deletions race, the first revocation
+	 * is kept and the sequence number allocated by the second is never used, which the log
+	 * readers treat as a gap.
+	 */
+	private void revokeTokens(final List<Document> tokens) {
+		final long last = db.getCollection(COL_COUNTERS).findOneAndUpdate(
+				new Document(Fields.MONGO_ID, COUNTER_REVOCATIONS),
+				new Document("$inc", new Document(Fields.COUNTER_VALUE, (long) tokens.size())),
+				new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER))
+				.getLong(Fields.COUNTER_VALUE);
+		long seq = last - tokens.size();
+		final Date now = Date.from(Instant.now());
+		final List<UpdateOneModel<Document>> updates = new LinkedList<>();
+		for (final Document t: tokens) {
+			// upsert in case two deletions race
+			updates.add(new UpdateOneModel<>(
+					new Document(Fields.REVOKED_ID, t.getString(Fields.TOKEN_ID)),
+					new Document("$setOnInsert", new Document(
+							Fields.REVOKED_EXPIRY, t.getDate(Fields.TOKEN_EXPIRY))
+							.append(Fields.REVOKED_TIME, now)
+							.append(Fields.REVOKED_USER_NAME, t.getString(Fields.TOKEN_USER_NAME))
+							.append(Fields.REVOKED_SEQUENCE, ++seq)),
+					new UpdateOptions().upsert(true)));
+		}
+		db.getCollection(COL_REVOKED).bulkWrite(updates, new BulkWriteOptions().ordered(false));
+	}
+	
 	@Override
 	public void deleteTokens() throws AuthStorageException {
 		deleteTokens(new Document());
+		recordChange(ChangeType.ALL_TOKENS, null, null);
+	}
+	
+	@Override
+	public Map<UUID, Instant> getRevokedTokens(final Instant since) throws AuthStorageException {
+		nonNull(since, "since");
+		final Map<UUID, Instant> ret = new HashMap<>();
+		try {
+			final FindIterable<Document> docs = db.getCollection(COL_REVOKED).find(
+					new Document(Fields.REVOKED_TIME, new Document("$gte", Date.from(since))))
+					.projection(new Document(Fields.REVOKED_ID, 1)
+							.append(Fields.REVOKED_EXPIRY, 1));
+			for (final Document d: docs) {
+				ret.put(UUID.fromString(d.getString(Fields.REVOKED_ID)),
+						d.getDate(Fields.REVOKED_EXPIRY).toInstant());
+			}
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+		return ret;
+	}
+	
+	@Override
+	public List<TokenRevocation> getTokenRevocations(final long afterSequence, final int limit)
+			throws AuthStorageException {
+		if (limit < 1) {
+			throw new IllegalArgumentException("limit must be > 0");
+		}
+		final List<TokenRevocation> ret = new LinkedList<>();
+		try {
+			final FindIterable<Document> docs = db.getCollection(COL_REVOKED).find(
+					new Document(Fields.REVOKED_SEQUENCE, new Document("$gt", afterSequence)))
+					.sort(new Document(Fields.REVOKED_SEQUENCE, 1))
+					.limit(limit);
+			for (final Document d: docs) {
+				ret.add(new TokenRevocation(
+						d.getLong(Fields.REVOKED_SEQUENCE),
+						UUID.fromString(d.getString(Fields.REVOKED_ID)),
+						getUserName(d.getString(Fields.REVOKED_USER_NAME)),
+						d.getDate(Fields.REVOKED_EXPIRY).toInstant(),
+						d.getDate(Fields.REVOKED_TIME).toInstant()));
+			}
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
+		return ret;
+	}
+	
+	@Override
+	public long getTokenRevocationSequence() throws AuthStorageException {
+		try {
+			final Document d = db.getCollection(COL_COUNTERS).find(
+					new Document(Fields.MONGO_ID, COUNTER_REVOCATIONS)).first();
+			return d == null ? 0 : d.getLong(Fields.COUNTER_VALUE);
+		} catch (MongoException e) {
+			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
+		}
 	}
 
 	@Override
@@ -1017,6 +2211,7 @@ public class MongoStorage implements AuthStorage {
 		} catch (MongoException e) {
 			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
 		}
+		recordChange(ChangeType.USER, userName, null);
 	}
 	
 	@Override
@@ -1030,6 +2225,7 @@ public class MongoStorage implements AuthStorage {
 		} catch (MongoException e) {
 			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
 		}
+		customRoleCatalog.refresh();
 	}
 	
 	@Override
@@ -1052,12 +2248,22 @@ public class MongoStorage implements AuthStorage {
 		} catch (MongoException e) {
 			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
 		}
+		customRoleCatalog.refresh();
+		recordChange(ChangeType.ALL_USERS, null, null);
 	}
 	
 	@Override
 	public Set<CustomRole> getCustomRoles() throws AuthStorageException {
 		return toCustomRoles(getCustomRoles(new Document()));
 	}
+	
+	private Map<ObjectId, String> toRoleCatalog(final Set<Document> roledocs) {
+		final Map<ObjectId, String> catalog = new HashMap<>();
+		for (final Document d: roledocs) {
+			catalog.put(d.getObjectId(Fields.MONGO_ID), d.getString(Fields.ROLES_ID));
+		}
+		return catalog;
+	}
 
 	private Set<Document> getCustomRoles(final Document query)
 			throws AuthStorageException {
@@ -1090,27 +2296,42 @@ public class MongoStorage implements AuthStorage {
 
 	private Set<String> getCustomRoles(final UserName user, final Set<ObjectId> roleIds)
 			throws AuthStorageException {
-		final Set<Document> roledocs = getCustomRoles(new Document(
-				Fields.MONGO_ID, new Document("$in", roleIds)));
-		final Set<ObjectId> extantRoleIds = roledocs.stream()
-				.map(d -> d.getObjectId(Fields.MONGO_ID)).collect(Collectors.toSet());
+		Map<ObjectId, String> catalog = customRoleCatalog.get();
+		if (!catalog.keySet().containsAll(roleIds)) {
+			// the role may have been created via another instance
+			catalog = customRoleCatalog.refresh();
+		}
+		final Set<String> roles = new HashSet<>();
+		final Set<ObjectId> missing = new HashSet<>();
 		for (final ObjectId role: roleIds) {
-			if (!extantRoleIds.contains(role)) {
-				// should very rarely happen, if at all, so don't worry about optimization
-				final Document query = new Document(Fields.USER_NAME, user.getName());
-				final Document mod = new Document("$pull",
-						new Document(Fields.USER_CUSTOM_ROLES, role));
-				try {
-					// don't care if no changes are made, just means the role is already gone
-					db.getCollection(COL_USERS).updateOne(query, mod);
-				} catch (MongoException e) {
-					throw new AuthStorageException("Connection to database failed: " +
-							e.getMessage(), e);
-				}
+			if (catalog.containsKey(role)) {
+				roles.add(catalog.get(role));
+			} else {
+				missing.add(role);
 			}
 		}
-		return roledocs.stream().map(d -> d.getString(Fields.ROLES_ID))
-				.collect(Collectors.toSet());
+		if (!missing.isEmpty()) {
+			// should very rarely happen, if at all, so don't worry about optimization
+			removeCustomRolesInBackground(user, missing);
+		}
+		return roles;
+	}
+	
+	private void removeCustomRolesInBackground(final UserName user, final Set<ObjectId> roleIds) {
+		final Document query = new Document(Fields.USER_NAME, user.getName());
+		final Document mod = new Document("$pullAll",
+				new Document(Fields.USER_CUSTOM_ROLES, new LinkedList<>(roleIds)));
+		cleanupExecutor.execute(() -> {
+			try {
+				// don't care if no changes are made, just means the role is already gone
+				db.getCollection(COL_USERS).updateOne(query, mod);
+			} catch (MongoException e) {
+				// the roles will be removed the next time the user is read
+				LoggerFactory.getLogger(getClass()).error(String.format(
+						"Failed to remove deleted custom roles from user %s: %s",
+						user.getName(), e.getMessage()), e);
+			}
+		});
 	}
 
 	@Override
@@ -1183,7 +2404,12 @@ public class MongoStorage implements AuthStorage {
 			}
 			b.withIdentity(remoteID);
 			user = b.build();
-			updateIdentity(remoteID);
+			final UserUpdateBuffer buffer = userUpdateBuffer;
+			if (buffer == null) {
+				updateIdentity(user.getUserName(), remoteID);
+			} else {
+				buffer.updateIdentity(user.getUserName(), remoteID);
+			}
 		}
 		return Optional.of(user);
 	}
@@ -1193,16 +2419,19 @@ public class MongoStorage implements AuthStorage {
 				remoteID.getRemoteID().getID());
 	}
 	
-	private void updateIdentity(final RemoteIdentity remoteID)
-			throws AuthStorageException {
-		final Document query = makeUserQuery(remoteID);
-		
+	private Document makeIdentityUpdate(final RemoteIdentity remoteID) {
 		final String pre = Fields.USER_IDENTITIES + ".$.";
 		final RemoteIdentityDetails rid = remoteID.getDetails();
-		final Document update = new Document("$set",
+		return new Document("$set",
 				new Document(pre + Fields.IDENTITIES_USER, rid.getUsername())
 				.append(pre + Fields.IDENTITIES_EMAIL, rid.getEmail())
 				.append(pre + Fields.IDENTITIES_NAME, rid.getFullname()));
+	}
+	
+	private void updateIdentity(final UserName userName, final RemoteIdentity remoteID)
+			throws AuthStorageException {
+		final Document query = makeUserQuery(remoteID);
+		final Document update = makeIdentityUpdate(remoteID);
 		try {
 			// id might have been unlinked, so we just assume
 			// the update worked. If it was just unlinked we don't care.
@@ -1210,6 +2439,7 @@ public class MongoStorage implements AuthStorage {
 		} catch (MongoException e) {
 			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
 		}
+		recordChange(ChangeType.USER, userName, null);
 	}
 	
 	private static class DuplicateKeyExceptionChecker {
@@ -1478,7 +2708,7 @@ public class MongoStorage implements AuthStorage {
 				// if the details are the same, there's nothing to do, user is already linked and
 				// user info is the same
 				if (!ri.getDetails().equals(remoteID.getDetails())) {
-					updateIdentity(remoteID);
+					updateIdentity(user.getUserName(), remoteID);
 				}
 				return 0; // update complete
 			}
@@ -1498,9 +2728,10 @@ public class MongoStorage implements AuthStorage {
 				new Document(Fields.USER_IDENTITIES, toDocument(remoteID)));
 		try {
 			final UpdateResult r = db.getCollection(COL_USERS).updateOne(query, update);
-			// return true if the user was updated, false otherwise (meaning retry and call this
-			// method again)
-			return r.getModifiedCount() == 1 ? 1 : -1;
+			// if the user wasn't updated, retry by calling this method again
+			if (r.getModifiedCount() != 1) {
+				return -1;
+			}
 		} catch (MongoWriteException mwe) {
 			if (DuplicateKeyExceptionChecker.isDuplicate(mwe)) {
 				// another user already is linked to this ID, fail permanently, no retry
@@ -1511,8 +2742,10 @@ public class MongoStorage implements AuthStorage {
 		} catch (MongoException e) {
 			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
 		}
+		recordChange(ChangeType.USER, user.getUserName(), null);
+		return 1;
 	}
-	
+
 	@Override
 	public void unlink(
 			final UserName userName,
@@ -1544,6 +2777,7 @@ public class MongoStorage implements AuthStorage {
 		} catch (MongoException e) {
 			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
 		}
+		recordChange(ChangeType.USER, userName, null);
 	}
 
 	private Set<Document> toDocument(final Set<RemoteIdentity> rids) {
@@ -1592,13 +2826,20 @@ public class MongoStorage implements AuthStorage {
 		} catch (MongoException e) {
 			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
 		}
+		recordChange(ChangeType.USER, userName, null);
 	}
 	
 	@Override
 	public void setLastLogin(final UserName user, final Instant lastLogin) 
 			throws NoSuchUserException, AuthStorageException {
 		nonNull(lastLogin, "lastLogin");
-		updateUser(user, new Document(Fields.USER_LAST_LOGIN, Date.from(lastLogin)));
+		final UserUpdateBuffer buffer = userUpdateBuffer;
+		if (buffer == null) {
+			updateUser(user, new Document(Fields.USER_LAST_LOGIN, Date.from(lastLogin)));
+		} else {
+			nonNull(user, "userName");
+			buffer.setLastLogin(user, lastLogin);
+		}
 	}
 	
 	@Override
@@ -1613,6 +2854,7 @@ public class MongoStorage implements AuthStorage {
 		for (final PolicyID pid: policyIDs) {
 			setPolicyID(userName, pid);
 		}
+		recordChange(ChangeType.USER, userName, null);
 	}
 	
 	//assumes user exists
@@ -1653,6 +2895,7 @@ public class MongoStorage implements AuthStorage {
 		} catch (MongoException e) {
 			throw new AuthStorageException("Connection to database failed: " + e.getMessage(), e);
 		}
+		recordChange(ChangeType.ALL_USERS, null, null);
 	}
 
 	private <T> void updateConfig(
@@ -0,0 +1,289 @@
+package us.kbase.auth2.lib.storage.mongo;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.time.Instant;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+
+/** A Bloom filter of the hashes of the unexpired tokens in the database. Tokens can't be
+ * removed from a Bloom filter, so deleted and expired tokens are removed when the filter is
+ * rebuilt. When the filter is not active all tokens might be present.
+ *
+ * New tokens must be announced via the change feed before they are stored, and the change feed
+ * adds them to the filter. A token that is not in the filter is only definitely absent once the
+ * change feed has processed every change made before the token was first presented. Until then
+ * the token might exist, and the caller must check the database. The filter never waits for the
+ * change feed. Instead it remembers when recently missed tokens were first presented, so
+ * repeated requests for the same missing token are rejected once the feed catches up.
+ *
+ * The filter does not reject tokens until a rebuild has verified that every token created since
+ * the previous build was announced, which fails if any process sharing the database does not
+ * announce new tokens. Verification is repeated at every rebuild.
+ *
+ * The filter is built and kept current by a single thread, typically the change feed thread,
+ * while any number of threads may query it.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class TokenFilter {
+
+	/** Reads the unexpired tokens from the database when the filter is rebuilt.
+	 * @author gaprice@lbl.gov
+	 *
+	 */
+	public interface TokenSource {
+
+		/** Count the unexpired tokens.
+		 * @return the number of tokens.
+		 * @throws AuthStorageException if a problem connecting with the storage system occurs.
+		 */
+		long count() throws AuthStorageException;
+
+		/** Read the hashes and creation dates of the unexpired tokens.
+		 * @param consumer receives each token hash and creation date.
+		 * @throws AuthStorageException if a problem connecting with the storage system occurs.
+		 */
+		void read(BiConsumer<String, Instant> consumer) throws AuthStorageException;
+	}
+
+	// the filter is sized for at least this many tokens, which is more than the change feed holds
+	private static final long MIN_SIZE = 100000;
+	private static final double FALSE_POSITIVE_RATE = 0.01;
+	/* tokens created within this time of the ends of the verification window are not verified,
+	 * to allow for clock skew between processes and the time between creating and storing a
+	 * token.
+	 */
+	private static final long VERIFY_MARGIN_MS = 60 * 1000;
+	// the maximum number of missed tokens for which the first presentation time is kept
+	private static final long MAX_MISSES = 100000;
+	private static final long MISS_EXPIRY_MS = 10 * 60 * 1000;
+
+	private final TokenSource source;
+	// guava bloom filters are not thread safe
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private BloomFilter<String> filter = null;
+	private Instant buildStart = null;
+	private boolean verified = false;
+	private long expectedTokens = 0;
+	private long tokens = 0;
+	// hashes added while the filter is being rebuilt
+	private List<String> pending = null;
+	// all changes made before this time are in the filter. Written while holding this
+	private volatile Instant caughtUpTo = null;
+	// token hash -> the time a token that was not in the filter was first presented
+	private final Cache<String, Instant> misses = CacheBuilder.newBuilder()
+			.maximumSize(MAX_MISSES)
+			.expireAfterWrite(MISS_EXPIRY_MS, TimeUnit.MILLISECONDS)
+			.build();
+
+	/** Create an inactive token filter.
+	 * @param source the source of tokens for building the filter.
+	 */
+	public TokenFilter(final TokenSource source) {
+		nonNull(source, "source");
+		this.source = source;
+	}
+
+	/** Returns true if the filter is built and can be used to reject tokens.
+	 * @return true if the filter is active.
+	 */
+	public boolean isActive() {
+		lock.readLock().lock();
+		try {
+			return filter != null && verified;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/** Check whether a token might exist. Never blocks on the change feed.
+	 * 
+	 * If the token is not in the filter, it is definitely absent only if the change feed has
+	 * processed all the changes made before the token was first presented to the filter. The
+	 * first time a token is presented this is almost never the case, since the feed lags
+	 * slightly behind the current time, and so the caller queries the database. Later
+	 * presentations of the same token are rejected once the feed has caught up.
+	 * @param tokenHash the hash of the token.
+	 * @param presented the time at which the token was presented. Any changes made before the
+	 * token was first presented must be in the filter for it to be definitely absent.
+	 * @return false if the token definitely does not exist, true otherwise. Always true if the
+	 * filter is not active or the change feed has not caught up.
+	 */
+	public boolean mightContain(final String tokenHash, final Instant presented) {
+		nonNull(tokenHash, "tokenHash");
+		nonNull(presented, "presented");
+		/* read the feed position before checking the filter. The feed adds tokens to the filter
+		 * before advancing the position, so if the position covers the token's announcement the
+		 * token is visible in the filter.
+		 */
+		final Instant caughtUp = caughtUpTo;
+		if (mightContain(tokenHash)) {
+			return true;
+		}
+		final Instant first = misses.asMap().putIfAbsent(tokenHash, presented);
+		return caughtUp == null || !caughtUp.isAfter(first == null ? presented : first);
+	}
+
+	private boolean mightContain(final String tokenHash) {
+		lock.readLock().lock();
+		try {
+			return filter == null || !verified || filter.mightContain(tokenHash);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/** Add a token to the filter.
+	 * @param tokenHash the hash of the token.
+	 */
+	public void put(final String tokenHash) {
+		lock.writeLock().lock();
+		try {
+			if (pending != null) {
+				pending.add(tokenHash);
+			}
+			// the change feed replays changes that may already be in the filter
+			if (filter != null && filter.put(tokenHash)) {
+				tokens++;
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/** Record that every change made before the given time has been added to the filter. Called
+	 * by the change feed when it has no more changes to process.
+	 * @param time the time before which all changes are in the filter.
+	 */
+	public void caughtUp(final Instant time) {
+		nonNull(time, "time");
+		synchronized (this) {
+			if (caughtUpTo == null || time.isAfter(caughtUpTo)) {
+				caughtUpTo = time;
+			}
+		}
+	}
+
+	/** Returns true if enough tokens have been added since the filter was built that the false
+	 * positive rate is above the target rate, and so the filter should be rebuilt.
+	 * @return true if the filter is overfilled.
+	 */
+	public boolean isOverfilled() {
+		lock.readLock().lock();
+		try {
+			return filter != null && tokens > expectedTokens;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/** Deactivate the filter. The filter stays inactive until it is rebuilt and verified. A
+	 * rebuild that is in progress when the filter is disabled is discarded. Call when changes
+	 * may have been missed.
+	 */
+	public void disable() {
+		lock.writeLock().lock();
+		try {
+			filter = null;
+			buildStart = null;
+			verified = false;
+			pending = null;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		synchronized (this) {
+			caughtUpTo = null;
+		}
+	}
+
+	/** Rebuild the filter from the token source. Tokens added while the filter is rebuilt are
+	 * included in the new filter. The filter is activated if the tokens created since the
+	 * previous build, if any, were all added to the previous filter, and so the first build after
+	 * the filter is created or disabled does not activate the filter.
+	 * @throws AuthStorageException if a problem connecting with the storage system occurs.
+	 */
+	public void rebuild() throws AuthStorageException {
+		final Instant start = Instant.now();
+		final BloomFilter<String> old;
+		final Instant verifyFrom;
+		lock.writeLock().lock();
+		try {
+			pending = new LinkedList<>();
+			old = filter;
+			verifyFrom = buildStart == null ? null : buildStart.plusMillis(VERIFY_MARGIN_MS);
+		} finally {
+			lock.writeLock().unlock();
+		}
+		final Instant verifyTo;
+		synchronized (this) {
+			verifyTo = caughtUpTo == null ? null : caughtUpTo.minusMillis(VERIFY_MARGIN_MS);
+		}
+		final long expected = Math.min(Integer.MAX_VALUE,
+				Math.max(MIN_SIZE, source.count() * 2));
+		final BloomFilter<String> f = BloomFilter.create(Funnels.stringFunnel(Charsets.UTF_8),
+				(int) expected, FALSE_POSITIVE_RATE);
+		final AtomicLong count = new AtomicLong();
+		final AtomicLong unannounced = new AtomicLong();
+		source.read((hash, created) -> {
+			f.put(hash);
+			count.incrementAndGet();
+			if (old != null && verifyFrom != null && verifyTo != null &&
+					created.isAfter(verifyFrom) && created.isBefore(verifyTo) &&
+					!oldMightContain(old, hash)) {
+				unannounced.incrementAndGet();
+			}
+		});
+		if (unannounced.get() > 0) {
+			LoggerFactory.getLogger(getClass()).warn(String.format(
+					"%s tokens were created without being announced in the change feed. A " +
+					"process sharing the database may be running an older version of the " +
+					"server. Tokens will not be rejected by the token filter.",
+					unannounced.get()));
+		}
+		lock.writeLock().lock();
+		try {
+			if (pending == null) {
+				return; // disabled during the rebuild
+			}
+			for (final String hash: pending) {
+				if (f.put(hash)) {
+					count.incrementAndGet();
+				}
+			}
+			// the first build can't be verified
+			verified = old != null && verifyTo != null && unannounced.get() == 0;
+			filter = f;
+			buildStart = start;
+			expectedTokens = expected;
+			tokens = count.get();
+			pending = null;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private boolean oldMightContain(final BloomFilter<String> old, final String hash) {
+		lock.readLock().lock();
+		try {
+			return old.mightContain(hash);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+}
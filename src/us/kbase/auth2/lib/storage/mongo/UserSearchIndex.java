@@ -0,0 +1,316 @@
+package us.kbase.auth2.lib.storage.mongo;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+import static us.kbase.auth2.lib.Utils.noNulls;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import com.google.common.base.Optional;
+
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.UserSearchSpec;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+
+/** An in memory index of the user names and canonical display name tokens of all users, used
+ * to answer prefix searches without querying the database. Each map is sorted, so the entries
+ * matching a prefix are a contiguous range. When the index is not active it holds no users.
+ *
+ * The index is built and kept current by a single thread, typically the change feed thread,
+ * while any number of threads may search it.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class UserSearchIndex {
+
+	/** Reads users from the database.
+	 * @author gaprice@lbl.gov
+	 *
+	 */
+	public interface UserSource {
+
+		/** Read all the users.
+		 * @param consumer receives each user.
+		 * @throws AuthStorageException if a problem connecting with the storage system occurs.
+		 */
+		void readAll(Consumer<IndexedUser> consumer) throws AuthStorageException;
+
+		/** Read a set of users. Users that do not exist are skipped.
+		 * @param userNames the names of the users to read.
+		 * @param consumer receives each user.
+		 * @throws AuthStorageException if a problem connecting with the storage system occurs.
+		 */
+		void read(Set<UserName> userNames, Consumer<IndexedUser> consumer)
+				throws AuthStorageException;
+	}
+
+	/** A user as stored in the user search index.
+	 * @author gaprice@lbl.gov
+	 *
+	 */
+	public static class IndexedUser {
+
+		private static final Comparator<IndexedUser> BY_USER_NAME =
+				Comparator.comparing(u -> u.userName.getName());
+		// sorts as MongoDB sorts the canonical display name array, by the lowest token
+		private static final Comparator<IndexedUser> BY_DISPLAY_NAME =
+				Comparator.<IndexedUser, String>comparing(u -> u.lowestToken)
+						.thenComparing(BY_USER_NAME);
+
+		private final UserName userName;
+		private final DisplayName displayName;
+		private final List<String> tokens;
+		private final String lowestToken;
+		private final boolean disabled;
+
+		/** Create an indexed user.
+		 * @param userName the user's name.
+		 * @param displayName the user's display name.
+		 * @param tokens the tokens of the user's canonical display name.
+		 * @param disabled true if the user's account is disabled.
+		 */
+		public IndexedUser(
+				final UserName userName,
+				final DisplayName displayName,
+				final List<String> tokens,
+				final boolean disabled) {
+			nonNull(userName, "userName");
+			nonNull(displayName, "displayName");
+			nonNull(tokens, "tokens");
+			noNulls(tokens, "Null token in tokens");
+			this.userName = userName;
+			this.displayName = displayName;
+			this.tokens = Collections.unmodifiableList(tokens);
+			this.lowestToken = tokens.stream().min(Comparator.naturalOrder()).orElse("");
+			this.disabled = disabled;
+		}
+	}
+
+	// changed users are read when the feed is idle or when this many users have changed
+	private static final int REFRESH_BATCH = 1000;
+
+	private final UserSource source;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	// the maps are null when the index is not active
+	private Map<UserName, IndexedUser> users = null;
+	private NavigableMap<String, IndexedUser> userNames = null;
+	private NavigableMap<String, Set<IndexedUser>> displayTokens = null;
+	// users changed since they were last read. Only accessed by the thread maintaining the index
+	private final Set<UserName> changed = new HashSet<>();
+
+	/** Create an inactive user search index.
+	 * @param source the source of users for the index.
+	 */
+	public UserSearchIndex(final UserSource source) {
+		nonNull(source, "source");
+		this.source = source;
+	}
+
+	/** Returns true if the index is built and can be used to answer searches.
+	 * @return true if the index is active.
+	 */
+	public boolean isActive() {
+		lock.readLock().lock();
+		try {
+			return users != null;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/** Deactivate the index and discard the indexed users. The index stays inactive until it is
+	 * rebuilt.
+	 */
+	public void disable() {
+		lock.writeLock().lock();
+		try {
+			users = null;
+			userNames = null;
+			displayTokens = null;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/** Rebuild the index from all the users in the user source and activate it.
+	 * @throws AuthStorageException if a problem connecting with the storage system occurs.
+	 */
+	public void rebuild() throws AuthStorageException {
+		// the new index reflects any changed users
+		changed.clear();
+		final Map<UserName, IndexedUser> u = new HashMap<>();
+		final NavigableMap<String, IndexedUser> un = new TreeMap<>();
+		final NavigableMap<String, Set<IndexedUser>> dt = new TreeMap<>();
+		source.readAll(user -> add(user, u, un, dt));
+		lock.writeLock().lock();
+		try {
+			users = u;
+			userNames = un;
+			displayTokens = dt;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/** Note that a user has been created or changed. The user is reread from the user source on
+	 * a later call to {@link #refresh(boolean)}.
+	 * @param userName the name of the user.
+	 */
+	public void changed(final UserName userName) {
+		nonNull(userName, "userName");
+		changed.add(userName);
+	}
+
+	/** Reread the users that have changed from the user source. The users are read in batches,
+	 * so the users are only read if enough users have changed or the caller is otherwise idle.
+	 * @param idle true if the caller is idle, in which case the changed users are always read.
+	 * @throws AuthStorageException if a problem connecting with the storage system occurs.
+	 */
+	public void refresh(final boolean idle) throws AuthStorageException {
+		if (changed.isEmpty() || (!idle && changed.size() < REFRESH_BATCH)) {
+			return;
+		}
+		final Map<UserName, IndexedUser> found = new HashMap<>();
+		source.read(new HashSet<>(changed), user -> found.put(user.userName, user));
+		lock.writeLock().lock();
+		try {
+			if (users != null) {
+				for (final UserName name: changed) {
+					remove(name);
+					if (found.containsKey(name)) {
+						add(found.get(name), users, userNames, displayTokens);
+					}
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		changed.clear();
+	}
+
+	private void add(
+			final IndexedUser user,
+			final Map<UserName, IndexedUser> users,
+			final NavigableMap<String, IndexedUser> userNames,
+			final NavigableMap<String, Set<IndexedUser>> displayTokens) {
+		users.put(user.userName, user);
+		userNames.put(user.userName.getName(), user);
+		for (final String t: user.tokens) {
+			displayTokens.computeIfAbsent(t, k -> new HashSet<>()).add(user);
+		}
+	}
+
+	// must hold the write lock
+	private void remove(final UserName userName) {
+		final IndexedUser user = users.remove(userName);
+		if (user != null) {
+			userNames.remove(userName.getName());
+			for (final String t: user.tokens) {
+				final Set<IndexedUser> tokenUsers = displayTokens.get(t);
+				tokenUsers.remove(user);
+				if (tokenUsers.isEmpty()) {
+					displayTokens.remove(t);
+				}
+			}
+		}
+	}
+
+	/** Search for users by user name and display name prefix. The specification must include a
+	 * search prefix. Role, custom role, regex, and paged searches are not supported by the index,
+	 * and their respective fields in the specification are ignored.
+	 * @param spec the user search specification.
+	 * @param limit the maximum number of users to return. Values less than 1 mean no limit.
+	 * @return the matching users, or absent if the index is not active.
+	 */
+	public Optional<Map<UserName, DisplayName>> search(
+			final UserSearchSpec spec,
+			final int limit) {
+		nonNull(spec, "spec");
+		if (!spec.getSearchPrefix().isPresent()) {
+			throw new IllegalArgumentException("The search specification must include a prefix");
+		}
+		final String prefix = spec.getSearchPrefix().get().toLowerCase();
+		final Set<IndexedUser> matches = new HashSet<>();
+		lock.readLock().lock();
+		try {
+			if (users == null) {
+				return Optional.absent();
+			}
+			if (spec.isUserNameSearch()) {
+				for (final Entry<String, IndexedUser> e:
+						userNames.tailMap(prefix, true).entrySet()) {
+					// user names are in order, so stop when the limit is reached
+					if (!e.getKey().startsWith(prefix) || (!spec.isDisplayNameSearch() &&
+							limit > 0 && matches.size() >= limit)) {
+						break;
+					}
+					addMatch(spec, matches, e.getValue());
+				}
+			}
+			if (spec.isDisplayNameSearch()) {
+				for (final Entry<String, Set<IndexedUser>> e:
+						displayTokens.tailMap(prefix, true).entrySet()) {
+					if (!e.getKey().startsWith(prefix)) {
+						break;
+					}
+					for (final IndexedUser u: e.getValue()) {
+						addMatch(spec, matches, u);
+					}
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		final Map<UserName, DisplayName> ret = new HashMap<>();
+		for (final IndexedUser u: first(matches, limit,
+				UserSearchSpec.SearchField.DISPLAYNAME.equals(spec.orderBy()) ?
+						IndexedUser.BY_DISPLAY_NAME : IndexedUser.BY_USER_NAME)) {
+			ret.put(u.userName, u.displayName);
+		}
+		return Optional.of(ret);
+	}
+
+	private void addMatch(
+			final UserSearchSpec spec,
+			final Set<IndexedUser> matches,
+			final IndexedUser user) {
+		if (spec.isDisabledIncluded() || !user.disabled) {
+			matches.add(user);
+		}
+	}
+
+	// the first limit users in the given order, or all users if limit < 1
+	private Collection<IndexedUser> first(
+			final Collection<IndexedUser> users,
+			final int limit,
+			final Comparator<IndexedUser> order) {
+		if (limit < 1 || users.size() <= limit) {
+			return users;
+		}
+		// the head of the queue is the last of the first limit users seen so far
+		final PriorityQueue<IndexedUser> first = new PriorityQueue<>(limit, order.reversed());
+		for (final IndexedUser u: users) {
+			if (first.size() < limit) {
+				first.add(u);
+			} else if (order.compare(u, first.peek()) < 0) {
+				first.poll();
+				first.add(u);
+			}
+		}
+		return first;
+	}
+}
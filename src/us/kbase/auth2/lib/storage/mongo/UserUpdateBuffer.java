@@ -0,0 +1,232 @@
+package us.kbase.auth2.lib.storage.mongo;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Optional;
+
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.identity.RemoteIdentity;
+import us.kbase.auth2.lib.identity.RemoteIdentityID;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+
+/** Buffers last login dates and changes to the details of remote identities, and writes the
+ * buffered updates to the storage system in batches from a separate daemon thread. Multiple
+ * updates for the same user between writes are coalesced, and the latest update wins. If a
+ * batch cannot be written, the updates are retried with the next batch.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class UserUpdateBuffer {
+
+	/** Writes a batch of buffered updates to the storage system.
+	 * @author gaprice@lbl.gov
+	 *
+	 */
+	public interface UpdateWriter {
+
+		/** Write a batch of updates. The updates are idempotent, and may be written again if
+		 * the write fails.
+		 * @param updates the updates, keyed by the user name.
+		 * @throws AuthStorageException if a problem connecting with the storage system occurs.
+		 */
+		void write(Map<UserName, PendingUpdate> updates) throws AuthStorageException;
+	}
+
+	/** The updates for a single user waiting in the buffer.
+	 * @author gaprice@lbl.gov
+	 *
+	 */
+	public static class PendingUpdate {
+
+		private Instant lastLogin = null;
+		private final Map<RemoteIdentityID, RemoteIdentity> identities = new HashMap<>();
+
+		private PendingUpdate() {}
+
+		/** Get the most recent last login date for the user, if any.
+		 * @return the last login date.
+		 */
+		public Optional<Instant> getLastLogin() {
+			return Optional.fromNullable(lastLogin);
+		}
+
+		/** Get the updated remote identities for the user.
+		 * @return the remote identities.
+		 */
+		public Collection<RemoteIdentity> getIdentities() {
+			return Collections.unmodifiableCollection(identities.values());
+		}
+
+		/** Get the number of updates for the user.
+		 * @return the number of updates.
+		 */
+		public int size() {
+			return (lastLogin == null ? 0 : 1) + identities.size();
+		}
+
+		// merges updates that are older than this update
+		private void mergeOlder(final PendingUpdate older) {
+			if (lastLogin == null || (older.lastLogin != null &&
+					older.lastLogin.isAfter(lastLogin))) {
+				lastLogin = older.lastLogin;
+			}
+			for (final Entry<RemoteIdentityID, RemoteIdentity> e: older.identities.entrySet()) {
+				identities.putIfAbsent(e.getKey(), e.getValue());
+			}
+		}
+	}
+
+	private final UpdateWriter writer;
+	private final long flushIntervalMS;
+	// only one flush at a time, so failed updates aren't requeued over newer updates
+	private final Object flushLock = new Object();
+	private volatile boolean stopped = false;
+	private volatile long lastFlushMS = -1;
+	private volatile long maxFlushMS = -1;
+	// guarded by this
+	private Map<UserName, PendingUpdate> pending = new HashMap<>();
+
+	/** Create a user update buffer. The buffer does not write updates until it is started.
+	 * @param writer the writer for batches of updates.
+	 * @param flushIntervalMS the interval, in milliseconds, between writes of the buffered
+	 * updates.
+	 */
+	public UserUpdateBuffer(final UpdateWriter writer, final long flushIntervalMS) {
+		nonNull(writer, "writer");
+		if (flushIntervalMS < 1) {
+			throw new IllegalArgumentException("flushIntervalMS must be at least 1");
+		}
+		this.writer = writer;
+		this.flushIntervalMS = flushIntervalMS;
+	}
+
+	/** Start writing buffered updates on the flush interval from a daemon thread. */
+	public void start() {
+		final Thread t = new Thread(this::run, "MongoStorage user update buffer");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/** Buffer a last login date for a user. Earlier dates than the buffered date are ignored.
+	 * @param userName the user's name.
+	 * @param lastLogin the last login date.
+	 */
+	public synchronized void setLastLogin(final UserName userName, final Instant lastLogin) {
+		nonNull(userName, "userName");
+		nonNull(lastLogin, "lastLogin");
+		final PendingUpdate u = getPending(userName);
+		if (u.lastLogin == null || lastLogin.isAfter(u.lastLogin)) {
+			u.lastLogin = lastLogin;
+		}
+	}
+
+	/** Buffer an update to the details of a user's remote identity.
+	 * @param userName the user's name.
+	 * @param remoteID the updated remote identity.
+	 */
+	public synchronized void updateIdentity(
+			final UserName userName,
+			final RemoteIdentity remoteID) {
+		nonNull(userName, "userName");
+		nonNull(remoteID, "remoteID");
+		getPending(userName).identities.put(remoteID.getRemoteID(), remoteID);
+	}
+
+	private synchronized PendingUpdate getPending(final UserName userName) {
+		return pending.computeIfAbsent(userName, u -> new PendingUpdate());
+	}
+
+	/** Get the number of users with updates waiting to be written.
+	 * @return the number of users.
+	 */
+	public synchronized int size() {
+		return pending.size();
+	}
+
+	/** Get the time taken by the most recent write of buffered updates.
+	 * @return the write time in milliseconds, or -1 if no updates have been written.
+	 */
+	public long getLastFlushMS() {
+		return lastFlushMS;
+	}
+
+	/** Get the maximum time taken by a write of buffered updates.
+	 * @return the maximum write time in milliseconds, or -1 if no updates have been written.
+	 */
+	public long getMaxFlushMS() {
+		return maxFlushMS;
+	}
+
+	private void run() {
+		while (!stopped) {
+			synchronized (this) {
+				try {
+					wait(flushIntervalMS);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+			if (!stopped) {
+				flush();
+			}
+		}
+	}
+
+	/** Stop the flush thread and write any buffered updates. Updates that cannot be written are
+	 * discarded.
+	 */
+	public void stop() {
+		synchronized (this) {
+			stopped = true;
+			notifyAll();
+		}
+		flush();
+		final int lost = size();
+		if (lost > 0) {
+			LoggerFactory.getLogger(getClass()).error(String.format(
+					"Discarded buffered updates for %s users", lost));
+		}
+	}
+
+	/** Write the buffered updates. If the write fails the updates are requeued. */
+	public void flush() {
+		synchronized (flushLock) {
+			final Map<UserName, PendingUpdate> updates;
+			synchronized (this) {
+				if (pending.isEmpty()) {
+					return;
+				}
+				updates = pending;
+				pending = new HashMap<>();
+			}
+			final long start = System.nanoTime();
+			try {
+				writer.write(Collections.unmodifiableMap(updates));
+			} catch (AuthStorageException | RuntimeException e) {
+				LoggerFactory.getLogger(getClass()).error(
+						"Failed to write buffered user updates: " + e.getMessage(), e);
+				requeue(updates);
+				return;
+			}
+			lastFlushMS = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			maxFlushMS = Math.max(maxFlushMS, lastFlushMS);
+		}
+	}
+
+	private synchronized void requeue(final Map<UserName, PendingUpdate> updates) {
+		// the updates are idempotent, so applied updates can safely be written again
+		for (final Entry<UserName, PendingUpdate> e: updates.entrySet()) {
+			getPending(e.getKey()).mergeOlder(e.getValue());
+		}
+	}
+}
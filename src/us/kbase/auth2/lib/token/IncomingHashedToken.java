@@ -1,31 +1,43 @@
 package us.kbase.auth2.lib.token;
 
+import java.util.Arrays;
+
 /** A token received from a user that has been hashed. Created by
  * {@link IncomingToken#getHashedToken()}
+ *
+ * The hash is held in binary form, so that comparing hashed tokens, e.g. when looking up a
+ * token in a cache, doesn't require encoding the hash as a string.
  * @author gaprice@lbl.gov
  *
  */
 public class IncomingHashedToken {
-	
-	private final String tokenHash;
 
-	IncomingHashedToken(final String tokenHash) {
-		// assume the tokenHash is good since this constructor is only called by IncomingToken
-		this.tokenHash = tokenHash;
+	private final byte[] hash;
+	// derived from the hash on first use, like String.hashCode()
+	private transient String tokenHash = null;
+
+	IncomingHashedToken(final byte[] hash) {
+		// assume the hash is good since this constructor is only called by IncomingToken
+		this.hash = hash;
 	}
 
 	/** Returns the hashed token.
 	 * @return the hashed token.
 	 */
 	public String getTokenHash() {
-		return tokenHash;
+		String h = tokenHash;
+		if (h == null) {
+			h = IncomingToken.encode(hash);
+			tokenHash = h;
+		}
+		return h;
 	}
 
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + ((tokenHash == null) ? 0 : tokenHash.hashCode());
+		result = prime * result + Arrays.hashCode(hash);
 		return result;
 	}
 
@@ -41,11 +53,7 @@ public class IncomingHashedToken {
 			return false;
 		}
 		IncomingHashedToken other = (IncomingHashedToken) obj;
-		if (tokenHash == null) {
-			if (other.tokenHash != null) {
-				return false;
-			}
-		} else if (!tokenHash.equals(other.tokenHash)) {
+		if (!Arrays.equals(hash, other.hash)) {
 			return false;
 		}
 		return true;
@@ -4,8 +4,10 @@ import static us.kbase.auth2.lib.Utils.checkString;
 import static us.kbase.auth2.lib.Utils.checkStringNoCheckedException;
 
 import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Base64;
 
 import us.kbase.auth2.lib.exceptions.MissingParameterException;
@@ -40,23 +42,95 @@ public class IncomingToken {
 	 * @return a hashed token.
 	 */
 	public IncomingHashedToken getHashedToken() {
-		return new IncomingHashedToken(hash(token));
+		return new IncomingHashedToken(HASHER.get().hash(token));
 	}
 	
 	/** Get a SHA-256 hash of a token.
 	 * @param token the token to hash.
-	 * @return the hash of the token when encoded as UTF-8.
+	 * @return the hash of the token when encoded as UTF-8, encoded as Base64.
 	 */
 	public static String hash(final String token) {
 		checkStringNoCheckedException(token, "token");
-		final MessageDigest digest;
-		try {
-			digest = MessageDigest.getInstance("SHA-256");
-		} catch (NoSuchAlgorithmException e) {
-			throw new RuntimeException("This should be impossible", e);
+		final Hasher h = HASHER.get();
+		return h.encode(h.hashToBuffer(token));
+	}
+	
+	// encodes a hash created by the Hasher as per the hash(String) method.
+	static String encode(final byte[] hash) {
+		return HASHER.get().encode(hash);
+	}
+	
+	/* Hashing tokens is on the path of nearly every request, so reuse the digest and
+	 * buffers per thread rather than allocating them for every hash. Tokens are almost always
+	 * ASCII and so are copied directly into the buffer rather than via the UTF-8 encoder.
+	 */
+	private static final ThreadLocal<Hasher> HASHER = ThreadLocal.withInitial(() -> new Hasher());
+	
+	private static class Hasher {
+		
+		private static final int HASH_LENGTH = 32;
+		// don't hold onto large buffers for unusually long tokens
+		private static final int MAX_BUFFER_LENGTH = 4096;
+		
+		private final MessageDigest digest;
+		private final byte[] hash = new byte[HASH_LENGTH];
+		private final byte[] encoded = new byte[(HASH_LENGTH + 2) / 3 * 4];
+		private final char[] encodedChars = new char[encoded.length];
+		private byte[] buffer = new byte[64];
+		
+		private Hasher() {
+			try {
+				digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException("This should be impossible", e);
+			}
+		}
+		
+		// returns a new array
+		public byte[] hash(final String token) {
+			return Arrays.copyOf(hashToBuffer(token), HASH_LENGTH);
+		}
+		
+		// returns the hash buffer, which is overwritten by the next hash on this thread
+		public byte[] hashToBuffer(final String token) {
+			final int len = token.length();
+			if (len > MAX_BUFFER_LENGTH || !copyASCII(token)) {
+				digest.update(token.getBytes(StandardCharsets.UTF_8));
+			} else {
+				digest.update(buffer, 0, len);
+			}
+			try {
+				digest.digest(hash, 0, HASH_LENGTH);
+			} catch (DigestException e) {
+				throw new RuntimeException("This should be impossible", e);
+			}
+			return hash;
+		}
+		
+		// returns false if the token is not ASCII
+		private boolean copyASCII(final String token) {
+			final int len = token.length();
+			if (buffer.length < len) {
+				buffer = new byte[Math.min(MAX_BUFFER_LENGTH, Math.max(len, buffer.length * 2))];
+			}
+			for (int i = 0; i < len; i++) {
+				final char c = token.charAt(i);
+				if (c > 0x7f) {
+					return false;
+				}
+				buffer[i] = (byte) c;
+			}
+			return true;
+		}
+		
+		// creating a string from bytes creates a new charset decoder, so copy to chars
+		public String encode(final byte[] hash) {
+			final int len = Base64.getEncoder().encode(hash, encoded);
+			for (int i = 0; i < len; i++) {
+				encodedChars[i] = (char) encoded[i];
+			}
+			return new String(encodedChars, 0, len);
 		}
-		final byte[] hash = digest.digest(token.getBytes(StandardCharsets.UTF_8));
-		return Base64.getEncoder().encodeToString(hash);
 	}
 
 	@Override
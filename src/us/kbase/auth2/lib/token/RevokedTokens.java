@@ -0,0 +1,64 @@
+package us.kbase.auth2.lib.token;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** A thread safe, in memory list of the IDs of revoked tokens, used to check signed tokens
+ * without contacting the storage system. Each ID is held until the expiration date of the
+ * revoked token, after which the token is invalid regardless.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class RevokedTokens {
+
+	private final Map<UUID, Instant> revoked = new ConcurrentHashMap<>();
+
+	/** Add a revoked token.
+	 * @param tokenID the ID of the token.
+	 * @param expirationDate the expiration date of the token.
+	 */
+	public void add(final UUID tokenID, final Instant expirationDate) {
+		nonNull(tokenID, "tokenID");
+		nonNull(expirationDate, "expirationDate");
+		revoked.put(tokenID, expirationDate);
+	}
+
+	/** Add revoked tokens.
+	 * @param tokens the expiration date of each token, keyed by the token ID.
+	 */
+	public void addAll(final Map<UUID, Instant> tokens) {
+		nonNull(tokens, "tokens");
+		for (final Entry<UUID, Instant> e: tokens.entrySet()) {
+			add(e.getKey(), e.getValue());
+		}
+	}
+
+	/** Check whether a token has been revoked.
+	 * @param tokenID the ID of the token.
+	 * @return true if the token has been revoked.
+	 */
+	public boolean isRevoked(final UUID tokenID) {
+		nonNull(tokenID, "tokenID");
+		return revoked.containsKey(tokenID);
+	}
+
+	/** Remove tokens that have expired.
+	 * @param now the current time.
+	 */
+	public void removeExpired(final Instant now) {
+		nonNull(now, "now");
+		revoked.values().removeIf(e -> now.isAfter(e));
+	}
+
+	/** Get the number of revoked tokens in the list.
+	 * @return the number of tokens.
+	 */
+	public int size() {
+		return revoked.size();
+	}
+}
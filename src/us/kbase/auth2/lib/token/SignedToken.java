@@ -0,0 +1,137 @@
+package us.kbase.auth2.lib.token;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import us.kbase.auth2.lib.UserName;
+
+/** The contents of a signed token that has been verified by a {@link TokenSigner}.
+ *
+ * Note that a verified token may still be expired or revoked.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class SignedToken {
+
+	private final UUID id;
+	private final UserName userName;
+	private final TokenType tokenType;
+	private final Instant expirationDate;
+
+	/** Create the contents of a signed token.
+	 * @param id the token's ID.
+	 * @param userName the user name of the user that owns the token.
+	 * @param tokenType the type of the token.
+	 * @param expirationDate the date the token expires.
+	 */
+	public SignedToken(
+			final UUID id,
+			final UserName userName,
+			final TokenType tokenType,
+			final Instant expirationDate) {
+		nonNull(id, "id");
+		nonNull(userName, "userName");
+		nonNull(tokenType, "tokenType");
+		nonNull(expirationDate, "expirationDate");
+		this.id = id;
+		this.userName = userName;
+		this.tokenType = tokenType;
+		this.expirationDate = expirationDate;
+	}
+
+	/** Get the token's ID.
+	 * @return the ID.
+	 */
+	public UUID getId() {
+		return id;
+	}
+
+	/** Get the user name of the user that owns the token.
+	 * @return the user name.
+	 */
+	public UserName getUserName() {
+		return userName;
+	}
+
+	/** Get the type of the token.
+	 * @return the token type.
+	 */
+	public TokenType getTokenType() {
+		return tokenType;
+	}
+
+	/** Get the date the token expires.
+	 * @return the expiration date.
+	 */
+	public Instant getExpirationDate() {
+		return expirationDate;
+	}
+
+	/** Check whether the token is expired.
+	 * @param now the current time.
+	 * @return true if the token is expired.
+	 */
+	public boolean isExpired(final Instant now) {
+		nonNull(now, "now");
+		return now.isAfter(expirationDate);
+	}
+
+	/** Get the token authentication information contained in this token.
+	 * @return the token authentication information.
+	 */
+	public TokenAuthInfo getAuthInfo() {
+		return new TokenAuthInfo(id, tokenType, userName, expirationDate);
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((expirationDate == null) ? 0 : expirationDate.hashCode());
+		result = prime * result + ((id == null) ? 0 : id.hashCode());
+		result = prime * result + ((tokenType == null) ? 0 : tokenType.hashCode());
+		result = prime * result + ((userName == null) ? 0 : userName.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		SignedToken other = (SignedToken) obj;
+		if (expirationDate == null) {
+			if (other.expirationDate != null) {
+				return false;
+			}
+		} else if (!expirationDate.equals(other.expirationDate)) {
+			return false;
+		}
+		if (id == null) {
+			if (other.id != null) {
+				return false;
+			}
+		} else if (!id.equals(other.id)) {
+			return false;
+		}
+		if (tokenType != other.tokenType) {
+			return false;
+		}
+		if (userName == null) {
+			if (other.userName != null) {
+				return false;
+			}
+		} else if (!userName.equals(other.userName)) {
+			return false;
+		}
+		return true;
+	}
+}
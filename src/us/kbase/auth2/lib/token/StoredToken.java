@@ -95,6 +95,13 @@ public class StoredToken {
 		return expirationDate;
 	}
 	
+	/** Get the subset of this token's fields required to authenticate a request.
+	 * @return the token authentication information.
+	 */
+	public TokenAuthInfo getAuthInfo() {
+		return new TokenAuthInfo(id, type, userName, expirationDate);
+	}
+	
 	@Override
 	public int hashCode() {
 		final int prime = 31;
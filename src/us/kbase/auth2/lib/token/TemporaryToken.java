@@ -41,6 +41,15 @@ public class TemporaryToken {
 		return token;
 	}
 	
+	/** Gets the hash of the token string.
+	 * 
+	 * Uses the {@link IncomingToken#hash(String)} method.
+	 * @return the hash of the token string.
+	 */
+	public String getTokenHash() {
+		return IncomingToken.hash(token);
+	}
+	
 	/** Get the date the token was created.
 	 * @return the creation date.
 	 */
@@ -0,0 +1,81 @@
+package us.kbase.auth2.lib.token;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import us.kbase.auth2.lib.user.AuthUser;
+
+/** A token and the user that owns the token.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class TokenAndUser {
+
+	private final StoredToken token;
+	private final AuthUser user;
+
+	/** Create a new token and user pair.
+	 * @param token the token.
+	 * @param user the user that owns the token.
+	 */
+	public TokenAndUser(final StoredToken token, final AuthUser user) {
+		nonNull(token, "token");
+		nonNull(user, "user");
+		if (!token.getUserName().equals(user.getUserName())) {
+			throw new IllegalArgumentException("The token is not owned by the user");
+		}
+		this.token = token;
+		this.user = user;
+	}
+
+	/** Get the token.
+	 * @return the token.
+	 */
+	public StoredToken getToken() {
+		return token;
+	}
+
+	/** Get the user that owns the token.
+	 * @return the user.
+	 */
+	public AuthUser getUser() {
+		return user;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((token == null) ? 0 : token.hashCode());
+		result = prime * result + ((user == null) ? 0 : user.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		TokenAndUser other = (TokenAndUser) obj;
+		if (token == null) {
+			if (other.token != null) {
+				return false;
+			}
+		} else if (!token.equals(other.token)) {
+			return false;
+		}
+		if (user == null) {
+			if (other.user != null) {
+				return false;
+			}
+		} else if (!user.equals(other.user)) {
+			return false;
+		}
+		return true;
+	}
+}
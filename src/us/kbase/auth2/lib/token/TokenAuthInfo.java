@@ -0,0 +1,121 @@
+package us.kbase.auth2.lib.token;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import us.kbase.auth2.lib.UserName;
+
+/** The subset of a token's fields required to authenticate and authorize a request: the ID,
+ * type, owner, and expiration date of the token. Unlike a {@link StoredToken}, the token name,
+ * creation date, and creation context are omitted, so storage systems can avoid reading them.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class TokenAuthInfo {
+
+	private final UUID id;
+	private final TokenType tokenType;
+	private final UserName userName;
+	private final Instant expirationDate;
+
+	/** Create the authentication information for a token.
+	 * @param id the token's ID.
+	 * @param tokenType the type of the token.
+	 * @param userName the user name of the user that owns the token.
+	 * @param expirationDate the date the token expires.
+	 */
+	public TokenAuthInfo(
+			final UUID id,
+			final TokenType tokenType,
+			final UserName userName,
+			final Instant expirationDate) {
+		nonNull(id, "id");
+		nonNull(tokenType, "tokenType");
+		nonNull(userName, "userName");
+		nonNull(expirationDate, "expirationDate");
+		this.id = id;
+		this.tokenType = tokenType;
+		this.userName = userName;
+		this.expirationDate = expirationDate;
+	}
+
+	/** Get the token's ID.
+	 * @return the ID.
+	 */
+	public UUID getId() {
+		return id;
+	}
+
+	/** Get the type of the token.
+	 * @return the token type.
+	 */
+	public TokenType getTokenType() {
+		return tokenType;
+	}
+
+	/** Get the user name of the user that owns the token.
+	 * @return the user name.
+	 */
+	public UserName getUserName() {
+		return userName;
+	}
+
+	/** Get the date the token expires.
+	 * @return the expiration date.
+	 */
+	public Instant getExpirationDate() {
+		return expirationDate;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((expirationDate == null) ? 0 : expirationDate.hashCode());
+		result = prime * result + ((id == null) ? 0 : id.hashCode());
+		result = prime * result + ((tokenType == null) ? 0 : tokenType.hashCode());
+		result = prime * result + ((userName == null) ? 0 : userName.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		TokenAuthInfo other = (TokenAuthInfo) obj;
+		if (expirationDate == null) {
+			if (other.expirationDate != null) {
+				return false;
+			}
+		} else if (!expirationDate.equals(other.expirationDate)) {
+			return false;
+		}
+		if (id == null) {
+			if (other.id != null) {
+				return false;
+			}
+		} else if (!id.equals(other.id)) {
+			return false;
+		}
+		if (tokenType != other.tokenType) {
+			return false;
+		}
+		if (userName == null) {
+			if (other.userName != null) {
+				return false;
+			}
+		} else if (!userName.equals(other.userName)) {
+			return false;
+		}
+		return true;
+	}
+}
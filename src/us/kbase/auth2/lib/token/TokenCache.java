@@ -0,0 +1,356 @@
+package us.kbase.auth2.lib.token;
+
+import static us.kbase.auth2.lib.Utils.noNulls;
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.time.Clock;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.exceptions.NoSuchTokenException;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+
+/** A bounded, thread safe, in memory cache of validated tokens keyed by the token hash.
+ *
+ * A token is held until the earlier of the token's expiration date or the cache time to live
+ * after the token was loaded into the cache. Tokens must be removed from the cache via one of the
+ * invalidate methods *after* they are removed from the storage system.
+ *
+ * A cache with a maximum size or time to live of zero is disabled and passes all requests
+ * directly to the storage system.
+ *
+ * The cache keeps an index of the cached token hashes by token ID and user name, so invalidating
+ * a token by ID or all of a user's tokens does not require a scan of the cache.
+ *
+ * Note that the cache is local to this process. If multiple service instances share a storage
+ * system, a token revoked via one instance may continue to be valid in another instance's
+ * cache for up to the cache time to live.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class TokenCache {
+
+	/** Loads a token from the storage system on a cache miss.
+	 * @author gaprice@lbl.gov
+	 *
+	 */
+	public interface TokenLoader {
+
+		/** Load a token from the storage system.
+		 * @param hashedToken the hashed token to load.
+		 * @return the token.
+		 * @throws NoSuchTokenException if the token does not exist.
+		 * @throws AuthStorageException if a problem connecting with the storage system occurs.
+		 */
+		StoredToken load(IncomingHashedToken hashedToken)
+				throws NoSuchTokenException, AuthStorageException;
+	}
+	
+	/** Loads multiple tokens from the storage system on cache misses.
+	 * @author gaprice@lbl.gov
+	 *
+	 */
+	public interface TokensLoader {
+		
+		/** Load tokens from the storage system.
+		 * @param hashedTokens the hashed tokens to load.
+		 * @return the tokens, keyed by the hashed token. Tokens that do not exist are omitted.
+		 * @throws AuthStorageException if a problem connecting with the storage system occurs.
+		 */
+		Map<IncomingHashedToken, StoredToken> load(Set<IncomingHashedToken> hashedTokens)
+				throws AuthStorageException;
+	}
+
+	private final Cache<IncomingHashedToken, StoredToken> cache;
+	private final Clock clock;
+	private final boolean enabled;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder expired = new LongAdder();
+	private final ConcurrentMap<UUID, IncomingHashedToken> byID = new ConcurrentHashMap<>();
+	private final ConcurrentMap<UserName, Set<IncomingHashedToken>> byUser =
+			new ConcurrentHashMap<>();
+	private final Set<PendingLoad> pending = ConcurrentHashMap.newKeySet();
+
+	/* A load from the storage system that is in progress. Invalidations that occur during the
+	 * load are recorded, and a loaded token that matches one of them is discarded, since the load
+	 * may have read the token from storage before it was deleted.
+	 */
+	private static class PendingLoad {
+
+		private final Set<IncomingHashedToken> hashes = ConcurrentHashMap.newKeySet();
+		private final Set<UUID> ids = ConcurrentHashMap.newKeySet();
+		private final Set<UserName> users = ConcurrentHashMap.newKeySet();
+		private volatile boolean all = false;
+
+		private boolean isInvalidated(
+				final IncomingHashedToken hashedToken,
+				final StoredToken token) {
+			return all || hashes.contains(hashedToken) || ids.contains(token.getId()) ||
+					users.contains(token.getUserName());
+		}
+	}
+
+	/** Create a token cache.
+	 * @param maximumSize the maximum number of tokens to hold in the cache. 0 disables the cache.
+	 * @param timeToLiveMS the maximum time, in milliseconds, a token is held in the cache after
+	 * it's loaded from the storage system. 0 disables the cache.
+	 */
+	public TokenCache(final long maximumSize, final long timeToLiveMS) {
+		this(maximumSize, timeToLiveMS, Ticker.systemTicker(),
+				Clock.systemDefaultZone()); // don't care about time zone, not using it
+	}
+
+	/* This constructor is for testing purposes only. */
+	private TokenCache(
+			final long maximumSize,
+			final long timeToLiveMS,
+			final Ticker ticker,
+			final Clock clock) {
+		if (maximumSize < 0) {
+			throw new IllegalArgumentException("maximumSize must be at least 0");
+		}
+		if (timeToLiveMS < 0) {
+			throw new IllegalArgumentException("timeToLiveMS must be at least 0");
+		}
+		this.clock = clock;
+		enabled = maximumSize > 0 && timeToLiveMS > 0;
+		cache = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(timeToLiveMS, TimeUnit.MILLISECONDS)
+				.ticker(ticker)
+				.recordStats()
+				.removalListener(this::onRemoval)
+				.build();
+	}
+
+	private void onRemoval(final RemovalNotification<IncomingHashedToken, StoredToken> n) {
+		// a token hash always maps to the same token, so a replacement doesn't change the index
+		if (n.getCause() == RemovalCause.REPLACED || n.getKey() == null || n.getValue() == null) {
+			return;
+		}
+		unindex(n.getKey(), n.getValue());
+		/* the token may have been reloaded and indexed between its removal and this
+		 * notification. If so restore the index entries, since a cached token must always be
+		 * indexed. At worst this leaves an index entry for a token no longer in the cache, which
+		 * is harmless.
+		 */
+		if (cache.asMap().containsKey(n.getKey())) {
+			index(n.getKey(), n.getValue());
+		}
+	}
+
+	private void index(final IncomingHashedToken hashedToken, final StoredToken token) {
+		byID.put(token.getId(), hashedToken);
+		byUser.compute(token.getUserName(), (u, hashes) -> {
+			final Set<IncomingHashedToken> ret = hashes == null ? new HashSet<>() : hashes;
+			ret.add(hashedToken);
+			return ret;
+		});
+	}
+
+	private void unindex(final IncomingHashedToken hashedToken, final StoredToken token) {
+		byID.remove(token.getId(), hashedToken);
+		byUser.computeIfPresent(token.getUserName(), (u, hashes) -> {
+			hashes.remove(hashedToken);
+			return hashes.isEmpty() ? null : hashes;
+		});
+	}
+
+	private void put(final IncomingHashedToken hashedToken, final StoredToken token) {
+		cache.put(hashedToken, token);
+		index(hashedToken, token);
+	}
+
+	/** Get a disabled token cache.
+	 * @return a token cache that passes all requests to the storage system.
+	 */
+	public static TokenCache getDisabledCache() {
+		return new TokenCache(0, 0);
+	}
+
+	/** Returns true if this cache is enabled.
+	 * @return true if the cache is enabled.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/** Get a token from the cache, loading it from the storage system if it is not present.
+	 * @param hashedToken the hashed token.
+	 * @param loader the loader that retrieves the token from the storage system.
+	 * @return the token.
+	 * @throws NoSuchTokenException if the token does not exist.
+	 * @throws AuthStorageException if a problem connecting with the storage system occurs.
+	 */
+	public StoredToken get(final IncomingHashedToken hashedToken, final TokenLoader loader)
+			throws NoSuchTokenException, AuthStorageException {
+		nonNull(hashedToken, "hashedToken");
+		nonNull(loader, "loader");
+		if (!enabled) {
+			return loader.load(hashedToken);
+		}
+		final StoredToken cached = cache.getIfPresent(hashedToken);
+		if (cached != null) {
+			if (!clock.instant().isAfter(cached.getExpirationDate())) {
+				hits.increment();
+				return cached;
+			}
+			cache.invalidate(hashedToken);
+			expired.increment();
+		}
+		misses.increment();
+		final PendingLoad load = new PendingLoad();
+		pending.add(load);
+		final StoredToken st;
+		try {
+			st = loader.load(hashedToken);
+			put(hashedToken, st);
+		} finally {
+			pending.remove(load);
+		}
+		if (load.isInvalidated(hashedToken, st)) {
+			cache.invalidate(hashedToken);
+		}
+		return st;
+	}
+
+	/** Get multiple tokens from the cache, loading any tokens that are not present from the
+	 * storage system in a single request.
+	 * @param hashedTokens the hashed tokens.
+	 * @param loader the loader that retrieves the tokens from the storage system.
+	 * @return the tokens, keyed by the hashed token. Tokens that do not exist are omitted.
+	 * @throws AuthStorageException if a problem connecting with the storage system occurs.
+	 */
+	public Map<IncomingHashedToken, StoredToken> getAll(
+			final Set<IncomingHashedToken> hashedTokens,
+			final TokensLoader loader)
+			throws AuthStorageException {
+		nonNull(hashedTokens, "hashedTokens");
+		noNulls(hashedTokens, "Null token in hashedTokens");
+		nonNull(loader, "loader");
+		if (!enabled) {
+			return loader.load(hashedTokens);
+		}
+		final Map<IncomingHashedToken, StoredToken> ret = new HashMap<>();
+		final Set<IncomingHashedToken> missing = new HashSet<>();
+		for (final IncomingHashedToken ht: hashedTokens) {
+			final StoredToken cached = cache.getIfPresent(ht);
+			if (cached != null && !clock.instant().isAfter(cached.getExpirationDate())) {
+				hits.increment();
+				ret.put(ht, cached);
+			} else {
+				if (cached != null) {
+					cache.invalidate(ht);
+					expired.increment();
+				}
+				misses.increment();
+				missing.add(ht);
+			}
+		}
+		if (missing.isEmpty()) {
+			return ret;
+		}
+		final PendingLoad load = new PendingLoad();
+		pending.add(load);
+		final Map<IncomingHashedToken, StoredToken> loaded;
+		try {
+			loaded = loader.load(missing);
+			for (final Entry<IncomingHashedToken, StoredToken> e: loaded.entrySet()) {
+				put(e.getKey(), e.getValue());
+			}
+		} finally {
+			pending.remove(load);
+		}
+		for (final Entry<IncomingHashedToken, StoredToken> e: loaded.entrySet()) {
+			if (load.isInvalidated(e.getKey(), e.getValue())) {
+				cache.invalidate(e.getKey());
+			}
+		}
+		ret.putAll(loaded);
+		return ret;
+	}
+
+	/** Remove a token from the cache.
+	 * @param hashedToken the hashed token to remove.
+	 */
+	public void invalidate(final IncomingHashedToken hashedToken) {
+		nonNull(hashedToken, "hashedToken");
+		pending.forEach(l -> l.hashes.add(hashedToken));
+		cache.invalidate(hashedToken);
+	}
+
+	/** Remove a token from the cache.
+	 * @param tokenID the ID of the token to remove.
+	 */
+	public void invalidate(final UUID tokenID) {
+		nonNull(tokenID, "tokenID");
+		pending.forEach(l -> l.ids.add(tokenID));
+		final IncomingHashedToken hashedToken = byID.get(tokenID);
+		if (hashedToken != null) {
+			cache.invalidate(hashedToken);
+		}
+	}
+
+	/** Remove all of a user's tokens from the cache.
+	 * @param userName the user whose tokens will be removed.
+	 */
+	public void invalidate(final UserName userName) {
+		nonNull(userName, "userName");
+		pending.forEach(l -> l.users.add(userName));
+		final Set<IncomingHashedToken> hashes = byUser.remove(userName);
+		if (hashes != null) {
+			cache.invalidateAll(hashes);
+		}
+	}
+
+	/** Remove all tokens from the cache. */
+	public void invalidateAll() {
+		pending.forEach(l -> l.all = true);
+		cache.invalidateAll();
+	}
+
+	/** Get the number of token requests that were served from the cache.
+	 * @return the number of cache hits.
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/** Get the number of token requests that required a load from the storage system.
+	 * @return the number of cache misses.
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/** Get the number of tokens that were evicted from the cache due to size limits, the cache
+	 * time to live, or the token expiring. Tokens explicitly invalidated are not counted.
+	 * @return the number of cache evictions.
+	 */
+	public long getEvictionCount() {
+		return cache.stats().evictionCount() + expired.sum();
+	}
+
+	/** Get the approximate number of tokens in the cache.
+	 * @return the number of cached tokens.
+	 */
+	public long size() {
+		return cache.size();
+	}
+}
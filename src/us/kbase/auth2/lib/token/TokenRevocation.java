@@ -0,0 +1,142 @@
+package us.kbase.auth2.lib.token;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.time.Instant;
+import java.util.UUID;
+
+import us.kbase.auth2.lib.UserName;
+
+/** An entry in the token revocation log. Each revocation has a sequence number, and sequence
+ * numbers increase as revocations are added to the log.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class TokenRevocation {
+
+	private final long sequence;
+	private final UUID tokenID;
+	private final UserName userName;
+	private final Instant expirationDate;
+	private final Instant revocationTime;
+
+	/** Create a token revocation.
+	 * @param sequence the sequence number of the revocation.
+	 * @param tokenID the ID of the revoked token.
+	 * @param userName the user name of the user that owned the token.
+	 * @param expirationDate the date the token would have expired.
+	 * @param revocationTime the time the token was revoked.
+	 */
+	public TokenRevocation(
+			final long sequence,
+			final UUID tokenID,
+			final UserName userName,
+			final Instant expirationDate,
+			final Instant revocationTime) {
+		if (sequence < 1) {
+			throw new IllegalArgumentException("sequence must be > 0");
+		}
+		nonNull(tokenID, "tokenID");
+		nonNull(userName, "userName");
+		nonNull(expirationDate, "expirationDate");
+		nonNull(revocationTime, "revocationTime");
+		this.sequence = sequence;
+		this.tokenID = tokenID;
+		this.userName = userName;
+		this.expirationDate = expirationDate;
+		this.revocationTime = revocationTime;
+	}
+
+	/** Get the sequence number of the revocation.
+	 * @return the sequence number.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/** Get the ID of the revoked token.
+	 * @return the token ID.
+	 */
+	public UUID getTokenID() {
+		return tokenID;
+	}
+
+	/** Get the user name of the user that owned the token.
+	 * @return the user name.
+	 */
+	public UserName getUserName() {
+		return userName;
+	}
+
+	/** Get the date the token would have expired.
+	 * @return the expiration date.
+	 */
+	public Instant getExpirationDate() {
+		return expirationDate;
+	}
+
+	/** Get the time the token was revoked.
+	 * @return the revocation time.
+	 */
+	public Instant getRevocationTime() {
+		return revocationTime;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((expirationDate == null) ? 0 : expirationDate.hashCode());
+		result = prime * result + ((revocationTime == null) ? 0 : revocationTime.hashCode());
+		result = prime * result + (int) (sequence ^ (sequence >>> 32));
+		result = prime * result + ((tokenID == null) ? 0 : tokenID.hashCode());
+		result = prime * result + ((userName == null) ? 0 : userName.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		TokenRevocation other = (TokenRevocation) obj;
+		if (expirationDate == null) {
+			if (other.expirationDate != null) {
+				return false;
+			}
+		} else if (!expirationDate.equals(other.expirationDate)) {
+			return false;
+		}
+		if (revocationTime == null) {
+			if (other.revocationTime != null) {
+				return false;
+			}
+		} else if (!revocationTime.equals(other.revocationTime)) {
+			return false;
+		}
+		if (sequence != other.sequence) {
+			return false;
+		}
+		if (tokenID == null) {
+			if (other.tokenID != null) {
+				return false;
+			}
+		} else if (!tokenID.equals(other.tokenID)) {
+			return false;
+		}
+		if (userName == null) {
+			if (other.userName != null) {
+				return false;
+			}
+		} else if (!userName.equals(other.userName)) {
+			return false;
+		}
+		return true;
+	}
+}
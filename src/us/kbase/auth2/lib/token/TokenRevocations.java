@@ -0,0 +1,102 @@
+package us.kbase.auth2.lib.token;
+
+import static us.kbase.auth2.lib.Utils.noNulls;
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** A portion of the token revocation log, as returned to a client that is following the log.
+ *
+ * If the log has been reset, revocations the client has not yet read have been discarded from
+ * the log, and the client should treat every token it holds as potentially revoked.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class TokenRevocations {
+
+	private final List<TokenRevocation> revocations;
+	private final long nextSequence;
+	private final boolean reset;
+
+	/** Create a portion of the token revocation log.
+	 * @param revocations the revocations, in sequence order.
+	 * @param nextSequence the sequence number from which the client should continue to follow
+	 * the log.
+	 * @param reset true if the log has been reset.
+	 */
+	public TokenRevocations(
+			final List<TokenRevocation> revocations,
+			final long nextSequence,
+			final boolean reset) {
+		nonNull(revocations, "revocations");
+		noNulls(revocations, "Null item in revocations");
+		if (nextSequence < 0) {
+			throw new IllegalArgumentException("nextSequence must be >= 0");
+		}
+		this.revocations = Collections.unmodifiableList(new ArrayList<>(revocations));
+		this.nextSequence = nextSequence;
+		this.reset = reset;
+	}
+
+	/** Get the revocations, in sequence order.
+	 * @return the revocations.
+	 */
+	public List<TokenRevocation> getRevocations() {
+		return revocations;
+	}
+
+	/** Get the sequence number from which the client should continue to follow the log.
+	 * @return the sequence number.
+	 */
+	public long getNextSequence() {
+		return nextSequence;
+	}
+
+	/** Whether the log has been reset and the client should treat all tokens as potentially
+	 * revoked.
+	 * @return true if the log has been reset.
+	 */
+	public boolean isReset() {
+		return reset;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + (int) (nextSequence ^ (nextSequence >>> 32));
+		result = prime * result + (reset ? 1231 : 1237);
+		result = prime * result + ((revocations == null) ? 0 : revocations.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		TokenRevocations other = (TokenRevocations) obj;
+		if (nextSequence != other.nextSequence) {
+			return false;
+		}
+		if (reset != other.reset) {
+			return false;
+		}
+		if (revocations == null) {
+			if (other.revocations != null) {
+				return false;
+			}
+		} else if (!revocations.equals(other.revocations)) {
+			return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,150 @@
+package us.kbase.auth2.lib.token;
+
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.UUID;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.google.common.base.Optional;
+
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.exceptions.IllegalParameterException;
+import us.kbase.auth2.lib.exceptions.MissingParameterException;
+
+/** Creates and verifies signed tokens.
+ *
+ * A signed token contains the token ID, the user name of the token's owner, the token type, and
+ * the token's expiration date, and is signed with a secret key via HMAC-SHA256. Any process
+ * that possesses the key can verify a signed token without contacting the storage system.
+ * However, a signed token may have been revoked, and so processes that verify tokens locally
+ * must also check the token ID against a list of revoked tokens.
+ *
+ * Signed tokens have the form s1.&lt;payload&gt;.&lt;signature&gt;, where the payload and
+ * signature are URL safe Base64 encoded without padding. Random tokens are Base32 encoded and
+ * therefore can never be mistaken for a signed token.
+ *
+ * This class is thread safe.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class TokenSigner {
+
+	/** The minimum length of a signing key in bytes. */
+	public static final int MIN_KEY_LENGTH = 32;
+
+	private static final String ALGORITHM = "HmacSHA256";
+	private static final String PREFIX = "s1.";
+	private static final String SEP = "\n";
+
+	private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+	private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+	private final SecretKeySpec key;
+	// Mac instances are not thread safe, so keep one per thread
+	private final ThreadLocal<Mac> mac = ThreadLocal.withInitial(() -> getMac());
+
+	/** Create a token signer.
+	 * @param key the secret key with which to sign tokens. Must be at least
+	 * {@link #MIN_KEY_LENGTH} bytes.
+	 */
+	public TokenSigner(final byte[] key) {
+		nonNull(key, "key");
+		if (key.length < MIN_KEY_LENGTH) {
+			throw new IllegalArgumentException(String.format(
+					"key must be at least %s bytes", MIN_KEY_LENGTH));
+		}
+		this.key = new SecretKeySpec(Arrays.copyOf(key, key.length), ALGORITHM);
+		getMac(); // fail early on a bad key
+	}
+
+	private Mac getMac() {
+		try {
+			final Mac m = Mac.getInstance(ALGORITHM);
+			m.init(key);
+			return m;
+		} catch (NoSuchAlgorithmException | InvalidKeyException e) {
+			throw new RuntimeException("This should be impossible", e);
+		}
+	}
+
+	/** Create a signed token string for a token.
+	 * @param token the token to sign.
+	 * @return the signed token string.
+	 */
+	public String sign(final StoredToken token) {
+		nonNull(token, "token");
+		final String payload = PREFIX + ENCODER.encodeToString(String.join(SEP,
+				token.getId().toString(),
+				token.getUserName().getName(),
+				token.getTokenType().getID(),
+				Long.toString(token.getExpirationDate().toEpochMilli()))
+				.getBytes(StandardCharsets.UTF_8));
+		return payload + "." + ENCODER.encodeToString(signature(payload));
+	}
+
+	private byte[] signature(final String payload) {
+		return mac.get().doFinal(payload.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/** Check whether a token string is in the signed token format. The signature is not checked.
+	 * @param token the token string.
+	 * @return true if the token string is in the signed token format.
+	 */
+	public static boolean isSigned(final String token) {
+		nonNull(token, "token");
+		return token.startsWith(PREFIX);
+	}
+
+	/** Verify a signed token. The token's expiration date is not checked.
+	 * @param token the token string.
+	 * @return the contents of the token, or absent if the token string is not a signed token or
+	 * the signature is invalid.
+	 */
+	public Optional<SignedToken> verify(final String token) {
+		nonNull(token, "token");
+		if (!isSigned(token)) {
+			return Optional.absent();
+		}
+		final int sigsep = token.lastIndexOf('.');
+		if (sigsep < PREFIX.length()) {
+			return Optional.absent();
+		}
+		final String payload = token.substring(0, sigsep);
+		final byte[] sig;
+		final String[] parts;
+		try {
+			sig = DECODER.decode(token.substring(sigsep + 1));
+			if (!MessageDigest.isEqual(sig, signature(payload))) { // constant time
+				return Optional.absent();
+			}
+			parts = new String(DECODER.decode(payload.substring(PREFIX.length())),
+					StandardCharsets.UTF_8).split(SEP, -1);
+		} catch (IllegalArgumentException e) {
+			return Optional.absent(); // bad base64
+		}
+		if (parts.length != 4) {
+			// a validly signed token should always be parseable
+			throw new IllegalStateException("Validly signed token has an invalid payload");
+		}
+		try {
+			return Optional.of(new SignedToken(
+					UUID.fromString(parts[0]),
+					new UserName(parts[1]),
+					TokenType.getType(parts[2]),
+					Instant.ofEpochMilli(Long.parseLong(parts[3]))));
+		} catch (IllegalArgumentException | MissingParameterException |
+				IllegalParameterException e) {
+			throw new IllegalStateException(
+					"Validly signed token has an invalid payload: " + e.getMessage(), e);
+		}
+	}
+}
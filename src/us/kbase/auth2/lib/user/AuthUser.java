@@ -198,6 +198,13 @@ public class AuthUser {
 	public UserDisabledState getDisabledState() {
 		return disabledState;
 	}
+	
+	/** Get the subset of this user's fields required to authorize a request.
+	 * @return the user authorization information.
+	 */
+	public UserAuthInfo getAuthInfo() {
+		return new UserAuthInfo(userName, roles, isDisabled());
+	}
 
 	/** Get a remote identity associated with this user given a remote identity. The remote
 	 * identities are matched based on the identity provider name and account ID. Thus, the two
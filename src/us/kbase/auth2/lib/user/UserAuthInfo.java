@@ -0,0 +1,118 @@
+package us.kbase.auth2.lib.user;
+
+import static us.kbase.auth2.lib.Utils.noNulls;
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import us.kbase.auth2.lib.Role;
+import us.kbase.auth2.lib.UserName;
+
+/** The subset of a user's fields required to authorize a request: the user name, roles, and
+ * whether the user is disabled. Unlike an {@link AuthUser}, the display name, email address,
+ * identities, custom roles, policy IDs, and dates are omitted, so storage systems can avoid
+ * reading them.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class UserAuthInfo {
+
+	private final UserName userName;
+	private final Set<Role> roles;
+	private final boolean disabled;
+
+	/** Create the authorization information for a user.
+	 * @param userName the user's name.
+	 * @param roles the user's roles.
+	 * @param disabled true if the user's account is disabled.
+	 */
+	public UserAuthInfo(final UserName userName, final Set<Role> roles, final boolean disabled) {
+		nonNull(userName, "userName");
+		nonNull(roles, "roles");
+		noNulls(roles, "Null role in roles");
+		this.userName = userName;
+		this.roles = Collections.unmodifiableSet(new HashSet<>(roles));
+		this.disabled = disabled;
+	}
+
+	/** Returns the user's user name.
+	 * @return the user name.
+	 */
+	public UserName getUserName() {
+		return userName;
+	}
+
+	/** Returns whether this user is the root user.
+	 * @return true if the the user is the root user, false otherwise.
+	 */
+	public boolean isRoot() {
+		return userName.isRoot();
+	}
+
+	/** Returns this user's roles.
+	 * @return this user's roles.
+	 */
+	public Set<Role> getRoles() {
+		return roles;
+	}
+
+	/** Returns the roles this user is authorized to grant to other users.
+	 * @return roles this user can grant.
+	 */
+	public Set<Role> getGrantableRoles() {
+		return Collections.unmodifiableSet(roles.stream()
+				.flatMap(r -> r.canGrant().stream()).collect(Collectors.toSet()));
+	}
+
+	/** Returns true if the account for this user is disabled.
+	 * @return true if the user account is disabled, false otherwise.
+	 */
+	public boolean isDisabled() {
+		return disabled;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + (disabled ? 1231 : 1237);
+		result = prime * result + ((roles == null) ? 0 : roles.hashCode());
+		result = prime * result + ((userName == null) ? 0 : userName.hashCode());
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (obj == null) {
+			return false;
+		}
+		if (getClass() != obj.getClass()) {
+			return false;
+		}
+		UserAuthInfo other = (UserAuthInfo) obj;
+		if (disabled != other.disabled) {
+			return false;
+		}
+		if (roles == null) {
+			if (other.roles != null) {
+				return false;
+			}
+		} else if (!roles.equals(other.roles)) {
+			return false;
+		}
+		if (userName == null) {
+			if (other.userName != null) {
+				return false;
+			}
+		} else if (!userName.equals(other.userName)) {
+			return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,344 @@
+package us.kbase.auth2.lib.user;
+
+import static us.kbase.auth2.lib.Utils.noNulls;
+import static us.kbase.auth2.lib.Utils.nonNull;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.exceptions.NoSuchUserException;
+import us.kbase.auth2.lib.identity.RemoteIdentity;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+
+/** A bounded, thread safe, in memory read-through cache of users keyed by the user name.
+ *
+ * Users are held in the cache for at most the cache time to live after they are loaded from the
+ * storage system. Any change to a user in the storage system must be followed by a call to one of
+ * the invalidate methods, or, for last login dates, to {@link #setLastLogin(UserName, Instant)}.
+ *
+ * A cache with a maximum size or time to live of zero is disabled and passes all requests
+ * directly to the storage system.
+ *
+ * The display names of enabled users are cached separately from the users, since display names
+ * are looked up in bulk for many more users than are authorized. The display name cache shares
+ * the time to live and invalidations of the user cache, and has its own maximum size.
+ *
+ * Note that the cache is local to this process. If multiple service instances share a storage
+ * system, a change to a user made via one instance may not be visible in another instance for up
+ * to the cache time to live.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class UserCache {
+
+	/** Loads a user from the storage system on a cache miss.
+	 * @author gaprice@lbl.gov
+	 *
+	 */
+	public interface UserLoader {
+
+		/** Load a user from the storage system.
+		 * @param userName the name of the user to load.
+		 * @return the user.
+		 * @throws NoSuchUserException if the user does not exist.
+		 * @throws AuthStorageException if a problem connecting with the storage system occurs.
+		 */
+		AuthUser load(UserName userName) throws NoSuchUserException, AuthStorageException;
+	}
+
+	/** Loads display names from the storage system on a cache miss.
+	 * @author gaprice@lbl.gov
+	 *
+	 */
+	public interface DisplayNameLoader {
+
+		/** Load the display names of a set of users from the storage system.
+		 * @param userNames the names of the users.
+		 * @return the display names of the users that exist and are enabled.
+		 * @throws AuthStorageException if a problem connecting with the storage system occurs.
+		 */
+		Map<UserName, DisplayName> load(Set<UserName> userNames) throws AuthStorageException;
+	}
+
+	private final Cache<UserName, AuthUser> cache;
+	private final boolean enabled;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final Cache<UserName, DisplayName> displayNames;
+	private final boolean displayNamesEnabled;
+	private final LongAdder displayNameHits = new LongAdder();
+	private final LongAdder displayNameMisses = new LongAdder();
+	private final Set<PendingLoad> pending = ConcurrentHashMap.newKeySet();
+
+	/* A load from the storage system that is in progress. Invalidations that occur during the
+	 * load are recorded, and a loaded user or display name that matches one of them is
+	 * discarded, since the load may have read the user from storage before it was changed.
+	 */
+	private static class PendingLoad {
+
+		private final Set<UserName> users = ConcurrentHashMap.newKeySet();
+		private volatile boolean all = false;
+
+		private boolean isInvalidated(final UserName userName) {
+			return all || users.contains(userName);
+		}
+	}
+
+	/** Create a user cache.
+	 * @param maximumSize the maximum number of users to hold in the cache. 0 disables the cache.
+	 * @param timeToLiveMS the maximum time, in milliseconds, a user is held in the cache after
+	 * it's loaded from the storage system. 0 disables the cache.
+	 */
+	public UserCache(final long maximumSize, final long timeToLiveMS) {
+		this(maximumSize, timeToLiveMS, 0);
+	}
+
+	/** Create a user cache that also caches display names.
+	 * @param maximumSize the maximum number of users to hold in the cache. 0 disables the user
+	 * cache.
+	 * @param timeToLiveMS the maximum time, in milliseconds, a user or display name is held in
+	 * the cache after it's loaded from the storage system. 0 disables both caches.
+	 * @param maximumDisplayNames the maximum number of display names to hold in the cache. 0
+	 * disables the display name cache.
+	 */
+	public UserCache(
+			final long maximumSize,
+			final long timeToLiveMS,
+			final long maximumDisplayNames) {
+		this(maximumSize, timeToLiveMS, maximumDisplayNames, Ticker.systemTicker());
+	}
+
+	/* This constructor is for testing purposes only. */
+	private UserCache(
+			final long maximumSize,
+			final long timeToLiveMS,
+			final long maximumDisplayNames,
+			final Ticker ticker) {
+		if (maximumSize < 0) {
+			throw new IllegalArgumentException("maximumSize must be at least 0");
+		}
+		if (timeToLiveMS < 0) {
+			throw new IllegalArgumentException("timeToLiveMS must be at least 0");
+		}
+		if (maximumDisplayNames < 0) {
+			throw new IllegalArgumentException("maximumDisplayNames must be at least 0");
+		}
+		enabled = maximumSize > 0 && timeToLiveMS > 0;
+		cache = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(timeToLiveMS, TimeUnit.MILLISECONDS)
+				.ticker(ticker)
+				.recordStats()
+				.build();
+		displayNamesEnabled = maximumDisplayNames > 0 && timeToLiveMS > 0;
+		displayNames = CacheBuilder.newBuilder()
+				.maximumSize(maximumDisplayNames)
+				.expireAfterWrite(timeToLiveMS, TimeUnit.MILLISECONDS)
+				.ticker(ticker)
+				.build();
+	}
+
+	/** Get a disabled user cache.
+	 * @return a user cache that passes all requests to the storage system.
+	 */
+	public static UserCache getDisabledCache() {
+		return new UserCache(0, 0);
+	}
+
+	/** Returns true if this cache is enabled.
+	 * @return true if the cache is enabled.
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/** Returns true if the display name cache is enabled.
+	 * @return true if the display name cache is enabled.
+	 */
+	public boolean isDisplayNameCacheEnabled() {
+		return displayNamesEnabled;
+	}
+
+	/** Get a user from the cache, loading it from the storage system if it is not present.
+	 * @param userName the name of the user.
+	 * @param loader the loader that retrieves the user from the storage system.
+	 * @return the user.
+	 * @throws NoSuchUserException if the user does not exist.
+	 * @throws AuthStorageException if a problem connecting with the storage system occurs.
+	 */
+	public AuthUser get(final UserName userName, final UserLoader loader)
+			throws NoSuchUserException, AuthStorageException {
+		nonNull(userName, "userName");
+		nonNull(loader, "loader");
+		if (!enabled) {
+			return loader.load(userName);
+		}
+		final AuthUser cached = cache.getIfPresent(userName);
+		if (cached != null) {
+			hits.increment();
+			return cached;
+		}
+		misses.increment();
+		final PendingLoad load = new PendingLoad();
+		pending.add(load);
+		final AuthUser user;
+		try {
+			user = loader.load(userName);
+			cache.put(userName, user);
+		} finally {
+			pending.remove(load);
+		}
+		if (load.isInvalidated(userName)) {
+			cache.invalidate(userName);
+		}
+		return user;
+	}
+
+	/** Get the display names of a set of users, loading any display names that are not present
+	 * in the cache from the storage system with a single call to the loader. Users that do not
+	 * exist or are disabled are omitted from the results and are not cached.
+	 * @param userNames the names of the users.
+	 * @param loader the loader that retrieves display names from the storage system.
+	 * @return the display names of the users that exist and are enabled.
+	 * @throws AuthStorageException if a problem connecting with the storage system occurs.
+	 */
+	public Map<UserName, DisplayName> getDisplayNames(
+			final Set<UserName> userNames,
+			final DisplayNameLoader loader)
+			throws AuthStorageException {
+		nonNull(userNames, "userNames");
+		noNulls(userNames, "Null name in userNames");
+		nonNull(loader, "loader");
+		if (!displayNamesEnabled) {
+			return loader.load(userNames);
+		}
+		final Map<UserName, DisplayName> ret = new HashMap<>(
+				displayNames.getAllPresent(userNames));
+		displayNameHits.add(ret.size());
+		if (ret.size() == userNames.size()) {
+			return ret;
+		}
+		final Set<UserName> missing = new HashSet<>(userNames);
+		missing.removeAll(ret.keySet());
+		displayNameMisses.add(missing.size());
+		final PendingLoad load = new PendingLoad();
+		pending.add(load);
+		final Map<UserName, DisplayName> loaded;
+		try {
+			loaded = loader.load(missing);
+			displayNames.putAll(loaded);
+		} finally {
+			pending.remove(load);
+		}
+		for (final UserName u: loaded.keySet()) {
+			if (load.isInvalidated(u)) {
+				displayNames.invalidate(u);
+			}
+		}
+		ret.putAll(loaded);
+		return ret;
+	}
+
+	/** Update the last login date of a user in the cache, if the user is present. Used instead of
+	 * invalidating the user when the storage system may buffer the new date, in which case
+	 * reloading the user from the storage system would cache the previous date. Dates earlier
+	 * than the cached date are ignored.
+	 * @param userName the name of the user.
+	 * @param lastLogin the last login date.
+	 */
+	public void setLastLogin(final UserName userName, final Instant lastLogin) {
+		nonNull(userName, "userName");
+		nonNull(lastLogin, "lastLogin");
+		cache.asMap().computeIfPresent(userName, (n, u) -> {
+			if (u.getLastLogin().isPresent() && !lastLogin.isAfter(u.getLastLogin().get())) {
+				return u;
+			}
+			final AuthUser.Builder b = AuthUser.getBuilderWithoutIdentities(u)
+					.withLastLogin(lastLogin);
+			for (final RemoteIdentity ri: u.getIdentities()) {
+				b.withIdentity(ri);
+			}
+			return b.build();
+		});
+	}
+
+	/** Remove a user and the user's display name from the cache.
+	 * @param userName the name of the user to remove.
+	 */
+	public void invalidate(final UserName userName) {
+		nonNull(userName, "userName");
+		pending.forEach(l -> l.users.add(userName));
+		cache.invalidate(userName);
+		displayNames.invalidate(userName);
+	}
+
+	/** Remove all users and display names from the cache. */
+	public void invalidateAll() {
+		pending.forEach(l -> l.all = true);
+		cache.invalidateAll();
+		displayNames.invalidateAll();
+	}
+
+	/** Get the number of user requests that were served from the cache.
+	 * @return the number of cache hits.
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/** Get the number of user requests that required a load from the storage system.
+	 * @return the number of cache misses.
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/** Get the number of users that were evicted from the cache due to size limits or the cache
+	 * time to live. Users explicitly invalidated are not counted.
+	 * @return the number of cache evictions.
+	 */
+	public long getEvictionCount() {
+		return cache.stats().evictionCount();
+	}
+
+	/** Get the approximate number of users in the cache.
+	 * @return the number of cached users.
+	 */
+	public long size() {
+		return cache.size();
+	}
+
+	/** Get the number of display names that were served from the cache.
+	 * @return the number of display name cache hits.
+	 */
+	public long getDisplayNameHitCount() {
+		return displayNameHits.sum();
+	}
+
+	/** Get the number of display names that required a load from the storage system, including
+	 * the names of users that do not exist or are disabled.
+	 * @return the number of display name cache misses.
+	 */
+	public long getDisplayNameMissCount() {
+		return displayNameMisses.sum();
+	}
+
+	/** Get the approximate number of display names in the cache.
+	 * @return the number of cached display names.
+	 */
+	public long getDisplayNameCacheSize() {
+		return displayNames.size();
+	}
+}
@@ -2,27 +2,44 @@ package us.kbase.auth2.service;
 
 import static us.kbase.auth2.lib.Utils.nonNull;
 
+import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientURI;
 import com.mongodb.MongoCredential;
 import com.mongodb.MongoException;
+import com.mongodb.ReadPreference;
 import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoDatabase;
 
+import us.kbase.auth2.cryptutils.PasswordCrypt;
+import us.kbase.auth2.cryptutils.PasswordHashParameters;
 import us.kbase.auth2.lib.Authentication;
+import us.kbase.auth2.lib.AuthenticationOptions;
+import us.kbase.auth2.lib.CacheInvalidator;
+import us.kbase.auth2.lib.LoginThrottle;
 import us.kbase.auth2.lib.config.ExternalConfig;
 import us.kbase.auth2.lib.identity.IdentityProvider;
 import us.kbase.auth2.lib.identity.IdentityProviderConfig;
 import us.kbase.auth2.lib.identity.IdentityProviderFactory;
-import us.kbase.auth2.lib.storage.AuthStorage;
 import us.kbase.auth2.lib.storage.exceptions.StorageInitException;
 import us.kbase.auth2.lib.storage.mongo.MongoStorage;
+import us.kbase.auth2.lib.token.TokenCache;
+import us.kbase.auth2.lib.token.TokenSigner;
+import us.kbase.auth2.lib.user.UserCache;
 import us.kbase.auth2.service.common.ServiceCommon;
 import us.kbase.auth2.service.exceptions.AuthConfigurationException;
 
@@ -31,8 +48,13 @@ public class AuthBuilder {
 	//TODO TEST
 	//TODO JAVADOC
 	
+	private static final String MONGO_URI_PREFIX = "mongodb://";
+	
 	private MongoClient mc;
+	private MongoStorage storage;
 	private Authentication auth;
+	private TokenCache tokenCache;
+	private UserCache userCache;
 	
 	public AuthBuilder(
 			final AuthStartupConfig cfg,
@@ -40,7 +62,9 @@ public class AuthBuilder {
 			throws StorageInitException, AuthConfigurationException {
 		nonNull(cfg, "cfg");
 		nonNull(defaultExternalConfig, "defaultExternalConfig");
+		final long start = System.nanoTime();
 		mc = buildMongo(cfg);
+		logTime("Built MongoDB client", start);
 		auth = buildAuth(cfg, mc, defaultExternalConfig);
 	}
 	
@@ -56,16 +80,35 @@ public class AuthBuilder {
 		auth = buildAuth(cfg, mc, defaultExternalConfig);
 	}
 	
-	private MongoClient buildMongo(final AuthStartupConfig c) throws StorageInitException {
-		//TODO ZLATER MONGO handle shards & replica sets
+	private MongoClient buildMongo(final AuthStartupConfig c)
+			throws StorageInitException, AuthConfigurationException {
+		final MongoClientURI uri = getMongoURI(c.getMongoHost());
+		final List<MongoCredential> creds;
+		if (c.getMongoUser().isPresent()) {
+			if (uri.getCredentials() != null) {
+				throw new AuthConfigurationException("MongoDB credentials may be provided in " +
+						"the connection string or as a separate user and password, but not both");
+			}
+			// unclear if and when it's safe to clear the password
+			creds = Arrays.asList(MongoCredential.createCredential(
+					c.getMongoUser().get(), c.getMongoDatabase(), c.getMongoPwd().get()));
+		} else if (uri.getCredentials() != null) {
+			creds = Arrays.asList(uri.getCredentials());
+		} else {
+			creds = Collections.emptyList();
+		}
 		try {
-			if (c.getMongoUser().isPresent()) {
-				final List<MongoCredential> creds = Arrays.asList(MongoCredential.createCredential(
-						c.getMongoUser().get(), c.getMongoDatabase(), c.getMongoPwd().get()));
-				// unclear if and when it's safe to clear the password
-				return new MongoClient(new ServerAddress(c.getMongoHost()), creds);
+			if (uri.getHosts().size() == 1 &&
+					uri.getOptions().getRequiredReplicaSetName() == null) {
+				// connect directly rather than discovering the other members of a replica set
+				return new MongoClient(new ServerAddress(uri.getHosts().get(0)), creds,
+						uri.getOptions());
 			} else {
-				return new MongoClient(new ServerAddress(c.getMongoHost()));
+				final List<ServerAddress> hosts = new LinkedList<>();
+				for (final String host: uri.getHosts()) {
+					hosts.add(new ServerAddress(host));
+				}
+				return new MongoClient(hosts, creds, uri.getOptions());
 			}
 		} catch (MongoException e) {
 			LoggerFactory.getLogger(getClass()).error(
@@ -74,11 +117,39 @@ public class AuthBuilder {
 		}
 	}
 	
+	// accepts a host and optional port, or a MongoDB connection string
+	private MongoClientURI getMongoURI(final String host) throws AuthConfigurationException {
+		try {
+			return new MongoClientURI(host.startsWith(MONGO_URI_PREFIX) ?
+					host : MONGO_URI_PREFIX + host);
+		} catch (IllegalArgumentException e) {
+			throw new AuthConfigurationException(
+					"Illegal MongoDB host or connection string: " + e.getMessage(), e);
+		}
+	}
+	
+	private ReadPreference getTokenReadPreference(final AuthStartupConfig c)
+			throws AuthConfigurationException {
+		if (!c.getMongoTokenReadPreference().isPresent()) {
+			return ReadPreference.primary();
+		}
+		try {
+			return ReadPreference.valueOf(c.getMongoTokenReadPreference().get());
+		} catch (IllegalArgumentException e) {
+			throw new AuthConfigurationException(
+					"Illegal MongoDB token read preference: " + e.getMessage(), e);
+		}
+	}
+	
 	private Authentication buildAuth(
 			final AuthStartupConfig c,
 			final MongoClient mc,
 			final ExternalConfig defaultExternalConfig)
 			throws StorageInitException, AuthConfigurationException {
+		final long start = System.nanoTime();
+		// calibrating the password hash is slow and doesn't need the database
+		final CompletableFuture<PasswordHashParameters> hashParams =
+				CompletableFuture.supplyAsync(() -> getPasswordHashParameters(c));
 		final MongoDatabase db;
 		try {
 			db = mc.getDatabase(c.getMongoDatabase());
@@ -89,20 +160,104 @@ public class AuthBuilder {
 					e.getMessage(), e);
 		}
 		//TODO TEST authenticate to db, write actual test with authentication
-		final AuthStorage s = new MongoStorage(db);
+		final long storageStart = System.nanoTime();
+		final MongoStorage s = new MongoStorage(db, getTokenReadPreference(c));
+		logTime("Initialized storage", storageStart);
 		
+		final long providersStart = System.nanoTime();
 		final Set<IdentityProvider> providers = new HashSet<>();
 		for (final IdentityProviderConfig idc: c.getIdentityProviderConfigs()) {
 			final IdentityProviderFactory fac = ServiceCommon.loadClassWithInterface(
 					idc.getIdentityProviderFactoryClassName(), IdentityProviderFactory.class);
 			providers.add(fac.configure(idc));
 		}
-		return new Authentication(s, providers, defaultExternalConfig);
+		logTime("Configured identity providers", providersStart);
+		tokenCache = new TokenCache(c.getTokenCacheSize(),
+				c.getTokenCacheTimeToLiveSec() * 1000L);
+		userCache = new UserCache(c.getUserCacheSize(), c.getUserCacheTimeToLiveSec() * 1000L,
+				c.getDisplayNameCacheSize());
+		final long filterRebuildMS = c.getTokenFilterRebuildIntervalSec() * 1000L;
+		if (tokenCache.isEnabled() || userCache.isEnabled() ||
+				userCache.isDisplayNameCacheEnabled() || filterRebuildMS > 0 ||
+				c.isUserSearchIndexEnabled()) {
+			// keep the caches coherent with changes made by other server instances
+			s.startChangeFeed(new CacheInvalidator(tokenCache, userCache), filterRebuildMS,
+					c.isUserSearchIndexEnabled());
+		} else {
+			// nothing here reads the change feed, so don't write to it on every change
+			s.stopRecordingChanges();
+		}
+		if (c.getUserUpdateFlushIntervalMillis() > 0) {
+			s.startUserUpdateBuffer(c.getUserUpdateFlushIntervalMillis());
+		}
+		storage = s;
+		final Optional<TokenSigner> signer = c.getTokenSigningKey().isPresent() ?
+				Optional.of(new TokenSigner(c.getTokenSigningKey().get())) : Optional.absent();
+		final LoginThrottle throttle = new LoginThrottle(c.getLoginThrottleUserFailures(),
+				c.getLoginThrottleAddressFailures(), c.getLoginThrottleMaxDelaySec() * 1000L);
+		final Authentication auth = new Authentication(s, providers, defaultExternalConfig,
+				AuthenticationOptions.getBuilder()
+						.withTokenCache(tokenCache)
+						.withUserCache(userCache)
+						.withTokenSigner(signer)
+						.withPasswordHashParameters(getResult(hashParams))
+						.withLoginThrottle(throttle)
+						.build());
+		logTime("Built authentication instance", start);
+		return auth;
+	}
+	
+	private static <T> T getResult(final CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			// the future doesn't throw checked exceptions
+			throw Throwables.propagate(e.getCause());
+		}
+	}
+	
+	private void logTime(final String phase, final long startNanos) {
+		LoggerFactory.getLogger(getClass()).info(String.format("%s in %s ms", phase,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)));
+	}
+	
+	private PasswordHashParameters getPasswordHashParameters(final AuthStartupConfig c) {
+		final long start = System.nanoTime();
+		final PasswordHashParameters params;
+		if (c.getPasswordHashTargetMillis() > 0) {
+			try {
+				params = PasswordCrypt.calibrate(PasswordHashParameters.PBKDF2_SHA256,
+						PasswordHashParameters.ORIGINAL.getKeyLength(),
+						c.getPasswordHashTargetMillis());
+			} catch (NoSuchAlgorithmException e) {
+				throw new RuntimeException("This should be impossible", e);
+			}
+		} else if (c.getPasswordHashIterations() > 0) {
+			params = new PasswordHashParameters(PasswordHashParameters.PBKDF2_SHA256,
+					c.getPasswordHashIterations(), PasswordHashParameters.ORIGINAL.getKeyLength());
+		} else {
+			params = PasswordHashParameters.ORIGINAL;
+		}
+		LoggerFactory.getLogger(getClass()).info("Hashing new passwords with " + params);
+		logTime("Set password hash parameters", start);
+		return params;
 	}
 	
 	public MongoClient getMongoClient() {
 		return mc;
 	}
+	
+	public MongoStorage getStorage() {
+		return storage;
+	}
+	
+	public TokenCache getTokenCache() {
+		return tokenCache;
+	}
+	
+	public UserCache getUserCache() {
+		return userCache;
+	}
 
 	public Authentication getAuth() {
 		return auth;
@@ -12,10 +12,41 @@ public interface AuthStartupConfig {
 	
 	SLF4JAutoLogger getLogger();
 	Set<IdentityProviderConfig> getIdentityProviderConfigs();
+	// a host and optional port, or a MongoDB connection string
 	String getMongoHost();
 	String getMongoDatabase();
 	// note both or neither for user & pwd
 	Optional<String> getMongoUser();
 	Optional<char[]> getMongoPwd();
+	// the name of the read preference for token validation. Absent to read from the primary
+	Optional<String> getMongoTokenReadPreference();
 	String getTokenCookieName();
+	// 0 for either disables the token cache
+	int getTokenCacheSize();
+	int getTokenCacheTimeToLiveSec();
+	// 0 for either disables the user cache
+	int getUserCacheSize();
+	int getUserCacheTimeToLiveSec();
+	// 0 or a user cache time to live of 0 disables the display name cache
+	int getDisplayNameCacheSize();
+	// 0 disables the token filter
+	int getTokenFilterRebuildIntervalSec();
+	// answer user name and display name prefix searches from memory
+	boolean isUserSearchIndexEnabled();
+	// absent to issue random tokens rather than signed tokens
+	Optional<byte[]> getTokenSigningKey();
+	// 0 for both uses the original password hash parameters. At most one may be non-zero.
+	int getPasswordHashIterations();
+	// the target time to hash a password, used to calibrate the iterations at startup
+	int getPasswordHashTargetMillis();
+	// 0 for the max delay or both failure limits disables the login throttle
+	int getLoginThrottleUserFailures();
+	int getLoginThrottleAddressFailures();
+	int getLoginThrottleMaxDelaySec();
+	// the maximum number of user agents parsed concurrently. 0 is treated as 1
+	int getUserAgentParsers();
+	// 0 disables the user agent cache
+	int getUserAgentCacheSize();
+	// 0 writes last login dates and identity details immediately rather than buffering them
+	int getUserUpdateFlushIntervalMillis();
 }
@@ -3,6 +3,9 @@ package us.kbase.auth2.service;
 import static us.kbase.auth2.lib.Utils.checkStringNoCheckedException;
 
 import java.nio.file.Paths;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.glassfish.hk2.utilities.binding.AbstractBinder;
 import org.glassfish.jersey.server.ResourceConfig;
@@ -17,6 +20,7 @@ import ch.qos.logback.classic.Logger;
 import us.kbase.auth2.lib.Authentication;
 import us.kbase.auth2.lib.config.ExternalConfig;
 import us.kbase.auth2.lib.storage.exceptions.StorageInitException;
+import us.kbase.auth2.lib.storage.mongo.MongoStorage;
 import us.kbase.auth2.service.LoggingFilter;
 import us.kbase.auth2.service.common.ServiceCommon;
 import us.kbase.auth2.service.exceptions.AuthConfigurationException;
@@ -31,6 +35,8 @@ public class AuthenticationService extends ResourceConfig {
 	
 	private static String cfgClass = null;
 	private static MongoClient mc;
+	// storages may buffer writes, which need to be flushed before the client is closed
+	private static final List<MongoStorage> storages = new LinkedList<>();
 	@SuppressWarnings("unused")
 	private final SLF4JAutoLogger logger; //keep a reference to prevent GC
 	
@@ -45,6 +51,7 @@ public class AuthenticationService extends ResourceConfig {
 			throw new IllegalStateException("Call setConfig() before " +
 					"starting the server ya daft numpty");
 		}
+		final long start = System.nanoTime();
 		//TODO ZLATER CONFIG Get the class name from environment if we need alternate config mechanism
 		final AuthStartupConfig cfg = ServiceCommon.loadClassWithInterface(
 				cfgClass, AuthStartupConfig.class);
@@ -63,6 +70,8 @@ public class AuthenticationService extends ResourceConfig {
 					"Invalid configuration: " + e.getMessage(), e);
 			throw e;
 		}
+		LoggerFactory.getLogger(getClass()).info(String.format("Configured service in %s ms",
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
 	}
 
 	private void quietLogger() {
@@ -83,6 +92,9 @@ public class AuthenticationService extends ResourceConfig {
 				ab = new AuthBuilder(c, defaultExternalConfig, mc);
 			}
 		}
+		synchronized(storages) {
+			storages.add(ab.getStorage());
+		}
 		packages("us.kbase.auth2.service.api", "us.kbase.auth2.service.ui");
 		register(JacksonJaxbJsonProvider.class);
 		register(MustacheMvcFeature.class);
@@ -100,12 +112,20 @@ public class AuthenticationService extends ResourceConfig {
 				bind(c.getLogger()).to(SLF4JAutoLogger.class);
 				bind(new AuthAPIStaticConfig(c.getTokenCookieName()))
 						.to(AuthAPIStaticConfig.class);
-				bind(new UserAgentParser()).to(UserAgentParser.class);
+				bind(new UserAgentParser(c.getUserAgentParsers(), c.getUserAgentCacheSize()))
+						.to(UserAgentParser.class);
 			}
 		});
 	}
 	
 	static void shutdown() {
+		synchronized(storages) {
+			for (final MongoStorage s: storages) {
+				s.stopChangeFeed();
+				s.stopUserUpdateBuffer();
+			}
+			storages.clear();
+		}
 		mc.close();
 	}
 }
@@ -1,20 +1,119 @@
 package us.kbase.auth2.service;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
 import nl.basjes.parse.useragent.UserAgent;
 import nl.basjes.parse.useragent.UserAgentAnalyzer;
 import us.kbase.auth2.lib.TokenCreationContext;
 import us.kbase.auth2.lib.TokenCreationContext.Builder;
 
+/** Parses user agent strings into the agent, operating system, and device fields of a token
+ * creation context.
+ *
+ * Parsing is done by a pool of analyzers, each of which parses one user agent at a time.
+ * Building an analyzer is slow and each analyzer uses tens of megabytes of memory, so the first
+ * analyzer is built in the background when the parser is created, and requests that arrive
+ * before it is ready wait for it. The remainder are only built when all the existing analyzers
+ * are in use, up to the maximum number of analyzers.
+ *
+ * Since clients generally send a small number of distinct user agents, the parsed fields are
+ * held in a bounded, least recently used cache keyed by the user agent string. Null and very
+ * long user agents are not cached.
+ * @author gaprice@lbl.gov
+ *
+ */
 public class UserAgentParser {
-	
-	//TODO JAVADOC
-	//TODO TEST
-	
-	private final UserAgentAnalyzer uaa;
-	
-	public UserAgentParser() {
-		// this is slooow. Only want to do it once per service start.
-		uaa = UserAgentAnalyzer.newBuilder()
+
+	// bounds the memory used by clients sending large, unique user agents
+	private static final int MAX_CACHED_LENGTH = 1000;
+	// the first parse is much slower than the remainder
+	private static final String WARM_UP_AGENT = "Mozilla/5.0 (X11; Linux x86_64) " +
+			"AppleWebKit/537.36 (KHTML, like Gecko) Chrome/58.0.3029.110 Safari/537.36";
+
+	private static class ParsedUserAgent {
+
+		private final String agent;
+		private final String agentVersion;
+		private final String os;
+		private final String osVersion;
+		private final String device;
+
+		private ParsedUserAgent(final UserAgent ua) {
+			agent = filter(ua.getValue(UserAgent.AGENT_NAME));
+			agentVersion = filter(ua.getValue(UserAgent.AGENT_VERSION));
+			os = filter(ua.getValue(UserAgent.OPERATING_SYSTEM_NAME));
+			osVersion = filter(ua.getValue(UserAgent.OPERATING_SYSTEM_VERSION));
+			device = filter(ua.getValue(UserAgent.DEVICE_NAME));
+		}
+	}
+
+	private final int maxParsers;
+	private final AtomicInteger parsers = new AtomicInteger();
+	private final BlockingQueue<UserAgentAnalyzer> idle;
+	private final boolean cacheEnabled;
+	private final Cache<String, ParsedUserAgent> cache;
+	private final LongAdder uncached = new LongAdder();
+
+	/** Create a user agent parser.
+	 * @param maxParsers the maximum number of user agents that may be parsed concurrently.
+	 * 0 is treated as 1.
+	 * @param cacheSize the maximum number of parsed user agents to cache. 0 disables the cache.
+	 */
+	public UserAgentParser(final int maxParsers, final int cacheSize) {
+		if (maxParsers < 0) {
+			throw new IllegalArgumentException("maxParsers must be at least 0");
+		}
+		if (cacheSize < 0) {
+			throw new IllegalArgumentException("cacheSize must be at least 0");
+		}
+		this.maxParsers = Math.max(1, maxParsers);
+		idle = new ArrayBlockingQueue<>(this.maxParsers);
+		cacheEnabled = cacheSize > 0;
+		cache = CacheBuilder.newBuilder()
+				.maximumSize(cacheSize)
+				.recordStats()
+				.build();
+		// this is slooow, so don't hold up service startup
+		parsers.incrementAndGet();
+		final Thread t = new Thread(() -> buildFirstAnalyzer(), "User agent parser build");
+		t.setDaemon(true);
+		t.start();
+	}
+
+	private void buildFirstAnalyzer() {
+		final long start = System.nanoTime();
+		final UserAgentAnalyzer uaa;
+		try {
+			uaa = buildAnalyzer();
+			uaa.parse(WARM_UP_AGENT);
+		} catch (RuntimeException | Error e) {
+			// requests will build the analyzer instead
+			parsers.decrementAndGet();
+			LoggerFactory.getLogger(getClass()).error(
+					"Failed to build user agent parser: " + e.getMessage(), e);
+			return;
+		}
+		idle.add(uaa);
+		LoggerFactory.getLogger(getClass()).info(String.format(
+				"Built user agent parser in %s ms",
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+	}
+
+	private static UserAgentAnalyzer buildAnalyzer() {
+		return UserAgentAnalyzer.newBuilder()
+				.withoutCache() // cached above the analyzers, so no need for a cache per analyzer
 				.withField(UserAgent.DEVICE_NAME)
 				.withField(UserAgent.OPERATING_SYSTEM_NAME)
 				.withField(UserAgent.OPERATING_SYSTEM_VERSION)
@@ -22,19 +121,81 @@ public class UserAgentParser {
 				.withField(UserAgent.AGENT_VERSION)
 				.build();
 	}
-	
-	public synchronized Builder getTokenContextFromUserAgent(final String userAgent) {
+
+	/** Get a token creation context builder with the agent, operating system, and device fields
+	 * set from a user agent.
+	 * @param userAgent the user agent string. May be null.
+	 * @return a token context builder.
+	 */
+	public Builder getTokenContextFromUserAgent(final String userAgent) {
 		//TODO LOG if any fields = Hacker log HackerAttackVector and HackerToolkit fields
-		final UserAgent ua = uaa.parse(userAgent);
+		final ParsedUserAgent ua = getParsedUserAgent(userAgent);
 		return TokenCreationContext.getBuilder()
-				.withNullableAgent(filter(ua.getValue(UserAgent.AGENT_NAME)),
-						filter(ua.getValue(UserAgent.AGENT_VERSION)))
-				.withNullableOS(filter(ua.getValue(UserAgent.OPERATING_SYSTEM_NAME)),
-						filter(ua.getValue(UserAgent.OPERATING_SYSTEM_VERSION)))
-				.withNullableDevice(filter(ua.getValue(UserAgent.DEVICE_NAME)));
-	}
-	
-	private String filter(final String value) {
+				.withNullableAgent(ua.agent, ua.agentVersion)
+				.withNullableOS(ua.os, ua.osVersion)
+				.withNullableDevice(ua.device);
+	}
+
+	private ParsedUserAgent getParsedUserAgent(final String userAgent) {
+		if (!cacheEnabled || userAgent == null || userAgent.length() > MAX_CACHED_LENGTH) {
+			uncached.increment();
+			return parse(userAgent);
+		}
+		try {
+			// concurrent requests for the same user agent wait for a single parse
+			return cache.get(userAgent, () -> parse(userAgent));
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			// parsing doesn't throw checked exceptions
+			throw Throwables.propagate(e.getCause());
+		}
+	}
+
+	private ParsedUserAgent parse(final String userAgent) {
+		final UserAgentAnalyzer uaa = acquireAnalyzer();
+		try {
+			return new ParsedUserAgent(uaa.parse(userAgent));
+		} finally {
+			idle.add(uaa);
+		}
+	}
+
+	private UserAgentAnalyzer acquireAnalyzer() {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				final UserAgentAnalyzer uaa = idle.poll();
+				if (uaa != null) {
+					return uaa;
+				}
+				// all the analyzers are in use or being built, so build another if allowed
+				for (int count = parsers.get(); count < maxParsers; count = parsers.get()) {
+					if (parsers.compareAndSet(count, count + 1)) {
+						try {
+							return buildAnalyzer();
+						} catch (RuntimeException | Error e) {
+							parsers.decrementAndGet();
+							throw e;
+						}
+					}
+				}
+				try {
+					// wake up periodically in case the background build failed
+					final UserAgentAnalyzer waited = idle.poll(1, TimeUnit.SECONDS);
+					if (waited != null) {
+						return waited;
+					}
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static String filter(final String value) {
 		// some values spit out by UAA are just ??, which is not helpful
 		if (value.replace("\\s", "").replace("?", "").isEmpty()) {
 			return null;
@@ -45,8 +206,54 @@ public class UserAgentParser {
 		return value;
 	}
 
+	/** Get the maximum number of user agents that may be parsed concurrently.
+	 * @return the maximum number of parsers.
+	 */
+	public int getMaxParserCount() {
+		return maxParsers;
+	}
+
+	/** Get the number of parsers that have been built.
+	 * @return the number of parsers.
+	 */
+	public int getParserCount() {
+		return parsers.get();
+	}
+
+	/** Get the number of user agents that were served from the cache.
+	 * @return the number of cache hits.
+	 */
+	public long getCacheHitCount() {
+		return cache.stats().hitCount();
+	}
+
+	/** Get the number of user agents that were parsed, including user agents that were not
+	 * eligible for caching.
+	 * @return the number of cache misses.
+	 */
+	public long getCacheMissCount() {
+		return cache.stats().missCount() + uncached.sum();
+	}
+
+	/** Get the ratio of cache hits to all user agent requests, or 1.0 if there have been no
+	 * requests.
+	 * @return the cache hit rate.
+	 */
+	public double getCacheHitRate() {
+		final long hits = getCacheHitCount();
+		final long requests = hits + getCacheMissCount();
+		return requests == 0 ? 1.0 : (double) hits / requests;
+	}
+
+	/** Get the approximate number of user agents in the cache.
+	 * @return the number of cached user agents.
+	 */
+	public long getCacheSize() {
+		return cache.size();
+	}
+
 	public static void main(String[] args) {
-		final UserAgentParser tcb = new UserAgentParser();
+		final UserAgentParser tcb = new UserAgentParser(1, 0);
 		tcb.getTokenContextFromUserAgent("here's some shit you can't parse mfer");
 	}
 
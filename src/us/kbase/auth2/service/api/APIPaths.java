@@ -30,6 +30,10 @@ public class APIPaths {
 	
 	/** The token introspection endpoint location. */
 	public static final String API_V2_TOKEN = API_V2 + SEP + TOKEN;
+	/** The batch token introspection endpoint location relative to the token root. */
+	public static final String TOKEN_BATCH = "batch";
+	/** The token revocation log endpoint location relative to the token root. */
+	public static final String TOKEN_REVOCATIONS = "revocations";
 	
 	/** The user lookup endpoint location. */
 	public static final String API_V2_USERS = API_V2 + SEP + USERS;
@@ -5,7 +5,12 @@ import static us.kbase.auth2.service.common.ServiceCommon.getTokenContext;
 import static us.kbase.auth2.service.common.ServiceCommon.isIgnoreIPsInHeaders;
 
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.servlet.http.HttpServletRequest;
@@ -15,22 +20,29 @@ import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
 
 import us.kbase.auth2.lib.Authentication;
 import us.kbase.auth2.lib.TokenCreationContext;
+import us.kbase.auth2.lib.exceptions.ErrorType;
 import us.kbase.auth2.lib.exceptions.IllegalParameterException;
 import us.kbase.auth2.lib.exceptions.InvalidTokenException;
 import us.kbase.auth2.lib.exceptions.MissingParameterException;
 import us.kbase.auth2.lib.exceptions.NoTokenProvidedException;
 import us.kbase.auth2.lib.exceptions.UnauthorizedException;
 import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+import us.kbase.auth2.lib.token.IncomingToken;
 import us.kbase.auth2.lib.token.StoredToken;
 import us.kbase.auth2.lib.token.TokenName;
+import us.kbase.auth2.lib.token.TokenRevocation;
+import us.kbase.auth2.lib.token.TokenRevocations;
 import us.kbase.auth2.lib.token.TokenType;
 import us.kbase.auth2.service.UserAgentParser;
 import us.kbase.auth2.service.common.Fields;
@@ -56,6 +68,118 @@ public class Token {
 		return new APIToken(ht, auth.getSuggestedTokenCacheTime());
 	}
 	
+	private static class TokenBatch extends IncomingJSON {
+		
+		public final List<String> tokens;
+		
+		@JsonCreator
+		public TokenBatch(@JsonProperty(Fields.TOKENS) final List<String> tokens) {
+			this.tokens = tokens;
+		}
+	}
+	
+	/* Returns the results in the same order as the incoming tokens. Each result is either the
+	 * token or an error.
+	 */
+	@POST
+	@Path(APIPaths.TOKEN_BATCH)
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(MediaType.APPLICATION_JSON)
+	public Map<String, Object> viewTokens(final TokenBatch batch)
+			throws MissingParameterException, IllegalParameterException, AuthStorageException {
+		if (batch == null) {
+			throw new MissingParameterException("JSON body missing");
+		}
+		batch.exceptOnAdditionalProperties();
+		if (batch.tokens == null) {
+			throw new MissingParameterException(Fields.TOKENS);
+		}
+		// duplicates are removed before the tokens are passed to auth, so check here
+		if (batch.tokens.size() > Authentication.MAX_TOKEN_BATCH) {
+			throw new IllegalParameterException(
+					"Token count exceeds maximum of " + Authentication.MAX_TOKEN_BATCH);
+		}
+		final List<IncomingToken> incoming = new LinkedList<>();
+		for (final String t: batch.tokens) {
+			try {
+				incoming.add(getToken(t));
+			} catch (NoTokenProvidedException e) {
+				incoming.add(null);
+			}
+		}
+		final Set<IncomingToken> tokens = new HashSet<>(incoming);
+		tokens.remove(null);
+		final Map<IncomingToken, StoredToken> found = auth.getTokens(tokens);
+		final long cachefor = auth.getSuggestedTokenCacheTime();
+		final List<Object> results = new LinkedList<>();
+		for (final IncomingToken t: incoming) {
+			if (t == null) {
+				results.add(error(ErrorType.NO_TOKEN));
+			} else if (!found.containsKey(t)) {
+				results.add(error(ErrorType.INVALID_TOKEN));
+			} else {
+				results.add(new APIToken(found.get(t), cachefor));
+			}
+		}
+		final Map<String, Object> ret = new HashMap<>();
+		ret.put(Fields.TOKENS, results);
+		return ret;
+	}
+	
+	private Map<String, Object> error(final ErrorType err) {
+		return ImmutableMap.of(Fields.ERROR, ImmutableMap.of(
+				Fields.ERROR_APP_CODE, err.getErrorCode(),
+				Fields.ERROR_APP_ERROR, err.getError()));
+	}
+	
+	/* Returns entries from the token revocation log. Clients should make an initial request
+	 * without the after parameter to get the current sequence number, or pass 0 to get every
+	 * revoked token that has not expired, and then poll with the next sequence number from each
+	 * response as the after parameter of the following request. If the reset field is true, the
+	 * client should discard any tokens it has cached.
+	 */
+	@GET
+	@Path(APIPaths.TOKEN_REVOCATIONS)
+	@Produces(MediaType.APPLICATION_JSON)
+	public Map<String, Object> getTokenRevocations(
+			@HeaderParam(APIConstants.HEADER_TOKEN) final String token,
+			@QueryParam(Fields.REVOCATION_AFTER) final String after)
+			throws NoTokenProvidedException, InvalidTokenException, UnauthorizedException,
+			IllegalParameterException, AuthStorageException {
+		final Optional<Long> afterSeq = getNonNegativeLong(after, Fields.REVOCATION_AFTER);
+		final TokenRevocations revs = auth.getTokenRevocations(getToken(token), afterSeq);
+		final List<Map<String, Object>> revocations = new LinkedList<>();
+		for (final TokenRevocation r: revs.getRevocations()) {
+			revocations.add(ImmutableMap.of(
+					Fields.REVOCATION_SEQUENCE, r.getSequence(),
+					Fields.ID, r.getTokenID().toString(),
+					Fields.USER, r.getUserName().getName(),
+					Fields.REVOCATION_EXPIRES, r.getExpirationDate().toEpochMilli(),
+					Fields.REVOCATION_TIME, r.getRevocationTime().toEpochMilli()));
+		}
+		return ImmutableMap.of(
+				Fields.REVOCATIONS, revocations,
+				Fields.REVOCATION_NEXT, revs.getNextSequence(),
+				Fields.REVOCATION_RESET, revs.isReset());
+	}
+	
+	private Optional<Long> getNonNegativeLong(final String value, final String name)
+			throws IllegalParameterException {
+		if (value == null || value.trim().isEmpty()) {
+			return Optional.absent();
+		}
+		final long l;
+		try {
+			l = Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalParameterException(name + " must be an integer");
+		}
+		if (l < 0) {
+			throw new IllegalParameterException(name + " must be at least 0");
+		}
+		return Optional.of(l);
+	}
+	
 	private static class CreateToken extends IncomingJSON {
 		
 		public final String name;
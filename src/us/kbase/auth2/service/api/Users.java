@@ -3,20 +3,32 @@ package us.kbase.auth2.service.api;
 import static us.kbase.auth2.service.common.ServiceCommon.getToken;
 import static us.kbase.auth2.service.common.ServiceCommon.nullOrEmpty;
 
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 
 import us.kbase.auth2.lib.Authentication;
 import us.kbase.auth2.lib.DisplayName;
@@ -30,12 +42,16 @@ import us.kbase.auth2.lib.exceptions.NoTokenProvidedException;
 import us.kbase.auth2.lib.exceptions.UnauthorizedException;
 import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
 import us.kbase.auth2.service.common.Fields;
+import us.kbase.auth2.service.common.IncomingJSON;
 
 @Path(APIPaths.API_V2_USERS)
 public class Users {
 	
 	//TODO JAVADOC or swagger
 
+	private static final JsonFactory JSON_FACTORY = new JsonFactory()
+			.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+	
 	@Inject
 	private Authentication auth;
 
@@ -52,19 +68,65 @@ public class Users {
 		if (nullOrEmpty(users)) {
 			return Collections.emptyMap();
 		}
-		final String[] usersplt = users.split(",");
+		final Map<UserName, DisplayName> dns = auth.getUserDisplayNames(
+				getToken(token), toUserNames(Arrays.asList(users.split(","))));
+		return dns.entrySet().stream().collect(
+				Collectors.toMap(e -> e.getKey().getName(), e -> e.getValue().getName()));
+	}
+	
+	private static Set<UserName> toUserNames(final Collection<String> users)
+			throws IllegalParameterException {
 		final Set<UserName> uns = new HashSet<>();
-		for (final String u: usersplt) {
+		for (final String u: users) {
 			try {
-				uns.add(new UserName(u.trim()));
+				uns.add(new UserName(u == null ? null : u.trim()));
 			} catch (MissingParameterException | IllegalParameterException e) {
 				throw new IllegalParameterException(ErrorType.ILLEGAL_USER_NAME, String.format(
 						"Illegal user name [%s]: %s", u, e.getMessage()));
 			}
 		}
-		final Map<UserName, DisplayName> dns = auth.getUserDisplayNames(getToken(token), uns);
-		return dns.entrySet().stream().collect(
-				Collectors.toMap(e -> e.getKey().getName(), e -> e.getValue().getName()));
+		return uns;
+	}
+	
+	private static class UserList extends IncomingJSON {
+		
+		public final List<String> users;
+		
+		@JsonCreator
+		public UserList(@JsonProperty(Fields.LIST) final List<String> users) {
+			this.users = users;
+		}
+	}
+	
+	/* Equivalent to the GET method, but for lists of users too long to fit in a URL. The
+	 * response is written as it's generated rather than built in memory first.
+	 */
+	@POST
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(MediaType.APPLICATION_JSON)
+	public StreamingOutput getUsersFromList(
+			@HeaderParam(APIConstants.HEADER_TOKEN) final String token,
+			final UserList users)
+			throws MissingParameterException, IllegalParameterException, NoTokenProvidedException,
+			InvalidTokenException, AuthStorageException {
+		if (users == null) {
+			throw new MissingParameterException("JSON body missing");
+		}
+		users.exceptOnAdditionalProperties();
+		if (users.users == null) {
+			throw new MissingParameterException(Fields.LIST);
+		}
+		final Map<UserName, DisplayName> dns = auth.getUserDisplayNames(
+				getToken(token), toUserNames(users.users));
+		return out -> {
+			try (final JsonGenerator gen = JSON_FACTORY.createGenerator(out)) {
+				gen.writeStartObject();
+				for (final Entry<UserName, DisplayName> e: dns.entrySet()) {
+					gen.writeStringField(e.getKey().getName(), e.getValue().getName());
+				}
+				gen.writeEndObject();
+			}
+		};
 	}
 	
 	@GET
@@ -134,6 +134,18 @@ public class Fields {
 	public static final String LIST = "list";
 	/** A list of fields upon which a user search should be conducted. */
 	public static final String FIELDS = "fields";
+	/** An opaque cursor from which to continue a user search. */
+	public static final String SEARCH_CURSOR = "cursor";
+	/** The maximum number of users to return from a user search. */
+	public static final String SEARCH_LIMIT = "limit";
+	/** The cursor from which to retrieve the next page of a user search, if any. */
+	public static final String SEARCH_NEXT = "next";
+	/** The parameters of a user search, used to retrieve the next page of results. */
+	public static final String SEARCH_PARAMS = "searchparams";
+	/** The name of a user search parameter. */
+	public static final String SEARCH_PARAM_NAME = "name";
+	/** The value of a user search parameter. */
+	public static final String SEARCH_PARAM_VALUE = "value";
 	
 	/* provider info */
 	
@@ -176,6 +188,20 @@ public class Fields {
 	public static final String CUSTOM_CONTEXT = "customcontext";
 	/** The user's current token. */
 	public static final String CURRENT = "current";
+	/** A list of entries from the token revocation log. */
+	public static final String REVOCATIONS = "revocations";
+	/** The sequence number of a token revocation. */
+	public static final String REVOCATION_SEQUENCE = "seq";
+	/** The sequence number from which to return token revocations. */
+	public static final String REVOCATION_AFTER = "after";
+	/** The sequence number from which to continue following the token revocation log. */
+	public static final String REVOCATION_NEXT = "next";
+	/** Whether the token revocation log has been reset. */
+	public static final String REVOCATION_RESET = "reset";
+	/** The date a revoked token would have expired. */
+	public static final String REVOCATION_EXPIRES = "expires";
+	/** The time a token was revoked. */
+	public static final String REVOCATION_TIME = "revoked";
 	
 	/* urls */
 	
@@ -232,6 +258,10 @@ public class Fields {
 	
 	/** An error. */
 	public static final String ERROR = "error";
+	/** The application error code for an error. */
+	public static final String ERROR_APP_CODE = "appcode";
+	/** The application error description for an error. */
+	public static final String ERROR_APP_ERROR = "apperror";
 	
 	/* ***** config ***** */
 	
@@ -21,6 +21,7 @@ import com.fasterxml.jackson.databind.JsonMappingException;
 import us.kbase.auth2.lib.exceptions.AuthException;
 import us.kbase.auth2.lib.exceptions.AuthenticationException;
 import us.kbase.auth2.lib.exceptions.NoDataException;
+import us.kbase.auth2.lib.exceptions.ServiceUnavailableException;
 import us.kbase.auth2.lib.exceptions.UnauthorizedException;
 
 @JsonInclude(Include.NON_NULL)
@@ -72,6 +73,8 @@ public class ErrorMessage {
 				status = Response.Status.FORBIDDEN;
 			} else if (ae instanceof NoDataException) {
 				status = Response.Status.NOT_FOUND;
+			} else if (ae instanceof ServiceUnavailableException) {
+				status = Response.Status.SERVICE_UNAVAILABLE;
 			} else {
 				status = Response.Status.BAD_REQUEST;
 			}
@@ -27,6 +27,7 @@ import com.google.common.base.Optional;
 import us.kbase.auth2.lib.Authentication;
 import us.kbase.auth2.lib.config.ConfigAction.State;
 import us.kbase.auth2.lib.exceptions.ExternalConfigMappingException;
+import us.kbase.auth2.lib.exceptions.InvalidTokenException;
 import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
 import us.kbase.auth2.service.AuthExternalConfig;
 import us.kbase.auth2.service.AuthExternalConfig.AuthExternalConfigMapper;
@@ -56,7 +57,14 @@ public class ExceptionHandler implements ExceptionMapper<Throwable> {
 	public Response toResponse(Throwable ex) {
 		
 		final MediaType mt = getMediaType();
-		LoggerFactory.getLogger(getClass()).error("Logging exception:", ex);
+		if (ex instanceof InvalidTokenException) {
+			/* invalid tokens can arrive in large numbers from misconfigured clients, and the
+			 * stack trace is uninformative
+			 */
+			LoggerFactory.getLogger(getClass()).error("Logging exception: " + ex);
+		} else {
+			LoggerFactory.getLogger(getClass()).error("Logging exception:", ex);
+		}
 
 		boolean includeStack = false;
 		try {
@@ -7,11 +7,15 @@ import static us.kbase.auth2.service.ui.UIUtils.getTokenFromCookie;
 import static us.kbase.auth2.service.ui.UIUtils.relativize;
 import static us.kbase.auth2.service.ui.UIUtils.removeLoginCookie;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -37,16 +41,20 @@ import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
 import org.glassfish.jersey.server.mvc.Template;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 
 import us.kbase.auth2.lib.Authentication;
+import us.kbase.auth2.lib.Authentication.UserSearch;
 import us.kbase.auth2.lib.CustomRole;
 import us.kbase.auth2.lib.DisplayName;
 import us.kbase.auth2.lib.EmailAddress;
@@ -73,6 +81,7 @@ import us.kbase.auth2.lib.exceptions.NoSuchRoleException;
 import us.kbase.auth2.lib.exceptions.NoSuchTokenException;
 import us.kbase.auth2.lib.exceptions.NoSuchUserException;
 import us.kbase.auth2.lib.exceptions.NoTokenProvidedException;
+import us.kbase.auth2.lib.exceptions.ServiceUnavailableException;
 import us.kbase.auth2.lib.exceptions.UnauthorizedException;
 import us.kbase.auth2.lib.exceptions.UserExistsException;
 import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
@@ -97,6 +106,12 @@ public class Admin {
 
 	private static final int DAY_IN_MS = 24 * 60 * MIN_IN_MS;
 	
+	// the default number of users returned per page of a user search
+	private static final int SEARCH_PAGE_SIZE = 1000;
+	
+	private static final JsonFactory JSON_FACTORY = new JsonFactory()
+			.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+	
 	@Inject
 	private Authentication auth;
 	
@@ -172,7 +187,9 @@ public class Admin {
 	}
 	
 	@POST
-	@Path(UIPaths.ADMIN_SEARCH) 
+	@Path(UIPaths.ADMIN_SEARCH)
+	@Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+	@Produces(MediaType.TEXT_HTML)
 	@Template(name = "/adminsearch")
 	public Map<String, Object> searchForUsers(
 			@Context final HttpHeaders headers,
@@ -180,6 +197,80 @@ public class Admin {
 			final MultivaluedMap<String, String> form)
 			throws InvalidTokenException, IllegalParameterException, NoTokenProvidedException,
 			AuthStorageException, UnauthorizedException {
+		final UserSearch search = auth.searchUsers(
+				getTokenFromCookie(headers, cfg.getTokenCookieName()), getSearchSpec(form),
+				getSearchLimit(form));
+		final List<Map<String, String>> uiusers = new LinkedList<>();
+		final Optional<UserName> next = search.run((user, display) -> {
+			final Map<String, String> u = new HashMap<>();
+			u.put(Fields.USER, user.getName());
+			u.put(Fields.DISPLAY, display.getName());
+			u.put(Fields.URL_USER, relativize(uriInfo,
+					UIPaths.ADMIN_ROOT_USER + SEP + user.getName()));
+			uiusers.add(u);
+		});
+		final Map<String, Object> ret = new HashMap<>();
+		ret.put(Fields.USERS, uiusers);
+		ret.put(Fields.HAS_USERS, !uiusers.isEmpty());
+		ret.put(Fields.URL_SEARCH, relativize(uriInfo, UIPaths.ADMIN_ROOT_SEARCH));
+		// replay the search parameters in the form for the next page
+		final List<Map<String, String>> params = new LinkedList<>();
+		for (final String key: form.keySet()) {
+			if (!key.equals(Fields.SEARCH_CURSOR)) {
+				for (final String value: form.get(key)) {
+					params.add(ImmutableMap.of(
+							Fields.SEARCH_PARAM_NAME, key, Fields.SEARCH_PARAM_VALUE, value));
+				}
+			}
+		}
+		ret.put(Fields.SEARCH_PARAMS, params);
+		ret.put(Fields.SEARCH_NEXT, next.isPresent() ? toCursor(next.get()) : null);
+		return ret;
+	}
+	
+	/* Returns the users in user name order in pages of at most the search limit. The users are
+	 * written to the response as they're read from the storage system.
+	 */
+	@POST
+	@Path(UIPaths.ADMIN_SEARCH_USERS)
+	@Consumes(MediaType.APPLICATION_FORM_URLENCODED)
+	@Produces(MediaType.APPLICATION_JSON)
+	public StreamingOutput searchForUsersJSON(
+			@HeaderParam(UIConstants.HEADER_TOKEN) final String token,
+			final MultivaluedMap<String, String> form)
+			throws InvalidTokenException, IllegalParameterException, NoTokenProvidedException,
+			AuthStorageException, UnauthorizedException {
+		final UserSearch search = auth.searchUsers(
+				getToken(token), getSearchSpec(form), getSearchLimit(form));
+		return out -> {
+			try (final JsonGenerator gen = JSON_FACTORY.createGenerator(out)) {
+				gen.writeStartObject();
+				gen.writeArrayFieldStart(Fields.USERS);
+				final Optional<UserName> next = search.run((user, display) -> {
+					try {
+						gen.writeStartObject();
+						gen.writeStringField(Fields.USER, user.getName());
+						gen.writeStringField(Fields.DISPLAY, display.getName());
+						gen.writeEndObject();
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+				gen.writeEndArray();
+				gen.writeStringField(Fields.SEARCH_NEXT,
+						next.isPresent() ? toCursor(next.get()) : null);
+				gen.writeEndObject();
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			} catch (AuthStorageException e) {
+				// the response has already started, so the best that can be done is to end it
+				throw new IOException("User search failed: " + e.getMessage(), e);
+			}
+		};
+	}
+	
+	private UserSearchSpec getSearchSpec(final MultivaluedMap<String, String> form)
+			throws IllegalParameterException {
 		final String prefix = form.getFirst(Fields.SEARCH_PREFIX);
 		final UserSearchSpec.Builder build = UserSearchSpec.getBuilder().withIncludeDisabled(true)
 				.withIncludeRoot(true); // may want to include option to exclude disabled
@@ -207,18 +298,40 @@ public class Admin {
 				}
 			}
 		}
-		final Map<UserName, DisplayName> users = auth.getUserDisplayNames(
-				getTokenFromCookie(headers, cfg.getTokenCookieName()), build.build());
-		final List<Map<String, String>> uiusers = new LinkedList<>();
-		for (final UserName user: users.keySet()) {
-			final Map<String, String> u = new HashMap<>();
-			u.put(Fields.USER, user.getName());
-			u.put(Fields.DISPLAY, users.get(user).getName());
-			u.put(Fields.URL_USER, relativize(uriInfo,
-					UIPaths.ADMIN_ROOT_USER + SEP + user.getName()));
-			uiusers.add(u);
+		final String cursor = form.getFirst(Fields.SEARCH_CURSOR);
+		if (!nullOrEmpty(cursor)) {
+			build.withSearchAfter(fromCursor(cursor.trim()));
+		}
+		return build.build();
+	}
+	
+	private int getSearchLimit(final MultivaluedMap<String, String> form)
+			throws IllegalParameterException {
+		final String limit = form.getFirst(Fields.SEARCH_LIMIT);
+		if (nullOrEmpty(limit)) {
+			return SEARCH_PAGE_SIZE;
+		}
+		try {
+			return Integer.parseInt(limit.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalParameterException("Limit is not an integer: " + limit);
+		}
+	}
+	
+	// the cursor is opaque to clients so the pagination scheme can change
+	private static String toCursor(final UserName lastUser) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(
+				lastUser.getName().getBytes(StandardCharsets.UTF_8));
+	}
+	
+	private static UserName fromCursor(final String cursor) throws IllegalParameterException {
+		try {
+			return new UserName(new String(
+					Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+		} catch (IllegalArgumentException | IllegalParameterException |
+				MissingParameterException e) {
+			throw new IllegalParameterException("Invalid search cursor: " + cursor);
 		}
-		return ImmutableMap.of(Fields.USERS, uiusers, Fields.HAS_USERS, !uiusers.isEmpty());
 	}
 	
 	@GET
@@ -243,7 +356,7 @@ public class Admin {
 			throws AuthStorageException, UserExistsException,
 			MissingParameterException, IllegalParameterException,
 			UnauthorizedException, InvalidTokenException,
-			NoTokenProvidedException {
+			NoTokenProvidedException, ServiceUnavailableException {
 		final Password pwd = auth.createLocalUser(
 				getTokenFromCookie(headers, cfg.getTokenCookieName()),
 				new UserName(userName), new DisplayName(displayName), new EmailAddress(email));
@@ -408,7 +521,7 @@ public class Admin {
 			@PathParam(UIPaths.USER) final String user)
 			throws NoTokenProvidedException, InvalidTokenException, NoSuchUserException,
 			UnauthorizedException, MissingParameterException, IllegalParameterException,
-			AuthStorageException{
+			AuthStorageException, ServiceUnavailableException {
 		final IncomingToken token = getTokenFromCookie(headers, cfg.getTokenCookieName());
 		final Password pwd = auth.resetPassword(token, new UserName(user));
 		final Map<String, Object> ret = new HashMap<>();
@@ -37,6 +37,7 @@ import us.kbase.auth2.lib.exceptions.AuthenticationException;
 import us.kbase.auth2.lib.exceptions.IllegalParameterException;
 import us.kbase.auth2.lib.exceptions.IllegalPasswordException;
 import us.kbase.auth2.lib.exceptions.MissingParameterException;
+import us.kbase.auth2.lib.exceptions.ServiceUnavailableException;
 import us.kbase.auth2.lib.exceptions.UnauthorizedException;
 import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
 import us.kbase.auth2.service.AuthAPIStaticConfig;
@@ -79,7 +80,7 @@ public class LocalAccounts {
 			@FormParam(Fields.CUSTOM_CONTEXT) final String customContext)
 			throws AuthStorageException, MissingParameterException,
 			AuthenticationException, IllegalParameterException,
-			UnauthorizedException {
+			UnauthorizedException, ServiceUnavailableException {
 		if (userName == null || userName.trim().isEmpty()) {
 			throw new MissingParameterException(Fields.USER);
 		}
@@ -122,7 +123,7 @@ public class LocalAccounts {
 			@FormParam(Fields.PASSWORD_NEW) String pwdnew)
 			throws MissingParameterException, IllegalParameterException,
 				AuthenticationException, UnauthorizedException, AuthStorageException,
-				IllegalPasswordException {
+				IllegalPasswordException, ServiceUnavailableException {
 		if (userName == null || userName.trim().isEmpty()) {
 			throw new MissingParameterException(Fields.USER);
 		}
@@ -109,6 +109,10 @@ public class UIPaths {
 	public static final String ADMIN_SEARCH = "search";
 	/** The administrator user search endpoint location. */
 	public static final String ADMIN_ROOT_SEARCH = ADMIN_ROOT + SEP + ADMIN_SEARCH;
+	/** A portion of a path designating a paged administrator user search that returns JSON. */
+	public static final String ADMIN_SEARCH_USERS = ADMIN_SEARCH + SEP + "users";
+	/** The paged administrator user search endpoint location. */
+	public static final String ADMIN_ROOT_SEARCH_USERS = ADMIN_ROOT + SEP + ADMIN_SEARCH_USERS;
 	
 	/** A portion of a path designating an administration operation on a token. */
 	public static final String ADMIN_TOKEN = TOKEN;
@@ -0,0 +1,130 @@
+package us.kbase.test.auth2;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** A minimal harness for the throughput benchmarks, since JMH is not among the build's
+ * dependencies.
+ *
+ * Each benchmark run starts the requested number of threads, waits until they are all ready,
+ * and then runs the operation the requested number of times in each thread. The run is
+ * performed twice and only the second run, after the JIT has warmed up, is reported.
+ *
+ * Reports the total throughput and the bytes allocated per operation. Allocation is measured
+ * with the HotSpot thread allocation counter and so is only reported on JVMs that support it.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class BenchmarkRunner {
+
+	/** An operation to benchmark. */
+	public interface Operation {
+
+		/** Run the operation.
+		 * @param thread the index of the thread running the operation, starting at 0.
+		 * @param iteration the iteration of the operation in the thread, starting at 0.
+		 * @return the result of the operation. The result is consumed by the harness so the
+		 * JIT cannot discard the operation.
+		 * @throws Exception if the operation fails.
+		 */
+		Object run(int thread, int iteration) throws Exception;
+	}
+
+	private static class Result {
+
+		private final int sink;
+		private final long bytes;
+
+		private Result(final int sink, final long bytes) {
+			this.sink = sink;
+			this.bytes = bytes;
+		}
+	}
+
+	private BenchmarkRunner() {}
+
+	/** Run a benchmark and print the results to standard out.
+	 * @param name the name of the benchmark.
+	 * @param threads the number of threads in which to run the operation.
+	 * @param iterations the number of times to run the operation in each thread.
+	 * @param op the operation.
+	 * @throws Exception if the operation fails.
+	 */
+	public static void run(
+			final String name,
+			final int threads,
+			final int iterations,
+			final Operation op)
+			throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			runThreads(executor, threads, iterations, op, new LinkedList<>()); // warm up
+			final List<Result> results = new LinkedList<>();
+			final long nanos = runThreads(executor, threads, iterations, op, results);
+			int sink = 0;
+			long bytes = 0;
+			for (final Result r: results) {
+				sink += r.sink;
+				bytes = bytes < 0 || r.bytes < 0 ? -1 : bytes + r.bytes;
+			}
+			final long ops = (long) threads * iterations;
+			System.out.println(String.format("%s, %2s threads: %,.0f ops/s, %s bytes/op",
+					name, threads, ops / (nanos / 1e9),
+					bytes < 0 ? "?" : String.format("%.1f", bytes / (double) ops)));
+			if (sink == 42) {
+				System.out.println(); // never happens, but the JIT doesn't know that
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	// returns the elapsed time in nanoseconds and adds the results of each thread to results
+	private static long runThreads(
+			final ExecutorService executor,
+			final int threads,
+			final int iterations,
+			final Operation op,
+			final List<Result> results)
+			throws Exception {
+		final CountDownLatch ready = new CountDownLatch(threads);
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Future<Result>> futures = new LinkedList<>();
+		for (int t = 0; t < threads; t++) {
+			final int thread = t;
+			futures.add(executor.submit(() -> {
+				ready.countDown();
+				start.await();
+				final long startBytes = getAllocatedBytes();
+				int sink = 0;
+				for (int i = 0; i < iterations; i++) {
+					sink += op.run(thread, i).hashCode();
+				}
+				final long bytes = startBytes < 0 ? -1 : getAllocatedBytes() - startBytes;
+				return new Result(sink, bytes);
+			}));
+		}
+		ready.await();
+		final long startNanos = System.nanoTime();
+		start.countDown();
+		for (final Future<Result> f: futures) {
+			results.add(f.get());
+		}
+		return System.nanoTime() - startNanos;
+	}
+
+	// returns -1 if the JVM can't measure allocations
+	private static long getAllocatedBytes() {
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+					Thread.currentThread().getId());
+		}
+		return -1;
+	}
+}
@@ -232,10 +232,23 @@ public class TestCommon {
 	}
 	
 	public static void destroyDB(MongoDatabase db) {
-		for (String name: db.listCollectionNames()) {
+		for (Document col: db.listCollections()) {
+			final String name = col.getString("name");
 			if (!name.startsWith("system.")) {
-				// dropping collection also drops indexes
-				db.getCollection(name).deleteMany(new Document());
+				final Document opts = (Document) col.get("options");
+				if (opts != null && Boolean.TRUE.equals(opts.get("capped"))) {
+					/* documents can't be deleted from capped collections, so recreate the
+					 * collection immediately. Otherwise a storage instance that is still running
+					 * would recreate it as an uncapped collection on the next write.
+					 */
+					db.getCollection(name).drop();
+					final Document create = new Document("create", name);
+					create.putAll(opts);
+					db.runCommand(create);
+				} else {
+					// dropping collection also drops indexes
+					db.getCollection(name).deleteMany(new Document());
+				}
 			}
 		}
 	}
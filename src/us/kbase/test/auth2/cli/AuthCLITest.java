@@ -10,6 +10,8 @@ import static us.kbase.test.auth2.TestCommon.assertClear;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -17,20 +19,40 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import org.bson.Document;
 import org.ini4j.Ini;
 import org.ini4j.Profile.Section;
+import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockserver.integration.ClientAndServer;
+import org.mockserver.matchers.Times;
+import org.mockserver.model.Header;
+import org.mockserver.model.HttpRequest;
+import org.mockserver.model.HttpResponse;
+import org.mockserver.verify.VerificationTimes;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
 
 import us.kbase.auth2.cli.AuthCLI;
 import us.kbase.auth2.cli.AuthCLI.ConsoleWrapper;
 import us.kbase.auth2.cryptutils.PasswordCrypt;
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.EmailAddress;
 import us.kbase.auth2.lib.PasswordHashAndSalt;
 import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.exceptions.NoSuchUserException;
+import us.kbase.auth2.lib.identity.RemoteIdentity;
+import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
+import us.kbase.auth2.lib.identity.RemoteIdentityID;
+import us.kbase.auth2.lib.user.AuthUser;
+import us.kbase.auth2.providers.GlobusIdentityProviderFactory;
 import us.kbase.test.auth2.MongoStorageTestManager;
 import us.kbase.test.auth2.TestCommon;
 
@@ -47,12 +69,28 @@ public class AuthCLITest {
 			"    -h, --help\n" +
 			"       Display help.\n" +
 			"       Default: false\n" +
+			"    --import-batch-size\n" +
+			"       The number of users to retrieve from the Globus OAuth2 API in each\n" +
+			"       request when importing users.\n" +
+			"       Default: 50\n" +
+			"    --import-completed-file\n" +
+			"       A file in which to record the names of successfully imported users. Users\n" +
+			"       already listed in the file are skipped, so an interrupted or partially failed\n" +
+			"       import can be resumed by running it again with the same file.\n" +
 			"    --import-globus-users\n" +
 			"       A UTF-8 encoded file of whitespace, comma, or semicolon separated Globus\n" +
 			"       user names in the Nexus format (for example, kbasetest). A Nexus Globus token\n" +
 			"       for an admin of the kbase_users group must be provided in the -n option, and\n" +
 			"       a OAuth2 Globus token in the -g option. Globus must be configured as an\n" +
 			"       identity provider in the deploy.cfg file.\n" +
+			"    --import-rate\n" +
+			"       The maximum number of requests per second to send to Globus when\n" +
+			"       importing users. 0 for no limit.\n" +
+			"       Default: 0\n" +
+			"    --import-threads\n" +
+			"       The number of batches of users to import concurrently when importing\n" +
+			"       users.\n" +
+			"       Default: 4\n" +
 			"    -n, --nexus-token\n" +
 			"       A Globus Nexus user token for use when importing users. Providing a token\n" +
 			"       without a users file does nothing.\n" +
@@ -69,13 +107,23 @@ public class AuthCLITest {
 	
 	private final static String DB_NAME = "authclitest";
 	
+	private static final String NEXUS_TOKEN = "nexustoken";
+	private static final String OAUTH2_TOKEN = "oauth2token";
+	
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	
 	private static MongoStorageTestManager manager;
+	private static ClientAndServer mockClientAndServer;
 
 	
 	@BeforeClass
 	public static void beforeClass() throws Exception {
 		manager = new MongoStorageTestManager(DB_NAME);
-		
+		// comment out these lines to see mockserver logs.
+		((ch.qos.logback.classic.Logger) org.slf4j.LoggerFactory
+				.getLogger("org.mockserver"))
+				.setLevel(ch.qos.logback.classic.Level.OFF);
+		mockClientAndServer = ClientAndServer.startClientAndServer(TestCommon.findFreePort());
 	}
 	
 	@AfterClass
@@ -83,6 +131,14 @@ public class AuthCLITest {
 		if (manager != null) {
 			manager.destroy();
 		}
+		if (mockClientAndServer != null) {
+			mockClientAndServer.stop();
+		}
+	}
+	
+	@After
+	public void tearDownTest() {
+		mockClientAndServer.reset();
 	}
 	
 	@Before
@@ -104,13 +160,14 @@ public class AuthCLITest {
 			});
 		}
 		
+		// synchronized since the Globus import prints from multiple threads
 		@Override
-		public void println(final Object line) {
+		public synchronized void println(final Object line) {
 			out.add(line.toString());
 		}
 		
 		@Override
-		public void println(final String line) {
+		public synchronized void println(final String line) {
 			out.add(line);
 		}
 		
@@ -155,11 +212,26 @@ public class AuthCLITest {
 	}
 
 	private Path generateTempConfigFile() throws IOException {
+		return generateTempConfigFile(false);
+	}
+	
+	private Path generateTempConfigFile(final boolean globus) throws IOException {
 		final Ini ini = new Ini();
 		final Section sec = ini.add("authserv2");
 		sec.add("mongo-host", "localhost:" + manager.mongo.getServerPort());
 		sec.add("mongo-db", DB_NAME);
 		sec.add("token-cookie-name", "foobar");
+		if (globus) {
+			final String pre = "identity-provider-Globus-";
+			sec.add("identity-providers", "Globus");
+			sec.add(pre + "factory", GlobusIdentityProviderFactory.class.getName());
+			sec.add(pre + "login-url", "https://login.com");
+			sec.add(pre + "api-url", "http://localhost:" + mockClientAndServer.getPort());
+			sec.add(pre + "client-id", "foo");
+			sec.add(pre + "client-secret", "bar");
+			sec.add(pre + "login-redirect-url", "https://loginredir.com");
+			sec.add(pre + "link-redirect-url", "https://linkredir.com");
+		}
 		final Path temp = TestCommon.getTempDir();
 		final Path deploy = temp.resolve(Files.createTempFile(temp, "cli_test_deploy", ".cfg"));
 		ini.store(deploy.toFile());
@@ -313,6 +385,218 @@ public class AuthCLITest {
 				consoleMock, 2);
 	}
 
+	private Path writeTempFile(final String prefix, final String contents) throws IOException {
+		final Path temp = TestCommon.getTempDir();
+		final Path f = Files.createTempFile(temp, prefix, ".txt");
+		Files.write(f, contents.getBytes(StandardCharsets.UTF_8));
+		f.toFile().deleteOnExit();
+		return f;
+	}
+	
+	private AuthCLI getImportCLI(
+			final CollectingPrintStream out,
+			final CollectingPrintStream err,
+			final String... args)
+			throws Exception {
+		final Constructor<AuthCLI> c = AuthCLI.class.getDeclaredConstructor(
+				String[].class, ConsoleWrapper.class, PrintStream.class, PrintStream.class,
+				String.class);
+		c.setAccessible(true);
+		return c.newInstance(args, mock(ConsoleWrapper.class), out, err,
+				"http://localhost:" + mockClientAndServer.getPort() + "/users/");
+	}
+	
+	private String[] importArgs(final Path users, final String... args) throws Exception {
+		final List<String> ret = new LinkedList<>(Arrays.asList(
+				"-d", generateTempConfigFile(true).toString(),
+				"--import-globus-users", users.toString(),
+				"-n", NEXUS_TOKEN,
+				"-g", OAUTH2_TOKEN));
+		ret.addAll(Arrays.asList(args));
+		return ret.toArray(new String[ret.size()]);
+	}
+	
+	private void setUpNexusUser(final String user, final Map<String, String> response)
+			throws Exception {
+		mockClientAndServer.when(
+					new HttpRequest()
+						.withMethod("GET")
+						.withPath("/users/" + user)
+						.withHeader("X-Globus-Goauthtoken", NEXUS_TOKEN),
+					Times.exactly(1)
+				).respond(
+					new HttpResponse()
+						.withStatusCode(200)
+						.withHeader(new Header("Content-Type", "application/json"))
+						.withBody(MAPPER.writeValueAsString(response))
+				);
+	}
+	
+	private void setUpNexusUser(final String user) throws Exception {
+		setUpNexusUser(user, ImmutableMap.of(
+				"full_name", "nexus " + user, "email", user + "@nexus.org"));
+	}
+	
+	private HttpRequest globusIdentitiesRequest(final String... users) {
+		return new HttpRequest()
+				.withMethod("GET")
+				.withPath("/v2/api/identities")
+				.withHeader("Authorization", "Bearer " + OAUTH2_TOKEN)
+				.withQueryStringParameter("usernames", Arrays.stream(users)
+						.map(u -> u + "@globusid.org").collect(Collectors.joining(",")));
+	}
+	
+	// returns identities for the users in the returned list, which may be a subset of the batch
+	private void setUpGlobusIdentities(final List<String> batch, final List<String> returned)
+			throws Exception {
+		final List<Map<String, String>> ids = returned.stream().map(u -> ImmutableMap.of(
+				"id", "id_" + u,
+				"username", u + "@globusid.org",
+				"name", "globus " + u,
+				"email", u + "@globus.org"))
+				.collect(Collectors.toList());
+		mockClientAndServer.when(
+					globusIdentitiesRequest(batch.toArray(new String[batch.size()])),
+					Times.exactly(1)
+				).respond(
+					new HttpResponse()
+						.withStatusCode(200)
+						.withHeader(new Header("Content-Type", "application/json"))
+						.withBody(MAPPER.writeValueAsString(ImmutableMap.of("identities", ids)))
+				);
+	}
+	
+	private void setUpGlobusIdentities(final String... batch) throws Exception {
+		setUpGlobusIdentities(Arrays.asList(batch), Arrays.asList(batch));
+	}
+	
+	private void assertImported(final String user) throws Exception {
+		final AuthUser u = manager.storage.getUser(new UserName(user));
+		assertThat("incorrect display name", u.getDisplayName(),
+				is(new DisplayName("globus " + user)));
+		assertThat("incorrect email", u.getEmail(), is(new EmailAddress(user + "@globus.org")));
+		assertThat("incorrect identities", u.getIdentities(), is(Collections.singleton(
+				new RemoteIdentity(new RemoteIdentityID("Globus", "id_" + user),
+						new RemoteIdentityDetails(user + "@globusid.org", "globus " + user,
+								user + "@globus.org")))));
+	}
+	
+	private void assertNotImported(final String user) throws Exception {
+		try {
+			manager.storage.getUser(new UserName(user));
+			fail("expected exception");
+		} catch (NoSuchUserException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void importGlobusUsersInBatches() throws Exception {
+		final Path users = writeTempFile("users", "user3, user1\nuser2;user4 user5");
+		for (final String u: Arrays.asList("user1", "user2", "user3", "user4", "user5")) {
+			setUpNexusUser(u);
+		}
+		// users are imported in sorted order
+		setUpGlobusIdentities("user1", "user2");
+		setUpGlobusIdentities("user3", "user4");
+		setUpGlobusIdentities("user5");
+		final CollectingPrintStream out = new CollectingPrintStream();
+		final CollectingPrintStream err = new CollectingPrintStream();
+		
+		final int ret = getImportCLI(out, err, importArgs(users,
+				"--import-batch-size", "2", "--import-threads", "2")).execute();
+		
+		assertThat("incorrect error", err.out, is(Collections.emptyList()));
+		assertThat("incorrect ret", ret, is(0));
+		assertThat("incorrect final line", ((String) out.out.get(out.out.size() - 1))
+				.startsWith("Imported 5 out of 5 users from file " + users), is(true));
+		for (final String u: Arrays.asList("user1", "user2", "user3", "user4", "user5")) {
+			assertImported(u);
+		}
+		mockClientAndServer.verify(globusIdentitiesRequest("user1", "user2"),
+				VerificationTimes.exactly(1));
+		mockClientAndServer.verify(globusIdentitiesRequest("user3", "user4"),
+				VerificationTimes.exactly(1));
+		mockClientAndServer.verify(globusIdentitiesRequest("user5"),
+				VerificationTimes.exactly(1));
+	}
+	
+	@Test
+	public void importGlobusUsersResumeFromCompletedFile() throws Exception {
+		final Path users = writeTempFile("users", "user1 user2 user3");
+		final Path completed = writeTempFile("completed", "user1\nuser3\n");
+		setUpNexusUser("user2");
+		setUpGlobusIdentities("user2");
+		final CollectingPrintStream out = new CollectingPrintStream();
+		final CollectingPrintStream err = new CollectingPrintStream();
+		
+		final int ret = getImportCLI(out, err, importArgs(users,
+				"--import-completed-file", completed.toString())).execute();
+		
+		assertThat("incorrect error", err.out, is(Collections.emptyList()));
+		assertThat("incorrect ret", ret, is(0));
+		assertThat("incorrect skip line", out.out.get(0),
+				is("Skipping 2 users already imported per file " + completed));
+		assertImported("user2");
+		assertNotImported("user1");
+		assertNotImported("user3");
+		assertThat("incorrect completed users", Files.readAllLines(completed),
+				is(Arrays.asList("user1", "user3", "user2")));
+	}
+	
+	@Test
+	public void importGlobusUsersReportFailures() throws Exception {
+		final Path users = writeTempFile("users", "user1 user2 user3");
+		final Path completed = TestCommon.getTempDir().resolve(
+				"completed" + System.nanoTime() + ".txt");
+		completed.toFile().deleteOnExit();
+		setUpNexusUser("user1");
+		setUpNexusUser("user2");
+		setUpNexusUser("user3");
+		setUpGlobusIdentities(Arrays.asList("user1", "user2", "user3"),
+				Arrays.asList("user1", "user3"));
+		final CollectingPrintStream out = new CollectingPrintStream();
+		final CollectingPrintStream err = new CollectingPrintStream();
+		
+		final int ret = getImportCLI(out, err, importArgs(users,
+				"--import-completed-file", completed.toString())).execute();
+		
+		assertThat("incorrect error", err.out, is(Arrays.asList(
+				"\tNo identity returned from Globus OAuth2 API for user user2",
+				"Failed to import 1 users:",
+				"\tuser2: Globus OAuth2: no identity returned",
+				"Run the import again with the same completed users file " +
+						"to retry the failed users")));
+		// failures of individual users are reported but are not fatal
+		assertThat("incorrect ret", ret, is(0));
+		assertImported("user1");
+		assertNotImported("user2");
+		assertImported("user3");
+		assertThat("incorrect completed users", Files.readAllLines(completed),
+				is(Arrays.asList("user1", "user3")));
+	}
+	
+	@Test
+	public void importGlobusUsersUnexpectedBatchError() throws Exception {
+		final Path users = writeTempFile("users", "user1 user2 user3");
+		// a response without a full name fails the batch
+		setUpNexusUser("user1", ImmutableMap.of("email", "user1@nexus.org"));
+		setUpNexusUser("user3");
+		setUpGlobusIdentities("user3");
+		final CollectingPrintStream out = new CollectingPrintStream();
+		final CollectingPrintStream err = new CollectingPrintStream();
+		
+		final int ret = getImportCLI(out, err, importArgs(users,
+				"--import-batch-size", "2")).execute();
+		
+		assertThat("incorrect error", err.out, is(Arrays.asList(
+				"Unexpected error importing users: null")));
+		assertThat("incorrect ret", ret, is(1));
+		assertNotImported("user1");
+		assertNotImported("user2");
+		assertImported("user3");
+	}
+
 	private void runCliPriorToPwdInput(
 			final String[] args,
 			final int retcode,
@@ -4,12 +4,15 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
+import java.security.NoSuchAlgorithmException;
 import java.util.LinkedList;
 import java.util.List;
 
 import org.junit.Test;
 
+import nl.jqno.equalsverifier.EqualsVerifier;
 import us.kbase.auth2.cryptutils.PasswordCrypt;
+import us.kbase.auth2.cryptutils.PasswordHashParameters;
 
 public class CryptUtilsTest {
 
@@ -120,6 +123,162 @@ public class CryptUtilsTest {
 				pc.authenticate(pwd, enclong, salt), is(false));
 	}
 	
+	@Test
+	public void encryptAndAuthenticateWithParameters() throws Exception {
+		final PasswordHashParameters params = new PasswordHashParameters(
+				"PBKDF2WithHmacSHA512", 1000, 512);
+		final PasswordCrypt pc = new PasswordCrypt(params);
+		assertThat("incorrect params", pc.getParameters(), is(params));
+		assertThat("incorrect params", new PasswordCrypt().getParameters(),
+				is(PasswordHashParameters.ORIGINAL));
+		
+		final char[] pwd = "foo".toCharArray();
+		final byte[] salt = bytesFromHex("4f", "56", "0a");
+		final byte[] enc = pc.getEncryptedPassword(pwd, salt);
+		assertThat("incorrect length", enc.length, is(64));
+		assertThat("incorrect encrypted password",
+				new PasswordCrypt().getEncryptedPassword(pwd, salt, params), is(enc));
+		assertThat("failed to authenticate", pc.authenticate(pwd, enc, salt), is(true));
+		assertThat("failed to authenticate",
+				new PasswordCrypt().authenticate(pwd, enc, salt, params), is(true));
+		assertThat("authentication succeeded when fail expected",
+				new PasswordCrypt().authenticate(pwd, enc, salt), is(false));
+		assertThat("authentication succeeded when fail expected",
+				pc.authenticate("foi".toCharArray(), enc, salt, params), is(false));
+	}
+	
+	@Test
+	public void encryptWithNullParameters() throws Exception {
+		try {
+			new PasswordCrypt().getEncryptedPassword("foo".toCharArray(), new byte[10], null);
+			fail("expected NPE");
+		} catch (NullPointerException e) {
+			assertThat("incorrect exception message", e.getMessage(), is("parameters"));
+		}
+		try {
+			new PasswordCrypt().authenticate(
+					"foo".toCharArray(), new byte[10], new byte[10], null);
+			fail("expected NPE");
+		} catch (NullPointerException e) {
+			assertThat("incorrect exception message", e.getMessage(), is("parameters"));
+		}
+	}
+	
+	@Test
+	public void constructFail() throws Exception {
+		try {
+			new PasswordCrypt(null);
+			fail("expected NPE");
+		} catch (NullPointerException e) {
+			assertThat("incorrect exception message", e.getMessage(), is("parameters"));
+		}
+		try {
+			new PasswordCrypt(new PasswordHashParameters("nope", 1000, 256));
+			fail("expected exception");
+		} catch (NoSuchAlgorithmException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void calibrate() throws Exception {
+		// no machine hashes 20000 iterations in 1ms, so the minimum applies
+		assertThat("incorrect params",
+				PasswordCrypt.calibrate(PasswordHashParameters.PBKDF2_SHA256, 256, 1),
+				is(PasswordHashParameters.ORIGINAL));
+		
+		final PasswordHashParameters p = PasswordCrypt.calibrate(
+				"PBKDF2WithHmacSHA512", 512, 50);
+		assertThat("incorrect algorithm", p.getAlgorithm(), is("PBKDF2WithHmacSHA512"));
+		assertThat("incorrect key length", p.getKeyLength(), is(512));
+		assertThat("iterations not rounded", p.getIterations() % 1000, is(0));
+		assertThat("iterations too low", p.getIterations() >= 20000, is(true));
+	}
+	
+	@Test
+	public void calibrateFail() throws Exception {
+		try {
+			PasswordCrypt.calibrate(PasswordHashParameters.PBKDF2_SHA256, 256, 0);
+			fail("expected exception");
+		} catch (IllegalArgumentException e) {
+			assertThat("incorrect exception message", e.getMessage(),
+					is("targetMillis must be at least 1"));
+		}
+		try {
+			PasswordCrypt.calibrate("nope", 256, 1);
+			fail("expected exception");
+		} catch (NoSuchAlgorithmException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void parameters() throws Exception {
+		final PasswordHashParameters p = new PasswordHashParameters("alg", 42, 16);
+		assertThat("incorrect algorithm", p.getAlgorithm(), is("alg"));
+		assertThat("incorrect iterations", p.getIterations(), is(42));
+		assertThat("incorrect key length", p.getKeyLength(), is(16));
+		assertThat("incorrect toString", p.toString(),
+				is("PasswordHashParameters [algorithm=alg, iterations=42, keyLength=16]"));
+		
+		final PasswordHashParameters o = PasswordHashParameters.ORIGINAL;
+		assertThat("incorrect algorithm", o.getAlgorithm(), is("PBKDF2WithHmacSHA256"));
+		assertThat("incorrect iterations", o.getIterations(), is(20000));
+		assertThat("incorrect key length", o.getKeyLength(), is(256));
+	}
+	
+	@Test
+	public void parametersEquals() throws Exception {
+		EqualsVerifier.forClass(PasswordHashParameters.class).usingGetClass().verify();
+	}
+	
+	@Test
+	public void parametersConstructFail() throws Exception {
+		failConstructParameters(null, 1, 8, "algorithm cannot be null or empty");
+		failConstructParameters("   \t ", 1, 8, "algorithm cannot be null or empty");
+		failConstructParameters("a", 0, 8, "iterations must be at least 1");
+		failConstructParameters("a", 1, 0, "keyLength must be a positive multiple of 8");
+		failConstructParameters("a", 1, 12, "keyLength must be a positive multiple of 8");
+		failConstructParameters("a", 1, -8, "keyLength must be a positive multiple of 8");
+	}
+	
+	private void failConstructParameters(
+			final String algorithm,
+			final int iterations,
+			final int keyLength,
+			final String message) {
+		try {
+			new PasswordHashParameters(algorithm, iterations, keyLength);
+			fail("expected exception");
+		} catch (IllegalArgumentException e) {
+			assertThat("incorrect exception message", e.getMessage(), is(message));
+		}
+	}
+	
+	@Test
+	public void parametersIsWeakerThan() throws Exception {
+		final PasswordHashParameters p = new PasswordHashParameters("a", 1000, 256);
+		assertThat("incorrect weaker", p.isWeakerThan(p), is(false));
+		assertThat("incorrect weaker", p.isWeakerThan(
+				new PasswordHashParameters("a", 1000, 256)), is(false));
+		assertThat("incorrect weaker", p.isWeakerThan(
+				new PasswordHashParameters("a", 1001, 256)), is(true));
+		assertThat("incorrect weaker", p.isWeakerThan(
+				new PasswordHashParameters("a", 999, 256)), is(false));
+		assertThat("incorrect weaker", p.isWeakerThan(
+				new PasswordHashParameters("b", 1000, 256)), is(true));
+		assertThat("incorrect weaker", p.isWeakerThan(
+				new PasswordHashParameters("a", 1000, 512)), is(true));
+		assertThat("incorrect weaker", p.isWeakerThan(
+				new PasswordHashParameters("a", 1000, 128)), is(true));
+		try {
+			p.isWeakerThan(null);
+			fail("expected NPE");
+		} catch (NullPointerException e) {
+			assertThat("incorrect exception message", e.getMessage(), is("other"));
+		}
+	}
+	
 	private byte[] bytesFromHex(final String... hex) {
 		final byte[] b = new byte[hex.length];
 		for (int i = 0; i < hex.length; i++) {
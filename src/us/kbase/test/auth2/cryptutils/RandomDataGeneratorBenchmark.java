@@ -0,0 +1,44 @@
+package us.kbase.test.auth2.cryptutils;
+
+import static us.kbase.test.auth2.BenchmarkRunner.run;
+
+import java.security.SecureRandom;
+import java.util.UUID;
+
+import org.apache.commons.codec.binary.Base32;
+
+import us.kbase.auth2.cryptutils.SHA1RandomDataGenerator;
+import us.kbase.test.auth2.BenchmarkRunner;
+
+/** Compares the throughput of generating tokens and UUIDs from multiple threads with the
+ * previous implementations, which shared a single SecureRandom instance between all threads, to
+ * the current implementations, which use a SecureRandom instance per thread.
+ *
+ * Takes optional arguments for the number of operations per thread and the maximum number of
+ * threads. Each method is run with 1, 2, 4... threads up to the maximum, which defaults to the
+ * number of processors. See {@link BenchmarkRunner}.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class RandomDataGeneratorBenchmark {
+
+	public static void main(final String[] args) throws Exception {
+		final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		final int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) :
+				Runtime.getRuntime().availableProcessors();
+		final SHA1RandomDataGenerator gen = new SHA1RandomDataGenerator();
+		final SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+
+		System.out.println(String.format("%s iterations per thread", iterations));
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			run("Generate token, previous", threads, iterations, (t, i) -> {
+				final byte[] b = new byte[20];
+				random.nextBytes(b);
+				return new Base32().encodeAsString(b);
+			});
+			run("Generate token          ", threads, iterations, (t, i) -> gen.getToken());
+			run("UUID, previous          ", threads, iterations, (t, i) -> UUID.randomUUID());
+			run("UUID                    ", threads, iterations, (t, i) -> gen.randomUUID());
+		}
+	}
+}
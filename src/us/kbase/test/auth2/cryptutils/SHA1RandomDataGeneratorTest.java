@@ -1,11 +1,17 @@
 package us.kbase.test.auth2.cryptutils;
 
-import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.codec.binary.Base32;
 import org.junit.Test;
@@ -23,6 +29,19 @@ public class SHA1RandomDataGeneratorTest {
 		final String t = new SHA1RandomDataGenerator().getToken();
 		final byte[] b = new Base32().decode(t);
 		assertThat("incorrect bit count", b.length, is(20));
+		assertThat("incorrect encoding", new Base32().encodeAsString(b), is(t));
+	}
+	
+	@Test
+	public void getTokenEncoding() throws Exception {
+		// check the encoding against a reference implementation with many random tokens
+		final SHA1RandomDataGenerator gen = new SHA1RandomDataGenerator();
+		for (int i = 0; i < 1000; i++) {
+			final String t = gen.getToken();
+			assertThat("incorrect length", t.length(), is(32));
+			assertThat("incorrect encoding", new Base32().encodeAsString(new Base32().decode(t)),
+					is(t));
+		}
 	}
 	
 	@Test
@@ -58,9 +77,43 @@ public class SHA1RandomDataGeneratorTest {
 	
 	@Test
 	public void uuid() throws Exception {
-		// not much to test here
-		assertThat("doesn't generate a uuid", new SHA1RandomDataGenerator().randomUUID(),
-				instanceOf(UUID.class));
+		// not much to test here other than the version, variant, and that it's random
+		final SHA1RandomDataGenerator gen = new SHA1RandomDataGenerator();
+		final Set<UUID> uuids = new HashSet<>();
+		for (int i = 0; i < 1000; i++) {
+			final UUID u = gen.randomUUID();
+			assertThat("incorrect version", u.version(), is(4));
+			assertThat("incorrect variant", u.variant(), is(2));
+			assertThat("incorrect round trip", UUID.fromString(u.toString()), is(u));
+			uuids.add(u);
+		}
+		assertThat("duplicate uuids", uuids.size(), is(1000));
+	}
+	
+	@Test
+	public void concurrentTokens() throws Exception {
+		// each thread has its own generator, which must be seeded independently
+		final SHA1RandomDataGenerator gen = new SHA1RandomDataGenerator();
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<List<String>>> results = new LinkedList<>();
+			for (int i = 0; i < 4; i++) {
+				results.add(executor.submit(() -> {
+					final List<String> tokens = new LinkedList<>();
+					for (int j = 0; j < 100; j++) {
+						tokens.add(gen.getToken());
+					}
+					return tokens;
+				}));
+			}
+			final Set<String> tokens = new HashSet<>();
+			for (final Future<List<String>> f: results) {
+				tokens.addAll(f.get());
+			}
+			assertThat("duplicate tokens", tokens.size(), is(400));
+		} finally {
+			executor.shutdown();
+		}
 	}
 
 }
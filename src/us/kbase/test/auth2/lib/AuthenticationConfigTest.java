@@ -15,6 +15,7 @@ import static us.kbase.test.auth2.TestCommon.set;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -651,38 +652,118 @@ public class AuthenticationConfigTest {
 
 		AuthenticationTester.setConfigUpdateInterval(auth, 200);
 
-		assertThat("incorrect external config", auth.getExternalConfig(
-				new TestExternalConfigMapper()),
-				is(exp0));
-		assertThat("incorrect cache time", auth.getSuggestedTokenCacheTime(), is(300000L));
+		assertConfigManagerState(auth, exp0, 300000L);
 		
 		Thread.sleep(100);
 		
-		assertThat("incorrect external config", auth.getExternalConfig(
-				new TestExternalConfigMapper()),
-				is(exp0));
-		assertThat("incorrect cache time", auth.getSuggestedTokenCacheTime(), is(300000L));
+		assertConfigManagerState(auth, exp0, 300000L);
 		
 		Thread.sleep(101);
 		
-		assertThat("incorrect external config", auth.getExternalConfig(
-				new TestExternalConfigMapper()),
-				is(exp1));
-		assertThat("incorrect cache time", auth.getSuggestedTokenCacheTime(), is(400000L));
+		// the stale config is returned while it is refreshed in the background
+		assertConfigManagerState(auth, exp0, 300000L);
+		
+		waitForBackgroundUpdate(auth, 400000L);
+		assertConfigManagerState(auth, exp1, 400000L);
 		
 		Thread.sleep(100);
 		
+		assertConfigManagerState(auth, exp1, 400000L);
+		
+		Thread.sleep(101);
+		
+		assertConfigManagerState(auth, exp1, 400000L);
+		
+		waitForBackgroundUpdate(auth, 500000L);
+		assertConfigManagerState(auth, exp2, 500000L);
+	}
+	
+	private void waitForBackgroundUpdate(final Authentication auth, final long expectedCacheTime)
+			throws Exception {
+		for (int i = 0; i < 100 && auth.getSuggestedTokenCacheTime() != expectedCacheTime; i++) {
+			Thread.sleep(5);
+		}
+	}
+	
+	private void assertConfigManagerState(
+			final Authentication auth,
+			final TestExternalConfig<State> expectedExternalConfig,
+			final long expectedCacheTime)
+			throws Exception {
 		assertThat("incorrect external config", auth.getExternalConfig(
 				new TestExternalConfigMapper()),
-				is(exp1));
+				is(expectedExternalConfig));
+		assertThat("incorrect cache time", auth.getSuggestedTokenCacheTime(),
+				is(expectedCacheTime));
+	}
+	
+	@Test
+	public void configManagerSynchronousUpdate() throws Exception {
+		// if the config is more than twice the update interval old, it's updated synchronously
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		
+		when(storage.getConfig(isA(CollectingExternalConfigMapper.class))).thenReturn(
+				new AuthConfigSet<CollectingExternalConfig>(
+						new AuthConfig(true, null,
+								ImmutableMap.of(TokenLifetimeType.EXT_CACHE, 400000L)),
+						new CollectingExternalConfig(Collections.emptyMap())))
+				.thenReturn(null);
+		
+		AuthenticationTester.setConfigUpdateInterval(auth, 100);
+		
+		Thread.sleep(201);
+		
 		assertThat("incorrect cache time", auth.getSuggestedTokenCacheTime(), is(400000L));
+	}
+	
+	@Test
+	public void configManagerMapsExternalConfigOncePerUpdate() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		final CountingMapper mapper = new CountingMapper();
+		CountingMapper.count = 0;
 		
-		Thread.sleep(101);
+		final TestExternalConfig<State> exp = new TestExternalConfig<>(
+				ConfigItem.state(AuthenticationTester.TEST_EXTERNAL_CONFIG.aThing.getItem()));
 		
+		assertThat("incorrect external config", auth.getExternalConfig(mapper), is(exp));
+		assertThat("incorrect external config", auth.getExternalConfig(mapper), is(exp));
+		assertThat("incorrect external config",
+				auth.getExternalConfig(new CountingMapper()), is(exp));
+		assertThat("incorrect map count", CountingMapper.count, is(1));
+		
+		// a different mapper class is mapped separately
 		assertThat("incorrect external config", auth.getExternalConfig(
-				new TestExternalConfigMapper()),
-				is(exp2));
-		assertThat("incorrect cache time", auth.getSuggestedTokenCacheTime(), is(500000L));
+				new TestExternalConfigMapper()), is(exp));
+		assertThat("incorrect map count", CountingMapper.count, is(1));
+		
+		// a new config is mapped again
+		when(storage.getConfig(isA(CollectingExternalConfigMapper.class))).thenReturn(
+				new AuthConfigSet<CollectingExternalConfig>(
+						new AuthConfig(true, null, null),
+						new CollectingExternalConfig(ImmutableMap.of(
+								"thing", ConfigItem.state("foo")))));
+		AuthenticationTester.setConfigUpdateInterval(auth, -1);
+		
+		assertThat("incorrect external config", auth.getExternalConfig(mapper),
+				is(new TestExternalConfig<>(ConfigItem.state("foo"))));
+		assertThat("incorrect map count", CountingMapper.count, is(2));
+	}
+	
+	private static class CountingMapper extends TestExternalConfigMapper {
+		
+		private static int count = 0;
+		
+		@Override
+		public TestExternalConfig<State> fromMap(
+				final Map<String, ConfigItem<String, State>> config)
+				throws ExternalConfigMappingException {
+			count++;
+			return super.fromMap(config);
+		}
 	}
 	
 	@Test
@@ -700,6 +781,18 @@ public class AuthenticationConfigTest {
 		
 		Thread.sleep(201);
 		
+		// the background update fails, and the stale config is used in the meantime
+		assertThat("incorrect cache time", auth.getSuggestedTokenCacheTime(), is(300000L));
+		
+		for (int i = 0; i < 20 && logEvents.isEmpty(); i++) {
+			Thread.sleep(5);
+		}
+		assertLogEventsCorrect(logEvents, new LogEvent(Level.ERROR,
+				"Failed to refresh the configuration: This should be impossible",
+				Authentication.class));
+		
+		Thread.sleep(200);
+		
 		try {
 			auth.getSuggestedTokenCacheTime();
 			fail("expected exception");
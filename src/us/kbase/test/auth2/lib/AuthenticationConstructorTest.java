@@ -23,7 +23,9 @@ import org.junit.Test;
 
 import com.google.common.collect.ImmutableMap;
 
+import us.kbase.auth2.cryptutils.PasswordHashParameters;
 import us.kbase.auth2.lib.Authentication;
+import us.kbase.auth2.lib.AuthenticationOptions;
 import us.kbase.auth2.lib.config.AuthConfig;
 import us.kbase.auth2.lib.config.AuthConfigSet;
 import us.kbase.auth2.lib.config.AuthConfigUpdate;
@@ -126,6 +128,27 @@ public class AuthenticationConstructorTest {
 				new NullPointerException("Null identity provider in set"));
 		failConstruct(storage, Collections.emptySet(), null,
 				new NullPointerException("defaultExternalConfig"));
+		try {
+			new Authentication(storage, Collections.emptySet(), new TestExternalConfig<>(SET_FOO),
+					null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("options"));
+		}
+	}
+	
+	@Test
+	public void badPasswordHashAlgorithm() throws Exception {
+		final AuthStorage storage = mock(AuthStorage.class);
+		try {
+			new Authentication(storage, Collections.emptySet(), new TestExternalConfig<>(SET_FOO),
+					AuthenticationOptions.getBuilder().withPasswordHashParameters(
+							new PasswordHashParameters("nope", 1000, 256)).build());
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+					"Password hash algorithm is not available: nope"));
+		}
 	}
 	
 	private static class NullIdProv implements IdentityProvider {
@@ -117,10 +117,10 @@ public class AuthenticationCreateLocalUserTest {
 		
 		when(storage.getToken(token.getHashedToken()))
 				.thenReturn(StoredToken.getBuilder(
-						TokenType.LOGIN, UUID.randomUUID(), new UserName("admin"))
+						TokenType.LOGIN, UUID.randomUUID(), adminUser.getUserName())
 						.withLifeTime(NOW, NOW).build());
 		
-		when(storage.getUser(new UserName("admin"))).thenReturn(adminUser);
+		when(storage.getUser(adminUser.getUserName())).thenReturn(adminUser);
 		
 		when(rand.getTemporaryPassword(10)).thenReturn(pwdChar);
 		
@@ -321,7 +321,7 @@ public class AuthenticationCreateLocalUserTest {
 		
 		when(storage.getToken(token.getHashedToken()))
 				.thenReturn(StoredToken.getBuilder(
-						TokenType.LOGIN, UUID.randomUUID(), new UserName("admin"))
+						TokenType.LOGIN, UUID.randomUUID(), UserName.ROOT)
 						.withLifeTime(NOW, NOW).build());
 
 		final AuthUser admin = AuthUser.getBuilder(
@@ -329,7 +329,7 @@ public class AuthenticationCreateLocalUserTest {
 				.withEmailAddress(new EmailAddress("f@g.com"))
 				.withRole(Role.ROOT).build();
 		
-		when(storage.getUser(new UserName("admin"))).thenReturn(admin);
+		when(storage.getUser(UserName.ROOT)).thenReturn(admin);
 		
 		failCreateLocalUser(auth, token, UserName.ROOT, new DisplayName("bar"),
 				new EmailAddress("f@g.com"), new UnauthorizedException(ErrorType.UNAUTHORIZED,
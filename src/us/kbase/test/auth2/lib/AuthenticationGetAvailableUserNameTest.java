@@ -3,6 +3,12 @@ package us.kbase.test.auth2.lib;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import static us.kbase.test.auth2.lib.AuthenticationTester.initTestMocks;
@@ -15,6 +21,7 @@ import java.util.regex.Pattern;
 import org.junit.Test;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
 
 import us.kbase.auth2.lib.Authentication;
 import us.kbase.auth2.lib.DisplayName;
@@ -42,7 +49,7 @@ public class AuthenticationGetAvailableUserNameTest {
 		final Method m = UserSearchSpec.Builder.class.getDeclaredMethod(
 				"withSearchRegex", String.class);
 		m.setAccessible(true);
-		m.invoke(b, "^" + Pattern.quote(searchName) + "\\d*$");
+		m.invoke(b, "^" + Pattern.quote(searchName) + "$");
 		
 		final UserSearchSpec spec = b.withIncludeDisabled(true).withSearchOnUserName(true).build();
 		
@@ -62,128 +69,67 @@ public class AuthenticationGetAvailableUserNameTest {
 
 	@Test
 	public void getAvailableUserNameNoMatchNum0() throws Exception {
-		
-		final String suggestedUserName = "  !# 999  45FOO0*(^";
-		final String searchName = "foo";
-		final Map<UserName, DisplayName> names = new HashMap<>();
-		names.put(new UserName("foo1"), DISPNAME);
-		names.put(new UserName("foo2"), DISPNAME);
-		names.put(new UserName("foo26"), DISPNAME);
-		final Optional<UserName> expected = Optional.of(new UserName("foo0"));
-
-		getAvailableUserName(suggestedUserName, searchName, expected, names);
+		getAvailableUserName("  !# 999  45FOO0*(^", null, 0,
+				Optional.of(new UserName("foo0")));
 	}
 	
 	@Test
 	public void getAvailableUserNameNoMatchNum1() throws Exception {
-		
-		final String suggestedUserName = "  !# 999  45FOO1*(^";
-		final String searchName = "foo";
-		final Map<UserName, DisplayName> names = new HashMap<>();
-		names.put(new UserName("foo0"), DISPNAME);
-		names.put(new UserName("foo2"), DISPNAME);
-		names.put(new UserName("foo26"), DISPNAME);
-		final Optional<UserName> expected = Optional.of(new UserName("foo1"));
-
-		getAvailableUserName(suggestedUserName, searchName, expected, names);
+		getAvailableUserName("  !# 999  45FOO1*(^", null, 0,
+				Optional.of(new UserName("foo1")));
 	}
 	
 	@Test
 	public void getAvailableUserNameNoMatchNum2() throws Exception {
-		
-		final String suggestedUserName = "  !# 999  45FOO2*(^";
-		final String searchName = "foo";
-		final Map<UserName, DisplayName> names = new HashMap<>();
-		names.put(new UserName("foo0"), DISPNAME);
-		names.put(new UserName("foo1"), DISPNAME);
-		names.put(new UserName("foo3"), DISPNAME);
-		names.put(new UserName("foo26"), DISPNAME);
-		final Optional<UserName> expected = Optional.of(new UserName("foo2"));
-
-		getAvailableUserName(suggestedUserName, searchName, expected, names);
+		getAvailableUserName("  !# 999  45FOO2*(^", null, 0,
+				Optional.of(new UserName("foo2")));
 	}
 	
 	@Test
 	public void getAvailableUserNameWithMatch() throws Exception {
-		
-		final String suggestedUserName = "  !# 999  45FOO*(^";
-		final String searchName = "foo";
-		final Map<UserName, DisplayName> names = new HashMap<>();
-		names.put(new UserName("foo"), DISPNAME);
-		names.put(new UserName("foo2"), DISPNAME);
-		names.put(new UserName("foo3"), DISPNAME);
-		names.put(new UserName("foo5"), DISPNAME);
-		final Optional<UserName> expected = Optional.of(new UserName("foo4"));
-
-		getAvailableUserName(suggestedUserName, searchName, expected, names);
+		getAvailableUserName("  !# 999  45FOO*(^", "foo", 4,
+				Optional.of(new UserName("foo4")));
 	}
 	
 	@Test
 	public void getAvailableUserNameWithNumMatch() throws Exception {
-		
-		final String suggestedUserName = "  !# 999  45FOO3*(^";
-		final String searchName = "foo";
-		final Map<UserName, DisplayName> names = new HashMap<>();
-		names.put(new UserName("foo2"), DISPNAME);
-		names.put(new UserName("foo3"), DISPNAME);
-		names.put(new UserName("foo4"), DISPNAME);
-		names.put(new UserName("foo6"), DISPNAME);
-		names.put(new UserName("foo24"), DISPNAME);
-		final Optional<UserName> expected = Optional.of(new UserName("foo5"));
-
-		getAvailableUserName(suggestedUserName, searchName, expected, names);
+		getAvailableUserName("  !# 999  45FOO3*(^", "foo", 5,
+				Optional.of(new UserName("foo5")));
 	}
 	
 	@Test
 	public void getAvailableUserNameWithNumMatchEarly() throws Exception {
-		
-		final String suggestedUserName = "  !# 999  45FOO3*(^";
-		final String searchName = "foo";
-		final Map<UserName, DisplayName> names = new HashMap<>();
-		names.put(new UserName("foo3"), DISPNAME);
-		names.put(new UserName("foo4"), DISPNAME);
-		names.put(new UserName("foo6"), DISPNAME);
-		names.put(new UserName("foo24"), DISPNAME);
-		final Optional<UserName> expected = Optional.of(new UserName("foo2"));
-
-		getAvailableUserName(suggestedUserName, searchName, expected, names);
+		getAvailableUserName("  !# 999  45FOO3*(^", "foo", 2,
+				Optional.of(new UserName("foo2")));
 	}
 	
 	@Test
 	public void getAvailableUserNameWithMatchNoNums() throws Exception {
-		
-		final String suggestedUserName = "  !# 999  45FOOp*(^";
-		final String searchName = "foop";
-		final Map<UserName, DisplayName> names = new HashMap<>();
-		names.put(new UserName("foop"), DISPNAME);
-		final Optional<UserName> expected = Optional.of(new UserName("foop2"));
-
-		getAvailableUserName(suggestedUserName, searchName, expected, names);
+		getAvailableUserName("  !# 999  45FOOp*(^", "foop", 2,
+				Optional.of(new UserName("foop2")));
 	}
 	
 	@Test
 	public void getAvailableUserNameIllegalNameNoNames() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
 		
-		final String suggestedUserName = "  !# 999  45*(^";
-		final String searchName = "user";
-		final Map<UserName, DisplayName> names = new HashMap<>();
-		final Optional<UserName> expected = Optional.of(new UserName("user1"));
-
-		getAvailableUserName(suggestedUserName, searchName, expected, names);
+		when(storage.getLowestAvailableUserNameSuffix("user", 1)).thenReturn(1L);
+		
+		assertThat("incorrect username", testauth.auth.getAvailableUserName("  !# 999  45*(^"),
+				is(Optional.of(new UserName("user1"))));
+		verify(storage, never()).getUserDisplayNames(any(UserSearchSpec.class), anyInt());
 	}
 	
 	@Test
 	public void getAvailableUserNameIllegalNameWithNames() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
 		
-		final String suggestedUserName = "  !# 999  45*(^";
-		final String searchName = "user";
-		final Map<UserName, DisplayName> names = new HashMap<>();
-		names.put(new UserName("user1"), DISPNAME);
-		names.put(new UserName("user2"), DISPNAME);
-		names.put(new UserName("user4"), DISPNAME);
-		final Optional<UserName> expected = Optional.of(new UserName("user3"));
-
-		getAvailableUserName(suggestedUserName, searchName, expected, names);
+		when(storage.getLowestAvailableUserNameSuffix("user", 1)).thenReturn(3L);
+		
+		assertThat("incorrect username", testauth.auth.getAvailableUserName("  !# 999  45*(^"),
+				is(Optional.of(new UserName("user3"))));
 	}
 	
 	@Test
@@ -195,52 +141,45 @@ public class AuthenticationGetAvailableUserNameTest {
 		}
 		final String searchName = sb.toString();
 		
-		final String suggestedUserName = searchName + 1;
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
 		
-		final Map<UserName, DisplayName> names1 = new HashMap<>();
-		for (int i = 1; i < 10; i++) {
-			names1.put(new UserName(searchName + i), DISPNAME);
-		}
-		final Map<UserName, DisplayName> names2 = new HashMap<>();
-		names2.put(new UserName("user1"), DISPNAME);
-		names2.put(new UserName("user2"), DISPNAME);
-		names2.put(new UserName("user4"), DISPNAME);
-		final Optional<UserName> expected = Optional.of(new UserName("user3"));
-
-		getAvailableUserName(suggestedUserName, searchName, expected, names1, names2);
+		when(storage.getUserDisplayNames(getTestSpec(searchName + 1), -1))
+				.thenReturn(ImmutableMap.of(new UserName(searchName + 1), DISPNAME));
+		when(storage.getLowestAvailableUserNameSuffix(searchName, 2)).thenReturn(10L);
+		when(storage.getLowestAvailableUserNameSuffix("user", 1)).thenReturn(3L);
+		
+		assertThat("incorrect username", testauth.auth.getAvailableUserName(searchName + 1),
+				is(Optional.of(new UserName("user3"))));
 	}
 
+	/* if match is non-null, the suggested user name exists and the storage system returns the
+	 * suffix for the match.
+	 */
 	private void getAvailableUserName(
 			final String suggestedUserName,
-			final String searchName,
-			final Optional<UserName> expected,
-			final Map<UserName, DisplayName> names1)
-			throws Exception {
-		getAvailableUserName(suggestedUserName, searchName, expected, names1, null);
-	}
-	
-	private void getAvailableUserName(
-			final String suggestedUserName,
-			final String searchName,
-			final Optional<UserName> expected,
-			final Map<UserName, DisplayName> names1,
-			final Map<UserName, DisplayName> names2)
+			final String match,
+			final long suffix,
+			final Optional<UserName> expected)
 			throws Exception {
 		final TestMocks testauth = initTestMocks();
 		final AuthStorage storage = testauth.storageMock;
 		final Authentication auth = testauth.auth;
 		
-		final UserSearchSpec spec = getTestSpec(searchName);
-		final UserSearchSpec spec2 = getTestSpec("user");
-		
-		when(storage.getUserDisplayNames(spec, -1)).thenReturn(names1);
-		if (names2 != null) {
-			when(storage.getUserDisplayNames(spec2, -1)).thenReturn(names2);
+		final UserName sanitized = UserName.sanitizeName(suggestedUserName).get();
+		final Map<UserName, DisplayName> found = new HashMap<>();
+		if (match != null) {
+			found.put(sanitized, DISPNAME);
+			when(storage.getLowestAvailableUserNameSuffix(match, 2)).thenReturn(suffix);
 		}
+		when(storage.getUserDisplayNames(getTestSpec(sanitized.getName()), -1)).thenReturn(found);
 		
 		final Optional<UserName> available = auth.getAvailableUserName(suggestedUserName);
 		
 		assertThat("incorrect username", available, is(expected));
+		if (match == null) {
+			verify(storage, never()).getLowestAvailableUserNameSuffix(anyString(), anyLong());
+		}
 	}
 	
 }
@@ -3,6 +3,9 @@ package us.kbase.test.auth2.lib;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.never;
@@ -16,17 +19,22 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.function.BiConsumer;
 
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.google.common.base.Optional;
+
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import us.kbase.auth2.lib.Authentication;
+import us.kbase.auth2.lib.Authentication.UserSearch;
 import us.kbase.auth2.lib.DisplayName;
 import us.kbase.auth2.lib.EmailAddress;
 import us.kbase.auth2.lib.Role;
@@ -448,4 +456,96 @@ public class AuthenticationGetUserDisplayNamesTest {
 			TestCommon.assertExceptionCorrect(got, e);
 		}
 	}
+
+	private Authentication initSearchUsers(final AuthUser user, final IncomingToken token)
+			throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+
+		when(storage.getToken(token.getHashedToken())).thenReturn(
+				StoredToken.getBuilder(TokenType.LOGIN, UUID.randomUUID(), user.getUserName())
+						.withLifeTime(Instant.now(), Instant.now()).build());
+		
+		when(storage.getUser(user.getUserName())).thenReturn(user);
+		
+		doAnswer(inv -> {
+			@SuppressWarnings("unchecked")
+			final BiConsumer<UserName, DisplayName> c = inv.getArgument(2);
+			c.accept(new UserName("bar"), new DisplayName("dbar"));
+			c.accept(UserName.ROOT, new DisplayName("root"));
+			c.accept(new UserName("foo"), new DisplayName("dfoo"));
+			return null;
+		}).when(storage).searchUsers(any(UserSearchSpec.class), anyInt(), any());
+		return testauth.auth;
+	}
+	
+	private List<String> runSearch(final UserSearch search, final Optional<UserName> expectedNext)
+			throws Exception {
+		final List<String> got = new LinkedList<>();
+		final Optional<UserName> next = search.run((u, d) -> got.add(
+				u.getName() + " " + d.getName()));
+		assertThat("incorrect next", next, is(expectedNext));
+		return got;
+	}
+	
+	@Test
+	public void searchUsers() throws Exception {
+		final AuthUser user = AuthUser.getBuilder(
+				new UserName("admin"), new DisplayName("foo"), Instant.now())
+				.withRole(Role.ADMIN).build();
+		final IncomingToken token = new IncomingToken("foobar");
+		final Authentication auth = initSearchUsers(user, token);
+		
+		// the root user counts towards the limit even when it's excluded
+		assertThat("incorrect users", runSearch(auth.searchUsers(
+				token, UserSearchSpec.getBuilder().build(), 3),
+				Optional.of(new UserName("foo"))),
+				is(Arrays.asList("bar dbar", "foo dfoo")));
+		assertThat("incorrect users", runSearch(auth.searchUsers(
+				token, UserSearchSpec.getBuilder().withIncludeRoot(true).build(), 4),
+				Optional.absent()),
+				is(Arrays.asList("bar dbar", "***ROOT*** root", "foo dfoo")));
+	}
+	
+	@Test
+	public void searchUsersFailLimit() throws Exception {
+		final AuthUser user = AuthUser.getBuilder(
+				new UserName("admin"), new DisplayName("foo"), Instant.now())
+				.withRole(Role.ADMIN).build();
+		final IncomingToken token = new IncomingToken("foobar");
+		final Authentication auth = initSearchUsers(user, token);
+		
+		failSearchUsers(auth, token, UserSearchSpec.getBuilder().build(), 0,
+				new IllegalParameterException("Limit must be between 1 and 10000"));
+		failSearchUsers(auth, token, UserSearchSpec.getBuilder().build(), 10001,
+				new IllegalParameterException("Limit must be between 1 and 10000"));
+	}
+	
+	@Test
+	public void searchUsersFailStdUserRole() throws Exception {
+		final AuthUser user = AuthUser.getBuilder(
+				new UserName("foo"), new DisplayName("foo"), Instant.now())
+				.withRole(Role.DEV_TOKEN).build();
+		final IncomingToken token = new IncomingToken("foobar");
+		final Authentication auth = initSearchUsers(user, token);
+		
+		failSearchUsers(auth, token, UserSearchSpec.getBuilder().withSearchPrefix("foo")
+				.withSearchOnRole(Role.ADMIN).build(), 10,
+				new UnauthorizedException(ErrorType.UNAUTHORIZED,
+						"Only admins may search on roles"));
+	}
+	
+	private void failSearchUsers(
+			final Authentication auth,
+			final IncomingToken token,
+			final UserSearchSpec spec,
+			final int limit,
+			final Exception e) {
+		try {
+			auth.searchUsers(token, spec, limit);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
 }
@@ -3,6 +3,8 @@ package us.kbase.test.auth2.lib;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -21,18 +23,25 @@ import org.junit.Test;
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import us.kbase.auth2.lib.Authentication;
+import us.kbase.auth2.lib.AuthenticationOptions;
 import us.kbase.auth2.lib.DisplayName;
 import us.kbase.auth2.lib.EmailAddress;
 import us.kbase.auth2.lib.Role;
 import us.kbase.auth2.lib.UserDisabledState;
 import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.UserUpdate;
 import us.kbase.auth2.lib.ViewableUser;
 import us.kbase.auth2.lib.exceptions.NoSuchUserException;
 import us.kbase.auth2.lib.storage.AuthStorage;
 import us.kbase.auth2.lib.token.IncomingToken;
 import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenAndUser;
+import us.kbase.auth2.lib.token.TokenAndUserAuthInfo;
+import us.kbase.auth2.lib.token.TokenAuthInfo;
 import us.kbase.auth2.lib.token.TokenType;
 import us.kbase.auth2.lib.user.AuthUser;
+import us.kbase.auth2.lib.user.UserAuthInfo;
+import us.kbase.auth2.lib.user.UserCache;
 import us.kbase.test.auth2.TestCommon;
 import us.kbase.test.auth2.lib.AuthenticationTester.AbstractAuthOperation;
 import us.kbase.test.auth2.lib.AuthenticationTester.LogEvent;
@@ -62,6 +71,75 @@ public class AuthenticationGetUserTest {
 		getUser(user);
 	}
 	
+	@Test
+	public void getUserCached() throws Exception {
+		final TestMocks testauth = initTestMocks(AuthenticationOptions.getBuilder()
+				.withUserCache(new UserCache(10, 60000)).build());
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		
+		final IncomingToken token = new IncomingToken("foobar");
+		final AuthUser user = AuthUser.getBuilder(
+				new UserName("whee"), new DisplayName("foo"), Instant.now()).build();
+		
+		when(storage.getToken(token.getHashedToken())).thenReturn(
+				StoredToken.getBuilder(TokenType.LOGIN, UUID.randomUUID(), user.getUserName())
+						.withLifeTime(Instant.now(), Instant.now()).build());
+		when(storage.getUser(user.getUserName())).thenReturn(user, (AuthUser) null);
+		
+		assertThat("incorrect user", auth.getUser(token), is(user));
+		assertThat("incorrect user", auth.getUser(token), is(user));
+		
+		verify(storage).getUser(user.getUserName());
+	}
+	
+	@Test
+	public void getUserSingleStorageRequest() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		
+		final IncomingToken token = new IncomingToken("foobar");
+		final AuthUser user = AuthUser.getBuilder(
+				new UserName("whee"), new DisplayName("foo"), Instant.now()).build();
+		
+		// don't use when() as that would call the default answer set up in initTestMocks
+		doReturn(new TokenAndUser(
+				StoredToken.getBuilder(TokenType.LOGIN, UUID.randomUUID(), user.getUserName())
+						.withLifeTime(Instant.now(), Instant.now()).build(),
+				user))
+				.when(storage).getTokenAndUser(token.getHashedToken());
+		
+		assertThat("incorrect user", auth.getUser(token), is(user));
+		
+		verify(storage, never()).getToken(any());
+		verify(storage, never()).getUser(any(UserName.class));
+	}
+	
+	@Test
+	public void getUserCacheInvalidatedOnUpdate() throws Exception {
+		final TestMocks testauth = initTestMocks(AuthenticationOptions.getBuilder()
+				.withUserCache(new UserCache(10, 60000)).build());
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		
+		final IncomingToken token = new IncomingToken("foobar");
+		final AuthUser user = AuthUser.getBuilder(
+				new UserName("whee"), new DisplayName("foo"), Instant.now()).build();
+		final AuthUser updated = AuthUser.getBuilder(
+				new UserName("whee"), new DisplayName("bar"), Instant.now()).build();
+		
+		when(storage.getToken(token.getHashedToken())).thenReturn(
+				StoredToken.getBuilder(TokenType.LOGIN, UUID.randomUUID(), user.getUserName())
+						.withLifeTime(Instant.now(), Instant.now()).build());
+		when(storage.getUser(user.getUserName())).thenReturn(user, updated);
+		
+		assertThat("incorrect user", auth.getUser(token), is(user));
+		auth.updateUser(token, UserUpdate.getBuilder()
+				.withDisplayName(new DisplayName("bar")).build());
+		assertThat("incorrect user", auth.getUser(token), is(updated));
+	}
+	
 	@Test
 	public void getUserFailNull() throws Exception {
 		final Authentication auth = initTestMocks().auth;
@@ -361,6 +439,31 @@ public class AuthenticationGetUserTest {
 		getUserAsAdmin(admin, user);
 	}
 	
+	@Test
+	public void getUserAsAdminChecksRolesWithoutFullAdmin() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		
+		final IncomingToken t = new IncomingToken("foobarbaz");
+		final AuthUser user = AuthUser.getBuilder(
+				new UserName("foo"), new DisplayName("baz"), Instant.now()).build();
+		
+		// don't use when() as that would call the default answer set up in initTestMocks
+		doReturn(new TokenAndUserAuthInfo(
+				new TokenAuthInfo(UUID.randomUUID(), TokenType.LOGIN, new UserName("admin"),
+						Instant.now()),
+				new UserAuthInfo(new UserName("admin"), set(Role.ADMIN), false)))
+				.when(storage).getTokenAndUserAuthInfo(t.getHashedToken());
+		when(storage.getUser(user.getUserName())).thenReturn(user);
+		
+		assertThat("incorrect user", auth.getUserAsAdmin(t, user.getUserName()), is(user));
+		
+		verify(storage, never()).getTokenAndUser(any());
+		verify(storage, never()).getToken(any());
+		verify(storage, never()).getUser(new UserName("admin"));
+	}
+	
 	@Test
 	public void getUserAsAdminExecuteStandardUserCheckingTests() throws Exception {
 		final IncomingToken token = new IncomingToken("foo");
@@ -0,0 +1,79 @@
+package us.kbase.test.auth2.lib;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import us.kbase.auth2.cryptutils.PasswordHashParameters;
+import us.kbase.auth2.lib.AuthenticationOptions;
+import us.kbase.auth2.lib.AuthenticationOptions.Builder;
+import us.kbase.auth2.lib.LoginThrottle;
+import us.kbase.auth2.lib.token.TokenCache;
+import us.kbase.auth2.lib.token.TokenSigner;
+import us.kbase.auth2.lib.user.UserCache;
+import us.kbase.test.auth2.TestCommon;
+
+public class AuthenticationOptionsTest {
+
+	@Test
+	public void buildMinimal() throws Exception {
+		final AuthenticationOptions o = AuthenticationOptions.getBuilder().build();
+		assertThat("incorrect token cache", o.getTokenCache().isEnabled(), is(false));
+		assertThat("incorrect user cache", o.getUserCache().isEnabled(), is(false));
+		assertThat("incorrect display name cache", o.getUserCache().isDisplayNameCacheEnabled(),
+				is(false));
+		assertThat("incorrect signer", o.getTokenSigner(), is(Optional.absent()));
+		assertThat("incorrect hash params", o.getPasswordHashParameters(),
+				is(PasswordHashParameters.ORIGINAL));
+		assertThat("incorrect throttle", o.getLoginThrottle().isEnabled(), is(false));
+	}
+
+	@Test
+	public void buildMaximal() throws Exception {
+		final TokenCache tc = new TokenCache(10, 10000);
+		final UserCache uc = new UserCache(10, 10000);
+		final TokenSigner ts = new TokenSigner(
+				"a signing key that is at least 32 bytes".getBytes());
+		final PasswordHashParameters php = new PasswordHashParameters(
+				"PBKDF2WithHmacSHA256", 40000, 256);
+		final LoginThrottle lt = new LoginThrottle(2, 2, 10000);
+
+		final AuthenticationOptions o = AuthenticationOptions.getBuilder()
+				.withTokenCache(tc)
+				.withUserCache(uc)
+				.withTokenSigner(Optional.of(ts))
+				.withPasswordHashParameters(php)
+				.withLoginThrottle(lt)
+				.build();
+		assertThat("incorrect token cache", o.getTokenCache(), sameInstance(tc));
+		assertThat("incorrect user cache", o.getUserCache(), sameInstance(uc));
+		assertThat("incorrect signer", o.getTokenSigner().get(), sameInstance(ts));
+		assertThat("incorrect hash params", o.getPasswordHashParameters(), is(php));
+		assertThat("incorrect throttle", o.getLoginThrottle(), sameInstance(lt));
+	}
+
+	@Test
+	public void buildFail() throws Exception {
+		final Builder b = AuthenticationOptions.getBuilder();
+		failBuild(() -> b.withTokenCache(null), new NullPointerException("tokenCache"));
+		failBuild(() -> b.withUserCache(null), new NullPointerException("userCache"));
+		failBuild(() -> b.withTokenSigner(null), new NullPointerException("tokenSigner"));
+		failBuild(() -> b.withPasswordHashParameters(null),
+				new NullPointerException("passwordHashParameters"));
+		failBuild(() -> b.withLoginThrottle(null), new NullPointerException("loginThrottle"));
+	}
+
+	private void failBuild(final Runnable build, final Exception expected) {
+		try {
+			build.run();
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+}
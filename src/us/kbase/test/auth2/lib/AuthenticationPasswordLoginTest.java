@@ -8,6 +8,7 @@ import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.isA;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -16,6 +17,7 @@ import static us.kbase.test.auth2.TestCommon.set;
 import static us.kbase.test.auth2.lib.AuthenticationTester.assertLogEventsCorrect;
 import static us.kbase.test.auth2.lib.AuthenticationTester.initTestMocks;
 
+import java.net.InetAddress;
 import java.time.Clock;
 import java.time.Instant;
 import java.util.Arrays;
@@ -28,16 +30,22 @@ import java.util.UUID;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.google.common.base.Optional;
 
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.spi.ILoggingEvent;
+import us.kbase.auth2.cryptutils.PasswordCrypt;
+import us.kbase.auth2.cryptutils.PasswordHashParameters;
 import us.kbase.auth2.cryptutils.RandomDataGenerator;
 import us.kbase.auth2.lib.Authentication;
+import us.kbase.auth2.lib.AuthenticationOptions;
 import us.kbase.auth2.lib.DisplayName;
 import us.kbase.auth2.lib.EmailAddress;
 import us.kbase.auth2.lib.LocalLoginResult;
+import us.kbase.auth2.lib.LoginThrottle;
 import us.kbase.auth2.lib.Password;
 import us.kbase.auth2.lib.PasswordHashAndSalt;
 import us.kbase.auth2.lib.Role;
@@ -51,6 +59,7 @@ import us.kbase.auth2.lib.config.CollectingExternalConfig.CollectingExternalConf
 import us.kbase.auth2.lib.exceptions.DisabledUserException;
 import us.kbase.auth2.lib.exceptions.ErrorType;
 import us.kbase.auth2.lib.exceptions.IllegalPasswordException;
+import us.kbase.auth2.lib.exceptions.LoginThrottledException;
 import us.kbase.auth2.lib.exceptions.NoSuchLocalUserException;
 import us.kbase.auth2.lib.exceptions.NoSuchUserException;
 import us.kbase.auth2.lib.exceptions.PasswordMismatchException;
@@ -411,6 +420,297 @@ public class AuthenticationPasswordLoginTest {
 		assertClear(salt);
 	}
 
+	@Test
+	public void loginRehashWeakerPassword() throws Exception {
+		final PasswordHashParameters stronger = new PasswordHashParameters(
+				PasswordHashParameters.PBKDF2_SHA256, 30000, 256);
+		loginRehash(PasswordHashParameters.ORIGINAL, stronger, true, null,
+				new LogEvent(Level.INFO, "Rehashed password for local user foo",
+						Authentication.class));
+	}
+	
+	@Test
+	public void loginRehashDifferentAlgorithm() throws Exception {
+		final PasswordHashParameters sha512 = new PasswordHashParameters(
+				"PBKDF2WithHmacSHA512", 10000, 512);
+		loginRehash(PasswordHashParameters.ORIGINAL, sha512, true, null,
+				new LogEvent(Level.INFO, "Rehashed password for local user foo",
+						Authentication.class));
+	}
+	
+	@Test
+	public void loginRehashConcurrentChange() throws Exception {
+		// the password was changed between reading and replacing the hash
+		final PasswordHashParameters stronger = new PasswordHashParameters(
+				PasswordHashParameters.PBKDF2_SHA256, 30000, 256);
+		loginRehash(PasswordHashParameters.ORIGINAL, stronger, false, null);
+	}
+	
+	@Test
+	public void loginRehashFailStorage() throws Exception {
+		final PasswordHashParameters stronger = new PasswordHashParameters(
+				PasswordHashParameters.PBKDF2_SHA256, 30000, 256);
+		loginRehash(PasswordHashParameters.ORIGINAL, stronger, false,
+				new AuthStorageException("whoops"),
+				new LogEvent(Level.WARN, "Failed to rehash password for local user foo: whoops",
+						Authentication.class));
+	}
+	
+	@Test
+	public void loginNoRehashStrongerPassword() throws Exception {
+		final PasswordHashParameters stronger = new PasswordHashParameters(
+				PasswordHashParameters.PBKDF2_SHA256, 30000, 256);
+		loginRehash(stronger, PasswordHashParameters.ORIGINAL, false, null);
+	}
+	
+	@Test
+	public void loginNoRehashEqualPassword() throws Exception {
+		final PasswordHashParameters params = new PasswordHashParameters(
+				PasswordHashParameters.PBKDF2_SHA256, 30000, 256);
+		loginRehash(params, params, false, null);
+	}
+	
+	private void loginRehash(
+			final PasswordHashParameters stored,
+			final PasswordHashParameters current,
+			final boolean replaced,
+			final AuthStorageException replaceException,
+			final LogEvent... rehashLogEvents)
+			throws Exception {
+		final TestMocks testauth = initTestMocks(AuthenticationOptions.getBuilder()
+				.withPasswordHashParameters(current).build());
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		final RandomDataGenerator rand = testauth.randGenMock;
+		final Clock clock = testauth.clockMock;
+		
+		AuthenticationTester.setConfigUpdateInterval(auth, 0);
+		
+		final char[] pwd = "foobarbazbat".toCharArray();
+		final Password p = new Password(Arrays.copyOf(pwd, pwd.length));
+		final byte[] salt = new byte[] {1, 2, 3, 4, 5, 6, 7, 8};
+		final byte[] hash = new PasswordCrypt(stored).getEncryptedPassword(pwd, salt);
+		// the stored hash and salt are cleared by the login
+		final byte[] expectedHash = hash.clone();
+		final byte[] expectedSalt = salt.clone();
+		final byte[] newSalt = new byte[] {8, 7, 6, 5, 4, 3, 2, 1};
+		final byte[] newHash = new PasswordCrypt(current).getEncryptedPassword(pwd, newSalt);
+		final UUID id = UUID.randomUUID();
+		
+		when(storage.getPasswordHashAndSalt(new UserName("foo"))).thenReturn(
+				new PasswordHashAndSalt(hash, salt, stored));
+		
+		when(storage.getLocalUser(new UserName("foo"))).thenReturn(LocalUser.getLocalUserBuilder(
+				new UserName("foo"), new DisplayName("bar"), Instant.now()).build());
+		
+		when(storage.getConfig(isA(CollectingExternalConfigMapper.class))).thenReturn(
+				new AuthConfigSet<>(new AuthConfig(true, null, null),
+						new CollectingExternalConfig(new HashMap<>())));
+		
+		when(rand.generateSalt()).thenReturn(Arrays.copyOf(newSalt, newSalt.length),
+				(byte[]) null);
+		
+		when(rand.randomUUID()).thenReturn(UUID.fromString(id.toString()), (UUID) null);
+		
+		when(rand.getToken()).thenReturn("this is a token");
+		
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(4000), Instant.ofEpochMilli(6000),
+				null);
+		
+		final ReplacePasswordHashAnswer answer = new ReplacePasswordHashAnswer(
+				replaced, replaceException);
+		doAnswer(answer).when(storage).replacePasswordHash(
+				eq(new UserName("foo")), any(PasswordHashAndSalt.class),
+				any(PasswordHashAndSalt.class));
+		
+		final LocalLoginResult t = auth.localLogin(new UserName("foo"), p, CTX);
+		
+		if (stored.isWeakerThan(current)) {
+			assertThat("incorrect old hash", answer.oldHash, is(expectedHash));
+			assertThat("incorrect old salt", answer.oldSalt, is(expectedSalt));
+			assertThat("incorrect old params", answer.oldParams, is(stored));
+			assertThat("incorrect new hash", answer.newHash, is(newHash));
+			assertThat("incorrect new salt", answer.newSalt, is(newSalt));
+			assertThat("incorrect new params", answer.newParams, is(current));
+		} else {
+			assertThat("unexpected rehash", answer.newHash, is((byte[]) null));
+		}
+		
+		assertClear(p);
+		assertClear(hash);
+		assertClear(salt);
+		assertThat("incorrect token", t.getToken().isPresent(), is(true));
+		
+		final LogEvent login = new LogEvent(Level.INFO, "Logged in user foo with token " + id,
+				Authentication.class);
+		final LogEvent[] expected = Arrays.copyOf(rehashLogEvents, rehashLogEvents.length + 1);
+		expected[rehashLogEvents.length] = login;
+		assertLogEventsCorrect(logEvents, expected);
+	}
+	
+	private static class ReplacePasswordHashAnswer implements Answer<Boolean> {
+		
+		private final boolean replaced;
+		private final AuthStorageException exception;
+		private byte[] oldHash;
+		private byte[] oldSalt;
+		private PasswordHashParameters oldParams;
+		private byte[] newHash;
+		private byte[] newSalt;
+		private PasswordHashParameters newParams;
+		
+		private ReplacePasswordHashAnswer(
+				final boolean replaced,
+				final AuthStorageException exception) {
+			this.replaced = replaced;
+			this.exception = exception;
+		}
+		
+		@Override
+		public Boolean answer(final InvocationOnMock args) throws Throwable {
+			// copy the arrays, since they're cleared after the call
+			final PasswordHashAndSalt oldCreds = args.getArgument(1);
+			final PasswordHashAndSalt newCreds = args.getArgument(2);
+			oldHash = oldCreds.getPasswordHash().clone();
+			oldSalt = oldCreds.getSalt().clone();
+			oldParams = oldCreds.getParameters();
+			newHash = newCreds.getPasswordHash().clone();
+			newSalt = newCreds.getSalt().clone();
+			newParams = newCreds.getParameters();
+			if (exception != null) {
+				throw exception;
+			}
+			return replaced;
+		}
+	}
+
+	@Test
+	public void loginThrottledUser() throws Exception {
+		final TestMocks testauth = initTestMocks(AuthenticationOptions.getBuilder()
+				.withLoginThrottle(new LoginThrottle(2, 0, 10000)).build());
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		
+		AuthenticationTester.setConfigUpdateInterval(auth, 0);
+		
+		final byte[] hash = AuthenticationTester.fromBase64(
+				"M0D2KmSM5CoOHojYgbbKQy1UrkLskxrQnWxcaRf3/hs=");
+		
+		// the creds are cleared after each login
+		when(storage.getPasswordHashAndSalt(new UserName("foo"))).thenAnswer(
+				inv -> new PasswordHashAndSalt(hash.clone(), new byte[] {1, 2, 3, 4, 5, 6, 7, 8}));
+		when(storage.getPasswordHashAndSalt(new UserName("bar")))
+				.thenThrow(new NoSuchLocalUserException("bar"));
+		
+		final Password p1 = new Password("foobarbazbatch".toCharArray());
+		failLogin(auth, new UserName("foo"), p1, CTX, new PasswordMismatchException("foo"));
+		failLogin(auth, new UserName("foo"), new Password("foobarbazbatch".toCharArray()), CTX,
+				new PasswordMismatchException("foo"));
+		final Password p3 = new Password("foobarbazbat".toCharArray()); // correct password
+		failLogin(auth, new UserName("foo"), p3, CTX, new LoginThrottledException(
+				"Too many failed logins for user foo, try again in 1 second"));
+		assertClear(p1);
+		assertClear(p3);
+		verify(storage, times(2)).getPasswordHashAndSalt(new UserName("foo"));
+		
+		// non-existent users are throttled the same way
+		failLogin(auth, new UserName("bar"), new Password("foobarbazbatch".toCharArray()), CTX,
+				new PasswordMismatchException("bar"));
+		failLogin(auth, new UserName("bar"), new Password("foobarbazbatch".toCharArray()), CTX,
+				new PasswordMismatchException("bar"));
+		failLogin(auth, new UserName("bar"), new Password("foobarbazbatch".toCharArray()), CTX,
+				new LoginThrottledException(
+						"Too many failed logins for user bar, try again in 1 second"));
+		verify(storage, times(2)).getPasswordHashAndSalt(new UserName("bar"));
+		assertThat("incorrect throttled count", auth.getLoginThrottle().getThrottledCount(),
+				is(2L));
+	}
+	
+	@Test
+	public void loginThrottledAddress() throws Exception {
+		final TestMocks testauth = initTestMocks(AuthenticationOptions.getBuilder()
+				.withLoginThrottle(new LoginThrottle(0, 1, 10000)).build());
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		
+		AuthenticationTester.setConfigUpdateInterval(auth, 0);
+		
+		when(storage.getPasswordHashAndSalt(new UserName("foo")))
+				.thenThrow(new NoSuchLocalUserException("foo"));
+		
+		final TokenCreationContext ctx = TokenCreationContext.getBuilder()
+				.withIpAddress(InetAddress.getByName("10.0.0.1")).build();
+		final TokenCreationContext ctx2 = TokenCreationContext.getBuilder()
+				.withIpAddress(InetAddress.getByName("10.0.0.2")).build();
+		
+		failLogin(auth, new UserName("foo"), new Password("foobarbazbatch".toCharArray()), ctx,
+				new PasswordMismatchException("foo"));
+		failLogin(auth, new UserName("bar"), new Password("foobarbazbatch".toCharArray()), ctx,
+				new LoginThrottledException(
+						"Too many failed logins from this address, try again in 1 second"));
+		failLogin(auth, new UserName("foo"), new Password("foobarbazbatch".toCharArray()), ctx2,
+				new PasswordMismatchException("foo"));
+		verify(storage, times(2)).getPasswordHashAndSalt(new UserName("foo"));
+	}
+	
+	@Test
+	public void loginSuccessClearsThrottle() throws Exception {
+		final TestMocks testauth = initTestMocks(AuthenticationOptions.getBuilder()
+				.withLoginThrottle(new LoginThrottle(2, 0, 10000)).build());
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		final RandomDataGenerator rand = testauth.randGenMock;
+		final Clock clock = testauth.clockMock;
+		
+		AuthenticationTester.setConfigUpdateInterval(auth, 0);
+		
+		final byte[] hash = AuthenticationTester.fromBase64(
+				"M0D2KmSM5CoOHojYgbbKQy1UrkLskxrQnWxcaRf3/hs=");
+		
+		when(storage.getPasswordHashAndSalt(new UserName("foo"))).thenAnswer(
+				inv -> new PasswordHashAndSalt(hash.clone(), new byte[] {1, 2, 3, 4, 5, 6, 7, 8}));
+		when(storage.getLocalUser(new UserName("foo"))).thenReturn(LocalUser.getLocalUserBuilder(
+				new UserName("foo"), new DisplayName("bar"), Instant.now()).build());
+		when(storage.getConfig(isA(CollectingExternalConfigMapper.class))).thenReturn(
+				new AuthConfigSet<>(new AuthConfig(true, null, null),
+						new CollectingExternalConfig(new HashMap<>())));
+		when(rand.randomUUID()).thenReturn(UUID.randomUUID(), (UUID) null);
+		when(rand.getToken()).thenReturn("this is a token");
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(4000), Instant.ofEpochMilli(6000),
+				null);
+		
+		failLogin(auth, new UserName("foo"), new Password("foobarbazbatch".toCharArray()), CTX,
+				new PasswordMismatchException("foo"));
+		auth.localLogin(new UserName("foo"), new Password("foobarbazbat".toCharArray()), CTX);
+		failLogin(auth, new UserName("foo"), new Password("foobarbazbatch".toCharArray()), CTX,
+				new PasswordMismatchException("foo"));
+	}
+	
+	@Test
+	public void changePasswordThrottled() throws Exception {
+		final TestMocks testauth = initTestMocks(AuthenticationOptions.getBuilder()
+				.withLoginThrottle(new LoginThrottle(1, 0, 10000)).build());
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		
+		AuthenticationTester.setConfigUpdateInterval(auth, 0);
+		
+		when(storage.getPasswordHashAndSalt(new UserName("foo")))
+				.thenThrow(new NoSuchLocalUserException("foo"));
+		
+		failChangePassword(auth, new UserName("foo"),
+				new Password("foobarbazbatch".toCharArray()),
+				new Password("foobarbazbatchnew".toCharArray()),
+				new PasswordMismatchException("foo"));
+		final Password pwdold = new Password("foobarbazbatch".toCharArray());
+		final Password pwdnew = new Password("foobarbazbatchnew".toCharArray());
+		failChangePassword(auth, new UserName("foo"), pwdold, pwdnew, new LoginThrottledException(
+				"Too many failed logins for user foo, try again in 1 second"));
+		assertClear(pwdold);
+		assertClear(pwdnew);
+		verify(storage, times(1)).getPasswordHashAndSalt(new UserName("foo"));
+	}
+	
 	private void failLogin(
 			final Authentication auth,
 			final UserName userName,
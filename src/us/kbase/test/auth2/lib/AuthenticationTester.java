@@ -3,6 +3,7 @@ package us.kbase.test.auth2.lib;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.isA;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.reset;
@@ -36,6 +37,7 @@ import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.AppenderBase;
 import us.kbase.auth2.cryptutils.RandomDataGenerator;
 import us.kbase.auth2.lib.Authentication;
+import us.kbase.auth2.lib.AuthenticationOptions;
 import us.kbase.auth2.lib.DisplayName;
 import us.kbase.auth2.lib.PasswordHashAndSalt;
 import us.kbase.auth2.lib.Role;
@@ -57,8 +59,11 @@ import us.kbase.auth2.lib.config.CollectingExternalConfig.CollectingExternalConf
 import us.kbase.auth2.lib.config.ConfigAction.Action;
 import us.kbase.auth2.lib.config.ConfigItem;
 import us.kbase.auth2.lib.storage.AuthStorage;
+import us.kbase.auth2.lib.token.IncomingHashedToken;
 import us.kbase.auth2.lib.token.IncomingToken;
 import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenAndUser;
+import us.kbase.auth2.lib.token.TokenAndUserAuthInfo;
 import us.kbase.auth2.lib.token.TokenType;
 import us.kbase.auth2.lib.user.AuthUser;
 import us.kbase.auth2.lib.user.AuthUser.Builder;
@@ -94,6 +99,17 @@ public class AuthenticationTester {
 	}
 	
 	public static TestMocks initTestMocks(final Set<IdentityProvider> providers) throws Exception {
+		return initTestMocks(providers, AuthenticationOptions.getBuilder().build());
+	}
+	
+	public static TestMocks initTestMocks(final AuthenticationOptions options) throws Exception {
+		return initTestMocks(Collections.emptySet(), options);
+	}
+	
+	public static TestMocks initTestMocks(
+			final Set<IdentityProvider> providers,
+			final AuthenticationOptions options)
+			throws Exception {
 		final AuthStorage storage = mock(AuthStorage.class);
 		final RandomDataGenerator randGen = mock(RandomDataGenerator.class);
 		final Clock clock = mock(Clock.class);
@@ -105,12 +121,30 @@ public class AuthenticationTester {
 						ImmutableMap.of("thing", ConfigItem.state("foo")))));
 		
 		final Constructor<Authentication> c = Authentication.class.getDeclaredConstructor(
-				AuthStorage.class, Set.class, ExternalConfig.class,
+				AuthStorage.class, Set.class, ExternalConfig.class, AuthenticationOptions.class,
 				RandomDataGenerator.class, Clock.class);
 		c.setAccessible(true);
-		final Authentication instance = c.newInstance(storage, providers,
-				TEST_EXTERNAL_CONFIG, randGen, clock);
+		final Authentication instance = c.newInstance(storage, providers, TEST_EXTERNAL_CONFIG,
+				options, randGen, clock);
 		reset(storage);
+		/* the combined token and user lookup is equivalent to looking up the token and then the
+		 * user, so delegate to the individual lookups by default. This allows tests to mock
+		 * tokens and users independently.
+		 */
+		when(storage.getTokenAndUser(any(IncomingHashedToken.class))).thenAnswer(inv -> {
+			final StoredToken st = storage.getToken(inv.getArgument(0));
+			return new TokenAndUser(st, storage.getUser(st.getUserName()));
+		});
+		// the same applies to the lookups of the subsets of the token and user fields
+		when(storage.getTokenAuthInfo(any(IncomingHashedToken.class))).thenAnswer(
+				inv -> storage.getToken(inv.getArgument(0)).getAuthInfo());
+		when(storage.getUserAuthInfo(any(UserName.class))).thenAnswer(
+				inv -> storage.getUser((UserName) inv.getArgument(0)).getAuthInfo());
+		when(storage.getTokenAndUserAuthInfo(any(IncomingHashedToken.class))).thenAnswer(inv -> {
+			final TokenAndUser tu = storage.getTokenAndUser(inv.getArgument(0));
+			return new TokenAndUserAuthInfo(
+					tu.getToken().getAuthInfo(), tu.getUser().getAuthInfo());
+		});
 		return new TestMocks(storage, randGen, instance, clock);
 	}
 	
@@ -358,7 +392,9 @@ public class AuthenticationTester {
 				StoredToken.getBuilder(type, UUID.randomUUID(), new UserName("f"))
 						.withLifeTime(Instant.now(), 0).build())
 				.thenReturn(null);
-
+		
+		when(storage.getUser(new UserName("f"))).thenReturn(AuthUser.getBuilder(
+				new UserName("f"), new DisplayName("f"), Instant.now()).build());
 		
 		final String tokenName = type.getDescription();
 		failExecute(ao, auth, "bad token type test: " + tokenName, new UnauthorizedException(
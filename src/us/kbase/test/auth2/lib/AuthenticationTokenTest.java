@@ -3,10 +3,14 @@ package us.kbase.test.auth2.lib;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.isA;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -16,22 +20,29 @@ import static us.kbase.test.auth2.lib.AuthenticationTester.assertLogEventsCorrec
 
 import java.time.Clock;
 import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
 
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
 
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import us.kbase.auth2.cryptutils.RandomDataGenerator;
 import us.kbase.auth2.lib.Authentication;
+import us.kbase.auth2.lib.AuthenticationOptions;
 import us.kbase.auth2.lib.DisplayName;
 import us.kbase.auth2.lib.EmailAddress;
 import us.kbase.auth2.lib.Role;
@@ -43,14 +54,23 @@ import us.kbase.auth2.lib.config.CollectingExternalConfig;
 import us.kbase.auth2.lib.config.AuthConfig.TokenLifetimeType;
 import us.kbase.auth2.lib.config.CollectingExternalConfig.CollectingExternalConfigMapper;
 import us.kbase.auth2.lib.exceptions.ErrorType;
+import us.kbase.auth2.lib.exceptions.IllegalParameterException;
+import us.kbase.auth2.lib.exceptions.InvalidTokenException;
 import us.kbase.auth2.lib.exceptions.NoSuchTokenException;
 import us.kbase.auth2.lib.exceptions.UnauthorizedException;
 import us.kbase.auth2.lib.storage.AuthStorage;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
 import us.kbase.auth2.lib.token.IncomingToken;
 import us.kbase.auth2.lib.token.NewToken;
+import us.kbase.auth2.lib.token.SignedToken;
 import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenAuthInfo;
+import us.kbase.auth2.lib.token.TokenCache;
 import us.kbase.auth2.lib.token.TokenName;
+import us.kbase.auth2.lib.token.TokenRevocation;
+import us.kbase.auth2.lib.token.TokenRevocations;
 import us.kbase.auth2.lib.token.TokenSet;
+import us.kbase.auth2.lib.token.TokenSigner;
 import us.kbase.auth2.lib.token.TokenType;
 import us.kbase.auth2.lib.user.AuthUser;
 import us.kbase.test.auth2.TestCommon;
@@ -115,6 +135,79 @@ public class AuthenticationTokenTest {
 				"User foo accessed DEV token " + id, Authentication.class));
 	}
 	
+	@Test
+	public void getTokenCached() throws Exception {
+		final TestMocks testauth = initTestMocks(AuthenticationOptions.getBuilder()
+				.withTokenCache(new TokenCache(10, 60000)).build());
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		
+		final IncomingToken t = new IncomingToken("foobar");
+		
+		final Instant now = Instant.now();
+		final UUID id = UUID.randomUUID();
+		final StoredToken expected = StoredToken.getBuilder(
+				TokenType.DEV, id, new UserName("foo"))
+				.withLifeTime(now, now.plusSeconds(3600)).build();
+		
+		when(storage.getToken(t.getHashedToken())).thenReturn(expected, (StoredToken) null);
+		
+		assertThat("incorrect token", auth.getToken(t), is(expected));
+		assertThat("incorrect token", auth.getToken(t), is(expected));
+		
+		verify(storage).getToken(t.getHashedToken());
+	}
+	
+	@Test
+	public void getTokenCacheInvalidatedOnRevoke() throws Exception {
+		final TestMocks testauth = initTestMocks(AuthenticationOptions.getBuilder()
+				.withTokenCache(new TokenCache(10, 60000)).build());
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		
+		final IncomingToken t = new IncomingToken("foobar");
+		
+		final Instant now = Instant.now();
+		final UUID id = UUID.randomUUID();
+		final StoredToken st = StoredToken.getBuilder(
+				TokenType.LOGIN, id, new UserName("foo"))
+				.withLifeTime(now, now.plusSeconds(3600)).build();
+		
+		when(storage.getToken(t.getHashedToken())).thenReturn(st)
+				.thenThrow(new NoSuchTokenException("foo"));
+		
+		auth.getToken(t);
+		auth.revokeTokens(t); // served from the cache
+		
+		verify(storage).deleteTokens(new UserName("foo"));
+		failGetToken(auth, t, new InvalidTokenException());
+	}
+	
+	@Test
+	public void getTokenCacheInvalidatedOnRevokeSelf() throws Exception {
+		final TestMocks testauth = initTestMocks(AuthenticationOptions.getBuilder()
+				.withTokenCache(new TokenCache(10, 60000)).build());
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		
+		final IncomingToken t = new IncomingToken("foobar");
+		
+		final Instant now = Instant.now();
+		final UUID id = UUID.randomUUID();
+		final StoredToken st = StoredToken.getBuilder(
+				TokenType.LOGIN, id, new UserName("foo"))
+				.withLifeTime(now, now.plusSeconds(3600)).build();
+		
+		when(storage.getToken(t.getHashedToken())).thenReturn(st, st)
+				.thenThrow(new NoSuchTokenException("foo"));
+		
+		auth.getToken(t);
+		auth.revokeToken(t);
+		
+		verify(storage).deleteToken(new UserName("foo"), id);
+		failGetToken(auth, t, new InvalidTokenException());
+	}
+	
 	@Test
 	public void getTokenFailNull() throws Exception {
 		final Authentication auth = initTestMocks().auth;
@@ -160,6 +253,97 @@ public class AuthenticationTokenTest {
 		}
 	}
 	
+	@Test
+	public void getTokenBatch() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		
+		final IncomingToken t1 = new IncomingToken("foobar");
+		final IncomingToken t2 = new IncomingToken("foobaz");
+		
+		final Instant now = Instant.now();
+		final UUID id = UUID.randomUUID();
+		final StoredToken st = StoredToken.getBuilder(
+				TokenType.DEV, id, new UserName("foo")).withLifeTime(now, now).build();
+		
+		when(storage.getTokens(set(t1.getHashedToken(), t2.getHashedToken())))
+				.thenReturn(ImmutableMap.of(t1.getHashedToken(), st));
+		
+		assertThat("incorrect tokens", auth.getTokens(set(t1, t2)),
+				is(ImmutableMap.of(t1, st)));
+		
+		assertLogEventsCorrect(logEvents, new LogEvent(Level.INFO, 
+				"User foo accessed DEV token " + id, Authentication.class));
+	}
+	
+	@Test
+	public void getTokenBatchCached() throws Exception {
+		final TestMocks testauth = initTestMocks(AuthenticationOptions.getBuilder()
+				.withTokenCache(new TokenCache(10, 60000)).build());
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		
+		final IncomingToken t1 = new IncomingToken("foobar");
+		final IncomingToken t2 = new IncomingToken("foobaz");
+		
+		final Instant now = Instant.now();
+		final StoredToken st1 = StoredToken.getBuilder(
+				TokenType.DEV, UUID.randomUUID(), new UserName("foo"))
+				.withLifeTime(now, now.plusSeconds(3600)).build();
+		final StoredToken st2 = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("bar"))
+				.withLifeTime(now, now.plusSeconds(3600)).build();
+		
+		when(storage.getToken(t1.getHashedToken())).thenReturn(st1);
+		when(storage.getTokens(set(t2.getHashedToken())))
+				.thenReturn(ImmutableMap.of(t2.getHashedToken(), st2));
+		
+		auth.getToken(t1);
+		assertThat("incorrect tokens", auth.getTokens(set(t1, t2)),
+				is(ImmutableMap.of(t1, st1, t2, st2)));
+		
+		verify(storage).getTokens(set(t2.getHashedToken()));
+	}
+	
+	@Test
+	public void getTokenBatchEmpty() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		
+		when(storage.getTokens(set())).thenReturn(new HashMap<>());
+		
+		assertThat("incorrect tokens", auth.getTokens(set()), is(new HashMap<>()));
+	}
+	
+	@Test
+	public void getTokenBatchFail() throws Exception {
+		final Authentication auth = initTestMocks().auth;
+		failGetTokenBatch(auth, null, new NullPointerException("tokens"));
+		failGetTokenBatch(auth, set(new IncomingToken("foo"), null),
+				new NullPointerException("Null token in tokens"));
+		
+		final Set<IncomingToken> tokens = new HashSet<>();
+		for (int i = 0; i < 1001; i++) {
+			tokens.add(new IncomingToken("foo" + i));
+		}
+		failGetTokenBatch(auth, tokens, new IllegalParameterException(
+				"Token count exceeds maximum of 1000"));
+	}
+	
+	private void failGetTokenBatch(
+			final Authentication auth,
+			final Set<IncomingToken> tokens,
+			final Exception e) {
+		try {
+			auth.getTokens(tokens);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+	
 	@Test
 	public void getTokens() throws Exception {
 		final TestMocks testauth = initTestMocks();
@@ -466,6 +650,30 @@ public class AuthenticationTokenTest {
 				"User foo revoked token " + id, Authentication.class));
 	}
 	
+	@Test
+	public void revokeTokenChecksTokenWithoutFullToken() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		
+		final IncomingToken t = new IncomingToken("foobar");
+		
+		final UUID target = UUID.randomUUID();
+		final UUID id = UUID.randomUUID();
+		
+		// don't use when() as that would call the default answer set up in initTestMocks
+		doReturn(new TokenAuthInfo(id, TokenType.LOGIN, new UserName("foo"), Instant.now()))
+				.when(storage).getTokenAuthInfo(t.getHashedToken());
+		
+		auth.revokeToken(t, target);
+		
+		verify(storage).deleteToken(new UserName("foo"), target);
+		verify(storage, never()).getToken(any());
+		
+		assertLogEventsCorrect(logEvents, new LogEvent(Level.INFO,
+				"User foo revoked token " + id, Authentication.class));
+	}
+	
 	@Test
 	public void revokeTokenExecuteStandardTokenCheckingTests() throws Exception {
 		final IncomingToken token = new IncomingToken("foo");
@@ -594,7 +802,7 @@ public class AuthenticationTokenTest {
 		final UUID target = UUID.randomUUID();
 		
 		final StoredToken ht = StoredToken.getBuilder(
-				TokenType.LOGIN, UUID.randomUUID(), new UserName("foo"))
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("admin"))
 				.withLifeTime(Instant.now(), Instant.now()).build();
 		
 		final AuthUser admin = AuthUser.getBuilder(
@@ -604,7 +812,7 @@ public class AuthenticationTokenTest {
 		
 		when(storage.getToken(t.getHashedToken())).thenReturn(ht, (StoredToken) null);
 		
-		when(storage.getUser(new UserName("foo"))).thenReturn(admin);
+		when(storage.getUser(new UserName("admin"))).thenReturn(admin);
 		
 		doThrow(new NoSuchTokenException(target.toString()))
 				.when(storage).deleteToken(new UserName("bar"), target);
@@ -1197,4 +1405,521 @@ public class AuthenticationTokenTest {
 		}
 	}
 	
+	/* signed token tests */
+	
+	private static final TokenSigner SIGNER = new TokenSigner(
+			"a signing key that is at least 32 bytes".getBytes());
+	
+	private static TestMocks initSigningTestMocks() throws Exception {
+		return initTestMocks(AuthenticationOptions.getBuilder()
+				.withTokenSigner(Optional.of(SIGNER)).build());
+	}
+	
+	private static StoredToken signable(final UUID id, final TokenType type) throws Exception {
+		return StoredToken.getBuilder(type, id, new UserName("foo"))
+				.withLifeTime(Instant.ofEpochMilli(10000), Instant.ofEpochMilli(100000)).build();
+	}
+	
+	@Test
+	public void createTokenSigned() throws Exception {
+		final TestMocks testauth = initSigningTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		final Clock clock = testauth.clockMock;
+		final RandomDataGenerator rand = testauth.randGenMock;
+		
+		final IncomingToken t = new IncomingToken("foobar");
+		final UUID id = UUID.randomUUID();
+		when(storage.getToken(t.getHashedToken())).thenReturn(signable(
+				UUID.randomUUID(), TokenType.LOGIN));
+		when(storage.getUser(new UserName("foo"))).thenReturn(AuthUser.getBuilder(
+				new UserName("foo"), new DisplayName("bar"), Instant.now()).build());
+		when(rand.randomUUID()).thenReturn(id, (UUID) null);
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(100000), (Instant) null);
+		
+		final NewToken nt = auth.createToken(t, new TokenName("a name"), TokenType.AGENT, CTX);
+		
+		final StoredToken expected = StoredToken.getBuilder(
+				TokenType.AGENT, id, new UserName("foo"))
+				.withLifeTime(Instant.ofEpochMilli(100000), 7 * 24 * 3600 * 1000L)
+				.withTokenName(new TokenName("a name")).build();
+		assertThat("incorrect token", nt.getStoredToken(), is(expected));
+		assertThat("incorrect signed token", SIGNER.verify(nt.getToken()), is(Optional.of(
+				new SignedToken(id, new UserName("foo"), TokenType.AGENT,
+						expected.getExpirationDate()))));
+		verify(storage).storeToken(expected, IncomingToken.hash(nt.getToken()));
+		verify(rand, never()).getToken();
+	}
+	
+	@Test
+	public void getTokenSigned() throws Exception {
+		final TestMocks testauth = initSigningTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		final Clock clock = testauth.clockMock;
+		
+		final StoredToken st = signable(UUID.randomUUID(), TokenType.DEV);
+		final IncomingToken t = new IncomingToken(SIGNER.sign(st));
+		
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(15000));
+		when(storage.getRevokedTokens(Instant.EPOCH)).thenReturn(ImmutableMap.of(
+				UUID.randomUUID(), Instant.ofEpochMilli(100000)));
+		when(storage.getToken(t.getHashedToken())).thenReturn(st);
+		
+		assertThat("incorrect token", auth.getToken(t), is(st));
+		
+		// the revoked token list is not updated again until the update interval passes
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(19999));
+		assertThat("incorrect token", auth.getToken(t), is(st));
+		
+		verify(storage).getRevokedTokens(any(Instant.class));
+	}
+	
+	@Test
+	public void getTokenSignedUpdateRevoked() throws Exception {
+		final TestMocks testauth = initSigningTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		final Clock clock = testauth.clockMock;
+		
+		final StoredToken st = signable(UUID.randomUUID(), TokenType.DEV);
+		final IncomingToken t = new IncomingToken(SIGNER.sign(st));
+		
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(15000));
+		when(storage.getRevokedTokens(Instant.EPOCH)).thenReturn(new HashMap<>());
+		when(storage.getToken(t.getHashedToken())).thenReturn(st);
+		
+		auth.getToken(t);
+		
+		// the update overlaps the previous update
+		final CountDownLatch updating = new CountDownLatch(1);
+		when(storage.getRevokedTokens(Instant.ofEpochMilli(-45000))).thenAnswer(inv -> {
+			updating.await();
+			return ImmutableMap.of(st.getId(), st.getExpirationDate());
+		});
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(20000));
+		
+		// the list is updated in the background, and the current list is used meanwhile
+		assertThat("incorrect token", auth.getToken(t), is(st));
+		verify(storage, timeout(5000)).getRevokedTokens(Instant.ofEpochMilli(-45000));
+		assertThat("incorrect token", auth.getToken(t), is(st));
+		updating.countDown();
+		waitForRevokedTokensUpdate(auth, t);
+		
+		failGetToken(auth, t, new InvalidTokenException());
+	}
+	
+	// the update is complete once the token is rejected
+	private void waitForRevokedTokensUpdate(final Authentication auth, final IncomingToken t)
+			throws Exception {
+		for (int i = 0; i < 100; i++) {
+			try {
+				auth.getToken(t);
+			} catch (InvalidTokenException e) {
+				return;
+			}
+			Thread.sleep(5);
+		}
+	}
+	
+	@Test
+	public void getTokenSignedRevokedTokensTooOld() throws Exception {
+		final TestMocks testauth = initSigningTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		final Clock clock = testauth.clockMock;
+		
+		final StoredToken st = signable(UUID.randomUUID(), TokenType.DEV);
+		final IncomingToken t = new IncomingToken(SIGNER.sign(st));
+		
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(15000));
+		when(storage.getRevokedTokens(Instant.EPOCH)).thenReturn(new HashMap<>());
+		when(storage.getToken(t.getHashedToken())).thenReturn(st);
+		
+		auth.getToken(t);
+		
+		when(storage.getRevokedTokens(Instant.ofEpochMilli(-45000))).thenReturn(
+				ImmutableMap.of(st.getId(), st.getExpirationDate()));
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(80000));
+		
+		// the list is too old to use, so the request waits for the background update
+		failGetToken(auth, t, new InvalidTokenException());
+	}
+	
+	@Test
+	public void getTokenSignedFailRevokedTokensUpdate() throws Exception {
+		final TestMocks testauth = initSigningTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		final Clock clock = testauth.clockMock;
+		
+		final StoredToken st = signable(UUID.randomUUID(), TokenType.DEV);
+		final IncomingToken t = new IncomingToken(SIGNER.sign(st));
+		
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(15000));
+		when(storage.getRevokedTokens(Instant.EPOCH)).thenReturn(new HashMap<>());
+		when(storage.getToken(t.getHashedToken())).thenReturn(st);
+		
+		auth.getToken(t);
+		
+		when(storage.getRevokedTokens(Instant.ofEpochMilli(-45000))).thenThrow(
+				new AuthStorageException("whoops"));
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(20000));
+		
+		// the background update fails, and the current list is used until it's too old
+		assertThat("incorrect token", auth.getToken(t), is(st));
+		// each successful request logs the access, and each failed update logs an error
+		waitForLogEvents(3);
+		assertLogEventsCorrect(errors(), new LogEvent(Level.ERROR,
+				"Failed to refresh the revoked token list: whoops", Authentication.class));
+		
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(75000));
+		assertThat("incorrect token", auth.getToken(t), is(st));
+		waitForLogEvents(5);
+		
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(75001));
+		failGetToken(auth, t, new AuthStorageException(
+				"The revoked token list could not be updated since 1970-01-01T00:00:15Z"));
+		// don't leak log events into other tests
+		waitForLogEvents(6);
+	}
+	
+	/* waits for failed background updates of the revoked token list. An update is not
+	 * scheduled if the previous update has logged its failure but is not yet complete, so the
+	 * count may not be reached.
+	 */
+	private void waitForLogEvents(final int count) throws Exception {
+		for (int i = 0; i < 200 && logEvents.size() < count; i++) {
+			Thread.sleep(5);
+		}
+	}
+	
+	private List<ILoggingEvent> errors() {
+		return logEvents.stream().filter(e -> e.getLevel().equals(Level.ERROR))
+				.collect(Collectors.toList());
+	}
+	
+	@Test
+	public void getTokenSignedFailRevokedTokensLoad() throws Exception {
+		final TestMocks testauth = initSigningTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		
+		final IncomingToken t = new IncomingToken(SIGNER.sign(
+				signable(UUID.randomUUID(), TokenType.DEV)));
+		when(testauth.clockMock.instant()).thenReturn(Instant.ofEpochMilli(15000));
+		when(storage.getRevokedTokens(Instant.EPOCH)).thenThrow(
+				new AuthStorageException("whoops"));
+		
+		failGetToken(testauth.auth, t, new AuthStorageException("whoops"));
+		
+		verify(storage, never()).getToken(any());
+	}
+	
+	@Test
+	public void getTokenSignedFailBadSignature() throws Exception {
+		final TestMocks testauth = initSigningTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		
+		final TokenSigner other = new TokenSigner(
+				"another signing key that is at least 32 bytes".getBytes());
+		final IncomingToken t = new IncomingToken(other.sign(
+				signable(UUID.randomUUID(), TokenType.DEV)));
+		
+		failGetToken(testauth.auth, t, new InvalidTokenException());
+		
+		verify(storage, never()).getToken(any());
+		verify(storage, never()).getRevokedTokens(any());
+	}
+	
+	@Test
+	public void getTokenSignedFailExpired() throws Exception {
+		final TestMocks testauth = initSigningTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		
+		final IncomingToken t = new IncomingToken(SIGNER.sign(
+				signable(UUID.randomUUID(), TokenType.DEV)));
+		when(testauth.clockMock.instant()).thenReturn(Instant.ofEpochMilli(100001));
+		
+		failGetToken(testauth.auth, t, new InvalidTokenException());
+		
+		verify(storage, never()).getToken(any());
+	}
+	
+	@Test
+	public void getTokenSignedFailRevoked() throws Exception {
+		final TestMocks testauth = initSigningTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		
+		final StoredToken st = signable(UUID.randomUUID(), TokenType.DEV);
+		final IncomingToken t = new IncomingToken(SIGNER.sign(st));
+		when(testauth.clockMock.instant()).thenReturn(Instant.ofEpochMilli(15000));
+		when(storage.getRevokedTokens(Instant.EPOCH)).thenReturn(
+				ImmutableMap.of(st.getId(), st.getExpirationDate()));
+		
+		failGetToken(testauth.auth, t, new InvalidTokenException());
+		
+		verify(storage, never()).getToken(any());
+	}
+	
+	@Test
+	public void getTokenUnsignedWithSigner() throws Exception {
+		final TestMocks testauth = initSigningTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		
+		final IncomingToken t = new IncomingToken("foobar");
+		final StoredToken st = signable(UUID.randomUUID(), TokenType.DEV);
+		when(storage.getToken(t.getHashedToken())).thenReturn(st);
+		
+		assertThat("incorrect token", testauth.auth.getToken(t), is(st));
+		
+		verify(storage, never()).getRevokedTokens(any());
+	}
+	
+	@Test
+	public void getTokenBatchSigned() throws Exception {
+		final TestMocks testauth = initSigningTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		
+		final StoredToken st = signable(UUID.randomUUID(), TokenType.DEV);
+		final IncomingToken t1 = new IncomingToken(SIGNER.sign(st));
+		final IncomingToken t2 = new IncomingToken(SIGNER.sign(st) + "a");
+		when(testauth.clockMock.instant()).thenReturn(Instant.ofEpochMilli(15000));
+		when(storage.getRevokedTokens(Instant.EPOCH)).thenReturn(new HashMap<>());
+		when(storage.getTokens(set(t1.getHashedToken())))
+				.thenReturn(ImmutableMap.of(t1.getHashedToken(), st));
+		
+		assertThat("incorrect tokens", testauth.auth.getTokens(set(t1, t2)),
+				is(ImmutableMap.of(t1, st)));
+	}
+	
+	@Test
+	public void getUserSigned() throws Exception {
+		final TestMocks testauth = initSigningTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		
+		final IncomingToken t = new IncomingToken(SIGNER.sign(
+				signable(UUID.randomUUID(), TokenType.DEV)));
+		final AuthUser user = AuthUser.getBuilder(
+				new UserName("foo"), new DisplayName("bar"), Instant.now()).build();
+		when(testauth.clockMock.instant()).thenReturn(Instant.ofEpochMilli(15000));
+		when(storage.getRevokedTokens(Instant.EPOCH)).thenReturn(new HashMap<>());
+		when(storage.getUser(new UserName("foo"))).thenReturn(user);
+		
+		assertThat("incorrect user", testauth.auth.getUser(t), is(user));
+		
+		verify(storage, never()).getToken(any());
+		verify(storage, never()).getTokenAndUser(any());
+	}
+	
+	@Test
+	public void getUserSignedFailTokenType() throws Exception {
+		final TestMocks testauth = initSigningTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		
+		final IncomingToken t = new IncomingToken(SIGNER.sign(
+				signable(UUID.randomUUID(), TokenType.DEV)));
+		when(testauth.clockMock.instant()).thenReturn(Instant.ofEpochMilli(15000));
+		when(storage.getRevokedTokens(Instant.EPOCH)).thenReturn(new HashMap<>());
+		
+		try {
+			testauth.auth.revokeAllTokens(t);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new UnauthorizedException(
+					"Developer tokens are not allowed for this operation"));
+		}
+		verify(storage, never()).getUser(any(UserName.class));
+	}
+	
+	@Test
+	public void revokeTokenSigned() throws Exception {
+		final TestMocks testauth = initSigningTestMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Authentication auth = testauth.auth;
+		
+		final IncomingToken t = new IncomingToken("foobar");
+		final StoredToken target = signable(UUID.randomUUID(), TokenType.DEV);
+		when(storage.getToken(t.getHashedToken())).thenReturn(
+				signable(UUID.randomUUID(), TokenType.LOGIN));
+		when(testauth.clockMock.instant()).thenReturn(Instant.ofEpochMilli(15000));
+		when(storage.getRevokedTokens(Instant.EPOCH)).thenReturn(
+				ImmutableMap.of(target.getId(), target.getExpirationDate()));
+		
+		auth.revokeToken(t, target.getId());
+		
+		// the revoked token list is updated immediately after the revocation
+		verify(storage).deleteToken(new UserName("foo"), target.getId());
+		verify(storage).getRevokedTokens(Instant.EPOCH);
+		failGetToken(auth, new IncomingToken(SIGNER.sign(target)), new InvalidTokenException());
+		verify(storage).getRevokedTokens(any(Instant.class));
+	}
+	
+	private static TokenRevocation revocation(final long seq, final Instant revoked)
+			throws Exception {
+		return new TokenRevocation(seq, UUID.fromString("2aa60e5e-1c7a-4a2c-b1b4-7fb2d6cdc6a5"),
+				new UserName("bar"), Instant.ofEpochMilli(100000000), revoked);
+	}
+	
+	private TestMocks initTokenRevocationMocks() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		when(testauth.storageMock.getToken(new IncomingToken("foobar").getHashedToken()))
+				.thenReturn(signable(UUID.randomUUID(), TokenType.SERV));
+		return testauth;
+	}
+	
+	@Test
+	public void getTokenRevocationsStart() throws Exception {
+		final TestMocks testauth = initTokenRevocationMocks();
+		when(testauth.storageMock.getTokenRevocationSequence()).thenReturn(42L);
+		
+		assertThat("incorrect revocations", testauth.auth.getTokenRevocations(
+				new IncomingToken("foobar"), Optional.absent()),
+				is(new TokenRevocations(Collections.emptyList(), 42, false)));
+		
+		verify(testauth.storageMock, never()).getTokenRevocations(anyLong(), anyInt());
+		assertLogEventsCorrect(logEvents, new LogEvent(Level.INFO,
+				"User foo accessed the token revocation log", Authentication.class));
+	}
+	
+	@Test
+	public void getTokenRevocations() throws Exception {
+		final TestMocks testauth = initTokenRevocationMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Instant now = Instant.ofEpochMilli(1000000);
+		final List<TokenRevocation> revs = Arrays.asList(
+				revocation(6, now.minusMillis(20000)), revocation(7, now));
+		when(storage.getTokenRevocations(5, 1000)).thenReturn(revs);
+		when(storage.getTokenRevocationSequence()).thenReturn(8L);
+		when(testauth.clockMock.instant()).thenReturn(now);
+		
+		assertThat("incorrect revocations", testauth.auth.getTokenRevocations(
+				new IncomingToken("foobar"), Optional.of(5L)),
+				is(new TokenRevocations(revs, 7, false)));
+		
+		assertLogEventsCorrect(logEvents, new LogEvent(Level.INFO,
+				"User foo accessed the token revocation log", Authentication.class));
+	}
+	
+	@Test
+	public void getTokenRevocationsStartOfLog() throws Exception {
+		final TestMocks testauth = initTokenRevocationMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Instant now = Instant.ofEpochMilli(1000000);
+		final List<TokenRevocation> revs = Arrays.asList(revocation(1, now));
+		when(storage.getTokenRevocations(0, 1000)).thenReturn(revs);
+		when(storage.getTokenRevocationSequence()).thenReturn(1L);
+		when(testauth.clockMock.instant()).thenReturn(now);
+		
+		assertThat("incorrect revocations", testauth.auth.getTokenRevocations(
+				new IncomingToken("foobar"), Optional.of(0L)),
+				is(new TokenRevocations(revs, 1, false)));
+	}
+	
+	@Test
+	public void getTokenRevocationsRecentGap() throws Exception {
+		final TestMocks testauth = initTokenRevocationMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Instant now = Instant.ofEpochMilli(1000000);
+		when(storage.getTokenRevocations(5, 1000)).thenReturn(Arrays.asList(
+				revocation(6, now.minusMillis(20000)), revocation(8, now.minusMillis(9999)),
+				revocation(9, now)));
+		when(storage.getTokenRevocationSequence()).thenReturn(9L);
+		when(testauth.clockMock.instant()).thenReturn(now);
+		
+		assertThat("incorrect revocations", testauth.auth.getTokenRevocations(
+				new IncomingToken("foobar"), Optional.of(5L)),
+				is(new TokenRevocations(Arrays.asList(revocation(6, now.minusMillis(20000))),
+						6, false)));
+	}
+	
+	@Test
+	public void getTokenRevocationsRecentGapAtStart() throws Exception {
+		final TestMocks testauth = initTokenRevocationMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Instant now = Instant.ofEpochMilli(1000000);
+		when(storage.getTokenRevocations(5, 1000)).thenReturn(Arrays.asList(
+				revocation(7, now.minusMillis(5000))));
+		when(storage.getTokenRevocationSequence()).thenReturn(7L);
+		when(testauth.clockMock.instant()).thenReturn(now);
+		
+		assertThat("incorrect revocations", testauth.auth.getTokenRevocations(
+				new IncomingToken("foobar"), Optional.of(5L)),
+				is(new TokenRevocations(Collections.emptyList(), 5, false)));
+	}
+	
+	@Test
+	public void getTokenRevocationsOldGap() throws Exception {
+		final TestMocks testauth = initTokenRevocationMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Instant now = Instant.ofEpochMilli(1000000);
+		final List<TokenRevocation> revs = Arrays.asList(
+				revocation(6, now.minusMillis(20000)), revocation(8, now.minusMillis(10001)),
+				revocation(9, now));
+		when(storage.getTokenRevocations(5, 1000)).thenReturn(revs);
+		when(storage.getTokenRevocationSequence()).thenReturn(9L);
+		when(testauth.clockMock.instant()).thenReturn(now);
+		
+		assertThat("incorrect revocations", testauth.auth.getTokenRevocations(
+				new IncomingToken("foobar"), Optional.of(5L)),
+				is(new TokenRevocations(revs, 9, false)));
+	}
+	
+	@Test
+	public void getTokenRevocationsExpiredDiscarded() throws Exception {
+		// revocation 6 was discarded when the token expired, which is treated as an old gap
+		final TestMocks testauth = initTokenRevocationMocks();
+		final AuthStorage storage = testauth.storageMock;
+		final Instant now = Instant.ofEpochMilli(1000000);
+		final List<TokenRevocation> revs = Arrays.asList(revocation(7, now.minusMillis(20000)));
+		when(storage.getTokenRevocations(5, 1000)).thenReturn(revs);
+		when(storage.getTokenRevocationSequence()).thenReturn(12L);
+		when(testauth.clockMock.instant()).thenReturn(now);
+		
+		assertThat("incorrect revocations", testauth.auth.getTokenRevocations(
+				new IncomingToken("foobar"), Optional.of(5L)),
+				is(new TokenRevocations(revs, 7, false)));
+	}
+	
+	@Test
+	public void getTokenRevocationsResetAhead() throws Exception {
+		final TestMocks testauth = initTokenRevocationMocks();
+		final AuthStorage storage = testauth.storageMock;
+		when(storage.getTokenRevocations(5, 1000)).thenReturn(Collections.emptyList());
+		when(storage.getTokenRevocationSequence()).thenReturn(4L);
+		when(testauth.clockMock.instant()).thenReturn(Instant.ofEpochMilli(1000000));
+		
+		assertThat("incorrect revocations", testauth.auth.getTokenRevocations(
+				new IncomingToken("foobar"), Optional.of(5L)),
+				is(new TokenRevocations(Collections.emptyList(), 4, true)));
+	}
+	
+	@Test
+	public void getTokenRevocationsFail() throws Exception {
+		final TestMocks testauth = initTestMocks();
+		final IncomingToken t = new IncomingToken("foobar");
+		final Optional<Long> seq = Optional.of(1L);
+		failGetTokenRevocations(testauth.auth, null, seq, new NullPointerException("token"));
+		failGetTokenRevocations(testauth.auth, t, null,
+				new NullPointerException("afterSequence"));
+		failGetTokenRevocations(testauth.auth, t, Optional.of(-1L),
+				new IllegalArgumentException("afterSequence must be >= 0"));
+		
+		when(testauth.storageMock.getToken(t.getHashedToken())).thenReturn(
+				signable(UUID.randomUUID(), TokenType.DEV));
+		failGetTokenRevocations(testauth.auth, t, seq, new UnauthorizedException(
+				"Developer tokens are not allowed for this operation"));
+	}
+	
+	private void failGetTokenRevocations(
+			final Authentication auth,
+			final IncomingToken token,
+			final Optional<Long> afterSequence,
+			final Exception e) {
+		try {
+			auth.getTokenRevocations(token, afterSequence);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
 }
@@ -0,0 +1,109 @@
+package us.kbase.test.auth2.lib;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.junit.Assert.fail;
+
+import java.util.UUID;
+
+import org.junit.Test;
+
+import us.kbase.auth2.lib.CacheInvalidator;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.token.TokenCache;
+import us.kbase.auth2.lib.user.UserCache;
+import us.kbase.test.auth2.TestCommon;
+
+public class CacheInvalidatorTest {
+
+	private static class Mocks {
+		private final TokenCache tokens = mock(TokenCache.class);
+		private final UserCache users = mock(UserCache.class);
+		private final CacheInvalidator inv = new CacheInvalidator(tokens, users);
+
+		private void verifyNoMore() {
+			verifyNoMoreInteractions(tokens, users);
+		}
+	}
+
+	@Test
+	public void constructFail() throws Exception {
+		failConstruct(null, mock(UserCache.class), new NullPointerException("tokenCache"));
+		failConstruct(mock(TokenCache.class), null, new NullPointerException("userCache"));
+	}
+
+	private void failConstruct(
+			final TokenCache tokens,
+			final UserCache users,
+			final Exception expected) {
+		try {
+			new CacheInvalidator(tokens, users);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void tokenDeleted() throws Exception {
+		final Mocks m = new Mocks();
+		final UUID id = UUID.randomUUID();
+
+		m.inv.tokenDeleted(new UserName("foo"), id);
+
+		verify(m.tokens).invalidate(id);
+		m.verifyNoMore();
+	}
+
+	@Test
+	public void tokensDeleted() throws Exception {
+		final Mocks m = new Mocks();
+
+		m.inv.tokensDeleted(new UserName("foo"));
+
+		verify(m.tokens).invalidate(new UserName("foo"));
+		m.verifyNoMore();
+	}
+
+	@Test
+	public void allTokensDeleted() throws Exception {
+		final Mocks m = new Mocks();
+
+		m.inv.allTokensDeleted();
+
+		verify(m.tokens).invalidateAll();
+		m.verifyNoMore();
+	}
+
+	@Test
+	public void userChanged() throws Exception {
+		final Mocks m = new Mocks();
+
+		m.inv.userChanged(new UserName("foo"));
+
+		verify(m.users).invalidate(new UserName("foo"));
+		m.verifyNoMore();
+	}
+
+	@Test
+	public void allUsersChanged() throws Exception {
+		final Mocks m = new Mocks();
+
+		m.inv.allUsersChanged();
+
+		verify(m.users).invalidateAll();
+		m.verifyNoMore();
+	}
+
+	@Test
+	public void changesMissed() throws Exception {
+		final Mocks m = new Mocks();
+
+		m.inv.changesMissed();
+
+		verify(m.tokens).invalidateAll();
+		verify(m.users).invalidateAll();
+		m.verifyNoMore();
+	}
+}
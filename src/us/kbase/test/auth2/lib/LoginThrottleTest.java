@@ -0,0 +1,262 @@
+package us.kbase.test.auth2.lib;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Constructor;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+
+import us.kbase.auth2.lib.LoginThrottle;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.exceptions.LoginThrottledException;
+import us.kbase.test.auth2.TestCommon;
+
+public class LoginThrottleTest {
+
+	private static final Optional<InetAddress> NO_ADDR = Optional.absent();
+
+	private static class TestTicker extends Ticker {
+
+		public long nanos = 0;
+
+		@Override
+		public long read() {
+			return nanos;
+		}
+
+		public void advanceMS(final long millis) {
+			nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+		}
+	}
+
+	private static class TestThrottle {
+		final LoginThrottle throttle;
+		final TestTicker ticker;
+
+		public TestThrottle(final LoginThrottle throttle, final TestTicker ticker) {
+			this.throttle = throttle;
+			this.ticker = ticker;
+		}
+	}
+
+	private static TestThrottle getThrottle(
+			final int userFailures,
+			final int addressFailures,
+			final long maxDelayMS)
+			throws Exception {
+		final TestTicker ticker = new TestTicker();
+		final Constructor<LoginThrottle> c = LoginThrottle.class.getDeclaredConstructor(
+				int.class, int.class, long.class, Ticker.class);
+		c.setAccessible(true);
+		return new TestThrottle(c.newInstance(userFailures, addressFailures, maxDelayMS, ticker),
+				ticker);
+	}
+
+	private static Optional<InetAddress> addr(final String address) throws Exception {
+		return Optional.of(InetAddress.getByName(address));
+	}
+
+	@Test
+	public void construct() throws Exception {
+		assertThat("incorrect enabled", new LoginThrottle(1, 0, 1).isEnabled(), is(true));
+		assertThat("incorrect enabled", new LoginThrottle(0, 1, 1).isEnabled(), is(true));
+		assertThat("incorrect enabled", new LoginThrottle(0, 0, 1).isEnabled(), is(false));
+		assertThat("incorrect enabled", new LoginThrottle(1, 1, 0).isEnabled(), is(false));
+		final LoginThrottle t = LoginThrottle.getDisabledThrottle();
+		assertThat("incorrect enabled", t.isEnabled(), is(false));
+		assertThat("incorrect throttled", t.getThrottledCount(), is(0L));
+		assertThat("incorrect size", t.size(), is(0L));
+	}
+
+	@Test
+	public void constructFail() throws Exception {
+		failConstruct(-1, 0, 0,
+				new IllegalArgumentException("userFailureLimit must be at least 0"));
+		failConstruct(0, -1, 0,
+				new IllegalArgumentException("addressFailureLimit must be at least 0"));
+		failConstruct(0, 0, -1, new IllegalArgumentException("maxDelayMS must be at least 0"));
+	}
+
+	private void failConstruct(
+			final int userFailures,
+			final int addressFailures,
+			final long maxDelayMS,
+			final Exception expected) {
+		try {
+			new LoginThrottle(userFailures, addressFailures, maxDelayMS);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void disabled() throws Exception {
+		final LoginThrottle t = LoginThrottle.getDisabledThrottle();
+		for (int i = 0; i < 100; i++) {
+			t.recordFailure(new UserName("foo"), addr("127.0.0.1"));
+		}
+		t.check(new UserName("foo"), addr("127.0.0.1"));
+		assertThat("incorrect size", t.size(), is(0L));
+	}
+
+	@Test
+	public void throttleUserWithBackoff() throws Exception {
+		final TestThrottle tt = getThrottle(3, 0, 10000);
+		final LoginThrottle t = tt.throttle;
+
+		t.recordFailure(new UserName("foo"), NO_ADDR);
+		t.recordFailure(new UserName("foo"), NO_ADDR);
+		t.check(new UserName("foo"), NO_ADDR);
+		t.recordFailure(new UserName("foo"), NO_ADDR); // 3rd failure, 1s delay
+		failCheck(t, new UserName("foo"), NO_ADDR,
+				"Too many failed logins for user foo, try again in 1 second");
+		t.check(new UserName("bar"), NO_ADDR);
+		tt.ticker.advanceMS(999);
+		failCheck(t, new UserName("foo"), NO_ADDR,
+				"Too many failed logins for user foo, try again in 1 second");
+		tt.ticker.advanceMS(1);
+		t.check(new UserName("foo"), NO_ADDR);
+
+		t.recordFailure(new UserName("foo"), NO_ADDR); // 2s delay
+		failCheck(t, new UserName("foo"), NO_ADDR,
+				"Too many failed logins for user foo, try again in 2 seconds");
+		tt.ticker.advanceMS(1500);
+		failCheck(t, new UserName("foo"), NO_ADDR,
+				"Too many failed logins for user foo, try again in 1 second");
+		tt.ticker.advanceMS(500);
+		t.check(new UserName("foo"), NO_ADDR);
+
+		t.recordFailure(new UserName("foo"), NO_ADDR); // 4s delay
+		failCheck(t, new UserName("foo"), NO_ADDR,
+				"Too many failed logins for user foo, try again in 4 seconds");
+		tt.ticker.advanceMS(4000);
+		t.recordFailure(new UserName("foo"), NO_ADDR); // 8s delay
+		failCheck(t, new UserName("foo"), NO_ADDR,
+				"Too many failed logins for user foo, try again in 8 seconds");
+		tt.ticker.advanceMS(8000);
+		t.recordFailure(new UserName("foo"), NO_ADDR); // capped at 10s
+		failCheck(t, new UserName("foo"), NO_ADDR,
+				"Too many failed logins for user foo, try again in 10 seconds");
+
+		assertThat("incorrect throttled", t.getThrottledCount(), is(7L));
+		assertThat("incorrect size", t.size(), is(1L));
+	}
+
+	@Test
+	public void throttleUserMaxShift() throws Exception {
+		// check the delay doesn't overflow with many failures
+		final TestThrottle tt = getThrottle(1, 0, Long.MAX_VALUE / 2000000);
+		final LoginThrottle t = tt.throttle;
+		for (int i = 0; i < 100; i++) {
+			t.recordFailure(new UserName("foo"), NO_ADDR);
+		}
+		failCheck(t, new UserName("foo"), NO_ADDR,
+				"Too many failed logins for user foo, try again in " + (1L << 32) + " seconds");
+	}
+
+	@Test
+	public void successClearsUser() throws Exception {
+		final TestThrottle tt = getThrottle(2, 3, 10000);
+		final LoginThrottle t = tt.throttle;
+		final Optional<InetAddress> a = addr("10.0.0.1");
+
+		t.recordFailure(new UserName("foo"), a);
+		t.recordSuccess(new UserName("foo"));
+		t.recordFailure(new UserName("foo"), a);
+		t.check(new UserName("foo"), a); // 1 user failure, 2 address failures
+		t.recordSuccess(new UserName("foo"));
+		t.recordFailure(new UserName("bar"), a); // 3rd address failure
+		failCheck(t, new UserName("foo"), a,
+				"Too many failed logins from this address, try again in 1 second");
+		t.check(new UserName("foo"), NO_ADDR);
+		t.check(new UserName("foo"), addr("10.0.0.2"));
+	}
+
+	@Test
+	public void throttleAddress() throws Exception {
+		final TestThrottle tt = getThrottle(0, 2, 10000);
+		final LoginThrottle t = tt.throttle;
+		final Optional<InetAddress> a = addr("10.0.0.1");
+
+		t.recordFailure(new UserName("foo"), a);
+		t.recordFailure(new UserName("bar"), a);
+		failCheck(t, new UserName("baz"), a,
+				"Too many failed logins from this address, try again in 1 second");
+		t.check(new UserName("foo"), addr("10.0.0.2"));
+		t.check(new UserName("foo"), NO_ADDR); // user throttling is disabled
+		t.recordFailure(new UserName("foo"), NO_ADDR);
+		assertThat("incorrect size", t.size(), is(1L));
+	}
+
+	@Test
+	public void expire() throws Exception {
+		final TestThrottle tt = getThrottle(2, 0, 10000);
+		final LoginThrottle t = tt.throttle;
+
+		t.recordFailure(new UserName("foo"), NO_ADDR);
+		tt.ticker.advanceMS(19999);
+		t.recordFailure(new UserName("foo"), NO_ADDR);
+		failCheck(t, new UserName("foo"), NO_ADDR,
+				"Too many failed logins for user foo, try again in 1 second");
+		tt.ticker.advanceMS(20000);
+		t.recordFailure(new UserName("foo"), NO_ADDR); // previous failures are forgotten
+		t.check(new UserName("foo"), NO_ADDR);
+	}
+
+	@Test
+	public void nulls() throws Exception {
+		final LoginThrottle t = new LoginThrottle(1, 1, 1);
+		failCheck(t, null, NO_ADDR, new NullPointerException("userName"));
+		failCheck(t, new UserName("foo"), null, new NullPointerException("address"));
+		failRecordFailure(t, null, NO_ADDR, new NullPointerException("userName"));
+		failRecordFailure(t, new UserName("foo"), null, new NullPointerException("address"));
+		try {
+			t.recordSuccess(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("userName"));
+		}
+	}
+
+	private void failCheck(
+			final LoginThrottle t,
+			final UserName userName,
+			final Optional<InetAddress> address,
+			final String message) {
+		failCheck(t, userName, address, new LoginThrottledException(message));
+	}
+
+	private void failCheck(
+			final LoginThrottle t,
+			final UserName userName,
+			final Optional<InetAddress> address,
+			final Exception expected) {
+		try {
+			t.check(userName, address);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	private void failRecordFailure(
+			final LoginThrottle t,
+			final UserName userName,
+			final Optional<InetAddress> address,
+			final Exception expected) {
+		try {
+			t.recordFailure(userName, address);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+}
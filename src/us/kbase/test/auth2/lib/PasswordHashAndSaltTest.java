@@ -6,6 +6,7 @@ import static org.junit.Assert.fail;
 
 import org.junit.Test;
 
+import us.kbase.auth2.cryptutils.PasswordHashParameters;
 import us.kbase.auth2.lib.PasswordHashAndSalt;
 import us.kbase.test.auth2.TestCommon;
 
@@ -20,6 +21,22 @@ public class PasswordHashAndSaltTest {
 				is(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10}));
 		assertThat("incorrect salt", creds.getSalt(),
 				is(new byte[] {11, 12}));
+		assertThat("incorrect params", creds.getParameters(),
+				is(PasswordHashParameters.ORIGINAL));
+	}
+	
+	@Test
+	public void constructWithParameters() {
+		final PasswordHashAndSalt creds = new PasswordHashAndSalt(
+				new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10},
+				new byte[] {11, 12},
+				new PasswordHashParameters("PBKDF2WithHmacSHA512", 30000, 512));
+		assertThat("incorrect hash", creds.getPasswordHash(),
+				is(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10}));
+		assertThat("incorrect salt", creds.getSalt(),
+				is(new byte[] {11, 12}));
+		assertThat("incorrect params", creds.getParameters(),
+				is(new PasswordHashParameters("PBKDF2WithHmacSHA512", 30000, 512)));
 	}
 	
 	@Test
@@ -44,6 +61,12 @@ public class PasswordHashAndSaltTest {
 				new IllegalArgumentException("salt missing or too small"));
 		failConstruct(new byte[10], new byte[1],
 				new IllegalArgumentException("salt missing or too small"));
+		try {
+			new PasswordHashAndSalt(new byte[10], new byte[2], null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("parameters"));
+		}
 	}
 
 	private void failConstruct(
@@ -0,0 +1,132 @@
+package us.kbase.test.auth2.lib;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import us.kbase.auth2.cryptutils.PasswordCrypt;
+import us.kbase.auth2.lib.PasswordHashPool;
+import us.kbase.auth2.lib.exceptions.ServiceUnavailableException;
+import us.kbase.test.auth2.TestCommon;
+
+public class PasswordHashPoolTest {
+
+	private static final char[] PWD = "foobarbazbat".toCharArray();
+	private static final byte[] SALT = new byte[] {1, 2, 3, 4, 5, 6, 7, 8};
+
+	@Test
+	public void construct() throws Exception {
+		final PasswordHashPool p = new PasswordHashPool(new PasswordCrypt(), 3, 6);
+
+		assertThat("incorrect threads", p.getThreadCount(), is(3));
+		assertThat("incorrect queue limit", p.getQueueLimit(), is(6));
+		assertThat("incorrect active", p.getActiveCount(), is(0));
+		assertThat("incorrect queued", p.getQueuedCount(), is(0));
+		assertThat("incorrect completed", p.getCompletedCount(), is(0L));
+		assertThat("incorrect rejected", p.getRejectedCount(), is(0L));
+	}
+
+	@Test
+	public void constructFail() throws Exception {
+		final PasswordCrypt pc = new PasswordCrypt();
+		failConstruct(null, 1, 1, new NullPointerException("pwdcrypt"));
+		failConstruct(pc, 0, 1, new IllegalArgumentException("threads must be at least 1"));
+		failConstruct(pc, 1, 0, new IllegalArgumentException("queueLimit must be at least 1"));
+	}
+
+	private void failConstruct(
+			final PasswordCrypt pwdcrypt,
+			final int threads,
+			final int queueLimit,
+			final Exception expected) {
+		try {
+			new PasswordHashPool(pwdcrypt, threads, queueLimit);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void hash() throws Exception {
+		final PasswordCrypt pc = new PasswordCrypt();
+		final PasswordHashPool p = new PasswordHashPool(pc, 1, 1);
+
+		final byte[] hash = p.getEncryptedPassword(PWD, SALT);
+
+		assertThat("incorrect hash", hash, is(pc.getEncryptedPassword(PWD, SALT)));
+		assertThat("incorrect auth", p.authenticate(PWD, hash, SALT), is(true));
+		assertThat("incorrect auth", p.authenticate("foo".toCharArray(), hash, SALT), is(false));
+	}
+
+	@Test
+	public void hashFail() throws Exception {
+		final PasswordHashPool p = new PasswordHashPool(new PasswordCrypt(), 1, 1);
+		try {
+			p.getEncryptedPassword(new char[0], SALT);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+					"password must be at least 1 character"));
+		}
+		try {
+			p.authenticate(PWD, null, SALT);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException(
+					"Passwords cannot be null"));
+		}
+	}
+
+	@Test
+	public void saturated() throws Exception {
+		final PasswordCrypt pc = mock(PasswordCrypt.class);
+		final PasswordHashPool p = new PasswordHashPool(pc, 1, 1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		when(pc.getEncryptedPassword(PWD, SALT)).thenAnswer(inv -> {
+			release.await();
+			return new byte[] {42};
+		});
+
+		final CompletableFuture<byte[]> running = CompletableFuture.supplyAsync(
+				() -> hash(p));
+		final CompletableFuture<byte[]> queued = CompletableFuture.supplyAsync(
+				() -> hash(p));
+		for (int i = 0; i < 200 && (p.getActiveCount() < 1 || p.getQueuedCount() < 1); i++) {
+			Thread.sleep(5);
+		}
+		assertThat("incorrect active", p.getActiveCount(), is(1));
+		assertThat("incorrect queued", p.getQueuedCount(), is(1));
+
+		try {
+			p.getEncryptedPassword(PWD, SALT);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new ServiceUnavailableException(
+					"Too many password operations are in progress, please try again later"));
+		}
+		assertThat("incorrect rejected", p.getRejectedCount(), is(1L));
+
+		release.countDown();
+
+		assertThat("incorrect hash", running.get(), is(new byte[] {42}));
+		assertThat("incorrect hash", queued.get(), is(new byte[] {42}));
+		assertThat("incorrect queued", p.getQueuedCount(), is(0));
+	}
+
+	private byte[] hash(final PasswordHashPool p) {
+		try {
+			return p.getEncryptedPassword(PWD, SALT);
+		} catch (ServiceUnavailableException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
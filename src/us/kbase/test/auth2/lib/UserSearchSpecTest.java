@@ -12,8 +12,11 @@ import java.util.Collections;
 
 import org.junit.Test;
 
+import com.google.common.base.Optional;
+
 import nl.jqno.equalsverifier.EqualsVerifier;
 import us.kbase.auth2.lib.Role;
+import us.kbase.auth2.lib.UserName;
 import us.kbase.auth2.lib.UserSearchSpec;
 import us.kbase.auth2.lib.UserSearchSpec.Builder;
 import us.kbase.auth2.lib.UserSearchSpec.SearchField;
@@ -27,7 +30,7 @@ public class UserSearchSpecTest {
 	}
 
 	@Test
-	public void buildWithEverything() {
+	public void buildWithEverything() throws Exception {
 		final UserSearchSpec uss = UserSearchSpec.getBuilder()
 				.withSearchPrefix("Foo")
 				.withSearchOnUserName(true)
@@ -38,6 +41,7 @@ public class UserSearchSpecTest {
 				.withSearchOnCustomRole("baz")
 				.withIncludeRoot(true)
 				.withIncludeDisabled(true)
+				.withSearchAfter(new UserName("whee"))
 				.build();
 		
 		assertThat("incorrect prefix", uss.getSearchPrefix().get(), is("foo"));
@@ -53,13 +57,15 @@ public class UserSearchSpecTest {
 		assertThat("incorrect orderby", uss.orderBy(), is(SearchField.USERNAME));
 		assertThat("incorrect include root", uss.isRootIncluded(), is(true));
 		assertThat("incorrect include disabled", uss.isDisabledIncluded(), is(true));
-		
+		assertThat("incorrect search after", uss.getSearchAfter(),
+				is(Optional.of(new UserName("whee"))));
 	}
 	
 	@Test
 	public void buildWithNothing() {
 		final UserSearchSpec uss = UserSearchSpec.getBuilder().build();
 		assertThat("incorrect prefix", uss.getSearchPrefix().isPresent(), is(false));
+		assertThat("incorrect search after", uss.getSearchAfter(), is(Optional.absent()));
 		assertThat("incorrect isRegex()", uss.isRegex(), is(false));
 		assertThat("incorrect user search", uss.isUserNameSearch(), is(false));
 		assertThat("incorrect display name search", uss.isDisplayNameSearch(), is(false));
@@ -347,6 +353,16 @@ public class UserSearchSpecTest {
 				"Custom role cannot be null or the empty string"));
 	}
 	
+	@Test
+	public void searchAfterFail() {
+		try {
+			UserSearchSpec.getBuilder().withSearchAfter(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("userName"));
+		}
+	}
+	
 	private void failAddCustomRole(final String role, final Exception e) {
 		try {
 			UserSearchSpec.getBuilder().withSearchOnCustomRole(role);
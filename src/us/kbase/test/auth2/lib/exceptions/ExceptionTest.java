@@ -18,6 +18,7 @@ import us.kbase.auth2.lib.exceptions.IllegalParameterException;
 import us.kbase.auth2.lib.exceptions.IllegalPasswordException;
 import us.kbase.auth2.lib.exceptions.InvalidTokenException;
 import us.kbase.auth2.lib.exceptions.LinkFailedException;
+import us.kbase.auth2.lib.exceptions.LoginThrottledException;
 import us.kbase.auth2.lib.exceptions.MissingParameterException;
 import us.kbase.auth2.lib.exceptions.NoDataException;
 import us.kbase.auth2.lib.exceptions.NoSuchIdentityException;
@@ -28,6 +29,7 @@ import us.kbase.auth2.lib.exceptions.NoSuchTokenException;
 import us.kbase.auth2.lib.exceptions.NoSuchUserException;
 import us.kbase.auth2.lib.exceptions.NoTokenProvidedException;
 import us.kbase.auth2.lib.exceptions.PasswordMismatchException;
+import us.kbase.auth2.lib.exceptions.ServiceUnavailableException;
 import us.kbase.auth2.lib.exceptions.UnLinkFailedException;
 import us.kbase.auth2.lib.exceptions.UnauthorizedException;
 import us.kbase.auth2.lib.exceptions.UserExistsException;
@@ -212,6 +214,16 @@ public class ExceptionTest {
 		assertThat("incorrect cause", ae.getCause(), is((Throwable) null));
 	}
 	
+	@Test
+	public void loginThrottled() throws Exception {
+		final ErrorType et = ErrorType.LOGIN_THROTTLED;
+		final LoginThrottledException ae = new LoginThrottledException("foo");
+		assertThat("incorrect error code", ae.getErr(), is(et));
+		assertThat("incorrect message", ae.getMessage(), is(format(et, "foo")));
+		assertThat("incorrect cause", ae.getCause(), is((Throwable) null));
+		assertThat("incorrect superclass", ae, instanceOf(AuthenticationException.class));
+	}
+	
 	@Test
 	public void missingParameter() throws Exception {
 		final ErrorType et = ErrorType.MISSING_PARAMETER;
@@ -302,6 +314,15 @@ public class ExceptionTest {
 		assertThat("incorrect cause", pme.getCause(), is((Throwable) null));
 	}
 	
+	@Test
+	public void serviceUnavailable() throws Exception {
+		final ErrorType et = ErrorType.SERVICE_UNAVAILABLE;
+		final ServiceUnavailableException ae = new ServiceUnavailableException("foo");
+		assertThat("incorrect error code", ae.getErr(), is(et));
+		assertThat("incorrect message", ae.getMessage(), is(format(et, "foo")));
+		assertThat("incorrect cause", ae.getCause(), is((Throwable) null));
+	}
+	
 	@Test
 	public void unauthorizedException() throws Exception {
 		final ErrorType et = ErrorType.UNAUTHORIZED;
@@ -0,0 +1,340 @@
+package us.kbase.test.auth2.lib.storage.mongo;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.mongodb.CursorType;
+import com.mongodb.MongoException;
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.storage.StorageChangeListener;
+import us.kbase.auth2.lib.storage.mongo.ChangeFeed;
+import us.kbase.auth2.lib.storage.mongo.ChangeFeed.ChangeType;
+import us.kbase.auth2.lib.storage.mongo.CustomRoleCatalog;
+import us.kbase.auth2.lib.storage.mongo.TokenFilter;
+import us.kbase.auth2.lib.storage.mongo.UserSearchIndex;
+import us.kbase.test.auth2.TestCommon;
+
+public class ChangeFeedTest {
+
+	private static final int WAIT_MS = 5000;
+
+	private static class TestFeed {
+		final ChangeFeed feed;
+		final StorageChangeListener listener;
+		final CustomRoleCatalog catalog;
+		final TokenFilter filter;
+		final UserSearchIndex index;
+		final MongoCursor<Document> cursor;
+		// used to control the cursor and filter, since stubbing a mock in use isn't thread safe
+		volatile boolean failNext = false;
+		volatile boolean closeNext = false;
+		volatile boolean overfilled = false;
+
+		private TestFeed(
+				final ChangeFeed feed,
+				final StorageChangeListener listener,
+				final CustomRoleCatalog catalog,
+				final TokenFilter filter,
+				final UserSearchIndex index,
+				final MongoCursor<Document> cursor) {
+			this.feed = feed;
+			this.listener = listener;
+			this.catalog = catalog;
+			this.filter = filter;
+			this.index = index;
+			this.cursor = cursor;
+		}
+	}
+
+	private static Document change(final ChangeType type, final String user, final String tokid) {
+		return new Document("type", type.getID())
+				.append("user", user)
+				.append("tokid", tokid)
+				.append("hash", null)
+				// changes made before the feed starts don't count towards the lag
+				.append("time", Date.from(Instant.now().plusSeconds(1)));
+	}
+
+	// the cursor returns the changes and then waits for more
+	@SuppressWarnings("unchecked")
+	private static TestFeed startFeed(
+			final long tokenFilterRebuildIntervalMS,
+			final boolean index,
+			final Document... changes)
+			throws Exception {
+		final MongoCollection<Document> col = mock(MongoCollection.class);
+		final FindIterable<Document> find = mock(FindIterable.class);
+		final MongoCursor<Document> cur = mock(MongoCursor.class);
+		final StorageChangeListener listener = mock(StorageChangeListener.class);
+		final CustomRoleCatalog catalog = mock(CustomRoleCatalog.class);
+		final TokenFilter filter = mock(TokenFilter.class);
+		final UserSearchIndex idx = mock(UserSearchIndex.class);
+
+		when(col.find()).thenReturn(find);
+		when(find.cursorType(CursorType.TailableAwait)).thenReturn(find);
+		when(find.maxAwaitTime(anyLong(), any(TimeUnit.class))).thenReturn(find);
+		when(find.noCursorTimeout(true)).thenReturn(find);
+		when(find.iterator()).thenReturn(cur);
+		final List<Document> remaining = new LinkedList<>();
+		for (final Document c: changes) {
+			remaining.add(c);
+		}
+		final ChangeFeed feed = new ChangeFeed(col, listener, catalog, filter,
+				tokenFilterRebuildIntervalMS, index ? Optional.of(idx) : Optional.absent());
+		final TestFeed tf = new TestFeed(feed, listener, catalog, filter, idx, cur);
+		when(cur.tryNext()).thenAnswer(inv -> {
+			if (tf.failNext) {
+				tf.failNext = false;
+				throw new MongoException("whoops");
+			}
+			if (remaining.isEmpty()) {
+				Thread.sleep(10); // as the server would
+				return null;
+			}
+			return remaining.remove(0);
+		});
+		when(cur.getServerCursor()).thenAnswer(inv -> {
+			if (tf.closeNext) {
+				tf.closeNext = false;
+				return null;
+			}
+			return new ServerCursor(1, new ServerAddress());
+		});
+		when(filter.isOverfilled()).thenAnswer(inv -> {
+			final boolean o = tf.overfilled;
+			tf.overfilled = false;
+			return o;
+		});
+		feed.start();
+		return tf;
+	}
+
+	@Test
+	public void changeTypes() throws Exception {
+		for (final ChangeType ct: ChangeType.values()) {
+			assertThat("incorrect type", ChangeType.getType(ct.getID()), is(ct));
+		}
+		assertThat("incorrect type", ChangeType.getType("foo"), is((ChangeType) null));
+	}
+
+	@Test
+	public void constructFail() throws Exception {
+		@SuppressWarnings("unchecked")
+		final MongoCollection<Document> col = mock(MongoCollection.class);
+		final StorageChangeListener l = mock(StorageChangeListener.class);
+		final CustomRoleCatalog c = mock(CustomRoleCatalog.class);
+		final TokenFilter f = mock(TokenFilter.class);
+		final Optional<UserSearchIndex> i = Optional.absent();
+
+		failConstruct(null, l, c, f, 0, i, new NullPointerException("changes"));
+		failConstruct(col, null, c, f, 0, i, new NullPointerException("listener"));
+		failConstruct(col, l, null, f, 0, i, new NullPointerException("customRoleCatalog"));
+		failConstruct(col, l, c, null, 0, i, new NullPointerException("filter"));
+		failConstruct(col, l, c, f, 0, null, new NullPointerException("index"));
+		failConstruct(col, l, c, f, -1, i, new IllegalArgumentException(
+				"tokenFilterRebuildIntervalMS must be at least 0"));
+	}
+
+	private void failConstruct(
+			final MongoCollection<Document> changes,
+			final StorageChangeListener listener,
+			final CustomRoleCatalog catalog,
+			final TokenFilter filter,
+			final long tokenFilterRebuildIntervalMS,
+			final Optional<UserSearchIndex> index,
+			final Exception expected) {
+		try {
+			new ChangeFeed(changes, listener, catalog, filter, tokenFilterRebuildIntervalMS,
+					index);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void startNoFilterNoIndex() throws Exception {
+		final TestFeed tf = startFeed(0, false);
+		try {
+			verify(tf.listener, timeout(WAIT_MS)).changesMissed();
+			verify(tf.catalog, timeout(WAIT_MS)).refresh();
+			verify(tf.cursor, timeout(WAIT_MS).atLeast(2)).tryNext();
+			verify(tf.filter, never()).rebuild();
+			verify(tf.index, never()).rebuild();
+			assertThat("incorrect lag", tf.feed.getLastLagMS(), is(-1L));
+			assertThat("incorrect lag", tf.feed.getMaxLagMS(), is(-1L));
+		} finally {
+			tf.feed.stop();
+		}
+		verify(tf.filter, atLeast(1)).disable();
+	}
+
+	@Test
+	public void startWithFilterAndIndex() throws Exception {
+		final TestFeed tf = startFeed(100000, true);
+		try {
+			verify(tf.filter, timeout(WAIT_MS)).rebuild();
+			verify(tf.index, timeout(WAIT_MS)).rebuild();
+			// the feed is idle, so changed users are read
+			verify(tf.index, timeout(WAIT_MS).atLeast(1)).refresh(true);
+		} finally {
+			tf.feed.stop();
+		}
+		verify(tf.filter, atLeast(1)).disable();
+		verify(tf.index, atLeast(1)).disable();
+	}
+
+	@Test
+	public void caughtUp() throws Exception {
+		final Instant start = Instant.now();
+		final TestFeed tf = startFeed(100000, false, change(ChangeType.START, null, null));
+		try {
+			// the feed is caught up once the cursor has no more changes
+			verify(tf.filter, timeout(WAIT_MS).atLeast(1)).caughtUp(
+					argThat(i -> !i.isBefore(start)));
+		} finally {
+			tf.feed.stop();
+		}
+	}
+
+	@Test
+	public void rebuildOverfilledFilter() throws Exception {
+		final TestFeed tf = startFeed(100000, false);
+		try {
+			verify(tf.filter, timeout(WAIT_MS)).rebuild();
+			tf.overfilled = true;
+			verify(tf.filter, timeout(WAIT_MS).times(2)).rebuild();
+		} finally {
+			tf.feed.stop();
+		}
+	}
+
+	@Test
+	public void changes() throws Exception {
+		final UUID id = UUID.randomUUID();
+		final Document newToken = change(ChangeType.NEW_TOKEN, "foo", id.toString())
+				.append("hash", "somehash");
+		final TestFeed tf = startFeed(100000, true,
+				change(ChangeType.START, null, null),
+				newToken,
+				change(ChangeType.NEW_USER, "foo", null),
+				change(ChangeType.TOKEN, "foo", id.toString()),
+				change(ChangeType.USER_TOKENS, "bar", null),
+				change(ChangeType.ALL_TOKENS, null, null),
+				change(ChangeType.USER, "baz", null),
+				change(ChangeType.ALL_USERS, null, null),
+				new Document("type", "sometypefromthefuture")
+						.append("time", Date.from(Instant.now())));
+		try {
+			verify(tf.listener, timeout(WAIT_MS).times(2)).changesMissed();
+			verify(tf.filter).put("somehash");
+			verify(tf.index).changed(new UserName("foo"));
+			verify(tf.listener).tokenDeleted(new UserName("foo"), id);
+			verify(tf.listener).tokensDeleted(new UserName("bar"));
+			verify(tf.listener).allTokensDeleted();
+			verify(tf.listener).userChanged(new UserName("baz"));
+			verify(tf.index).changed(new UserName("baz"));
+			verify(tf.listener).allUsersChanged();
+			// once at startup and once for the all users change
+			verify(tf.index, atLeast(2)).rebuild();
+			// changes are processed one at a time, so the index reads changes in batches
+			verify(tf.index, atLeast(9)).refresh(false);
+			assertThat("incorrect lag", tf.feed.getLastLagMS() >= 0, is(true));
+			assertThat("incorrect lag", tf.feed.getMaxLagMS() >= tf.feed.getLastLagMS(),
+					is(true));
+		} finally {
+			tf.feed.stop();
+		}
+	}
+
+	@Test
+	public void reconnectOnError() throws Exception {
+		final TestFeed tf = startFeed(100000, false);
+		try {
+			verify(tf.filter, timeout(WAIT_MS)).rebuild();
+			tf.failNext = true;
+			// the filter is disabled until the feed reconnects and rebuilds it
+			verify(tf.filter, timeout(WAIT_MS)).disable();
+			verify(tf.listener, timeout(WAIT_MS).times(2)).changesMissed();
+			verify(tf.filter, timeout(WAIT_MS).times(2)).rebuild();
+			verify(tf.cursor, timeout(WAIT_MS)).close();
+		} finally {
+			tf.feed.stop();
+		}
+	}
+
+	@Test
+	public void stopExitsThread() throws Exception {
+		final TestFeed tf = startFeed(0, false);
+		try {
+			verify(tf.cursor, timeout(WAIT_MS).atLeast(1)).tryNext();
+			assertThat("incorrect running", tf.feed.isRunning(), is(true));
+		} finally {
+			tf.feed.stop();
+		}
+		waitForExit(tf.feed, WAIT_MS);
+	}
+
+	@Test
+	public void stopExitsThreadWhileReconnecting() throws Exception {
+		final TestFeed tf = startFeed(0, false);
+		try {
+			verify(tf.listener, timeout(WAIT_MS)).changesMissed();
+			tf.failNext = true;
+			// the filter is disabled just before the feed waits to reconnect
+			verify(tf.filter, timeout(WAIT_MS)).disable();
+		} finally {
+			tf.feed.stop();
+		}
+		// the feed waits a second before reconnecting, so this checks the wait is interrupted
+		waitForExit(tf.feed, 500);
+		verify(tf.listener).changesMissed();
+	}
+
+	private void waitForExit(final ChangeFeed feed, final long waitMS) throws Exception {
+		final long end = System.nanoTime() + waitMS * 1000000;
+		while (feed.isRunning() && System.nanoTime() < end) {
+			Thread.sleep(10);
+		}
+		assertThat("feed thread still running", feed.isRunning(), is(false));
+	}
+
+	@Test
+	public void reconnectOnClosedCursor() throws Exception {
+		final TestFeed tf = startFeed(0, false);
+		try {
+			verify(tf.listener, timeout(WAIT_MS)).changesMissed();
+			tf.closeNext = true;
+			verify(tf.listener, timeout(WAIT_MS).times(2)).changesMissed();
+		} finally {
+			tf.feed.stop();
+		}
+	}
+}
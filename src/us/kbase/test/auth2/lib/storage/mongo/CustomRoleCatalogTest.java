@@ -0,0 +1,173 @@
+package us.kbase.test.auth2.lib.storage.mongo;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Constructor;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+import us.kbase.auth2.lib.storage.mongo.CustomRoleCatalog;
+import us.kbase.auth2.lib.storage.mongo.CustomRoleCatalog.CatalogLoader;
+import us.kbase.test.auth2.TestCommon;
+
+public class CustomRoleCatalogTest {
+
+	private static final ObjectId ID1 = new ObjectId();
+	private static final ObjectId ID2 = new ObjectId();
+
+	private static CustomRoleCatalog getCatalog(
+			final CatalogLoader loader,
+			final long refreshIntervalMS,
+			final Clock clock)
+			throws Exception {
+		final Constructor<CustomRoleCatalog> c = CustomRoleCatalog.class.getDeclaredConstructor(
+				CatalogLoader.class, long.class, Clock.class);
+		c.setAccessible(true);
+		return c.newInstance(loader, refreshIntervalMS, clock);
+	}
+
+	@Test
+	public void constructFail() throws Exception {
+		failConstruct(null, 1, new NullPointerException("loader"));
+		failConstruct(mock(CatalogLoader.class), -1,
+				new IllegalArgumentException("refreshIntervalMS must be at least 0"));
+	}
+
+	private void failConstruct(
+			final CatalogLoader loader,
+			final long refreshIntervalMS,
+			final Exception expected) {
+		try {
+			new CustomRoleCatalog(loader, refreshIntervalMS);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void loadOnFirstGet() throws Exception {
+		final CatalogLoader loader = mock(CatalogLoader.class);
+		final Clock clock = mock(Clock.class);
+		final CustomRoleCatalog cat = getCatalog(loader, 10000, clock);
+		when(loader.load()).thenReturn(ImmutableMap.of(ID1, "role1"));
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(1000));
+
+		assertThat("incorrect catalog", cat.get(), is(ImmutableMap.of(ID1, "role1")));
+		assertThat("incorrect catalog", cat.get(), is(ImmutableMap.of(ID1, "role1")));
+
+		verify(loader).load();
+	}
+
+	@Test
+	public void reloadAfterInterval() throws Exception {
+		final CatalogLoader loader = mock(CatalogLoader.class);
+		final Clock clock = mock(Clock.class);
+		final CustomRoleCatalog cat = getCatalog(loader, 10000, clock);
+		when(loader.load()).thenReturn(ImmutableMap.of(ID1, "role1"))
+				.thenReturn(ImmutableMap.of(ID1, "role1", ID2, "role2"));
+		// load, check, check and reload
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(1000), Instant.ofEpochMilli(11000),
+				Instant.ofEpochMilli(11001), Instant.ofEpochMilli(11001));
+
+		assertThat("incorrect catalog", cat.get(), is(ImmutableMap.of(ID1, "role1")));
+		assertThat("incorrect catalog", cat.get(), is(ImmutableMap.of(ID1, "role1")));
+		assertThat("incorrect catalog", cat.get(),
+				is(ImmutableMap.of(ID1, "role1", ID2, "role2")));
+
+		verify(loader, times(2)).load();
+	}
+
+	@Test
+	public void refresh() throws Exception {
+		final CatalogLoader loader = mock(CatalogLoader.class);
+		final Clock clock = mock(Clock.class);
+		final CustomRoleCatalog cat = getCatalog(loader, 10000, clock);
+		when(loader.load()).thenReturn(ImmutableMap.of(ID1, "role1"))
+				.thenReturn(ImmutableMap.of(ID2, "role2"));
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(1000));
+
+		assertThat("incorrect catalog", cat.get(), is(ImmutableMap.of(ID1, "role1")));
+		assertThat("incorrect catalog", cat.refresh(), is(ImmutableMap.of(ID2, "role2")));
+		assertThat("incorrect catalog", cat.get(), is(ImmutableMap.of(ID2, "role2")));
+
+		verify(loader, times(2)).load();
+	}
+
+	@Test
+	public void getDuringReload() throws Exception {
+		final CountDownLatch reloadStarted = new CountDownLatch(1);
+		final CountDownLatch finishReload = new CountDownLatch(1);
+		final AtomicInteger loads = new AtomicInteger();
+		final CatalogLoader loader = () -> {
+			if (loads.incrementAndGet() == 1) {
+				return ImmutableMap.of(ID1, "role1");
+			}
+			reloadStarted.countDown();
+			try {
+				finishReload.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			return ImmutableMap.of(ID2, "role2");
+		};
+		final Clock clock = mock(Clock.class);
+		final CustomRoleCatalog cat = getCatalog(loader, 10000, clock);
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(1000))
+				.thenReturn(Instant.ofEpochMilli(12000));
+
+		assertThat("incorrect catalog", cat.get(), is(ImmutableMap.of(ID1, "role1")));
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Future<Map<ObjectId, String>> reload = executor.submit(() -> cat.get());
+			reloadStarted.await();
+
+			// the catalog is expired, but another caller is already reloading it
+			assertThat("incorrect catalog", cat.get(), is(ImmutableMap.of(ID1, "role1")));
+
+			finishReload.countDown();
+			assertThat("incorrect catalog", reload.get(), is(ImmutableMap.of(ID2, "role2")));
+		} finally {
+			executor.shutdown();
+		}
+		assertThat("incorrect loads", loads.get(), is(2));
+	}
+
+	@Test
+	public void loadFail() throws Exception {
+		final CatalogLoader loader = mock(CatalogLoader.class);
+		final Clock clock = mock(Clock.class);
+		final CustomRoleCatalog cat = getCatalog(loader, 10000, clock);
+		when(loader.load()).thenThrow(new AuthStorageException("whoops"))
+				.thenReturn(Collections.emptyMap());
+		when(clock.instant()).thenReturn(Instant.ofEpochMilli(1000));
+
+		try {
+			cat.get();
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new AuthStorageException("whoops"));
+		}
+		// a failed load is retried on the next get
+		assertThat("incorrect catalog", cat.get(), is(Collections.emptyMap()));
+	}
+}
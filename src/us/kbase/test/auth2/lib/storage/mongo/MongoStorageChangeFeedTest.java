@@ -0,0 +1,328 @@
+package us.kbase.test.auth2.lib.storage.mongo;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import static us.kbase.test.auth2.TestCommon.set;
+
+import java.lang.reflect.Constructor;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.mongodb.client.MongoDatabase;
+
+import us.kbase.auth2.lib.CustomRole;
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.Role;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.exceptions.NoSuchTokenException;
+import us.kbase.auth2.lib.identity.RemoteIdentity;
+import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
+import us.kbase.auth2.lib.identity.RemoteIdentityID;
+import us.kbase.auth2.lib.storage.StorageChangeListener;
+import us.kbase.auth2.lib.storage.mongo.MongoStorage;
+import us.kbase.auth2.lib.token.IncomingHashedToken;
+import us.kbase.auth2.lib.token.IncomingToken;
+import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenType;
+import us.kbase.auth2.lib.user.NewUser;
+import us.kbase.test.auth2.TestCommon;
+
+public class MongoStorageChangeFeedTest extends MongoStorageTester {
+
+	private static final int WAIT_MS = 5000;
+
+	private static final RemoteIdentity REMOTE = new RemoteIdentity(
+			new RemoteIdentityID("prov", "bar1"),
+			new RemoteIdentityDetails("user1", "full1", "email1"));
+
+	@After
+	public void stopFeed() {
+		storage.stopChangeFeed();
+	}
+
+	private StorageChangeListener startFeed() {
+		final StorageChangeListener listener = mock(StorageChangeListener.class);
+		storage.startChangeFeed(listener);
+		verify(listener, timeout(WAIT_MS)).changesMissed();
+		return listener;
+	}
+
+	@Test
+	public void noFeed() throws Exception {
+		assertThat("incorrect lag", storage.getChangeFeedLastLagMS(), is(-1L));
+		assertThat("incorrect lag", storage.getChangeFeedMaxLagMS(), is(-1L));
+	}
+
+	@Test
+	public void tokenDeleted() throws Exception {
+		final StorageChangeListener listener = startFeed();
+		final UUID id = UUID.randomUUID();
+		final Instant now = Instant.now();
+		storage.storeToken(StoredToken.getBuilder(TokenType.LOGIN, id, new UserName("bar"))
+				.withLifeTime(now, now.plusSeconds(20)).build(), "somehash");
+
+		storage.deleteToken(new UserName("bar"), id);
+
+		verify(listener, timeout(WAIT_MS)).tokenDeleted(new UserName("bar"), id);
+		assertThat("incorrect lag", storage.getChangeFeedLastLagMS() >= 0, is(true));
+		assertThat("incorrect lag", storage.getChangeFeedMaxLagMS() >=
+				storage.getChangeFeedLastLagMS(), is(true));
+	}
+
+	@Test
+	public void tokensDeleted() throws Exception {
+		final StorageChangeListener listener = startFeed();
+
+		storage.deleteTokens(new UserName("bar"));
+
+		verify(listener, timeout(WAIT_MS)).tokensDeleted(new UserName("bar"));
+	}
+
+	@Test
+	public void allTokensDeleted() throws Exception {
+		final StorageChangeListener listener = startFeed();
+
+		storage.deleteTokens();
+
+		verify(listener, timeout(WAIT_MS)).allTokensDeleted();
+	}
+
+	@Test
+	public void userChanged() throws Exception {
+		final StorageChangeListener listener = startFeed();
+		storage.createUser(NewUser.getBuilder(
+				new UserName("foo"), new DisplayName("bar"), Instant.now(), REMOTE).build());
+
+		storage.updateRoles(new UserName("foo"), set(Role.ADMIN), Collections.emptySet());
+
+		verify(listener, timeout(WAIT_MS)).userChanged(new UserName("foo"));
+	}
+
+	@Test
+	public void allUsersChanged() throws Exception {
+		final StorageChangeListener listener = startFeed();
+		storage.setCustomRole(new CustomRole("foo", "bar"));
+
+		storage.deleteCustomRole("foo");
+
+		verify(listener, timeout(WAIT_MS)).allUsersChanged();
+	}
+
+	@Test
+	public void restart() throws Exception {
+		startFeed();
+		storage.stopChangeFeed();
+		assertThat("incorrect lag", storage.getChangeFeedLastLagMS(), is(-1L));
+
+		final StorageChangeListener listener = startFeed();
+		storage.deleteTokens();
+
+		verify(listener, timeout(WAIT_MS)).allTokensDeleted();
+	}
+
+	@Test
+	public void tokenFilter() throws Exception {
+		final StoredToken st = storeToken(storage, "bar", "hash1");
+		assertThat("incorrect active", storage.isTokenFilterActive(), is(false));
+		startFilter();
+
+		assertThat("incorrect token", storage.getToken(hashed("hash1")), is(st));
+		final StoredToken st2 = storeToken(storage, "bar", "hash2");
+		assertThat("incorrect token", storage.getToken(hashed("hash2")), is(st2));
+		assertThat("incorrect rejects", storage.getTokenFilterRejectCount(), is(0L));
+
+		// the first request for a missing token queries the database
+		failGetToken(hashed("hash3"));
+		assertThat("incorrect rejects", storage.getTokenFilterRejectCount(), is(0L));
+		// later requests are rejected once the change feed catches up
+		waitForReject(hashed("hash3"), 0);
+		assertThat("incorrect rejects", storage.getTokenFilterRejectCount(), is(1L));
+		failGetTokenAndUser(hashed("hash3"));
+		assertThat("incorrect rejects", storage.getTokenFilterRejectCount(), is(2L));
+	}
+
+	private void waitForReject(final IncomingHashedToken token, final long rejects)
+			throws Exception {
+		final long end = System.currentTimeMillis() + WAIT_MS;
+		while (storage.getTokenFilterRejectCount() == rejects) {
+			if (System.currentTimeMillis() > end) {
+				fail("token was not rejected by the filter");
+			}
+			failGetToken(token);
+			Thread.sleep(50);
+		}
+	}
+
+	@Test
+	public void tokenFilterInactive() throws Exception {
+		failGetToken(hashed("hash3"));
+		startFeed();
+		failGetToken(hashed("hash3"));
+
+		assertThat("incorrect active", storage.isTokenFilterActive(), is(false));
+		assertThat("incorrect rejects", storage.getTokenFilterRejectCount(), is(0L));
+	}
+
+	@Test
+	public void tokenFilterStop() throws Exception {
+		startFilter();
+		storage.stopChangeFeed();
+
+		assertThat("incorrect active", storage.isTokenFilterActive(), is(false));
+		failGetToken(hashed("hash3"));
+		assertThat("incorrect rejects", storage.getTokenFilterRejectCount(), is(0L));
+	}
+
+	@Test
+	public void tokenFilterOtherProcess() throws Exception {
+		startFilter();
+		final MongoStorage other = getOtherStorage();
+
+		final StoredToken st = storeToken(other, "bar", "hash1");
+
+		// the request queries the database rather than rejecting the token
+		assertThat("incorrect token", storage.getToken(hashed("hash1")), is(st));
+		assertThat("incorrect rejects", storage.getTokenFilterRejectCount(), is(0L));
+	}
+
+	@Test
+	public void tokenFilterRebuild() throws Exception {
+		storeToken(storage, "bar", "hash1");
+		storage.startChangeFeed(mock(StorageChangeListener.class), 100);
+		waitForFilter();
+		storage.deleteTokens();
+		final long rejects = storage.getTokenFilterRejectCount();
+
+		// the filter is rebuilt without the deleted token
+		waitForReject(hashed("hash1"), rejects);
+	}
+
+	private void startFilter() throws Exception {
+		// the filter is activated by the second build
+		storage.startChangeFeed(mock(StorageChangeListener.class), 100);
+		waitForFilter();
+	}
+
+	private void waitForFilter() throws Exception {
+		final long end = System.currentTimeMillis() + WAIT_MS;
+		while (!storage.isTokenFilterActive()) {
+			if (System.currentTimeMillis() > end) {
+				fail("token filter was not built");
+			}
+			Thread.sleep(50);
+		}
+	}
+
+	private MongoStorage getOtherStorage() throws Exception {
+		final Constructor<MongoStorage> con = MongoStorage.class.getDeclaredConstructor(
+				MongoDatabase.class, Clock.class);
+		con.setAccessible(true);
+		return con.newInstance(db, mockClock);
+	}
+
+	private StoredToken storeToken(
+			final MongoStorage storage,
+			final String user,
+			final String token)
+			throws Exception {
+		final Instant now = Instant.now();
+		final StoredToken st = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName(user))
+				.withLifeTime(now, now.plusSeconds(3600)).build();
+		storage.storeToken(st, hashed(token).getTokenHash());
+		return st;
+	}
+
+	private IncomingHashedToken hashed(final String token) throws Exception {
+		return new IncomingToken(token).getHashedToken();
+	}
+
+	private void failGetToken(final IncomingHashedToken token) {
+		try {
+			storage.getToken(token);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NoSuchTokenException("Token not found"));
+		}
+	}
+
+	private void failGetTokenAndUser(final IncomingHashedToken token) {
+		try {
+			storage.getTokenAndUser(token);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NoSuchTokenException("Token not found"));
+		}
+	}
+
+	@Test
+	public void stopRecordingChanges() throws Exception {
+		final long changes = db.getCollection("changes").count();
+		storage.stopRecordingChanges();
+		storeToken(storage, "bar", "hash1");
+		storage.deleteTokens(new UserName("bar"));
+		storage.deleteTokens();
+
+		assertThat("incorrect changes", db.getCollection("changes").count(), is(changes));
+
+		// starting the feed records changes again
+		final StorageChangeListener listener = startFeed();
+		storage.deleteTokens();
+
+		verify(listener, timeout(WAIT_MS)).allTokensDeleted();
+	}
+
+	@Test
+	public void stopRecordingChangesFailRunning() throws Exception {
+		startFeed();
+		try {
+			storage.stopRecordingChanges();
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new IllegalStateException(
+					"Changes cannot be ignored while the change feed is running"));
+		}
+	}
+
+	@Test
+	public void startFailNull() throws Exception {
+		failStart(null, new NullPointerException("listener"));
+	}
+
+	@Test
+	public void startFailBadFilterInterval() throws Exception {
+		try {
+			storage.startChangeFeed(mock(StorageChangeListener.class), -1);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new IllegalArgumentException(
+					"tokenFilterRebuildIntervalMS must be at least 0"));
+		}
+	}
+
+	@Test
+	public void startFailRunning() throws Exception {
+		startFeed();
+		failStart(mock(StorageChangeListener.class),
+				new IllegalStateException("A change listener is already registered"));
+	}
+
+	private void failStart(final StorageChangeListener listener, final Exception expected) {
+		try {
+			storage.startChangeFeed(listener);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+}
@@ -8,9 +8,11 @@ import static us.kbase.test.auth2.TestCommon.set;
 
 import java.time.Instant;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.junit.Test;
 
 import us.kbase.auth2.lib.CustomRole;
@@ -231,6 +233,39 @@ public class MongoStorageCustomRoleTest extends MongoStorageTester {
 		
 		//out of band deletion, should never happen under normal conditions
 		db.getCollection("cust_roles").deleteOne(new Document("id", "foo"));
+		// the out of band deletion isn't visible until the role catalog is refreshed
+		storage.getCustomRoles();
+		
+		assertThat("incorrect roles", storage.getUser(new UserName("foo")).getCustomRoles(),
+				is(set("bar")));
+		
+		// the dangling role is removed from the user in the background
+		final long start = System.currentTimeMillis();
+		List<?> roles = getUserRoleIDs("foo");
+		while (roles.size() != 1 && System.currentTimeMillis() - start < 5000) {
+			Thread.sleep(50);
+			roles = getUserRoleIDs("foo");
+		}
+		assertThat("incorrect role count", roles.size(), is(1));
+	}
+	
+	private List<?> getUserRoleIDs(final String user) {
+		return (List<?>) db.getCollection("users").find(new Document("user", user))
+				.first().get("custrls");
+	}
+	
+	@Test
+	public void roleAddedOutOfBand() throws Exception {
+		storage.createUser(NewUser.getBuilder(
+				new UserName("foo"), new DisplayName("bar"), NOW, REMOTE).build());
+		storage.setCustomRole(new CustomRole("foo", "bleah"));
+		
+		// simulates a role created and assigned via another server instance
+		final ObjectId id = new ObjectId();
+		db.getCollection("cust_roles").insertOne(new Document("_id", id)
+				.append("id", "bar").append("desc", "baz"));
+		db.getCollection("users").updateOne(new Document("user", "foo"),
+				new Document("$addToSet", new Document("custrls", id)));
 		
 		assertThat("incorrect roles", storage.getUser(new UserName("foo")).getCustomRoles(),
 				is(set("bar")));
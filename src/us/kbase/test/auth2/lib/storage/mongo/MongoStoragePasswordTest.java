@@ -13,6 +13,7 @@ import org.junit.Test;
 
 import com.google.common.base.Optional;
 
+import us.kbase.auth2.cryptutils.PasswordHashParameters;
 import us.kbase.auth2.lib.DisplayName;
 import us.kbase.auth2.lib.PasswordHashAndSalt;
 import us.kbase.auth2.lib.UserName;
@@ -21,6 +22,7 @@ import us.kbase.auth2.lib.exceptions.NoSuchUserException;
 import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
 import us.kbase.auth2.lib.identity.RemoteIdentityID;
 import us.kbase.auth2.lib.identity.RemoteIdentity;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
 import us.kbase.auth2.lib.storage.mongo.Fields;
 import us.kbase.auth2.lib.user.LocalUser;
 import us.kbase.auth2.lib.user.NewUser;
@@ -151,6 +153,151 @@ public class MongoStoragePasswordTest extends MongoStorageTester {
 		assertThat("inccorect reset time", updated.getLastPwdReset(), is(Optional.of(i)));
 	}
 	
+	@Test
+	public void passwordParameters() throws Exception {
+		final PasswordHashParameters params = new PasswordHashParameters(
+				"PBKDF2WithHmacSHA512", 30000, 512);
+		final byte[] passwordHash = "foobarbaz1".getBytes(StandardCharsets.UTF_8);
+		final byte[] salt = "wo".getBytes(StandardCharsets.UTF_8);
+		storage.createLocalUser(LocalUser.getLocalUserBuilder(
+				new UserName("foo"), new DisplayName("bar"), NOW).build(),
+				new PasswordHashAndSalt(passwordHash, salt, params));
+		
+		assertThat("incorrect params", storage.getPasswordHashAndSalt(new UserName("foo"))
+				.getParameters(), is(params));
+		
+		final PasswordHashParameters params2 = new PasswordHashParameters(
+				"PBKDF2WithHmacSHA256", 40000, 256);
+		when(mockClock.instant()).thenReturn(Instant.ofEpochMilli(8000));
+		storage.changePassword(new UserName("foo"),
+				new PasswordHashAndSalt(passwordHash, salt, params2), false);
+		
+		assertThat("incorrect params", storage.getPasswordHashAndSalt(new UserName("foo"))
+				.getParameters(), is(params2));
+	}
+	
+	@Test
+	public void passwordParametersAbsent() throws Exception {
+		// hashes stored before the parameters were recorded use the original parameters
+		final byte[] passwordHash = "foobarbaz1".getBytes(StandardCharsets.UTF_8);
+		final byte[] salt = "wo".getBytes(StandardCharsets.UTF_8);
+		storage.createLocalUser(LocalUser.getLocalUserBuilder(
+				new UserName("foo"), new DisplayName("bar"), NOW).build(),
+				new PasswordHashAndSalt(passwordHash, salt));
+		db.getCollection("users").updateOne(new Document(Fields.USER_NAME, "foo"),
+				new Document("$unset", new Document(Fields.USER_PWD_ALGORITHM, "")
+						.append(Fields.USER_PWD_ITERATIONS, "")
+						.append(Fields.USER_PWD_KEY_LENGTH, "")));
+		
+		assertThat("incorrect params", storage.getPasswordHashAndSalt(new UserName("foo"))
+				.getParameters(), is(PasswordHashParameters.ORIGINAL));
+	}
+	
+	@Test
+	public void passwordParametersFailBadData() throws Exception {
+		final byte[] passwordHash = "foobarbaz1".getBytes(StandardCharsets.UTF_8);
+		final byte[] salt = "wo".getBytes(StandardCharsets.UTF_8);
+		storage.createLocalUser(LocalUser.getLocalUserBuilder(
+				new UserName("foo"), new DisplayName("bar"), NOW).build(),
+				new PasswordHashAndSalt(passwordHash, salt));
+		db.getCollection("users").updateOne(new Document(Fields.USER_NAME, "foo"),
+				new Document("$set", new Document(Fields.USER_PWD_ITERATIONS, 0)));
+		
+		try {
+			storage.getPasswordHashAndSalt(new UserName("foo"));
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new AuthStorageException(
+					"Illegal value stored in db: iterations must be at least 1"));
+		}
+	}
+	
+	@Test
+	public void replacePasswordHash() throws Exception {
+		final byte[] passwordHash = "foobarbaz1".getBytes(StandardCharsets.UTF_8);
+		final byte[] salt = "wo".getBytes(StandardCharsets.UTF_8);
+		storage.createLocalUser(LocalUser.getLocalUserBuilder(
+				new UserName("foo"), new DisplayName("bar"), NOW).build(),
+				new PasswordHashAndSalt(passwordHash, salt));
+		storage.forcePasswordReset(new UserName("foo"));
+		
+		final PasswordHashParameters params = new PasswordHashParameters(
+				"PBKDF2WithHmacSHA256", 40000, 256);
+		final boolean replaced = storage.replacePasswordHash(new UserName("foo"),
+				new PasswordHashAndSalt(passwordHash, salt),
+				new PasswordHashAndSalt("foobarbaz2".getBytes(StandardCharsets.UTF_8),
+						"wo2".getBytes(StandardCharsets.UTF_8), params));
+		
+		assertThat("incorrect replaced", replaced, is(true));
+		final PasswordHashAndSalt creds = storage.getPasswordHashAndSalt(new UserName("foo"));
+		assertThat("incorrect pasword",
+				new String(creds.getPasswordHash(), StandardCharsets.UTF_8), is("foobarbaz2"));
+		assertThat("incorrect salt", new String(creds.getSalt(), StandardCharsets.UTF_8),
+				is("wo2"));
+		assertThat("incorrect params", creds.getParameters(), is(params));
+		final LocalUser user = storage.getLocalUser(new UserName("foo"));
+		assertThat("incorrect force reset", user.isPwdResetRequired(), is(true));
+		assertThat("incorrect last reset date", user.getLastPwdReset(), is(Optional.absent()));
+	}
+	
+	@Test
+	public void replacePasswordHashNoMatch() throws Exception {
+		final byte[] passwordHash = "foobarbaz1".getBytes(StandardCharsets.UTF_8);
+		final byte[] salt = "wo".getBytes(StandardCharsets.UTF_8);
+		storage.createLocalUser(LocalUser.getLocalUserBuilder(
+				new UserName("foo"), new DisplayName("bar"), NOW).build(),
+				new PasswordHashAndSalt(passwordHash, salt));
+		storage.createUser(NewUser.getBuilder(
+				new UserName("foo3"), new DisplayName("bar"), NOW, REMOTE).build());
+		final PasswordHashAndSalt newCreds = new PasswordHashAndSalt(
+				"foobarbaz2".getBytes(StandardCharsets.UTF_8),
+				"wo2".getBytes(StandardCharsets.UTF_8));
+		
+		// hash changed
+		assertThat("incorrect replaced", storage.replacePasswordHash(new UserName("foo"),
+				new PasswordHashAndSalt("foobarbaz3".getBytes(StandardCharsets.UTF_8), salt),
+				newCreds), is(false));
+		// salt changed
+		assertThat("incorrect replaced", storage.replacePasswordHash(new UserName("foo"),
+				new PasswordHashAndSalt(passwordHash, "wo3".getBytes(StandardCharsets.UTF_8)),
+				newCreds), is(false));
+		// no user
+		assertThat("incorrect replaced", storage.replacePasswordHash(new UserName("foo2"),
+				new PasswordHashAndSalt(passwordHash, salt), newCreds), is(false));
+		// not a local user
+		assertThat("incorrect replaced", storage.replacePasswordHash(new UserName("foo3"),
+				new PasswordHashAndSalt(passwordHash, salt), newCreds), is(false));
+		
+		final PasswordHashAndSalt creds = storage.getPasswordHashAndSalt(new UserName("foo"));
+		assertThat("incorrect pasword",
+				new String(creds.getPasswordHash(), StandardCharsets.UTF_8), is("foobarbaz1"));
+	}
+	
+	@Test
+	public void replacePasswordHashFailNulls() throws Exception {
+		final PasswordHashAndSalt creds = new PasswordHashAndSalt(
+				"foobarbaz1".getBytes(StandardCharsets.UTF_8),
+				"wo".getBytes(StandardCharsets.UTF_8));
+		failReplacePasswordHash(null, creds, creds, new NullPointerException("name"));
+		failReplacePasswordHash(new UserName("foo"), null, creds,
+				new NullPointerException("oldCreds"));
+		failReplacePasswordHash(new UserName("foo"), creds, null,
+				new NullPointerException("newCreds"));
+	}
+	
+	private void failReplacePasswordHash(
+			final UserName name,
+			final PasswordHashAndSalt oldCreds,
+			final PasswordHashAndSalt newCreds,
+			final Exception e) {
+		try {
+			storage.replacePasswordHash(name, oldCreds, newCreds);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+	
 	@Test
 	public void changePasswordFailNulls() throws Exception {
 		final byte[] pwd = "foobarbaz1".getBytes(StandardCharsets.UTF_8);
@@ -0,0 +1,92 @@
+package us.kbase.test.auth2.lib.storage.mongo;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Test;
+
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.UserSearchSpec;
+import us.kbase.auth2.lib.identity.RemoteIdentity;
+import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
+import us.kbase.auth2.lib.identity.RemoteIdentityID;
+import us.kbase.auth2.lib.user.NewUser;
+import us.kbase.test.auth2.TestCommon;
+
+public class MongoStorageSearchUsersTest extends MongoStorageTester {
+
+	private static final Instant NOW = Instant.now();
+
+	private void createUser(final String name, final String displayName, final int id)
+			throws Exception {
+		storage.createUser(NewUser.getBuilder(
+				new UserName(name), new DisplayName(displayName), NOW, new RemoteIdentity(
+						new RemoteIdentityID("prov", "bar" + id),
+						new RemoteIdentityDetails("user" + id, "full" + id, "email" + id)))
+				.build());
+	}
+
+	private List<String> searchPage(final UserSearchSpec spec, final int limit)
+			throws Exception {
+		final List<String> ret = new LinkedList<>();
+		storage.searchUsers(spec, limit, (u, d) -> ret.add(u.getName() + " " + d.getName()));
+		return ret;
+	}
+
+	@Test
+	public void searchUsersPaged() throws Exception {
+		createUser("wugga", "wonk", 1);
+		createUser("whee", "bar", 2);
+		createUser("foow", "whoo", 3);
+		createUser("wa", "yyy", 4);
+
+		assertThat("incorrect users", searchPage(UserSearchSpec.getBuilder().build(), 2),
+				is(Arrays.asList("foow whoo", "wa yyy")));
+		assertThat("incorrect users", searchPage(UserSearchSpec.getBuilder()
+				.withSearchAfter(new UserName("wa")).build(), 2),
+				is(Arrays.asList("whee bar", "wugga wonk")));
+		assertThat("incorrect users", searchPage(UserSearchSpec.getBuilder()
+				.withSearchAfter(new UserName("whee")).build(), 2),
+				is(Arrays.asList("wugga wonk")));
+		assertThat("incorrect users", searchPage(UserSearchSpec.getBuilder()
+				.withSearchAfter(new UserName("wugga")).build(), 2),
+				is(Arrays.asList()));
+	}
+
+	@Test
+	public void searchUsersPagedWithPrefix() throws Exception {
+		createUser("wugga", "wonk", 1);
+		createUser("whee", "bar", 2);
+		createUser("foow", "whoo", 3);
+		createUser("wa", "yyy", 4);
+
+		assertThat("incorrect users", searchPage(UserSearchSpec.getBuilder()
+				.withSearchPrefix("w").withSearchOnUserName(true)
+				.withSearchAfter(new UserName("wa")).build(), 5),
+				is(Arrays.asList("whee bar", "wugga wonk")));
+		assertThat("incorrect users", searchPage(UserSearchSpec.getBuilder()
+				.withSearchPrefix("w").withSearchAfter(new UserName("foow")).build(), 5),
+				is(Arrays.asList("wa yyy", "whee bar", "wugga wonk")));
+		assertThat("incorrect users", searchPage(UserSearchSpec.getBuilder()
+				.withSearchPrefix("w").build(), 1),
+				is(Arrays.asList("foow whoo")));
+	}
+
+	@Test
+	public void searchUsersFailLimit() throws Exception {
+		try {
+			storage.searchUsers(UserSearchSpec.getBuilder().build(), 0, (u, d) -> {});
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got,
+					new IllegalArgumentException("limit must be at least 1"));
+		}
+	}
+}
@@ -16,6 +16,7 @@ import java.util.regex.Pattern;
 import org.bson.Document;
 import org.junit.Test;
 
+import com.mongodb.ReadPreference;
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
@@ -35,6 +36,19 @@ public class MongoStorageStartUpTest extends MongoStorageTester {
 		} catch (NullPointerException e) {
 			assertThat("incorrect exception message", e.getMessage(), is("db"));
 		}
+		try {
+			new MongoStorage(null, ReadPreference.primary());
+			fail("expected exception");
+		} catch (NullPointerException e) {
+			assertThat("incorrect exception message", e.getMessage(), is("db"));
+		}
+		try {
+			new MongoStorage(db, null);
+			fail("expected exception");
+		} catch (NullPointerException e) {
+			assertThat("incorrect exception message", e.getMessage(),
+					is("tokenReadPreference"));
+		}
 	}
 	
 	@Test
@@ -49,6 +63,7 @@ public class MongoStorageStartUpTest extends MongoStorageTester {
 		assertThat("correct config key & value", (String)d.get("schema"), is("schema"));
 		assertThat("not in update", (Boolean)d.get("inupdate"), is(false));
 		assertThat("schema v1", (Integer)d.get("schemaver"), is(1));
+		assertThat("user name parts added", (Boolean)d.get("usernameparts"), is(true));
 		
 		//check startup works with the config object in place
 		final MongoStorage ms = new MongoStorage(db);
@@ -83,6 +98,33 @@ public class MongoStorageStartUpTest extends MongoStorageTester {
 		}
 	}
 	
+	@Test
+	public void startUpRecreatesMissingIndex() throws Exception {
+		final MongoDatabase db = mc.getDatabase("startUpRecreatesMissingIndex");
+		new MongoStorage(db);
+		final Set<Document> indexes = new HashSet<>();
+		db.getCollection("users").listIndexes().forEach((Consumer<Document>) indexes::add);
+		
+		db.getCollection("users").dropIndex("dispcan_1");
+		new MongoStorage(db);
+		final Set<Document> got = new HashSet<>();
+		db.getCollection("users").listIndexes().forEach((Consumer<Document>) got::add);
+		assertThat("incorrect indexes", got, is(indexes));
+	}
+	
+	@Test
+	public void startUpWithIndexWithDifferentOptions() throws Exception {
+		final MongoDatabase db = mc.getDatabase("startUpWithIndexWithDifferentOptions");
+		// the index exists, but isn't unique, so it must not be skipped
+		db.getCollection("cust_roles").createIndex(new Document("id", 1));
+		try {
+			new MongoStorage(db);
+			fail("started mongo with bad index");
+		} catch (StorageInitException e) {
+			TestCommon.assertExceptionMessageContains(e, "Failed to create index: ");
+		}
+	}
+	
 	@Test
 	public void startUpWithBadSchemaVersion() throws Exception {
 		final MongoDatabase db = mc.getDatabase("startUpWithBadSchemaVersion");
@@ -132,11 +174,13 @@ public class MongoStorageStartUpTest extends MongoStorageTester {
 	public void checkCollectionNames() throws Exception {
 		final Set<String> names = new HashSet<>();
 		final Set<String> expected = set(
+				"changes",
 				"config",
 				"config_app",
 				"config_ext",
 				"config_prov",
 				"cust_roles",
+				"revoked",
 				"tempdata",
 				"tokens",
 				"users");
@@ -149,6 +193,18 @@ public class MongoStorageStartUpTest extends MongoStorageTester {
 		assertThat("incorrect collection names", names, is(expected));
 	}
 	
+	@Test
+	public void indexesChanges() {
+		final Set<Document> indexes = new HashSet<>();
+		db.getCollection("changes").listIndexes().forEach((Consumer<Document>) indexes::add);
+		assertThat("incorrect indexes", indexes, is(set(
+				new Document("v", indexVer)
+						.append("key", new Document("_id", 1))
+						.append("name", "_id_")
+						.append("ns", "test_mongostorage.changes")
+				)));
+	}
+	
 	@Test
 	public void indexesConfig() {
 		final Set<Document> indexes = new HashSet<>();
@@ -234,6 +290,46 @@ public class MongoStorageStartUpTest extends MongoStorageTester {
 				)));
 	}
 	
+	@Test
+	public void changesCappedAndStarted() {
+		// the database is reset before each test, so this checks the reset keeps the collection
+		final Document stats = db.runCommand(new Document("collStats", "changes"));
+		assertThat("incorrect capped", stats.getBoolean("capped"), is(true));
+		assertThat("incorrect change count", db.getCollection("changes").count(), is(1L));
+	}
+	
+	@Test
+	public void indexesRevoked() {
+		final Set<Document> indexes = new HashSet<>();
+		db.getCollection("revoked").listIndexes().forEach((Consumer<Document>) indexes::add);
+		assertThat("incorrect indexes", indexes, is(set(
+				new Document("v", indexVer)
+						.append("unique", true)
+						.append("key", new Document("id", 1))
+						.append("name", "id_1")
+						.append("ns", "test_mongostorage.revoked"),
+				new Document("v", indexVer)
+						.append("key", new Document("revoked", 1))
+						.append("name", "revoked_1")
+						.append("ns", "test_mongostorage.revoked"),
+				new Document("v", indexVer)
+						.append("key", new Document("expires", 1))
+						.append("name", "expires_1")
+						.append("ns", "test_mongostorage.revoked")
+						.append("expireAfterSeconds", 0L),
+				new Document("v", indexVer)
+						.append("unique", true)
+						.append("sparse", true)
+						.append("key", new Document("seq", 1))
+						.append("name", "seq_1")
+						.append("ns", "test_mongostorage.revoked"),
+				new Document("v", indexVer)
+						.append("key", new Document("_id", 1))
+						.append("name", "_id_")
+						.append("ns", "test_mongostorage.revoked")
+				)));
+	}
+	
 	@Test
 	public void indexesTempData() {
 		final Set<Document> indexes = new HashSet<>();
@@ -330,6 +426,15 @@ public class MongoStorageStartUpTest extends MongoStorageTester {
 						.append("unique", true)
 						.append("key", new Document("user", 1))
 						.append("name", "user_1")
+						.append("ns", "test_mongostorage.users"),
+				new Document("v", indexVer)
+						.append("key", new Document("userbase", 1).append("usersuf", 1))
+						.append("name", "userbase_1_usersuf_1")
+						.append("ns", "test_mongostorage.users"),
+				new Document("v", indexVer)
+						.append("key", new Document("user", 1).append("display", 1)
+								.append("dsblereas", 1))
+						.append("name", "user_1_display_1_dsblereas_1")
 						.append("ns", "test_mongostorage.users")
 				)));
 	}
@@ -0,0 +1,93 @@
+package us.kbase.test.auth2.lib.storage.mongo;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.UUID;
+
+import us.kbase.auth2.lib.CustomRole;
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.identity.RemoteIdentity;
+import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
+import us.kbase.auth2.lib.identity.RemoteIdentityID;
+import us.kbase.auth2.lib.storage.mongo.MongoStorage;
+import us.kbase.auth2.lib.token.IncomingHashedToken;
+import us.kbase.auth2.lib.token.IncomingToken;
+import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenType;
+import us.kbase.auth2.lib.user.NewUser;
+import us.kbase.test.auth2.MongoStorageTestManager;
+
+/** Compares the latency of retrieving a token and the token's user from MongoDB with separate
+ * token and user queries to retrieving them with a single combined request.
+ *
+ * Uses the MongoDB settings in test.cfg, as for the MongoDB storage tests. Takes an optional
+ * argument for the number of iterations to run for each method.
+ *
+ * Note that MongoDB versions prior to 3.2 do not support the combined request, so both methods
+ * will perform similarly.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class MongoStorageTokenAndUserBenchmark {
+
+	private interface Request {
+		void run() throws Exception;
+	}
+
+	public static void main(final String[] args) throws Exception {
+		final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		final MongoStorageTestManager manager = new MongoStorageTestManager(
+				"benchmark_tokenanduser");
+		try {
+			final MongoStorage storage = manager.storage;
+			final UserName user = new UserName("foo");
+			storage.createUser(NewUser.getBuilder(
+					user, new DisplayName("bar"), Instant.now(), new RemoteIdentity(
+							new RemoteIdentityID("prov", "id"),
+							new RemoteIdentityDetails("user", "full", "email")))
+					.build());
+			storage.setCustomRole(new CustomRole("role", "desc"));
+			storage.updateCustomRoles(
+					user, Collections.singleton("role"), Collections.emptySet());
+			final IncomingToken token = new IncomingToken("sometoken");
+			final Instant now = Instant.now();
+			storage.storeToken(StoredToken.getBuilder(TokenType.LOGIN, UUID.randomUUID(), user)
+					.withLifeTime(now, now.plusSeconds(24 * 3600)).build(),
+					token.getHashedToken().getTokenHash());
+			final IncomingHashedToken ht = token.getHashedToken();
+
+			System.out.println(String.format("MongoDB %s, %s iterations",
+					manager.mongoDBVer, iterations));
+			time("Separate requests", iterations,
+					() -> storage.getUser(storage.getToken(ht).getUserName()));
+			time("Combined request ", iterations, () -> storage.getTokenAndUser(ht));
+		} finally {
+			manager.destroy();
+		}
+	}
+
+	private static void time(final String name, final int iterations, final Request r)
+			throws Exception {
+		for (int i = 0; i < iterations / 10; i++) { // warm up
+			r.run();
+		}
+		final long[] times = new long[iterations];
+		for (int i = 0; i < iterations; i++) {
+			final long start = System.nanoTime();
+			r.run();
+			times[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(times);
+		System.out.println(String.format("%s: p50 %.1f us, p99 %.1f us, mean %.1f us", name,
+				percentile(times, 0.5), percentile(times, 0.99),
+				Arrays.stream(times).average().getAsDouble() / 1000));
+	}
+
+	// times must be sorted. Returns microseconds.
+	private static double percentile(final long[] times, final double percentile) {
+		final int index = (int) Math.ceil(percentile * times.length) - 1;
+		return times[Math.max(0, index)] / 1000.0;
+	}
+}
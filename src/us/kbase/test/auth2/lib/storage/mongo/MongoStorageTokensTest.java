@@ -8,24 +8,51 @@ import static us.kbase.test.auth2.TestCommon.set;
 
 import java.net.InetAddress;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import org.bson.Document;
 import org.junit.Test;
 
+import com.google.common.collect.ImmutableMap;
+import com.mongodb.ReadPreference;
+
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.Role;
 import us.kbase.auth2.lib.TokenCreationContext;
 import us.kbase.auth2.lib.UserName;
 import us.kbase.auth2.lib.exceptions.NoSuchTokenException;
+import us.kbase.auth2.lib.exceptions.NoSuchUserException;
+import us.kbase.auth2.lib.identity.RemoteIdentity;
+import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
+import us.kbase.auth2.lib.identity.RemoteIdentityID;
+import us.kbase.auth2.lib.storage.mongo.MongoStorage;
 import us.kbase.auth2.lib.token.IncomingHashedToken;
 import us.kbase.auth2.lib.token.IncomingToken;
 import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenAndUser;
+import us.kbase.auth2.lib.token.TokenAndUserAuthInfo;
+import us.kbase.auth2.lib.token.TokenAuthInfo;
 import us.kbase.auth2.lib.token.TokenName;
+import us.kbase.auth2.lib.token.TokenRevocation;
 import us.kbase.auth2.lib.token.TokenType;
+import us.kbase.auth2.lib.user.NewUser;
+import us.kbase.auth2.lib.user.UserAuthInfo;
 import us.kbase.test.auth2.TestCommon;
 
 public class MongoStorageTokensTest extends MongoStorageTester {
 	
+	private static final RemoteIdentity REMOTE = new RemoteIdentity(
+			new RemoteIdentityID("prov", "bar1"),
+			new RemoteIdentityDetails("user1", "full1", "email1"));
+	
 	@Test
 	public void storeAndGet() throws Exception {
 		final UUID id = UUID.randomUUID();
@@ -212,6 +239,180 @@ public class MongoStorageTokensTest extends MongoStorageTester {
 		}
 	}
 	
+	@Test
+	public void getTokenAndUser() throws Exception {
+		final Instant now = Instant.now();
+		storage.createUser(NewUser.getBuilder(
+				new UserName("bar"), new DisplayName("d"), now, REMOTE).build());
+		final StoredToken ht = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("bar"))
+				.withLifeTime(now, now.plusSeconds(10))
+				.withTokenName(new TokenName("foo")).build();
+		storage.storeToken(ht, "nJKFR6Xc4vzCeI3jT+FjlC9k5Q/qVw0zd0gi1erL8ew=");
+		
+		final TokenAndUser tu = storage.getTokenAndUser(
+				new IncomingToken("sometoken").getHashedToken());
+		assertThat("incorrect token and user", tu,
+				is(new TokenAndUser(ht, storage.getUser(new UserName("bar")))));
+	}
+	
+	@Test
+	public void getTokenAndUserFailNull() throws Exception {
+		failGetTokenAndUser(null, new NullPointerException("token"));
+	}
+	
+	@Test
+	public void getTokenAndUserFailNoSuchToken() throws Exception {
+		failGetTokenAndUser(new IncomingToken("foo").getHashedToken(),
+				new NoSuchTokenException("Token not found"));
+	}
+	
+	@Test
+	public void getTokenAndUserFailExpired() throws Exception {
+		// see notes in getTokenFailExpired
+		final Instant now = Instant.now();
+		storage.createUser(NewUser.getBuilder(
+				new UserName("bar"), new DisplayName("d"), now, REMOTE).build());
+		final StoredToken ht = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("bar"))
+				.withLifeTime(now, now).build();
+		Thread.sleep(1);
+		storage.storeToken(ht, "nJKFR6Xc4vzCeI3jT+FjlC9k5Q/qVw0zd0gi1erL8ew=");
+		failGetTokenAndUser(new IncomingToken("sometoken").getHashedToken(),
+				new NoSuchTokenException("Token not found"));
+	}
+	
+	@Test
+	public void getTokenAndUserFailNoSuchUser() throws Exception {
+		final Instant now = Instant.now();
+		final StoredToken ht = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("bar"))
+				.withLifeTime(now, now.plusSeconds(10)).build();
+		storage.storeToken(ht, "nJKFR6Xc4vzCeI3jT+FjlC9k5Q/qVw0zd0gi1erL8ew=");
+		failGetTokenAndUser(new IncomingToken("sometoken").getHashedToken(),
+				new NoSuchUserException("bar"));
+	}
+	
+	private void failGetTokenAndUser(final IncomingHashedToken token, final Exception e) {
+		try {
+			storage.getTokenAndUser(token);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+	
+	@Test
+	public void getTokenAuthInfo() throws Exception {
+		final UUID id = UUID.randomUUID();
+		final Instant now = Instant.now();
+		final StoredToken ht = StoredToken.getBuilder(TokenType.DEV, id, new UserName("bar"))
+				.withLifeTime(now, now.plusSeconds(10))
+				.withTokenName(new TokenName("foo"))
+				.withContext(TokenCreationContext.getBuilder()
+						.withNullableAgent("ag", "agv")
+						.withCustomContext("foo", "bar").build())
+				.build();
+		storage.storeToken(ht, "nJKFR6Xc4vzCeI3jT+FjlC9k5Q/qVw0zd0gi1erL8ew=");
+		
+		assertThat("incorrect token", storage.getTokenAuthInfo(
+				new IncomingToken("sometoken").getHashedToken()),
+				is(new TokenAuthInfo(id, TokenType.DEV, new UserName("bar"),
+						now.plusSeconds(10))));
+	}
+	
+	@Test
+	public void getTokenAuthInfoFailNull() throws Exception {
+		failGetTokenAuthInfo(null, new NullPointerException("token"));
+	}
+	
+	@Test
+	public void getTokenAuthInfoFailNoSuchToken() throws Exception {
+		failGetTokenAuthInfo(new IncomingToken("foo").getHashedToken(),
+				new NoSuchTokenException("Token not found"));
+	}
+	
+	@Test
+	public void getTokenAuthInfoFailExpired() throws Exception {
+		// see notes in getTokenFailExpired
+		final Instant now = Instant.now();
+		final StoredToken ht = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("bar"))
+				.withLifeTime(now, now).build();
+		Thread.sleep(1);
+		storage.storeToken(ht, "nJKFR6Xc4vzCeI3jT+FjlC9k5Q/qVw0zd0gi1erL8ew=");
+		failGetTokenAuthInfo(new IncomingToken("sometoken").getHashedToken(),
+				new NoSuchTokenException("Token not found"));
+	}
+	
+	private void failGetTokenAuthInfo(final IncomingHashedToken token, final Exception e) {
+		try {
+			storage.getTokenAuthInfo(token);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+	
+	@Test
+	public void getTokenAndUserAuthInfo() throws Exception {
+		final Instant now = Instant.now();
+		storage.createUser(NewUser.getBuilder(
+				new UserName("bar"), new DisplayName("d"), now, REMOTE)
+				.withRole(Role.ADMIN).build());
+		final StoredToken ht = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("bar"))
+				.withLifeTime(now, now.plusSeconds(10))
+				.withContext(TokenCreationContext.getBuilder()
+						.withNullableDevice("dev").build())
+				.withTokenName(new TokenName("foo")).build();
+		storage.storeToken(ht, "nJKFR6Xc4vzCeI3jT+FjlC9k5Q/qVw0zd0gi1erL8ew=");
+		
+		final TokenAndUserAuthInfo tu = storage.getTokenAndUserAuthInfo(
+				new IncomingToken("sometoken").getHashedToken());
+		assertThat("incorrect token and user", tu, is(new TokenAndUserAuthInfo(
+				ht.getAuthInfo(),
+				new UserAuthInfo(new UserName("bar"), set(Role.ADMIN), false))));
+		
+		storage.disableAccount(new UserName("bar"), new UserName("admin"), "reason");
+		assertThat("incorrect disabled", storage.getTokenAndUserAuthInfo(
+				new IncomingToken("sometoken").getHashedToken()).getUser().isDisabled(),
+				is(true));
+	}
+	
+	@Test
+	public void getTokenAndUserAuthInfoFailNull() throws Exception {
+		failGetTokenAndUserAuthInfo(null, new NullPointerException("token"));
+	}
+	
+	@Test
+	public void getTokenAndUserAuthInfoFailNoSuchToken() throws Exception {
+		failGetTokenAndUserAuthInfo(new IncomingToken("foo").getHashedToken(),
+				new NoSuchTokenException("Token not found"));
+	}
+	
+	@Test
+	public void getTokenAndUserAuthInfoFailNoSuchUser() throws Exception {
+		final Instant now = Instant.now();
+		final StoredToken ht = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("bar"))
+				.withLifeTime(now, now.plusSeconds(10)).build();
+		storage.storeToken(ht, "nJKFR6Xc4vzCeI3jT+FjlC9k5Q/qVw0zd0gi1erL8ew=");
+		failGetTokenAndUserAuthInfo(new IncomingToken("sometoken").getHashedToken(),
+				new NoSuchUserException("bar"));
+	}
+	
+	private void failGetTokenAndUserAuthInfo(
+			final IncomingHashedToken token,
+			final Exception e) {
+		try {
+			storage.getTokenAndUserAuthInfo(token);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+	
 	@Test
 	public void getTokens() throws Exception {
 		final UUID id1 = UUID.randomUUID();
@@ -251,13 +452,84 @@ public class MongoStorageTokensTest extends MongoStorageTester {
 	@Test
 	public void getTokensFail() throws Exception {
 		try {
-			storage.getTokens(null);
+			storage.getTokens((UserName) null);
 			fail("expected exception");
 		} catch (NullPointerException e) {
 			assertThat("incorrect exception message", e.getMessage(), is("userName"));
 		}
 	}
 	
+	@Test
+	public void getTokensByHash() throws Exception {
+		final Instant now = Instant.now();
+		final StoredToken st1 = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("bar"))
+				.withLifeTime(now, now.plusSeconds(10))
+				.withTokenName(new TokenName("foo")).build();
+		final StoredToken st2 = StoredToken.getBuilder(
+				TokenType.AGENT, UUID.randomUUID(), new UserName("baz"))
+				.withLifeTime(now, now.plusSeconds(10)).build();
+		final StoredToken expired = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("bar"))
+				.withLifeTime(now, now).build();
+		final IncomingHashedToken t1 = new IncomingToken("t1").getHashedToken();
+		final IncomingHashedToken t2 = new IncomingToken("t2").getHashedToken();
+		final IncomingHashedToken t3 = new IncomingToken("t3").getHashedToken();
+		final IncomingHashedToken t4 = new IncomingToken("t4").getHashedToken();
+		storage.storeToken(st1, t1.getTokenHash());
+		storage.storeToken(st2, t2.getTokenHash());
+		storage.storeToken(expired, t3.getTokenHash());
+		Thread.sleep(1);
+		
+		assertThat("incorrect tokens", storage.getTokens(set(t1, t2, t3, t4)),
+				is(ImmutableMap.of(t1, st1, t2, st2)));
+		assertThat("incorrect tokens", storage.getTokens(set(t4)), is(Collections.emptyMap()));
+		assertThat("incorrect tokens", storage.getTokens(Collections.emptySet()),
+				is(Collections.emptyMap()));
+	}
+	
+	@Test
+	public void getTokensWithReadPreference() throws Exception {
+		// a standalone server serves secondary reads, so this only tests the reads succeed
+		final MongoStorage s = new MongoStorage(db, ReadPreference.secondaryPreferred());
+		final Instant now = Instant.now();
+		s.createUser(NewUser.getBuilder(
+				new UserName("bar"), new DisplayName("d"), now, REMOTE).build());
+		final StoredToken st = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("bar"))
+				.withLifeTime(now, now.plusSeconds(10)).build();
+		final IncomingHashedToken t1 = new IncomingToken("t1").getHashedToken();
+		final IncomingHashedToken t2 = new IncomingToken("t2").getHashedToken();
+		s.storeToken(st, t1.getTokenHash());
+		
+		assertThat("incorrect token", s.getToken(t1), is(st));
+		assertThat("incorrect token and user", s.getTokenAndUser(t1),
+				is(new TokenAndUser(st, s.getUser(new UserName("bar")))));
+		assertThat("incorrect tokens", s.getTokens(set(t1, t2)), is(ImmutableMap.of(t1, st)));
+		try {
+			s.getToken(t2);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NoSuchTokenException("Token not found"));
+		}
+	}
+	
+	@Test
+	public void getTokensByHashFail() throws Exception {
+		failGetTokens(null, new NullPointerException("tokens"));
+		failGetTokens(set(new IncomingToken("t1").getHashedToken(), null),
+				new NullPointerException("Null token in tokens"));
+	}
+	
+	private void failGetTokens(final Set<IncomingHashedToken> tokens, final Exception expected) {
+		try {
+			storage.getTokens(tokens);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+	
 	@Test
 	public void deleteToken() throws Exception {
 		final UUID id = UUID.randomUUID();
@@ -391,4 +663,220 @@ public class MongoStorageTokensTest extends MongoStorageTester {
 		assertThat("tokens remaining", storage.getTokens(new UserName("bar2")),
 				is(Collections.emptySet()));
 	}
+	
+	@Test
+	public void revokedTokens() throws Exception {
+		final Instant now = Instant.now();
+		final StoredToken ht = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("bar"))
+				.withLifeTime(now, 100000).build();
+		final StoredToken ht2 = StoredToken.getBuilder(
+				TokenType.DEV, UUID.randomUUID(), new UserName("bar"))
+				.withLifeTime(now, 200000).build();
+		final StoredToken ht3 = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("bar2"))
+				.withLifeTime(now, 300000).build();
+		final StoredToken ht4 = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("bar2"))
+				.withLifeTime(now, 400000).build();
+		storage.storeToken(ht, "1");
+		storage.storeToken(ht2, "2");
+		storage.storeToken(ht3, "3");
+		storage.storeToken(ht4, "4");
+		
+		assertThat("incorrect revoked", storage.getRevokedTokens(Instant.EPOCH),
+				is(Collections.emptyMap()));
+		
+		storage.deleteToken(new UserName("bar"), ht.getId());
+		assertThat("incorrect revoked", storage.getRevokedTokens(Instant.EPOCH),
+				is(ImmutableMap.of(ht.getId(), ht.getExpirationDate())));
+		
+		Thread.sleep(2);
+		final Instant mid = Instant.now();
+		Thread.sleep(2);
+		storage.deleteTokens(new UserName("bar"));
+		assertThat("incorrect revoked", storage.getRevokedTokens(mid),
+				is(ImmutableMap.of(ht2.getId(), ht2.getExpirationDate())));
+		
+		storage.deleteTokens();
+		assertThat("incorrect revoked", storage.getRevokedTokens(Instant.EPOCH),
+				is(ImmutableMap.of(
+						ht.getId(), ht.getExpirationDate(),
+						ht2.getId(), ht2.getExpirationDate(),
+						ht3.getId(), ht3.getExpirationDate(),
+						ht4.getId(), ht4.getExpirationDate())));
+		assertThat("incorrect revoked", storage.getRevokedTokens(now.plusSeconds(3600)),
+				is(Collections.emptyMap()));
+	}
+	
+	@Test
+	public void revokedTokensBatches() throws Exception {
+		final Instant now = Instant.now();
+		final Map<UUID, Instant> expected = new HashMap<>();
+		for (int i = 0; i < 1001; i++) {
+			final StoredToken st = StoredToken.getBuilder(
+					TokenType.LOGIN, UUID.randomUUID(), new UserName("bar"))
+					.withLifeTime(now, 100000 + i).build();
+			storage.storeToken(st, "hash" + i);
+			expected.put(st.getId(), st.getExpirationDate());
+		}
+		
+		storage.deleteTokens(new UserName("bar"));
+		
+		assertThat("tokens remaining", storage.getTokens(new UserName("bar")),
+				is(Collections.emptySet()));
+		assertThat("incorrect revoked", storage.getRevokedTokens(Instant.EPOCH), is(expected));
+	}
+	
+	@Test
+	public void revokedTokensNoSuchToken() throws Exception {
+		final UUID id = UUID.randomUUID();
+		failDeleteToken(new UserName("bar"), id, new NoSuchTokenException(
+				String.format("No token %s for user bar exists", id)));
+		
+		assertThat("incorrect revoked", storage.getRevokedTokens(Instant.EPOCH),
+				is(Collections.emptyMap()));
+	}
+	
+	@Test
+	public void getRevokedTokensFail() throws Exception {
+		try {
+			storage.getRevokedTokens(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("since"));
+		}
+	}
+	
+	// revocation times are set by the storage system, so check they're in the expected range
+	private void assertRevocationsCorrect(
+			final List<TokenRevocation> got,
+			final long firstSeq,
+			final Set<StoredToken> expected,
+			final Instant start) {
+		final Instant end = Instant.now();
+		assertThat("incorrect revocation count", got.size(), is(expected.size()));
+		final Set<StoredToken> gotTokens = new HashSet<>();
+		long seq = firstSeq;
+		for (final TokenRevocation r: got) {
+			assertThat("incorrect seq", r.getSequence(), is(seq++));
+			assertThat("incorrect revocation time", !r.getRevocationTime().isBefore(
+					start.truncatedTo(ChronoUnit.MILLIS)) && !r.getRevocationTime().isAfter(end),
+					is(true));
+			for (final StoredToken st: expected) {
+				if (st.getId().equals(r.getTokenID())) {
+					assertThat("incorrect user", r.getUserName(), is(st.getUserName()));
+					assertThat("incorrect expiry", r.getExpirationDate(),
+							is(st.getExpirationDate()));
+					gotTokens.add(st);
+				}
+			}
+		}
+		assertThat("incorrect tokens", gotTokens, is(expected));
+	}
+	
+	@Test
+	public void tokenRevocations() throws Exception {
+		final Instant now = Instant.now();
+		final StoredToken ht = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("bar"))
+				.withLifeTime(now, 100000).build();
+		final StoredToken ht2 = StoredToken.getBuilder(
+				TokenType.DEV, UUID.randomUUID(), new UserName("bar"))
+				.withLifeTime(now, 200000).build();
+		final StoredToken ht3 = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("bar2"))
+				.withLifeTime(now, 300000).build();
+		final StoredToken ht4 = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("bar3"))
+				.withLifeTime(now, 400000).build();
+		storage.storeToken(ht, "1");
+		storage.storeToken(ht2, "2");
+		storage.storeToken(ht3, "3");
+		storage.storeToken(ht4, "4");
+		
+		assertThat("incorrect seq", storage.getTokenRevocationSequence(), is(0L));
+		assertThat("incorrect revocations", storage.getTokenRevocations(0, 10),
+				is(Collections.emptyList()));
+		
+		storage.deleteToken(new UserName("bar"), ht.getId());
+		assertThat("incorrect seq", storage.getTokenRevocationSequence(), is(1L));
+		assertRevocationsCorrect(storage.getTokenRevocations(0, 10), 1, set(ht), now);
+		
+		storage.deleteTokens(new UserName("bar"));
+		assertThat("incorrect seq", storage.getTokenRevocationSequence(), is(2L));
+		assertRevocationsCorrect(storage.getTokenRevocations(1, 10), 2, set(ht2), now);
+		
+		storage.deleteTokens();
+		assertThat("incorrect seq", storage.getTokenRevocationSequence(), is(4L));
+		assertRevocationsCorrect(storage.getTokenRevocations(0, 10), 1,
+				set(ht, ht2, ht3, ht4), now);
+		assertRevocationsCorrect(storage.getTokenRevocations(2, 10), 3, set(ht3, ht4), now);
+		assertThat("incorrect revocations", storage.getTokenRevocations(4, 10),
+				is(Collections.emptyList()));
+		
+		final List<TokenRevocation> limited = storage.getTokenRevocations(1, 2);
+		assertThat("incorrect revocation count", limited.size(), is(2));
+		assertThat("incorrect seq", limited.get(0).getSequence(), is(2L));
+		assertThat("incorrect seq", limited.get(1).getSequence(), is(3L));
+	}
+	
+	@Test
+	public void tokenRevocationsBatches() throws Exception {
+		final Instant now = Instant.now();
+		final Set<StoredToken> expected = new HashSet<>();
+		for (int i = 0; i < 1001; i++) {
+			final StoredToken st = StoredToken.getBuilder(
+					TokenType.LOGIN, UUID.randomUUID(), new UserName("bar"))
+					.withLifeTime(now, 100000 + i).build();
+			storage.storeToken(st, "hash" + i);
+			expected.add(st);
+		}
+		
+		storage.deleteTokens(new UserName("bar"));
+		
+		assertThat("incorrect seq", storage.getTokenRevocationSequence(), is(1001L));
+		assertThat("incorrect revocation count", storage.getTokenRevocations(0, 2000).size(),
+				is(1001));
+		assertRevocationsCorrect(storage.getTokenRevocations(0, 2000), 1, expected, now);
+	}
+	
+	@Test
+	public void tokenRevocationsNoSuchToken() throws Exception {
+		final UUID id = UUID.randomUUID();
+		failDeleteToken(new UserName("bar"), id, new NoSuchTokenException(
+				String.format("No token %s for user bar exists", id)));
+		storage.deleteTokens(new UserName("bar"));
+		storage.deleteTokens();
+		
+		assertThat("incorrect seq", storage.getTokenRevocationSequence(), is(0L));
+		assertThat("incorrect revocations", storage.getTokenRevocations(0, 10),
+				is(Collections.emptyList()));
+	}
+	
+	@Test
+	public void tokenRevocationsUnsequenced() throws Exception {
+		// tokens revoked before the revocation log existed are not in the log
+		final UUID id = UUID.randomUUID();
+		final Instant exp = Instant.now().plusSeconds(3600).truncatedTo(ChronoUnit.MILLIS);
+		db.getCollection("revoked").insertOne(new Document("id", id.toString())
+				.append("expires", Date.from(exp))
+				.append("revoked", Date.from(Instant.now())));
+		
+		assertThat("incorrect revoked", storage.getRevokedTokens(Instant.EPOCH),
+				is(ImmutableMap.of(id, exp)));
+		assertThat("incorrect revocations", storage.getTokenRevocations(0, 10),
+				is(Collections.emptyList()));
+	}
+	
+	@Test
+	public void getTokenRevocationsFail() throws Exception {
+		try {
+			storage.getTokenRevocations(0, 0);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got,
+					new IllegalArgumentException("limit must be > 0"));
+		}
+	}
 }
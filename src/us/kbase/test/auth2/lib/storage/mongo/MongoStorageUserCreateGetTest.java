@@ -35,6 +35,7 @@ import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
 import us.kbase.auth2.lib.user.AuthUser;
 import us.kbase.auth2.lib.user.LocalUser;
 import us.kbase.auth2.lib.user.NewUser;
+import us.kbase.auth2.lib.user.UserAuthInfo;
 import us.kbase.test.auth2.TestCommon;
 
 /* Test creating and getting local and standard users. Does not test any other user manipulations.
@@ -401,6 +402,43 @@ public class MongoStorageUserCreateGetTest extends MongoStorageTester {
 		}
 	}
 	
+	@Test
+	public void getUserAuthInfo() throws Exception {
+		storage.createUser(NewUser.getBuilder(
+				new UserName("user1"), new DisplayName("bar1"), NOW, REMOTE1)
+				.withEmailAddress(new EmailAddress("e@g1.com"))
+				.withRole(Role.ADMIN).withRole(Role.DEV_TOKEN)
+				.build());
+		storage.createUser(NewUser.getBuilder(
+				new UserName("user2"), new DisplayName("bar2"), NOW, REMOTE2).build());
+		storage.disableAccount(new UserName("user2"), new UserName("admin"), "reason");
+		
+		assertThat("incorrect user", storage.getUserAuthInfo(new UserName("user1")),
+				is(new UserAuthInfo(new UserName("user1"), set(Role.ADMIN, Role.DEV_TOKEN),
+						false)));
+		assertThat("incorrect user", storage.getUserAuthInfo(new UserName("user2")),
+				is(new UserAuthInfo(new UserName("user2"), Collections.emptySet(), true)));
+		assertThat("incorrect user", storage.getUserAuthInfo(new UserName("user1")),
+				is(storage.getUser(new UserName("user1")).getAuthInfo()));
+	}
+	
+	@Test
+	public void getUserAuthInfoFail() throws Exception {
+		storage.createUser(NewUser.getBuilder(
+				new UserName("user1"), new DisplayName("bar1"), NOW, REMOTE1).build());
+		failGetUserAuthInfo(null, new NullPointerException("userName"));
+		failGetUserAuthInfo(new UserName("user2"), new NoSuchUserException("user2"));
+	}
+	
+	private void failGetUserAuthInfo(final UserName user, final Exception e) {
+		try {
+			storage.getUserAuthInfo(user);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+	
 	@Test
 	public void createNullUser() throws Exception {
 		failCreateUser(null, new NullPointerException("newUser"));
@@ -0,0 +1,130 @@
+package us.kbase.test.auth2.lib.storage.mongo;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+
+import org.bson.Document;
+import org.junit.Test;
+
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.identity.RemoteIdentity;
+import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
+import us.kbase.auth2.lib.identity.RemoteIdentityID;
+import us.kbase.auth2.lib.storage.mongo.MongoStorage;
+import us.kbase.auth2.lib.user.NewUser;
+import us.kbase.test.auth2.TestCommon;
+
+public class MongoStorageUserNameSuffixTest extends MongoStorageTester {
+
+	private static final Instant NOW = Instant.now();
+
+	private static int id = 0;
+
+	private void createUsers(final String... names) throws Exception {
+		for (final String n: names) {
+			id++;
+			storage.createUser(NewUser.getBuilder(
+					new UserName(n), new DisplayName("d"), NOW, new RemoteIdentity(
+							new RemoteIdentityID("prov", "id" + id),
+							new RemoteIdentityDetails("user" + id, "full", "email")))
+					.build());
+		}
+	}
+
+	private void assertSuffix(final String base, final long minimum, final long expected)
+			throws Exception {
+		assertThat("incorrect suffix", storage.getLowestAvailableUserNameSuffix(base, minimum),
+				is(expected));
+	}
+
+	@Test
+	public void noUsers() throws Exception {
+		createUsers("foo", "foob1", "fo1");
+		assertSuffix("foo", 1, 1);
+		assertSuffix("foo", 2, 2);
+	}
+
+	@Test
+	public void contiguous() throws Exception {
+		createUsers("foo", "foo1", "foo2", "foo3", "foo4", "foo5");
+		assertSuffix("foo", 1, 6);
+		assertSuffix("foo", 2, 6);
+		assertSuffix("foo", 6, 6);
+		assertSuffix("foo", 7, 7);
+	}
+
+	@Test
+	public void gaps() throws Exception {
+		createUsers("foo2", "foo3", "foo5", "foo6", "foo7", "foo9", "foo26");
+		assertSuffix("foo", 1, 1);
+		assertSuffix("foo", 2, 4);
+		assertSuffix("foo", 5, 8);
+		assertSuffix("foo", 9, 10);
+		assertSuffix("foo", 26, 27);
+	}
+
+	@Test
+	public void leadingZeros() throws Exception {
+		createUsers("foo1", "foo02", "foo0", "foo3");
+		assertSuffix("foo", 1, 2);
+	}
+
+	@Test
+	public void disabledUsers() throws Exception {
+		createUsers("foo1", "foo2");
+		when(mockClock.instant()).thenReturn(Instant.now());
+		storage.disableAccount(new UserName("foo2"), new UserName("admin"), "reason");
+		assertSuffix("foo", 1, 3);
+	}
+
+	@Test
+	public void existingUsersUpdatedAtStartup() throws Exception {
+		createUsers("foo1", "foo2", "foo4");
+		db.getCollection("users").updateMany(new Document(),
+				new Document("$unset", new Document("userbase", "").append("usersuf", "")));
+		db.getCollection("config").updateOne(new Document("schema", "schema"),
+				new Document("$unset", new Document("usernameparts", "")));
+		assertSuffix("foo", 1, 1);
+
+		new MongoStorage(db);
+
+		assertSuffix("foo", 1, 3);
+		assertThat("incorrect user", db.getCollection("users")
+				.find(new Document("user", "foo4")).first().get("usersuf"), is(4L));
+		assertThat("incorrect config", db.getCollection("config")
+				.find(new Document("schema", "schema")).first().get("usernameparts"), is(true));
+	}
+
+	@Test
+	public void existingUsersNotUpdatedAfterFirstStartup() throws Exception {
+		createUsers("foo1", "foo2", "foo4");
+		db.getCollection("users").updateMany(new Document(),
+				new Document("$unset", new Document("userbase", "").append("usersuf", "")));
+
+		new MongoStorage(db);
+
+		// the users collection is only scanned on the first startup
+		assertSuffix("foo", 1, 1);
+	}
+
+	@Test
+	public void getFail() throws Exception {
+		failGet(null, 1, new IllegalArgumentException("Missing argument: baseName"));
+		failGet("   \t  ", 1, new IllegalArgumentException("Missing argument: baseName"));
+		failGet("foo", 0, new IllegalArgumentException("minimumSuffix must be at least 1"));
+	}
+
+	private void failGet(final String base, final long minimum, final Exception expected) {
+		try {
+			storage.getLowestAvailableUserNameSuffix(base, minimum);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+}
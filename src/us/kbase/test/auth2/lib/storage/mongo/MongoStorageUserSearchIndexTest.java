@@ -0,0 +1,214 @@
+package us.kbase.test.auth2.lib.storage.mongo;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import static us.kbase.test.auth2.TestCommon.set;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.Role;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.UserSearchSpec;
+import us.kbase.auth2.lib.UserUpdate;
+import us.kbase.auth2.lib.identity.RemoteIdentity;
+import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
+import us.kbase.auth2.lib.identity.RemoteIdentityID;
+import us.kbase.auth2.lib.storage.StorageChangeListener;
+import us.kbase.auth2.lib.user.NewUser;
+
+public class MongoStorageUserSearchIndexTest extends MongoStorageTester {
+
+	private static final int WAIT_MS = 5000;
+
+	private static final Instant NOW = Instant.now();
+
+	@After
+	public void stopFeed() {
+		storage.stopChangeFeed();
+	}
+
+	private static RemoteIdentity remote(final int id) {
+		return new RemoteIdentity(new RemoteIdentityID("prov", "bar" + id),
+				new RemoteIdentityDetails("user" + id, "full" + id, "email" + id));
+	}
+
+	private void createUser(final String name, final String displayName, final int id)
+			throws Exception {
+		storage.createUser(NewUser.getBuilder(
+				new UserName(name), new DisplayName(displayName), NOW, remote(id)).build());
+	}
+
+	private void startIndex() throws Exception {
+		storage.startChangeFeed(mock(StorageChangeListener.class), 0, true);
+		final long start = System.currentTimeMillis();
+		while (!storage.isUserSearchIndexActive()) {
+			if (System.currentTimeMillis() - start > WAIT_MS) {
+				fail("index was not built");
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	private Map<UserName, DisplayName> search(final String prefix) throws Exception {
+		return storage.getUserDisplayNames(
+				UserSearchSpec.getBuilder().withSearchPrefix(prefix).build(), -1);
+	}
+
+	// waits for a change to reach the index
+	private void waitForSearch(final String prefix, final Map<UserName, DisplayName> expected)
+			throws Exception {
+		final long start = System.currentTimeMillis();
+		while (!search(prefix).equals(expected)) {
+			if (System.currentTimeMillis() - start > WAIT_MS) {
+				assertThat("incorrect users found", search(prefix), is(expected));
+			}
+			Thread.sleep(10);
+		}
+	}
+
+	private static Map<UserName, DisplayName> map(final String... namesAndDisplayNames)
+			throws Exception {
+		final Map<UserName, DisplayName> ret = new HashMap<>();
+		for (int i = 0; i < namesAndDisplayNames.length; i += 2) {
+			ret.put(new UserName(namesAndDisplayNames[i]),
+					new DisplayName(namesAndDisplayNames[i + 1]));
+		}
+		return ret;
+	}
+
+	@Test
+	public void inactiveWithoutFeed() throws Exception {
+		createUser("whee", "bar", 1);
+		assertThat("incorrect active", storage.isUserSearchIndexActive(), is(false));
+		assertThat("incorrect users found", search("w"), is(map("whee", "bar")));
+		assertThat("incorrect hits", storage.getUserSearchIndexHitCount(), is(0L));
+
+		storage.startChangeFeed(mock(StorageChangeListener.class), 0);
+		assertThat("incorrect active", storage.isUserSearchIndexActive(), is(false));
+	}
+
+	@Test
+	public void search() throws Exception {
+		createUser("foow", "whoo", 1);
+		createUser("whee", "bar", 2);
+		createUser("wugga", "wonk", 3);
+		createUser("baz", "Mr. Bat", 4);
+		startIndex();
+
+		assertThat("incorrect users found", storage.getUserDisplayNames(UserSearchSpec
+				.getBuilder().withSearchPrefix("W").withSearchOnUserName(true).build(), -1),
+				is(map("whee", "bar", "wugga", "wonk")));
+		assertThat("incorrect users found", storage.getUserDisplayNames(UserSearchSpec
+				.getBuilder().withSearchPrefix("w").withSearchOnDisplayName(true).build(), -1),
+				is(map("foow", "whoo", "wugga", "wonk")));
+		assertThat("incorrect users found", search("w"),
+				is(map("foow", "whoo", "whee", "bar", "wugga", "wonk")));
+		assertThat("incorrect users found", search("bat"), is(map("baz", "Mr. Bat")));
+		assertThat("incorrect users found", search("mr."), is(Collections.emptyMap()));
+		assertThat("incorrect users found", search("x"), is(Collections.emptyMap()));
+		assertThat("incorrect hits", storage.getUserSearchIndexHitCount(), is(6L));
+	}
+
+	@Test
+	public void searchWithLimit() throws Exception {
+		createUser("foow", "zzz", 1);
+		createUser("whee", "wa", 2);
+		createUser("wugga", "wonk", 3);
+		createUser("wa", "yyy", 4);
+		startIndex();
+
+		assertThat("incorrect users found", storage.getUserDisplayNames(UserSearchSpec
+				.getBuilder().withSearchPrefix("w").withSearchOnUserName(true).build(), 2),
+				is(map("wa", "yyy", "whee", "wa")));
+		assertThat("incorrect users found", storage.getUserDisplayNames(UserSearchSpec
+				.getBuilder().withSearchPrefix("w").withSearchOnDisplayName(true).build(), 1),
+				is(map("whee", "wa")));
+		assertThat("incorrect users found", storage.getUserDisplayNames(UserSearchSpec
+				.getBuilder().withSearchPrefix("w").build(), 3),
+				is(map("wa", "yyy", "whee", "wa", "wugga", "wonk")));
+	}
+
+	@Test
+	public void searchDisabled() throws Exception {
+		createUser("whee", "bar", 1);
+		createUser("wugga", "wonk", 2);
+		when(mockClock.instant()).thenReturn(Instant.now());
+		storage.disableAccount(new UserName("whee"), new UserName("admin"), "they suck");
+		startIndex();
+
+		assertThat("incorrect users found", search("w"), is(map("wugga", "wonk")));
+		assertThat("incorrect users found", storage.getUserDisplayNames(UserSearchSpec
+				.getBuilder().withSearchPrefix("w").withIncludeDisabled(true).build(), -1),
+				is(map("whee", "bar", "wugga", "wonk")));
+	}
+
+	@Test
+	public void roleSearchUsesDatabase() throws Exception {
+		createUser("whee", "bar", 1);
+		createUser("wugga", "wonk", 2);
+		storage.updateRoles(new UserName("whee"), set(Role.ADMIN), Collections.emptySet());
+		startIndex();
+
+		assertThat("incorrect users found", storage.getUserDisplayNames(UserSearchSpec
+				.getBuilder().withSearchPrefix("w").withSearchOnRole(Role.ADMIN).build(), -1),
+				is(map("whee", "bar")));
+		assertThat("incorrect hits", storage.getUserSearchIndexHitCount(), is(0L));
+	}
+
+	@Test
+	public void indexUpdated() throws Exception {
+		createUser("whee", "bar", 1);
+		startIndex();
+
+		createUser("wugga", "wonk", 2);
+		waitForSearch("w", map("whee", "bar", "wugga", "wonk"));
+
+		storage.updateUser(new UserName("whee"), UserUpdate.getBuilder()
+				.withDisplayName(new DisplayName("the whee")).build());
+		waitForSearch("the", map("whee", "the whee"));
+		waitForSearch("bar", Collections.emptyMap());
+
+		when(mockClock.instant()).thenReturn(Instant.now());
+		storage.disableAccount(new UserName("wugga"), new UserName("admin"), "they suck");
+		waitForSearch("w", map("whee", "the whee"));
+	}
+
+	@Test
+	public void stopFeedDisablesIndex() throws Exception {
+		createUser("whee", "bar", 1);
+		startIndex();
+		storage.stopChangeFeed();
+
+		assertThat("incorrect active", storage.isUserSearchIndexActive(), is(false));
+		assertThat("incorrect users found", search("w"), is(map("whee", "bar")));
+		assertThat("incorrect hits", storage.getUserSearchIndexHitCount(), is(0L));
+	}
+
+	@Test
+	public void pagedSearchBypassesIndex() throws Exception {
+		createUser("wugga", "wonk", 1);
+		createUser("whee", "bar", 2);
+		startIndex();
+
+		final List<UserName> users = new LinkedList<>();
+		storage.searchUsers(UserSearchSpec.getBuilder().withSearchPrefix("w").build(), 5,
+				(u, d) -> users.add(u));
+		assertThat("incorrect users", users,
+				is(Arrays.asList(new UserName("whee"), new UserName("wugga"))));
+		assertThat("incorrect hits", storage.getUserSearchIndexHitCount(), is(0L));
+	}
+}
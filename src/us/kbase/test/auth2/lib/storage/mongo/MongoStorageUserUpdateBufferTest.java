@@ -0,0 +1,184 @@
+package us.kbase.test.auth2.lib.storage.mongo;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import static us.kbase.test.auth2.TestCommon.set;
+
+import java.time.Instant;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.identity.RemoteIdentity;
+import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
+import us.kbase.auth2.lib.identity.RemoteIdentityID;
+import us.kbase.auth2.lib.user.AuthUser;
+import us.kbase.auth2.lib.user.NewUser;
+import us.kbase.test.auth2.TestCommon;
+
+public class MongoStorageUserUpdateBufferTest extends MongoStorageTester {
+
+	// long enough that the buffer is only flushed when stopped
+	private static final long NO_FLUSH_MS = 600000;
+	private static final int WAIT_MS = 5000;
+
+	private static final Instant NOW = Instant.now();
+
+	private static final RemoteIdentity REMOTE1 = new RemoteIdentity(
+			new RemoteIdentityID("prov", "bar1"),
+			new RemoteIdentityDetails("user1", "full1", "email1"));
+
+	private static final RemoteIdentity REMOTE1_UPDATE = new RemoteIdentity(
+			new RemoteIdentityID("prov", "bar1"),
+			new RemoteIdentityDetails("user1a", "full1a", "email1a"));
+
+	private static final RemoteIdentity REMOTE1_UPDATE2 = new RemoteIdentity(
+			new RemoteIdentityID("prov", "bar1"),
+			new RemoteIdentityDetails("user1b", "full1b", "email1b"));
+
+	@After
+	public void stopBuffer() {
+		storage.stopUserUpdateBuffer();
+	}
+
+	private void createUser() throws Exception {
+		storage.createUser(NewUser.getBuilder(
+				new UserName("user1"), new DisplayName("bar1"), NOW, REMOTE1).build());
+	}
+
+	@Test
+	public void noBuffer() throws Exception {
+		assertThat("incorrect size", storage.getUserUpdateBufferSize(), is(0));
+		assertThat("incorrect flush time", storage.getUserUpdateLastFlushMS(), is(-1L));
+		assertThat("incorrect flush time", storage.getUserUpdateMaxFlushMS(), is(-1L));
+		assertThat("incorrect count", storage.getUserUpdateFlushedCount(), is(0L));
+		storage.stopUserUpdateBuffer(); // noop
+	}
+
+	@Test
+	public void lastLoginCoalesced() throws Exception {
+		createUser();
+		storage.startUserUpdateBuffer(NO_FLUSH_MS);
+		final Instant login = NOW.plusSeconds(10);
+		storage.setLastLogin(new UserName("user1"), login);
+		storage.setLastLogin(new UserName("user1"), login.minusSeconds(5));
+		storage.setLastLogin(new UserName("user1"), login.minusSeconds(1));
+
+		assertThat("incorrect size", storage.getUserUpdateBufferSize(), is(1));
+		assertThat("incorrect login date", storage.getUser(new UserName("user1")).getLastLogin(),
+				is(Optional.absent()));
+
+		storage.stopUserUpdateBuffer();
+
+		assertThat("incorrect size", storage.getUserUpdateBufferSize(), is(0));
+		assertThat("incorrect login date", storage.getUser(new UserName("user1")).getLastLogin(),
+				is(Optional.of(login)));
+		assertThat("incorrect count", storage.getUserUpdateFlushedCount(), is(1L));
+	}
+
+	@Test
+	public void lastLoginNotRolledBack() throws Exception {
+		createUser();
+		final Instant login = NOW.plusSeconds(10);
+		storage.setLastLogin(new UserName("user1"), login);
+		storage.startUserUpdateBuffer(NO_FLUSH_MS);
+		storage.setLastLogin(new UserName("user1"), login.minusSeconds(5));
+		storage.stopUserUpdateBuffer();
+
+		assertThat("incorrect login date", storage.getUser(new UserName("user1")).getLastLogin(),
+				is(Optional.of(login)));
+	}
+
+	@Test
+	public void lastLoginNoSuchUser() throws Exception {
+		storage.startUserUpdateBuffer(NO_FLUSH_MS);
+		storage.setLastLogin(new UserName("foo"), NOW); // no exception
+		storage.stopUserUpdateBuffer();
+
+		assertThat("incorrect size", storage.getUserUpdateBufferSize(), is(0));
+	}
+
+	@Test
+	public void lastLoginFailNulls() throws Exception {
+		storage.startUserUpdateBuffer(NO_FLUSH_MS);
+		failLastLogin(null, NOW, new NullPointerException("userName"));
+		failLastLogin(new UserName("foo"), null, new NullPointerException("lastLogin"));
+	}
+
+	private void failLastLogin(final UserName name, final Instant d, final Exception e) {
+		try {
+			storage.setLastLogin(name, d);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+
+	@Test
+	public void identityUpdateCoalesced() throws Exception {
+		createUser();
+		storage.startUserUpdateBuffer(NO_FLUSH_MS);
+
+		// the returned user always has the latest details
+		assertThat("incorrect identities", storage.getUser(REMOTE1_UPDATE).get().getIdentities(),
+				is(set(REMOTE1_UPDATE)));
+		assertThat("incorrect identities", storage.getUser(REMOTE1_UPDATE2).get().getIdentities(),
+				is(set(REMOTE1_UPDATE2)));
+		assertThat("incorrect size", storage.getUserUpdateBufferSize(), is(1));
+		assertThat("incorrect identities",
+				storage.getUser(new UserName("user1")).getIdentities(), is(set(REMOTE1)));
+
+		storage.stopUserUpdateBuffer();
+
+		assertThat("incorrect identities",
+				storage.getUser(new UserName("user1")).getIdentities(), is(set(REMOTE1_UPDATE2)));
+		assertThat("incorrect count", storage.getUserUpdateFlushedCount(), is(1L));
+	}
+
+	@Test
+	public void periodicFlush() throws Exception {
+		createUser();
+		storage.startUserUpdateBuffer(10);
+		final Instant login = NOW.plusSeconds(10);
+		storage.setLastLogin(new UserName("user1"), login);
+		storage.getUser(REMOTE1_UPDATE);
+
+		final long start = System.currentTimeMillis();
+		while (storage.getUserUpdateFlushedCount() < 2) {
+			if (System.currentTimeMillis() - start > WAIT_MS) {
+				fail("buffer was not flushed");
+			}
+			Thread.sleep(10);
+		}
+		final AuthUser u = storage.getUser(new UserName("user1"));
+		assertThat("incorrect login date", u.getLastLogin(), is(Optional.of(login)));
+		assertThat("incorrect identities", u.getIdentities(), is(set(REMOTE1_UPDATE)));
+		assertThat("incorrect size", storage.getUserUpdateBufferSize(), is(0));
+		assertThat("incorrect flush time", storage.getUserUpdateLastFlushMS() >= 0, is(true));
+		assertThat("incorrect flush time", storage.getUserUpdateMaxFlushMS() >=
+				storage.getUserUpdateLastFlushMS(), is(true));
+	}
+
+	@Test
+	public void startFail() throws Exception {
+		failStart(0, new IllegalArgumentException("flushIntervalMS must be at least 1"));
+		storage.startUserUpdateBuffer(NO_FLUSH_MS);
+		failStart(NO_FLUSH_MS,
+				new IllegalStateException("The user update buffer is already running"));
+	}
+
+	private void failStart(final long flushIntervalMS, final Exception e) {
+		try {
+			storage.startUserUpdateBuffer(flushIntervalMS);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+}
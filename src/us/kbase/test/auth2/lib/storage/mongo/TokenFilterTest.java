@@ -0,0 +1,337 @@
+package us.kbase.test.auth2.lib.storage.mongo;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import org.junit.Test;
+
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+import us.kbase.auth2.lib.storage.mongo.TokenFilter;
+import us.kbase.auth2.lib.storage.mongo.TokenFilter.TokenSource;
+import us.kbase.test.auth2.TestCommon;
+
+public class TokenFilterTest {
+
+	// before any token was presented in these tests
+	private static final Instant LONG_AGO = Instant.ofEpochMilli(1000);
+
+	private static class TestSource implements TokenSource {
+
+		// token hash -> creation date
+		private final Map<String, Instant> tokens = new LinkedHashMap<>();
+		private Runnable onRead = () -> {};
+
+		private TestSource(final String... hashes) {
+			for (final String h: hashes) {
+				tokens.put(h, LONG_AGO);
+			}
+		}
+
+		@Override
+		public long count() {
+			return tokens.size();
+		}
+
+		@Override
+		public void read(final BiConsumer<String, Instant> consumer) {
+			onRead.run();
+			tokens.forEach(consumer);
+		}
+	}
+
+	// builds and verifies the filter. All changes are processed up to now
+	private static TokenFilter activate(final TestSource source) throws Exception {
+		final TokenFilter f = new TokenFilter(source);
+		f.rebuild();
+		f.caughtUp(Instant.now());
+		f.rebuild();
+		assertThat("incorrect active", f.isActive(), is(true));
+		return f;
+	}
+
+	// whether the filter might contain a token presented after the change feed caught up
+	private static boolean contains(final TokenFilter f, final String hash) {
+		return f.mightContain(hash, LONG_AGO);
+	}
+
+	@Test
+	public void constructFail() throws Exception {
+		try {
+			new TokenFilter(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("source"));
+		}
+	}
+
+	@Test
+	public void inactive() throws Exception {
+		final TokenFilter f = new TokenFilter(new TestSource());
+		f.caughtUp(Instant.now());
+
+		assertThat("incorrect active", f.isActive(), is(false));
+		assertThat("incorrect contains", contains(f, "foo"), is(true));
+		assertThat("incorrect overfilled", f.isOverfilled(), is(false));
+		f.put("foo"); // no effect
+		assertThat("incorrect active", f.isActive(), is(false));
+	}
+
+	@Test
+	public void firstBuildInactive() throws Exception {
+		final TokenFilter f = new TokenFilter(new TestSource("foo"));
+
+		f.rebuild();
+		f.caughtUp(Instant.now());
+
+		assertThat("incorrect active", f.isActive(), is(false));
+		assertThat("incorrect contains", contains(f, "bar"), is(true));
+	}
+
+	@Test
+	public void rebuildUnverifiedWithoutCatchUp() throws Exception {
+		final TokenFilter f = new TokenFilter(new TestSource("foo"));
+
+		f.rebuild();
+		f.rebuild();
+
+		assertThat("incorrect active", f.isActive(), is(false));
+	}
+
+	@Test
+	public void rebuild() throws Exception {
+		final TokenFilter f = activate(new TestSource("foo", "bar"));
+
+		assertThat("incorrect contains", contains(f, "foo"), is(true));
+		assertThat("incorrect contains", contains(f, "bar"), is(true));
+		assertThat("incorrect contains", contains(f, "baz"), is(false));
+		assertThat("incorrect overfilled", f.isOverfilled(), is(false));
+	}
+
+	@Test
+	public void put() throws Exception {
+		final TokenFilter f = activate(new TestSource("foo"));
+
+		f.put("baz");
+
+		assertThat("incorrect contains", contains(f, "baz"), is(true));
+	}
+
+	@Test
+	public void missNotCaughtUp() throws Exception {
+		final TokenFilter f = activate(new TestSource("foo"));
+
+		// the feed hasn't processed the changes made before the token was presented
+		final Instant presented = Instant.now().plusSeconds(1);
+		final long start = System.nanoTime();
+		assertThat("incorrect contains", f.mightContain("baz", presented), is(true));
+		final long waitedMS = (System.nanoTime() - start) / 1000000;
+		assertThat("incorrect wait " + waitedMS, waitedMS < 50, is(true));
+	}
+
+	@Test
+	public void repeatedMissRejectedAfterCatchUp() throws Exception {
+		final TokenFilter f = activate(new TestSource("foo"));
+		final Instant presented = Instant.now().plusSeconds(1);
+
+		assertThat("incorrect contains", f.mightContain("baz", presented), is(true));
+		f.caughtUp(presented.plusMillis(1));
+		// the feed has not caught up to the second presentation, but has to the first
+		assertThat("incorrect contains", f.mightContain("baz", presented.plusMillis(2)),
+				is(false));
+		// a different token is only checked against its own first presentation
+		assertThat("incorrect contains", f.mightContain("bat", presented.plusMillis(2)),
+				is(true));
+	}
+
+	@Test
+	public void missFoundOnCatchUp() throws Exception {
+		final TokenFilter f = activate(new TestSource("foo"));
+		final Instant presented = Instant.now().plusSeconds(1);
+
+		assertThat("incorrect contains", f.mightContain("baz", presented), is(true));
+		// the token was created via another process
+		f.put("baz");
+		f.caughtUp(presented.plusMillis(1));
+		assertThat("incorrect contains", f.mightContain("baz", presented.plusMillis(2)),
+				is(true));
+	}
+
+	@Test
+	public void missAfterDisable() throws Exception {
+		final TokenFilter f = activate(new TestSource("foo"));
+
+		assertThat("incorrect contains", contains(f, "baz"), is(false));
+		f.disable();
+		assertThat("incorrect contains", contains(f, "baz"), is(true));
+	}
+
+	@Test
+	public void mightContainFail() throws Exception {
+		final TokenFilter f = new TokenFilter(new TestSource());
+		failMightContain(f, null, LONG_AGO, new NullPointerException("tokenHash"));
+		failMightContain(f, "foo", null, new NullPointerException("presented"));
+	}
+
+	private void failMightContain(
+			final TokenFilter f,
+			final String hash,
+			final Instant presented,
+			final Exception expected) {
+		try {
+			f.mightContain(hash, presented);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void caughtUpFail() throws Exception {
+		try {
+			new TokenFilter(new TestSource()).caughtUp(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("time"));
+		}
+	}
+
+	@Test
+	public void unannouncedToken() throws Exception {
+		final TestSource source = new TestSource("foo");
+		final TokenFilter f = activate(source);
+		// a token created long enough after the build and before the feed caught up
+		source.tokens.put("bar", Instant.now().plusSeconds(600));
+		f.caughtUp(Instant.now().plusSeconds(1200));
+
+		f.rebuild();
+
+		assertThat("incorrect active", f.isActive(), is(false));
+		assertThat("incorrect contains", contains(f, "baz"), is(true));
+
+		// the next rebuild finds no unannounced tokens
+		f.rebuild();
+
+		assertThat("incorrect active", f.isActive(), is(true));
+	}
+
+	@Test
+	public void announcedToken() throws Exception {
+		final TestSource source = new TestSource("foo");
+		final TokenFilter f = activate(source);
+		source.tokens.put("bar", Instant.now().plusSeconds(600));
+		f.put("bar");
+		f.caughtUp(Instant.now().plusSeconds(1200));
+
+		f.rebuild();
+
+		assertThat("incorrect active", f.isActive(), is(true));
+	}
+
+	@Test
+	public void unannouncedTokenWithinMargin() throws Exception {
+		final TestSource source = new TestSource("foo");
+		final TokenFilter f = activate(source);
+		// too close to the catch up time to expect the token was announced
+		source.tokens.put("bar", Instant.now().plusSeconds(600));
+		f.caughtUp(Instant.now().plusSeconds(630));
+
+		f.rebuild();
+
+		assertThat("incorrect active", f.isActive(), is(true));
+	}
+
+	@Test
+	public void rebuildRemovesTokens() throws Exception {
+		final TestSource source = new TestSource("foo", "bar");
+		final TokenFilter f = activate(source);
+		source.tokens.remove("bar");
+
+		f.rebuild();
+
+		assertThat("incorrect contains", contains(f, "foo"), is(true));
+		assertThat("incorrect contains", contains(f, "bar"), is(false));
+	}
+
+	@Test
+	public void putDuringRebuild() throws Exception {
+		final TestSource source = new TestSource("foo");
+		final TokenFilter f = activate(source);
+		source.onRead = () -> f.put("bar");
+
+		f.rebuild();
+
+		assertThat("incorrect contains", contains(f, "foo"), is(true));
+		assertThat("incorrect contains", contains(f, "bar"), is(true));
+	}
+
+	@Test
+	public void disable() throws Exception {
+		final TokenFilter f = activate(new TestSource("foo"));
+
+		f.disable();
+
+		assertThat("incorrect active", f.isActive(), is(false));
+		assertThat("incorrect contains", contains(f, "baz"), is(true));
+
+		// the first build after disabling can't be verified
+		f.rebuild();
+		f.caughtUp(Instant.now());
+
+		assertThat("incorrect active", f.isActive(), is(false));
+	}
+
+	@Test
+	public void disableDuringRebuild() throws Exception {
+		final TestSource source = new TestSource("foo");
+		final TokenFilter f = activate(source);
+		source.onRead = () -> f.disable();
+
+		f.rebuild();
+
+		assertThat("incorrect active", f.isActive(), is(false));
+	}
+
+	@Test
+	public void overfilled() throws Exception {
+		// the filter is sized for at least 100000 tokens
+		final TokenFilter f = activate(new TestSource());
+		for (int i = 0; i < 50000; i++) {
+			f.put("token" + i);
+		}
+		assertThat("incorrect overfilled", f.isOverfilled(), is(false));
+
+		// some puts may be false positives and so not be counted
+		for (int i = 50000; i < 110000; i++) {
+			f.put("token" + i);
+		}
+
+		assertThat("incorrect overfilled", f.isOverfilled(), is(true));
+	}
+
+	@Test
+	public void rebuildFail() throws Exception {
+		final TokenFilter f = new TokenFilter(new TokenSource() {
+
+			@Override
+			public long count() throws AuthStorageException {
+				throw new AuthStorageException("whoops");
+			}
+
+			@Override
+			public void read(final BiConsumer<String, Instant> consumer) {}
+		});
+		try {
+			f.rebuild();
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new AuthStorageException("whoops"));
+		}
+		assertThat("incorrect active", f.isActive(), is(false));
+	}
+}
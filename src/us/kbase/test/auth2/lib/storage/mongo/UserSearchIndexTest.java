@@ -0,0 +1,290 @@
+package us.kbase.test.auth2.lib.storage.mongo;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import static us.kbase.test.auth2.TestCommon.set;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.UserSearchSpec;
+import us.kbase.auth2.lib.storage.mongo.UserSearchIndex;
+import us.kbase.auth2.lib.storage.mongo.UserSearchIndex.IndexedUser;
+import us.kbase.auth2.lib.storage.mongo.UserSearchIndex.UserSource;
+import us.kbase.test.auth2.TestCommon;
+
+public class UserSearchIndexTest {
+
+	private static class TestSource implements UserSource {
+
+		private final Map<UserName, IndexedUser> users = new HashMap<>();
+		private final List<Set<UserName>> reads = new LinkedList<>();
+
+		@Override
+		public void readAll(final Consumer<IndexedUser> consumer) {
+			users.values().forEach(consumer);
+		}
+
+		@Override
+		public void read(final Set<UserName> userNames, final Consumer<IndexedUser> consumer) {
+			reads.add(userNames);
+			for (final UserName n: userNames) {
+				if (users.containsKey(n)) {
+					consumer.accept(users.get(n));
+				}
+			}
+		}
+
+		private void add(final String user, final String display, final boolean disabled)
+				throws Exception {
+			final List<String> tokens = new LinkedList<>();
+			for (final String t: display.toLowerCase().split(" ")) {
+				tokens.add(t);
+			}
+			users.put(new UserName(user), new IndexedUser(new UserName(user),
+					new DisplayName(display), tokens, disabled));
+		}
+	}
+
+	private static UserSearchSpec spec(final String prefix) {
+		return UserSearchSpec.getBuilder().withSearchPrefix(prefix).build();
+	}
+
+	private static Map<UserName, DisplayName> map(final String... userAndDisplay)
+			throws Exception {
+		final Map<UserName, DisplayName> ret = new HashMap<>();
+		for (int i = 0; i < userAndDisplay.length; i += 2) {
+			ret.put(new UserName(userAndDisplay[i]), new DisplayName(userAndDisplay[i + 1]));
+		}
+		return ret;
+	}
+
+	private static UserSearchIndex build(final TestSource source) throws Exception {
+		source.add("alice", "Bob Smith", false);
+		source.add("bobby", "Alice Jones", false);
+		source.add("carol", "Carol Bobbit", true);
+		source.add("dave", "Dave Brown", false);
+		final UserSearchIndex idx = new UserSearchIndex(source);
+		idx.rebuild();
+		return idx;
+	}
+
+	@Test
+	public void constructFail() throws Exception {
+		try {
+			new UserSearchIndex(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("source"));
+		}
+	}
+
+	@Test
+	public void indexedUserConstructFail() throws Exception {
+		final UserName u = new UserName("foo");
+		final DisplayName d = new DisplayName("bar");
+		final List<String> t = Arrays.asList("bar");
+		failIndexedUser(null, d, t, new NullPointerException("userName"));
+		failIndexedUser(u, null, t, new NullPointerException("displayName"));
+		failIndexedUser(u, d, null, new NullPointerException("tokens"));
+		failIndexedUser(u, d, Arrays.asList("bar", null),
+				new NullPointerException("Null token in tokens"));
+	}
+
+	private void failIndexedUser(
+			final UserName userName,
+			final DisplayName displayName,
+			final List<String> tokens,
+			final Exception expected) {
+		try {
+			new IndexedUser(userName, displayName, tokens, false);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void inactive() throws Exception {
+		final UserSearchIndex idx = new UserSearchIndex(new TestSource());
+
+		assertThat("incorrect active", idx.isActive(), is(false));
+		assertThat("incorrect search", idx.search(spec("a"), 0), is(Optional.absent()));
+	}
+
+	@Test
+	public void searchBothFields() throws Exception {
+		final UserSearchIndex idx = build(new TestSource());
+
+		assertThat("incorrect active", idx.isActive(), is(true));
+		assertThat("incorrect search", idx.search(spec("bob"), 0),
+				is(Optional.of(map("alice", "Bob Smith", "bobby", "Alice Jones"))));
+		assertThat("incorrect search", idx.search(spec("Al"), 0),
+				is(Optional.of(map("alice", "Bob Smith", "bobby", "Alice Jones"))));
+		assertThat("incorrect search", idx.search(spec("z"), 0),
+				is(Optional.of(Collections.emptyMap())));
+	}
+
+	@Test
+	public void searchUserName() throws Exception {
+		final UserSearchIndex idx = build(new TestSource());
+		final UserSearchSpec spec = UserSearchSpec.getBuilder().withSearchPrefix("bob")
+				.withSearchOnUserName(true).build();
+
+		assertThat("incorrect search", idx.search(spec, 0),
+				is(Optional.of(map("bobby", "Alice Jones"))));
+	}
+
+	@Test
+	public void searchDisplayName() throws Exception {
+		final UserSearchIndex idx = build(new TestSource());
+		final UserSearchSpec spec = UserSearchSpec.getBuilder().withSearchPrefix("b")
+				.withSearchOnDisplayName(true).build();
+
+		assertThat("incorrect search", idx.search(spec, 0),
+				is(Optional.of(map("alice", "Bob Smith", "dave", "Dave Brown"))));
+	}
+
+	@Test
+	public void searchIncludeDisabled() throws Exception {
+		final UserSearchIndex idx = build(new TestSource());
+		final UserSearchSpec spec = UserSearchSpec.getBuilder().withSearchPrefix("bob")
+				.withIncludeDisabled(true).build();
+
+		assertThat("incorrect search", idx.search(spec, 0), is(Optional.of(map(
+				"alice", "Bob Smith", "bobby", "Alice Jones", "carol", "Carol Bobbit"))));
+	}
+
+	@Test
+	public void searchLimitOrderedByUserName() throws Exception {
+		final UserSearchIndex idx = build(new TestSource());
+		final UserSearchSpec spec = UserSearchSpec.getBuilder().withSearchPrefix("b")
+				.withIncludeDisabled(true).build();
+
+		assertThat("incorrect search", idx.search(spec, 2),
+				is(Optional.of(map("alice", "Bob Smith", "bobby", "Alice Jones"))));
+	}
+
+	@Test
+	public void searchLimitOrderedByDisplayName() throws Exception {
+		final UserSearchIndex idx = build(new TestSource());
+		final UserSearchSpec spec = UserSearchSpec.getBuilder().withSearchPrefix("b")
+				.withSearchOnDisplayName(true).withIncludeDisabled(true).build();
+
+		// sorted by the lowest display name token: bob, bobbit/carol, brown/dave
+		assertThat("incorrect search", idx.search(spec, 2),
+				is(Optional.of(map("alice", "Bob Smith", "carol", "Carol Bobbit"))));
+	}
+
+	@Test
+	public void searchFail() throws Exception {
+		final UserSearchIndex idx = build(new TestSource());
+		failSearch(idx, null, new NullPointerException("spec"));
+		failSearch(idx, UserSearchSpec.getBuilder().build(), new IllegalArgumentException(
+				"The search specification must include a prefix"));
+	}
+
+	private void failSearch(
+			final UserSearchIndex idx,
+			final UserSearchSpec spec,
+			final Exception expected) {
+		try {
+			idx.search(spec, 0);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void refresh() throws Exception {
+		final TestSource source = new TestSource();
+		final UserSearchIndex idx = build(source);
+		source.add("alice", "Zed Smith", false);
+		source.add("erin", "Bob Erin", false);
+		source.users.remove(new UserName("bobby"));
+
+		idx.changed(new UserName("alice"));
+		idx.changed(new UserName("bobby"));
+		idx.changed(new UserName("erin"));
+		idx.refresh(false); // not enough changes to read yet
+
+		assertThat("incorrect reads", source.reads, is(Collections.emptyList()));
+		assertThat("incorrect search", idx.search(spec("bob"), 0),
+				is(Optional.of(map("alice", "Bob Smith", "bobby", "Alice Jones"))));
+
+		idx.refresh(true);
+
+		assertThat("incorrect reads", source.reads, is(Arrays.asList(set(
+				new UserName("alice"), new UserName("bobby"), new UserName("erin")))));
+		assertThat("incorrect search", idx.search(spec("bob"), 0),
+				is(Optional.of(map("erin", "Bob Erin"))));
+		assertThat("incorrect search", idx.search(spec("z"), 0),
+				is(Optional.of(map("alice", "Zed Smith"))));
+
+		idx.refresh(true); // nothing changed
+
+		assertThat("incorrect reads", source.reads.size(), is(1));
+	}
+
+	@Test
+	public void refreshBatch() throws Exception {
+		final TestSource source = new TestSource();
+		final UserSearchIndex idx = build(source);
+		final Set<UserName> changed = new HashSet<>();
+		for (int i = 0; i < 999; i++) {
+			changed.add(new UserName("user" + i));
+			idx.changed(new UserName("user" + i));
+		}
+		idx.refresh(false);
+		assertThat("incorrect reads", source.reads, is(Collections.emptyList()));
+
+		changed.add(new UserName("user999"));
+		idx.changed(new UserName("user999"));
+		idx.refresh(false);
+
+		assertThat("incorrect reads", source.reads, is(Arrays.asList(changed)));
+	}
+
+	@Test
+	public void disable() throws Exception {
+		final UserSearchIndex idx = build(new TestSource());
+
+		idx.disable();
+
+		assertThat("incorrect active", idx.isActive(), is(false));
+		assertThat("incorrect search", idx.search(spec("a"), 0), is(Optional.absent()));
+	}
+
+	@Test
+	public void rebuildDiscardsChanges() throws Exception {
+		final TestSource source = new TestSource();
+		final UserSearchIndex idx = build(source);
+		idx.changed(new UserName("alice"));
+		source.users.remove(new UserName("bobby"));
+
+		idx.rebuild();
+		idx.refresh(true);
+
+		assertThat("incorrect reads", source.reads, is(Collections.emptyList()));
+		assertThat("incorrect search", idx.search(spec("bob"), 0),
+				is(Optional.of(ImmutableMap.of(
+						new UserName("alice"), new DisplayName("Bob Smith")))));
+	}
+}
@@ -0,0 +1,236 @@
+package us.kbase.test.auth2.lib.storage.mongo;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.identity.RemoteIdentity;
+import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
+import us.kbase.auth2.lib.identity.RemoteIdentityID;
+import us.kbase.auth2.lib.storage.exceptions.AuthStorageException;
+import us.kbase.auth2.lib.storage.mongo.UserUpdateBuffer;
+import us.kbase.auth2.lib.storage.mongo.UserUpdateBuffer.PendingUpdate;
+import us.kbase.auth2.lib.storage.mongo.UserUpdateBuffer.UpdateWriter;
+import us.kbase.test.auth2.TestCommon;
+
+public class UserUpdateBufferTest {
+
+	private static final int WAIT_MS = 5000;
+
+	// a copy of a pending update, since the update may be merged into a later update
+	private static class Written {
+
+		private final Optional<Instant> lastLogin;
+		private final Set<RemoteIdentity> identities;
+
+		private Written(final Optional<Instant> lastLogin, final RemoteIdentity... identities) {
+			this.lastLogin = lastLogin;
+			this.identities = new HashSet<>(Arrays.asList(identities));
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			final Written other = (Written) obj;
+			return lastLogin.equals(other.lastLogin) && identities.equals(other.identities);
+		}
+
+		@Override
+		public int hashCode() {
+			return lastLogin.hashCode() + identities.hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return "Written [lastLogin=" + lastLogin + ", identities=" + identities + "]";
+		}
+	}
+
+	private static class TestWriter implements UpdateWriter {
+
+		private final List<Map<UserName, Written>> writes = new LinkedList<>();
+		private int failures = 0;
+
+		@Override
+		public synchronized void write(final Map<UserName, PendingUpdate> updates)
+				throws AuthStorageException {
+			if (failures > 0) {
+				failures--;
+				throw new AuthStorageException("whoops");
+			}
+			final Map<UserName, Written> w = new HashMap<>();
+			for (final Entry<UserName, PendingUpdate> e: updates.entrySet()) {
+				w.put(e.getKey(), new Written(e.getValue().getLastLogin(),
+						e.getValue().getIdentities().toArray(new RemoteIdentity[0])));
+			}
+			writes.add(w);
+			notifyAll();
+		}
+	}
+
+	private static final RemoteIdentity REMOTE1 = new RemoteIdentity(
+			new RemoteIdentityID("prov", "id1"),
+			new RemoteIdentityDetails("user1", "full1", "email1"));
+	private static final RemoteIdentity REMOTE1_UPDATE = new RemoteIdentity(
+			new RemoteIdentityID("prov", "id1"),
+			new RemoteIdentityDetails("user1", "full2", "email2"));
+	private static final RemoteIdentity REMOTE2 = new RemoteIdentity(
+			new RemoteIdentityID("prov", "id2"),
+			new RemoteIdentityDetails("user2", "full2", "email2"));
+
+	@Test
+	public void constructFail() throws Exception {
+		failConstruct(null, 1, new NullPointerException("writer"));
+		failConstruct(new TestWriter(), 0,
+				new IllegalArgumentException("flushIntervalMS must be at least 1"));
+	}
+
+	private void failConstruct(
+			final UpdateWriter writer,
+			final long flushIntervalMS,
+			final Exception expected) {
+		try {
+			new UserUpdateBuffer(writer, flushIntervalMS);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void coalesceAndFlush() throws Exception {
+		final TestWriter w = new TestWriter();
+		final UserUpdateBuffer buf = new UserUpdateBuffer(w, 100000);
+		final UserName u1 = new UserName("foo");
+		final UserName u2 = new UserName("bar");
+
+		buf.setLastLogin(u1, Instant.ofEpochMilli(20000));
+		buf.setLastLogin(u1, Instant.ofEpochMilli(10000)); // older, ignored
+		buf.updateIdentity(u1, REMOTE1);
+		buf.updateIdentity(u1, REMOTE1_UPDATE);
+		buf.updateIdentity(u2, REMOTE2);
+
+		assertThat("incorrect size", buf.size(), is(2));
+		assertThat("incorrect flush time", buf.getLastFlushMS(), is(-1L));
+		assertThat("incorrect flush time", buf.getMaxFlushMS(), is(-1L));
+
+		buf.flush();
+
+		final Map<UserName, Written> expected = new HashMap<>();
+		expected.put(u1, new Written(Optional.of(Instant.ofEpochMilli(20000)), REMOTE1_UPDATE));
+		expected.put(u2, new Written(Optional.absent(), REMOTE2));
+		assertThat("incorrect writes", w.writes, is(Arrays.asList(expected)));
+		assertThat("incorrect size", buf.size(), is(0));
+		assertThat("incorrect flush time", buf.getLastFlushMS() >= 0, is(true));
+		assertThat("incorrect flush time", buf.getMaxFlushMS() >= buf.getLastFlushMS(),
+				is(true));
+
+		buf.flush(); // nothing to write
+
+		assertThat("incorrect write count", w.writes.size(), is(1));
+	}
+
+	@Test
+	public void requeueOnFailure() throws Exception {
+		final TestWriter w = new TestWriter();
+		w.failures = 1;
+		final UserUpdateBuffer buf = new UserUpdateBuffer(w, 100000);
+		final UserName u1 = new UserName("foo");
+
+		buf.setLastLogin(u1, Instant.ofEpochMilli(20000));
+		buf.updateIdentity(u1, REMOTE1);
+		buf.flush();
+
+		assertThat("incorrect writes", w.writes.size(), is(0));
+		assertThat("incorrect size", buf.size(), is(1));
+
+		// newer updates win over the requeued updates
+		buf.setLastLogin(u1, Instant.ofEpochMilli(10000));
+		buf.updateIdentity(u1, REMOTE1_UPDATE);
+		buf.updateIdentity(u1, REMOTE2);
+		buf.flush();
+
+		final Map<UserName, Written> expected = new HashMap<>();
+		expected.put(u1, new Written(Optional.of(Instant.ofEpochMilli(20000)),
+				REMOTE1_UPDATE, REMOTE2));
+		assertThat("incorrect writes", w.writes, is(Arrays.asList(expected)));
+	}
+
+	@Test
+	public void flushOnInterval() throws Exception {
+		final TestWriter w = new TestWriter();
+		final UserUpdateBuffer buf = new UserUpdateBuffer(w, 50);
+		buf.start();
+		try {
+			buf.setLastLogin(new UserName("foo"), Instant.ofEpochMilli(20000));
+			synchronized (w) {
+				final long end = System.currentTimeMillis() + WAIT_MS;
+				while (w.writes.isEmpty() && System.currentTimeMillis() < end) {
+					w.wait(WAIT_MS);
+				}
+			}
+			assertThat("incorrect write count", w.writes.size(), is(1));
+		} finally {
+			buf.stop();
+		}
+	}
+
+	@Test
+	public void stopFlushes() throws Exception {
+		final TestWriter w = new TestWriter();
+		final UserUpdateBuffer buf = new UserUpdateBuffer(w, 100000);
+		buf.start();
+		buf.setLastLogin(new UserName("foo"), Instant.ofEpochMilli(20000));
+
+		buf.stop();
+
+		final Map<UserName, Written> expected = new HashMap<>();
+		expected.put(new UserName("foo"), new Written(Optional.of(Instant.ofEpochMilli(20000))));
+		assertThat("incorrect writes", w.writes, is(Arrays.asList(expected)));
+		assertThat("incorrect size", buf.size(), is(0));
+	}
+
+	@Test
+	public void enqueueFail() throws Exception {
+		final UserUpdateBuffer buf = new UserUpdateBuffer(new TestWriter(), 1);
+		final UserName u = new UserName("foo");
+		try {
+			buf.setLastLogin(null, Instant.now());
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("userName"));
+		}
+		try {
+			buf.setLastLogin(u, null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("lastLogin"));
+		}
+		try {
+			buf.updateIdentity(null, REMOTE1);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("userName"));
+		}
+		try {
+			buf.updateIdentity(u, null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("remoteID"));
+		}
+	}
+}
@@ -0,0 +1,527 @@
+package us.kbase.test.auth2.lib.token;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import static us.kbase.test.auth2.TestCommon.set;
+
+import java.lang.reflect.Constructor;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.exceptions.NoSuchTokenException;
+import us.kbase.auth2.lib.token.IncomingHashedToken;
+import us.kbase.auth2.lib.token.IncomingToken;
+import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenCache;
+import us.kbase.auth2.lib.token.TokenCache.TokenLoader;
+import us.kbase.auth2.lib.token.TokenCache.TokensLoader;
+import us.kbase.auth2.lib.token.TokenType;
+import us.kbase.test.auth2.TestCommon;
+
+public class TokenCacheTest {
+
+	private static class TestTicker extends Ticker {
+
+		public long nanos = 0;
+
+		@Override
+		public long read() {
+			return nanos;
+		}
+	}
+
+	private static class TestCache {
+		final TokenCache cache;
+		final TestTicker ticker;
+		final Clock clock;
+
+		public TestCache(final TokenCache cache, final TestTicker ticker, final Clock clock) {
+			this.cache = cache;
+			this.ticker = ticker;
+			this.clock = clock;
+		}
+	}
+
+	private static TestCache getCache(final long size, final long ttl) throws Exception {
+		final TestTicker ticker = new TestTicker();
+		final Clock clock = mock(Clock.class);
+		final Constructor<TokenCache> c = TokenCache.class.getDeclaredConstructor(
+				long.class, long.class, Ticker.class, Clock.class);
+		c.setAccessible(true);
+		return new TestCache(c.newInstance(size, ttl, ticker, clock), ticker, clock);
+	}
+
+	private static IncomingHashedToken hash(final String token) throws Exception {
+		return new IncomingToken(token).getHashedToken();
+	}
+
+	private static StoredToken token(final UUID id, final String user, final long expires)
+			throws Exception {
+		return StoredToken.getBuilder(TokenType.LOGIN, id, new UserName(user))
+				.withLifeTime(Instant.ofEpochMilli(1000), Instant.ofEpochMilli(expires))
+				.build();
+	}
+
+	private static void assertCounts(
+			final TokenCache cache,
+			final long hits,
+			final long misses,
+			final long evictions) {
+		assertThat("incorrect hits", cache.getHitCount(), is(hits));
+		assertThat("incorrect misses", cache.getMissCount(), is(misses));
+		assertThat("incorrect evictions", cache.getEvictionCount(), is(evictions));
+	}
+
+	@Test
+	public void constructDisabled() throws Exception {
+		assertThat("incorrect enabled", new TokenCache(0, 1).isEnabled(), is(false));
+		assertThat("incorrect enabled", new TokenCache(1, 0).isEnabled(), is(false));
+		assertThat("incorrect enabled", TokenCache.getDisabledCache().isEnabled(), is(false));
+		assertThat("incorrect enabled", new TokenCache(1, 1).isEnabled(), is(true));
+	}
+
+	@Test
+	public void constructFail() throws Exception {
+		failConstruct(-1, 1, new IllegalArgumentException("maximumSize must be at least 0"));
+		failConstruct(1, -1, new IllegalArgumentException("timeToLiveMS must be at least 0"));
+	}
+
+	private void failConstruct(final long size, final long ttl, final Exception expected) {
+		try {
+			new TokenCache(size, ttl);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void disabledPassesThrough() throws Exception {
+		final TokenCache cache = TokenCache.getDisabledCache();
+		final TokenLoader loader = mock(TokenLoader.class);
+		final StoredToken st = token(UUID.randomUUID(), "foo", 10000);
+		when(loader.load(hash("t"))).thenReturn(st, st);
+
+		assertThat("incorrect token", cache.get(hash("t"), loader), is(st));
+		assertThat("incorrect token", cache.get(hash("t"), loader), is(st));
+
+		verify(loader, times(2)).load(hash("t"));
+		assertCounts(cache, 0, 0, 0);
+		assertThat("incorrect size", cache.size(), is(0L));
+	}
+
+	@Test
+	public void hit() throws Exception {
+		final TestCache tc = getCache(10, 10000);
+		final TokenLoader loader = mock(TokenLoader.class);
+		final StoredToken st = token(UUID.randomUUID(), "foo", 10000);
+		when(loader.load(hash("t"))).thenReturn(st);
+		when(tc.clock.instant()).thenReturn(Instant.ofEpochMilli(5000));
+
+		assertThat("incorrect token", tc.cache.get(hash("t"), loader), is(st));
+		assertThat("incorrect token", tc.cache.get(hash("t"), loader), is(st));
+
+		verify(loader).load(hash("t"));
+		verifyNoMoreInteractions(loader);
+		assertCounts(tc.cache, 1, 1, 0);
+		assertThat("incorrect size", tc.cache.size(), is(1L));
+	}
+
+	@Test
+	public void tokenExpired() throws Exception {
+		final TestCache tc = getCache(10, 10000);
+		final TokenLoader loader = mock(TokenLoader.class);
+		final StoredToken st = token(UUID.randomUUID(), "foo", 10000);
+		when(loader.load(hash("t"))).thenReturn(st, st);
+		when(tc.clock.instant()).thenReturn(Instant.ofEpochMilli(10001));
+
+		tc.cache.get(hash("t"), loader);
+		assertThat("incorrect token", tc.cache.get(hash("t"), loader), is(st));
+
+		verify(loader, times(2)).load(hash("t"));
+		assertCounts(tc.cache, 0, 2, 1);
+	}
+
+	@Test
+	public void timeToLiveExpired() throws Exception {
+		final TestCache tc = getCache(10, 10000);
+		final TokenLoader loader = mock(TokenLoader.class);
+		final StoredToken st = token(UUID.randomUUID(), "foo", 100000);
+		when(loader.load(hash("t"))).thenReturn(st, st);
+		when(tc.clock.instant()).thenReturn(Instant.ofEpochMilli(5000));
+
+		tc.cache.get(hash("t"), loader);
+		tc.ticker.nanos = 10000L * 1000000L;
+		assertThat("incorrect token", tc.cache.get(hash("t"), loader), is(st));
+
+		verify(loader, times(2)).load(hash("t"));
+		assertCounts(tc.cache, 0, 2, 1);
+	}
+
+	@Test
+	public void sizeEviction() throws Exception {
+		final TestCache tc = getCache(1, 10000);
+		final TokenLoader loader = mock(TokenLoader.class);
+		when(loader.load(hash("t1"))).thenReturn(token(UUID.randomUUID(), "foo", 100000));
+		when(loader.load(hash("t2"))).thenReturn(token(UUID.randomUUID(), "foo", 100000));
+		when(tc.clock.instant()).thenReturn(Instant.ofEpochMilli(5000));
+
+		tc.cache.get(hash("t1"), loader);
+		tc.cache.get(hash("t2"), loader);
+
+		assertCounts(tc.cache, 0, 2, 1);
+		assertThat("incorrect size", tc.cache.size(), is(1L));
+	}
+
+	@Test
+	public void loadFail() throws Exception {
+		final TestCache tc = getCache(10, 10000);
+		final TokenLoader loader = mock(TokenLoader.class);
+		when(loader.load(hash("t"))).thenThrow(new NoSuchTokenException("Token not found"));
+
+		try {
+			tc.cache.get(hash("t"), loader);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NoSuchTokenException("Token not found"));
+		}
+		assertCounts(tc.cache, 0, 1, 0);
+		assertThat("incorrect size", tc.cache.size(), is(0L));
+	}
+
+	@Test
+	public void invalidateByHash() throws Exception {
+		final TestCache tc = getCache(10, 10000);
+		final TokenLoader loader = loadTwoUsers();
+		when(tc.clock.instant()).thenReturn(Instant.ofEpochMilli(5000));
+		tc.cache.get(hash("t1"), loader);
+		tc.cache.get(hash("t2"), loader);
+		tc.cache.get(hash("t3"), loader);
+
+		tc.cache.invalidate(hash("t2"));
+
+		assertThat("incorrect size", tc.cache.size(), is(2L));
+		tc.cache.get(hash("t2"), loader);
+		verify(loader, times(2)).load(hash("t2"));
+		assertCounts(tc.cache, 0, 4, 0);
+	}
+
+	@Test
+	public void invalidateByID() throws Exception {
+		final TestCache tc = getCache(10, 10000);
+		final TokenLoader loader = loadTwoUsers();
+		when(tc.clock.instant()).thenReturn(Instant.ofEpochMilli(5000));
+		tc.cache.get(hash("t1"), loader);
+		tc.cache.get(hash("t2"), loader);
+		tc.cache.get(hash("t3"), loader);
+
+		tc.cache.invalidate(UUID.fromString("edc1dcbb-d370-4660-a639-01a72f0d578a"));
+
+		assertThat("incorrect size", tc.cache.size(), is(2L));
+		tc.cache.get(hash("t1"), loader);
+		tc.cache.get(hash("t2"), loader);
+		verify(loader, times(2)).load(hash("t1"));
+		verify(loader).load(hash("t2"));
+		assertCounts(tc.cache, 1, 4, 0);
+	}
+
+	@Test
+	public void invalidateByUser() throws Exception {
+		final TestCache tc = getCache(10, 10000);
+		final TokenLoader loader = loadTwoUsers();
+		when(tc.clock.instant()).thenReturn(Instant.ofEpochMilli(5000));
+		tc.cache.get(hash("t1"), loader);
+		tc.cache.get(hash("t2"), loader);
+		tc.cache.get(hash("t3"), loader);
+
+		tc.cache.invalidate(new UserName("foo"));
+
+		assertThat("incorrect size", tc.cache.size(), is(1L));
+		tc.cache.get(hash("t3"), loader);
+		verify(loader).load(hash("t3"));
+		assertCounts(tc.cache, 1, 3, 0);
+	}
+
+	@Test
+	public void invalidateByIDAndUserAfterReload() throws Exception {
+		// checks the token index is kept up to date as tokens leave and reenter the cache
+		final TestCache tc = getCache(1, 10000);
+		final TokenLoader loader = loadTwoUsers();
+		when(tc.clock.instant()).thenReturn(Instant.ofEpochMilli(5000));
+		tc.cache.get(hash("t1"), loader);
+		tc.cache.get(hash("t3"), loader); // evicts t1
+		tc.cache.get(hash("t1"), loader); // evicts t3
+
+		tc.cache.invalidate(new UserName("bar"));
+		assertThat("incorrect size", tc.cache.size(), is(1L));
+		tc.cache.invalidate(UUID.fromString("edc1dcbb-d370-4660-a639-01a72f0d578a"));
+		assertThat("incorrect size", tc.cache.size(), is(0L));
+
+		tc.cache.get(hash("t1"), loader);
+		tc.cache.invalidate(hash("t1"));
+		tc.cache.get(hash("t1"), loader);
+		tc.cache.invalidate(new UserName("foo"));
+		assertThat("incorrect size", tc.cache.size(), is(0L));
+		verify(loader, times(4)).load(hash("t1"));
+	}
+
+	@Test
+	public void invalidateAll() throws Exception {
+		final TestCache tc = getCache(10, 10000);
+		final TokenLoader loader = loadTwoUsers();
+		when(tc.clock.instant()).thenReturn(Instant.ofEpochMilli(5000));
+		tc.cache.get(hash("t1"), loader);
+		tc.cache.get(hash("t2"), loader);
+		tc.cache.get(hash("t3"), loader);
+
+		tc.cache.invalidateAll();
+
+		assertThat("incorrect size", tc.cache.size(), is(0L));
+	}
+
+	@Test
+	public void invalidateDuringLoad() throws Exception {
+		final TestCache tc = getCache(10, 10000);
+		final StoredToken st = token(UUID.randomUUID(), "foo", 100000);
+		when(tc.clock.instant()).thenReturn(Instant.ofEpochMilli(5000));
+
+		// simulates a token being revoked while the token is being read from storage
+		final StoredToken got = tc.cache.get(hash("t"), h -> {
+			tc.cache.invalidate(st.getUserName());
+			return st;
+		});
+
+		assertThat("incorrect token", got, is(st));
+		assertThat("incorrect size", tc.cache.size(), is(0L));
+	}
+
+	@Test
+	public void invalidateOtherTokensDuringLoad() throws Exception {
+		final TestCache tc = getCache(10, 10000);
+		final StoredToken st = token(UUID.randomUUID(), "foo", 100000);
+		final IncomingHashedToken other = hash("u");
+		final UserName bar = new UserName("bar");
+		when(tc.clock.instant()).thenReturn(Instant.ofEpochMilli(5000));
+
+		// changes to other tokens and users must not discard the load
+		final StoredToken got = tc.cache.get(hash("t"), h -> {
+			tc.cache.invalidate(other);
+			tc.cache.invalidate(UUID.randomUUID());
+			tc.cache.invalidate(bar);
+			return st;
+		});
+
+		assertThat("incorrect token", got, is(st));
+		assertThat("incorrect size", tc.cache.size(), is(1L));
+	}
+
+	@Test
+	public void invalidateDuringLoadByHashAndID() throws Exception {
+		final TestCache tc = getCache(10, 10000);
+		final StoredToken st = token(UUID.randomUUID(), "foo", 100000);
+		when(tc.clock.instant()).thenReturn(Instant.ofEpochMilli(5000));
+
+		tc.cache.get(hash("t"), h -> {
+			tc.cache.invalidate(h);
+			return st;
+		});
+		assertThat("incorrect size", tc.cache.size(), is(0L));
+
+		tc.cache.get(hash("t"), h -> {
+			tc.cache.invalidate(st.getId());
+			return st;
+		});
+		assertThat("incorrect size", tc.cache.size(), is(0L));
+
+		tc.cache.get(hash("t"), h -> {
+			tc.cache.invalidateAll();
+			return st;
+		});
+		assertThat("incorrect size", tc.cache.size(), is(0L));
+	}
+
+	private TokenLoader loadTwoUsers() throws Exception {
+		final TokenLoader loader = mock(TokenLoader.class);
+		when(loader.load(hash("t1"))).thenReturn(token(
+				UUID.fromString("edc1dcbb-d370-4660-a639-01a72f0d578a"), "foo", 100000));
+		when(loader.load(hash("t2"))).thenReturn(token(
+				UUID.fromString("8351a73a-d4c7-4c00-9a7d-012ace5d9519"), "foo", 100000));
+		when(loader.load(hash("t3"))).thenReturn(token(
+				UUID.fromString("a6e8e0a1-3b0c-4b39-8c44-f7e1b7b8e7c1"), "bar", 100000));
+		return loader;
+	}
+
+	@Test
+	public void getAllDisabledPassesThrough() throws Exception {
+		final TokenCache cache = TokenCache.getDisabledCache();
+		final TokensLoader loader = mock(TokensLoader.class);
+		final StoredToken st = token(UUID.randomUUID(), "foo", 10000);
+		when(loader.load(set(hash("t"), hash("u")))).thenReturn(ImmutableMap.of(hash("t"), st));
+
+		assertThat("incorrect tokens", cache.getAll(set(hash("t"), hash("u")), loader),
+				is(ImmutableMap.of(hash("t"), st)));
+
+		assertCounts(cache, 0, 0, 0);
+		assertThat("incorrect size", cache.size(), is(0L));
+	}
+
+	@Test
+	public void getAll() throws Exception {
+		final TestCache tc = getCache(10, 10000);
+		final TokenLoader loader = mock(TokenLoader.class);
+		final TokensLoader bulkLoader = mock(TokensLoader.class);
+		final StoredToken st1 = token(UUID.randomUUID(), "foo", 10000);
+		final StoredToken st2 = token(UUID.randomUUID(), "bar", 10000);
+		final StoredToken st3 = token(UUID.randomUUID(), "baz", 4000);
+		when(loader.load(hash("t"))).thenReturn(st1);
+		when(loader.load(hash("v"))).thenReturn(st3);
+		when(bulkLoader.load(set(hash("u"), hash("v"), hash("w"))))
+				.thenReturn(ImmutableMap.of(hash("u"), st2));
+		// the cached tokens are checked in set iteration order, so use a single time
+		when(tc.clock.instant()).thenReturn(Instant.ofEpochMilli(5000));
+
+		tc.cache.get(hash("t"), loader);
+		tc.cache.get(hash("v"), loader);
+
+		assertThat("incorrect tokens", tc.cache.getAll(
+				set(hash("t"), hash("u"), hash("v"), hash("w")), bulkLoader),
+				is(ImmutableMap.of(hash("t"), st1, hash("u"), st2)));
+		verify(bulkLoader).load(set(hash("u"), hash("v"), hash("w")));
+
+		// t is a hit, v has expired, u & w are misses
+		assertCounts(tc.cache, 1, 5, 1);
+		assertThat("incorrect size", tc.cache.size(), is(2L));
+		assertThat("incorrect token", tc.cache.get(hash("u"), loader), is(st2));
+		assertCounts(tc.cache, 2, 5, 1);
+	}
+
+	@Test
+	public void getAllAllCached() throws Exception {
+		final TestCache tc = getCache(10, 10000);
+		final TokenLoader loader = mock(TokenLoader.class);
+		final TokensLoader bulkLoader = mock(TokensLoader.class);
+		final StoredToken st = token(UUID.randomUUID(), "foo", 10000);
+		when(loader.load(hash("t"))).thenReturn(st);
+		when(tc.clock.instant()).thenReturn(Instant.ofEpochMilli(5000));
+
+		tc.cache.get(hash("t"), loader);
+
+		assertThat("incorrect tokens", tc.cache.getAll(set(hash("t")), bulkLoader),
+				is(ImmutableMap.of(hash("t"), st)));
+		verifyNoMoreInteractions(bulkLoader);
+		assertCounts(tc.cache, 1, 1, 0);
+	}
+
+	@Test
+	public void getAllInvalidateDuringLoad() throws Exception {
+		final TestCache tc = getCache(10, 10000);
+		final StoredToken st = token(UUID.randomUUID(), "foo", 10000);
+
+		// simulates a token being deleted while the tokens are being read from storage
+		final Map<IncomingHashedToken, StoredToken> got = tc.cache.getAll(set(hash("t")), hts -> {
+			tc.cache.invalidate(st.getId());
+			return ImmutableMap.of(hts.iterator().next(), st);
+		});
+
+		assertThat("incorrect tokens", got, is(ImmutableMap.of(hash("t"), st)));
+		assertThat("incorrect size", tc.cache.size(), is(0L));
+	}
+
+	@Test
+	public void getAllInvalidateSomeDuringLoad() throws Exception {
+		final TestCache tc = getCache(10, 10000);
+		final StoredToken st1 = token(UUID.randomUUID(), "foo", 10000);
+		final StoredToken st2 = token(UUID.randomUUID(), "bar", 10000);
+		final Map<IncomingHashedToken, StoredToken> loaded =
+				ImmutableMap.of(hash("t"), st1, hash("u"), st2);
+		when(tc.clock.instant()).thenReturn(Instant.ofEpochMilli(5000));
+
+		final Map<IncomingHashedToken, StoredToken> got = tc.cache.getAll(
+				set(hash("t"), hash("u")), hts -> {
+					tc.cache.invalidate(st1.getUserName());
+					return loaded;
+				});
+
+		assertThat("incorrect tokens", got, is(loaded));
+		assertThat("incorrect size", tc.cache.size(), is(1L));
+		assertThat("incorrect token", tc.cache.get(hash("u"), mock(TokenLoader.class)), is(st2));
+	}
+
+	@Test
+	public void nulls() throws Exception {
+		final TokenCache cache = new TokenCache(1, 1);
+		failGet(cache, null, mock(TokenLoader.class), new NullPointerException("hashedToken"));
+		failGet(cache, hash("t"), null, new NullPointerException("loader"));
+
+		try {
+			cache.invalidate((IncomingHashedToken) null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("hashedToken"));
+		}
+		try {
+			cache.invalidate((UUID) null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("tokenID"));
+		}
+		try {
+			cache.invalidate((UserName) null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("userName"));
+		}
+	}
+
+	@Test
+	public void getAllNulls() throws Exception {
+		final TokenCache cache = new TokenCache(1, 1);
+		final TokensLoader loader = mock(TokensLoader.class);
+		failGetAll(cache, null, loader, new NullPointerException("hashedTokens"));
+		failGetAll(cache, set(hash("t"), null), loader,
+				new NullPointerException("Null token in hashedTokens"));
+		failGetAll(cache, set(hash("t")), null, new NullPointerException("loader"));
+	}
+
+	private void failGetAll(
+			final TokenCache cache,
+			final Set<IncomingHashedToken> hashes,
+			final TokensLoader loader,
+			final Exception expected) {
+		try {
+			cache.getAll(hashes, loader);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	private void failGet(
+			final TokenCache cache,
+			final IncomingHashedToken hash,
+			final TokenLoader loader,
+			final Exception expected) {
+		try {
+			cache.get(hash, loader);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+}
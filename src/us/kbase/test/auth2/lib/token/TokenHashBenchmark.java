@@ -0,0 +1,55 @@
+package us.kbase.test.auth2.lib.token;
+
+import static us.kbase.test.auth2.BenchmarkRunner.run;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+import org.apache.commons.codec.binary.Base32;
+
+import us.kbase.auth2.cryptutils.SHA1RandomDataGenerator;
+import us.kbase.auth2.lib.token.IncomingToken;
+import us.kbase.test.auth2.BenchmarkRunner;
+
+/** Compares the throughput and memory allocation of hashing and generating tokens with the
+ * previous implementations, which allocated a new digest, byte array, and codec for every token,
+ * to the current implementations.
+ *
+ * Takes an optional argument for the number of iterations to run for each method. Each method
+ * is run in a single thread. See {@link BenchmarkRunner}.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class TokenHashBenchmark {
+
+	private static final String TOKEN = "AB3DEFGHIJKLMNOPQRSTUVWXYZ234567";
+
+	public static void main(final String[] args) throws Exception {
+		final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		final IncomingToken token = new IncomingToken(TOKEN);
+		final SHA1RandomDataGenerator gen = new SHA1RandomDataGenerator();
+		final SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+
+		System.out.println(String.format("%s iterations", iterations));
+		run("Hash, previous          ", 1, iterations, (t, i) -> previousHash(TOKEN));
+		run("Hash                    ", 1, iterations, (t, i) -> IncomingToken.hash(TOKEN));
+		run("Hashed token, binary    ", 1, iterations, (t, i) -> token.getHashedToken());
+		run("Hashed token, string    ", 1, iterations,
+				(t, i) -> token.getHashedToken().getTokenHash());
+		run("Generate token, previous", 1, iterations, (t, i) -> {
+			final byte[] b = new byte[20];
+			random.nextBytes(b);
+			return new Base32().encodeAsString(b);
+		});
+		run("Generate token          ", 1, iterations, (t, i) -> gen.getToken());
+	}
+
+	private static String previousHash(final String token) throws NoSuchAlgorithmException {
+		final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		final byte[] hash = digest.digest(token.getBytes(StandardCharsets.UTF_8));
+		return Base64.getEncoder().encodeToString(hash);
+	}
+}
@@ -0,0 +1,198 @@
+package us.kbase.test.auth2.lib.token;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import nl.jqno.equalsverifier.EqualsVerifier;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.token.RevokedTokens;
+import us.kbase.auth2.lib.token.SignedToken;
+import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenSigner;
+import us.kbase.auth2.lib.token.TokenType;
+import us.kbase.test.auth2.TestCommon;
+
+public class TokenSignerTest {
+
+	private static final byte[] KEY = "a signing key that is at least 32 bytes"
+			.getBytes(StandardCharsets.UTF_8);
+
+	private static final UUID ID = UUID.fromString("2aa60e5e-1c7a-4a2c-b1b4-7fb2d6cdc6a5");
+
+	private static StoredToken token() throws Exception {
+		return StoredToken.getBuilder(TokenType.SERV, ID, new UserName("foo"))
+				.withLifeTime(Instant.ofEpochMilli(10000), Instant.ofEpochMilli(20000)).build();
+	}
+
+	@Test
+	public void signedTokenEquals() throws Exception {
+		EqualsVerifier.forClass(SignedToken.class).usingGetClass().verify();
+	}
+
+	@Test
+	public void signedTokenConstruct() throws Exception {
+		final SignedToken st = new SignedToken(
+				ID, new UserName("foo"), TokenType.DEV, Instant.ofEpochMilli(20000));
+
+		assertThat("incorrect id", st.getId(), is(ID));
+		assertThat("incorrect user", st.getUserName(), is(new UserName("foo")));
+		assertThat("incorrect type", st.getTokenType(), is(TokenType.DEV));
+		assertThat("incorrect expiry", st.getExpirationDate(), is(Instant.ofEpochMilli(20000)));
+		assertThat("incorrect expired", st.isExpired(Instant.ofEpochMilli(20000)), is(false));
+		assertThat("incorrect expired", st.isExpired(Instant.ofEpochMilli(20001)), is(true));
+	}
+
+	@Test
+	public void signedTokenConstructFail() throws Exception {
+		final UserName u = new UserName("foo");
+		final Instant e = Instant.now();
+		failConstructSignedToken(null, u, TokenType.DEV, e, new NullPointerException("id"));
+		failConstructSignedToken(ID, null, TokenType.DEV, e,
+				new NullPointerException("userName"));
+		failConstructSignedToken(ID, u, null, e, new NullPointerException("tokenType"));
+		failConstructSignedToken(ID, u, TokenType.DEV, null,
+				new NullPointerException("expirationDate"));
+	}
+
+	private void failConstructSignedToken(
+			final UUID id,
+			final UserName userName,
+			final TokenType type,
+			final Instant expires,
+			final Exception expected) {
+		try {
+			new SignedToken(id, userName, type, expires);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void signAndVerify() throws Exception {
+		final TokenSigner signer = new TokenSigner(KEY);
+		final String token = signer.sign(token());
+
+		assertThat("incorrect prefix", token.startsWith("s1."), is(true));
+		assertThat("incorrect signed", TokenSigner.isSigned(token), is(true));
+		assertThat("incorrect verify", signer.verify(token), is(Optional.of(new SignedToken(
+				ID, new UserName("foo"), TokenType.SERV, Instant.ofEpochMilli(20000)))));
+		// a signer with the same key can verify the token
+		assertThat("incorrect verify", new TokenSigner(KEY).verify(token).isPresent(),
+				is(true));
+	}
+
+	@Test
+	public void keyIsCopied() throws Exception {
+		final byte[] key = KEY.clone();
+		final TokenSigner signer = new TokenSigner(key);
+		final String token = signer.sign(token());
+		key[0] = 'b';
+
+		assertThat("incorrect verify", signer.verify(token).isPresent(), is(true));
+	}
+
+	@Test
+	public void isSigned() throws Exception {
+		assertThat("incorrect signed", TokenSigner.isSigned("ABCDEFGHIJKLMNOP"), is(false));
+		assertThat("incorrect signed", TokenSigner.isSigned("s1"), is(false));
+		assertThat("incorrect signed", TokenSigner.isSigned("s1."), is(true));
+	}
+
+	@Test
+	public void verifyFail() throws Exception {
+		final TokenSigner signer = new TokenSigner(KEY);
+		final String token = signer.sign(token());
+		final int sep = token.lastIndexOf('.');
+		final String payload = token.substring(0, sep);
+		final String sig = token.substring(sep + 1);
+		final String otherPayload = "s1." + Base64.getUrlEncoder().withoutPadding()
+				.encodeToString((ID + "\nbar\nServ\n20000").getBytes(StandardCharsets.UTF_8));
+
+		failVerify(signer, "ABCDEFGHIJKLMNOP"); // random token
+		failVerify(signer, "s1.");
+		failVerify(signer, "s1.foo");
+		failVerify(signer, payload);
+		failVerify(signer, payload + ".");
+		failVerify(signer, payload + "." + sig.substring(1));
+		failVerify(signer, payload + "." + sig + "A");
+		failVerify(signer, payload + ".*" + sig.substring(1));
+		failVerify(signer, otherPayload + "." + sig);
+		failVerify(new TokenSigner("another signing key that is at least 32 bytes".getBytes()),
+				token);
+	}
+
+	private void failVerify(final TokenSigner signer, final String token) {
+		assertThat("incorrect verify", signer.verify(token), is(Optional.absent()));
+	}
+
+	@Test
+	public void constructFail() throws Exception {
+		failConstruct(null, new NullPointerException("key"));
+		failConstruct(new byte[31], new IllegalArgumentException(
+				"key must be at least 32 bytes"));
+	}
+
+	private void failConstruct(final byte[] key, final Exception expected) {
+		try {
+			new TokenSigner(key);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void nulls() throws Exception {
+		final TokenSigner signer = new TokenSigner(KEY);
+		try {
+			signer.sign(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("token"));
+		}
+		try {
+			signer.verify(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("token"));
+		}
+		try {
+			TokenSigner.isSigned(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("token"));
+		}
+	}
+
+	@Test
+	public void revokedTokens() throws Exception {
+		final RevokedTokens rt = new RevokedTokens();
+		final UUID id2 = UUID.randomUUID();
+		final UUID id3 = UUID.randomUUID();
+		rt.add(ID, Instant.ofEpochMilli(10000));
+		rt.addAll(ImmutableMap.of(
+				id2, Instant.ofEpochMilli(20000), id3, Instant.ofEpochMilli(30000)));
+
+		assertThat("incorrect size", rt.size(), is(3));
+		assertThat("incorrect revoked", rt.isRevoked(ID), is(true));
+		assertThat("incorrect revoked", rt.isRevoked(UUID.randomUUID()), is(false));
+
+		rt.removeExpired(Instant.ofEpochMilli(20000));
+		assertThat("incorrect size", rt.size(), is(2));
+		assertThat("incorrect revoked", rt.isRevoked(ID), is(false));
+		assertThat("incorrect revoked", rt.isRevoked(id2), is(true));
+		assertThat("incorrect revoked", rt.isRevoked(id3), is(true));
+	}
+}
@@ -4,8 +4,11 @@ import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -18,6 +21,7 @@ import org.junit.Test;
 import com.google.common.base.Optional;
 
 import nl.jqno.equalsverifier.EqualsVerifier;
+import us.kbase.auth2.lib.DisplayName;
 import us.kbase.auth2.lib.TemporarySessionData;
 import us.kbase.auth2.lib.TokenCreationContext;
 import us.kbase.auth2.lib.UserName;
@@ -28,9 +32,13 @@ import us.kbase.auth2.lib.token.NewToken;
 import us.kbase.auth2.lib.token.StoredToken;
 import us.kbase.auth2.lib.token.StoredToken.OptionalsStep;
 import us.kbase.auth2.lib.token.TemporaryToken;
+import us.kbase.auth2.lib.token.TokenAndUser;
 import us.kbase.auth2.lib.token.TokenName;
+import us.kbase.auth2.lib.token.TokenRevocation;
+import us.kbase.auth2.lib.token.TokenRevocations;
 import us.kbase.auth2.lib.token.TokenSet;
 import us.kbase.auth2.lib.token.TokenType;
+import us.kbase.auth2.lib.user.AuthUser;
 import us.kbase.test.auth2.TestCommon;
 
 public class TokenTest {
@@ -65,6 +73,21 @@ public class TokenTest {
 		EqualsVerifier.forClass(TokenSet.class).usingGetClass().verify();
 	}
 	
+	@Test
+	public void equalsTokenAndUser() {
+		EqualsVerifier.forClass(TokenAndUser.class).usingGetClass().verify();
+	}
+	
+	@Test
+	public void equalsTokenRevocation() {
+		EqualsVerifier.forClass(TokenRevocation.class).usingGetClass().verify();
+	}
+	
+	@Test
+	public void equalsTokenRevocations() {
+		EqualsVerifier.forClass(TokenRevocations.class).usingGetClass().verify();
+	}
+	
 	@Test
 	public void tokenTypeGetType() throws Exception {
 		assertThat("failed to get login token type", TokenType.getType("Login"),
@@ -106,6 +129,11 @@ public class TokenTest {
 		final IncomingHashedToken iht = it.getHashedToken();
 		assertThat("correct token hash", iht.getTokenHash(),
 				is("LCa0a2j/xo/5m0U8HTBBNBNCLXBkg7+g+YpeiGJm564="));
+		assertThat("correct token hash", iht.getTokenHash(),
+				is("LCa0a2j/xo/5m0U8HTBBNBNCLXBkg7+g+YpeiGJm564="));
+		assertThat("incorrect equality", iht, is(new IncomingToken("foo").getHashedToken()));
+		assertThat("incorrect equality", iht.equals(new IncomingToken("fo").getHashedToken()),
+				is(false));
 		
 		failCreateIncomingToken("");
 		failCreateIncomingToken(null);
@@ -133,6 +161,8 @@ public class TokenTest {
 		assertThat("incorrect creation date", tt.getCreationDate(),
 				is(Instant.ofEpochMilli(4000)));
 		assertThat("incorrect expiration date", tt.getExpirationDate(), is(i.plusMillis(5)));
+		assertThat("incorrect token hash", tt.getTokenHash(),
+				is("w6uP8Tcg6K2QR905Rms8iXTlksL6OD1KOWBxTK7wxPI="));
 		
 		failCreateTemporaryToken(null, "foo", new NullPointerException("data"));
 		failCreateTemporaryToken(data, null,
@@ -293,6 +323,26 @@ public class TokenTest {
 		failHashToken("");
 		failHashToken("   \n");
 	}
+	
+	@Test
+	public void hashingTokensMatchesReference() throws Exception {
+		// hashes are computed with reused buffers, so vary the length and character set
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5000; i++) {
+			sb.append((char) ('a' + i % 26));
+		}
+		final String longtoken = sb.toString();
+		for (final String t: Arrays.asList("whee", longtoken.substring(0, 100), "x",
+				longtoken, "f\u00fc\u00f1ky t\u00f8ken", "whee", longtoken.substring(0, 4097),
+				longtoken.substring(0, 65), "\ud83d\ude00")) {
+			final String expected = Base64.getEncoder().encodeToString(
+					MessageDigest.getInstance("SHA-256").digest(
+							t.getBytes(StandardCharsets.UTF_8)));
+			assertThat("incorrect hash", IncomingToken.hash(t), is(expected));
+			assertThat("incorrect hash", new IncomingToken(t).getHashedToken().getTokenHash(),
+					is(expected));
+		}
+	}
 
 	private void failHashToken(final String token) {
 		try {
@@ -419,4 +469,132 @@ public class TokenTest {
 			TestCommon.assertExceptionCorrect(e, exception);
 		}
 	}
+	
+	@Test
+	public void tokenAndUser() throws Exception {
+		final StoredToken st = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("u"))
+				.withLifeTime(Instant.ofEpochMilli(1000), 1000).build();
+		final AuthUser u = AuthUser.getBuilder(
+				new UserName("u"), new DisplayName("d"), Instant.ofEpochMilli(10000)).build();
+		
+		final TokenAndUser tu = new TokenAndUser(st, u);
+		assertThat("incorrect token", tu.getToken(), is(st));
+		assertThat("incorrect user", tu.getUser(), is(u));
+	}
+	
+	@Test
+	public void tokenAndUserFail() throws Exception {
+		final StoredToken st = StoredToken.getBuilder(
+				TokenType.LOGIN, UUID.randomUUID(), new UserName("u"))
+				.withLifeTime(Instant.ofEpochMilli(1000), 1000).build();
+		final AuthUser u = AuthUser.getBuilder(
+				new UserName("u"), new DisplayName("d"), Instant.ofEpochMilli(10000)).build();
+		final AuthUser u2 = AuthUser.getBuilder(
+				new UserName("u2"), new DisplayName("d"), Instant.ofEpochMilli(10000)).build();
+		
+		failCreateTokenAndUser(null, u, new NullPointerException("token"));
+		failCreateTokenAndUser(st, null, new NullPointerException("user"));
+		failCreateTokenAndUser(st, u2,
+				new IllegalArgumentException("The token is not owned by the user"));
+	}
+	
+	private void failCreateTokenAndUser(
+			final StoredToken token,
+			final AuthUser user,
+			final Exception exception) {
+		try {
+			new TokenAndUser(token, user);
+			fail("created bad token and user");
+		} catch (Exception e) {
+			TestCommon.assertExceptionCorrect(e, exception);
+		}
+	}
+	
+	@Test
+	public void tokenRevocation() throws Exception {
+		final UUID id = UUID.randomUUID();
+		final TokenRevocation r = new TokenRevocation(1, id, new UserName("u"),
+				Instant.ofEpochMilli(20000), Instant.ofEpochMilli(10000));
+		
+		assertThat("incorrect seq", r.getSequence(), is(1L));
+		assertThat("incorrect id", r.getTokenID(), is(id));
+		assertThat("incorrect user", r.getUserName(), is(new UserName("u")));
+		assertThat("incorrect expiry", r.getExpirationDate(), is(Instant.ofEpochMilli(20000)));
+		assertThat("incorrect revoked", r.getRevocationTime(), is(Instant.ofEpochMilli(10000)));
+	}
+	
+	@Test
+	public void tokenRevocationFail() throws Exception {
+		final UUID id = UUID.randomUUID();
+		final UserName u = new UserName("u");
+		final Instant i = Instant.ofEpochMilli(10000);
+		failCreateTokenRevocation(0, id, u, i, i,
+				new IllegalArgumentException("sequence must be > 0"));
+		failCreateTokenRevocation(1, null, u, i, i, new NullPointerException("tokenID"));
+		failCreateTokenRevocation(1, id, null, i, i, new NullPointerException("userName"));
+		failCreateTokenRevocation(1, id, u, null, i, new NullPointerException("expirationDate"));
+		failCreateTokenRevocation(1, id, u, i, null, new NullPointerException("revocationTime"));
+	}
+	
+	private void failCreateTokenRevocation(
+			final long seq,
+			final UUID id,
+			final UserName user,
+			final Instant expires,
+			final Instant revoked,
+			final Exception exception) {
+		try {
+			new TokenRevocation(seq, id, user, expires, revoked);
+			fail("created bad token revocation");
+		} catch (Exception e) {
+			TestCommon.assertExceptionCorrect(e, exception);
+		}
+	}
+	
+	@Test
+	public void tokenRevocations() throws Exception {
+		final TokenRevocation r = new TokenRevocation(3, UUID.randomUUID(), new UserName("u"),
+				Instant.ofEpochMilli(20000), Instant.ofEpochMilli(10000));
+		final List<TokenRevocation> list = new LinkedList<>(Arrays.asList(r));
+		final TokenRevocations rs = new TokenRevocations(list, 3, false);
+		list.clear(); // check the list is copied
+		
+		assertThat("incorrect revocations", rs.getRevocations(), is(Arrays.asList(r)));
+		assertThat("incorrect next", rs.getNextSequence(), is(3L));
+		assertThat("incorrect reset", rs.isReset(), is(false));
+		
+		final TokenRevocations rs2 = new TokenRevocations(Collections.emptyList(), 0, true);
+		assertThat("incorrect revocations", rs2.getRevocations(), is(Collections.emptyList()));
+		assertThat("incorrect next", rs2.getNextSequence(), is(0L));
+		assertThat("incorrect reset", rs2.isReset(), is(true));
+		
+		try {
+			rs.getRevocations().add(r);
+			fail("expected exception");
+		} catch (UnsupportedOperationException e) {
+			// test passed
+		}
+	}
+	
+	@Test
+	public void tokenRevocationsFail() throws Exception {
+		failCreateTokenRevocations(null, 0, new NullPointerException("revocations"));
+		failCreateTokenRevocations(Arrays.asList((TokenRevocation) null), 0,
+				new NullPointerException("Null item in revocations"));
+		failCreateTokenRevocations(Collections.emptyList(), -1,
+				new IllegalArgumentException("nextSequence must be >= 0"));
+	}
+	
+	private void failCreateTokenRevocations(
+			final List<TokenRevocation> revs,
+			final long next,
+			final Exception exception) {
+		try {
+			new TokenRevocations(revs, next, false);
+			fail("created bad token revocations");
+		} catch (Exception e) {
+			TestCommon.assertExceptionCorrect(e, exception);
+		}
+	}
 }
@@ -0,0 +1,448 @@
+package us.kbase.test.auth2.lib.user;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import static us.kbase.test.auth2.TestCommon.set;
+
+import java.lang.reflect.Constructor;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.exceptions.NoSuchUserException;
+import us.kbase.auth2.lib.identity.RemoteIdentity;
+import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
+import us.kbase.auth2.lib.identity.RemoteIdentityID;
+import us.kbase.auth2.lib.user.AuthUser;
+import us.kbase.auth2.lib.user.UserCache;
+import us.kbase.auth2.lib.user.UserCache.DisplayNameLoader;
+import us.kbase.auth2.lib.user.UserCache.UserLoader;
+import us.kbase.test.auth2.TestCommon;
+
+public class UserCacheTest {
+
+	private static class TestTicker extends Ticker {
+
+		public long nanos = 0;
+
+		@Override
+		public long read() {
+			return nanos;
+		}
+	}
+
+	private static UserCache getCache(final long size, final long ttl, final Ticker ticker)
+			throws Exception {
+		return getCache(size, ttl, 0, ticker);
+	}
+
+	private static UserCache getCache(
+			final long size,
+			final long ttl,
+			final long displayNames,
+			final Ticker ticker)
+			throws Exception {
+		final Constructor<UserCache> c = UserCache.class.getDeclaredConstructor(
+				long.class, long.class, long.class, Ticker.class);
+		c.setAccessible(true);
+		return c.newInstance(size, ttl, displayNames, ticker);
+	}
+
+	private static AuthUser user(final String name) throws Exception {
+		return AuthUser.getBuilder(new UserName(name), new DisplayName("d"),
+				Instant.ofEpochMilli(10000)).build();
+	}
+
+	private static void assertCounts(
+			final UserCache cache,
+			final long hits,
+			final long misses,
+			final long evictions) {
+		assertThat("incorrect hits", cache.getHitCount(), is(hits));
+		assertThat("incorrect misses", cache.getMissCount(), is(misses));
+		assertThat("incorrect evictions", cache.getEvictionCount(), is(evictions));
+	}
+
+	@Test
+	public void constructDisabled() throws Exception {
+		assertThat("incorrect enabled", new UserCache(0, 1).isEnabled(), is(false));
+		assertThat("incorrect enabled", new UserCache(1, 0).isEnabled(), is(false));
+		assertThat("incorrect enabled", UserCache.getDisabledCache().isEnabled(), is(false));
+		assertThat("incorrect enabled", new UserCache(1, 1).isEnabled(), is(true));
+		assertThat("incorrect enabled", new UserCache(1, 1).isDisplayNameCacheEnabled(),
+				is(false));
+		assertThat("incorrect enabled", new UserCache(1, 0, 1).isDisplayNameCacheEnabled(),
+				is(false));
+		assertThat("incorrect enabled", new UserCache(0, 1, 1).isEnabled(), is(false));
+		assertThat("incorrect enabled", new UserCache(0, 1, 1).isDisplayNameCacheEnabled(),
+				is(true));
+	}
+
+	@Test
+	public void constructFail() throws Exception {
+		failConstruct(-1, 1, new IllegalArgumentException("maximumSize must be at least 0"));
+		failConstruct(1, -1, new IllegalArgumentException("timeToLiveMS must be at least 0"));
+		failConstruct(1, 1, -1,
+				new IllegalArgumentException("maximumDisplayNames must be at least 0"));
+	}
+
+	private void failConstruct(final long size, final long ttl, final Exception expected) {
+		failConstruct(size, ttl, 0, expected);
+	}
+
+	private void failConstruct(
+			final long size,
+			final long ttl,
+			final long displayNames,
+			final Exception expected) {
+		try {
+			new UserCache(size, ttl, displayNames);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	@Test
+	public void disabledPassesThrough() throws Exception {
+		final UserCache cache = UserCache.getDisabledCache();
+		final UserLoader loader = mock(UserLoader.class);
+		when(loader.load(new UserName("foo"))).thenReturn(user("foo"));
+
+		assertThat("incorrect user", cache.get(new UserName("foo"), loader), is(user("foo")));
+		assertThat("incorrect user", cache.get(new UserName("foo"), loader), is(user("foo")));
+
+		verify(loader, times(2)).load(new UserName("foo"));
+		assertCounts(cache, 0, 0, 0);
+	}
+
+	@Test
+	public void hitAndExpire() throws Exception {
+		final TestTicker ticker = new TestTicker();
+		final UserCache cache = getCache(10, 10000, ticker);
+		final UserLoader loader = mock(UserLoader.class);
+		when(loader.load(new UserName("foo"))).thenReturn(user("foo"));
+
+		cache.get(new UserName("foo"), loader);
+		ticker.nanos = 9999L * 1000000L;
+		assertThat("incorrect user", cache.get(new UserName("foo"), loader), is(user("foo")));
+		verify(loader).load(new UserName("foo"));
+		assertCounts(cache, 1, 1, 0);
+
+		ticker.nanos = 10000L * 1000000L;
+		assertThat("incorrect user", cache.get(new UserName("foo"), loader), is(user("foo")));
+		verify(loader, times(2)).load(new UserName("foo"));
+		assertCounts(cache, 1, 2, 1);
+	}
+
+	@Test
+	public void loadFail() throws Exception {
+		final UserCache cache = getCache(10, 10000, new TestTicker());
+		final UserLoader loader = mock(UserLoader.class);
+		when(loader.load(new UserName("foo"))).thenThrow(new NoSuchUserException("foo"));
+
+		try {
+			cache.get(new UserName("foo"), loader);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NoSuchUserException("foo"));
+		}
+		assertThat("incorrect size", cache.size(), is(0L));
+	}
+
+	@Test
+	public void invalidate() throws Exception {
+		final UserCache cache = getCache(10, 10000, new TestTicker());
+		final UserLoader loader = mock(UserLoader.class);
+		when(loader.load(new UserName("foo"))).thenReturn(user("foo"));
+		when(loader.load(new UserName("bar"))).thenReturn(user("bar"));
+
+		cache.get(new UserName("foo"), loader);
+		cache.get(new UserName("bar"), loader);
+		cache.invalidate(new UserName("foo"));
+
+		assertThat("incorrect size", cache.size(), is(1L));
+		cache.get(new UserName("foo"), loader);
+		cache.get(new UserName("bar"), loader);
+		verify(loader, times(2)).load(new UserName("foo"));
+		verify(loader).load(new UserName("bar"));
+
+		cache.invalidateAll();
+		assertThat("incorrect size", cache.size(), is(0L));
+	}
+
+	@Test
+	public void invalidateDuringLoad() throws Exception {
+		final UserCache cache = getCache(10, 10000, new TestTicker());
+		final AuthUser u = user("foo");
+
+		// simulates a user being updated while the user is being read from storage
+		final AuthUser got = cache.get(u.getUserName(), n -> {
+			cache.invalidate(n);
+			return u;
+		});
+
+		assertThat("incorrect user", got, is(u));
+		assertThat("incorrect size", cache.size(), is(0L));
+	}
+
+	@Test
+	public void invalidateOtherUserDuringLoad() throws Exception {
+		final UserCache cache = getCache(10, 10000, new TestTicker());
+		final AuthUser u = user("foo");
+		final UserName bar = new UserName("bar");
+
+		// a change to a different user must not discard the load
+		final AuthUser got = cache.get(u.getUserName(), n -> {
+			cache.invalidate(bar);
+			return u;
+		});
+
+		assertThat("incorrect user", got, is(u));
+		assertThat("incorrect size", cache.size(), is(1L));
+	}
+
+	@Test
+	public void invalidateAllDuringLoad() throws Exception {
+		final UserCache cache = getCache(10, 10000, new TestTicker());
+		final AuthUser u = user("foo");
+
+		final AuthUser got = cache.get(u.getUserName(), n -> {
+			cache.invalidateAll();
+			return u;
+		});
+
+		assertThat("incorrect user", got, is(u));
+		assertThat("incorrect size", cache.size(), is(0L));
+	}
+
+	@Test
+	public void setLastLogin() throws Exception {
+		final UserCache cache = getCache(10, 10000, new TestTicker());
+		final RemoteIdentity ri = new RemoteIdentity(new RemoteIdentityID("prov", "id"),
+				new RemoteIdentityDetails("user", "full", "email"));
+		final AuthUser u = AuthUser.getBuilder(new UserName("foo"), new DisplayName("d"),
+				Instant.ofEpochMilli(10000))
+				.withLastLogin(Instant.ofEpochMilli(20000))
+				.withIdentity(ri)
+				.build();
+		final UserLoader loader = mock(UserLoader.class);
+		when(loader.load(new UserName("foo"))).thenReturn(u);
+		cache.get(new UserName("foo"), loader);
+
+		cache.setLastLogin(new UserName("foo"), Instant.ofEpochMilli(30000));
+		final AuthUser expected = AuthUser.getBuilder(new UserName("foo"), new DisplayName("d"),
+				Instant.ofEpochMilli(10000))
+				.withLastLogin(Instant.ofEpochMilli(30000))
+				.withIdentity(ri)
+				.build();
+		assertThat("incorrect user", cache.get(new UserName("foo"), loader), is(expected));
+
+		// earlier dates are ignored
+		cache.setLastLogin(new UserName("foo"), Instant.ofEpochMilli(25000));
+		assertThat("incorrect user", cache.get(new UserName("foo"), loader), is(expected));
+		verify(loader).load(new UserName("foo"));
+		assertCounts(cache, 2, 1, 0);
+	}
+
+	@Test
+	public void setLastLoginNotCached() throws Exception {
+		final UserCache cache = getCache(10, 10000, new TestTicker());
+
+		cache.setLastLogin(new UserName("foo"), Instant.ofEpochMilli(30000));
+
+		assertThat("incorrect size", cache.size(), is(0L));
+	}
+
+	private static Map<UserName, DisplayName> names(final String... namesAndDisplayNames)
+			throws Exception {
+		final Map<UserName, DisplayName> ret = new HashMap<>();
+		for (int i = 0; i < namesAndDisplayNames.length; i += 2) {
+			ret.put(new UserName(namesAndDisplayNames[i]),
+					new DisplayName(namesAndDisplayNames[i + 1]));
+		}
+		return ret;
+	}
+
+	private static Set<UserName> userNames(final String... names) throws Exception {
+		final Set<UserName> ret = set();
+		for (final String n: names) {
+			ret.add(new UserName(n));
+		}
+		return ret;
+	}
+
+	@Test
+	public void displayNamesDisabledPassesThrough() throws Exception {
+		final UserCache cache = new UserCache(10, 10000);
+		final DisplayNameLoader loader = mock(DisplayNameLoader.class);
+		when(loader.load(userNames("foo"))).thenReturn(names("foo", "f"));
+
+		assertThat("incorrect names", cache.getDisplayNames(userNames("foo"), loader),
+				is(names("foo", "f")));
+		assertThat("incorrect names", cache.getDisplayNames(userNames("foo"), loader),
+				is(names("foo", "f")));
+
+		verify(loader, times(2)).load(userNames("foo"));
+		assertThat("incorrect hits", cache.getDisplayNameHitCount(), is(0L));
+		assertThat("incorrect misses", cache.getDisplayNameMissCount(), is(0L));
+	}
+
+	@Test
+	public void displayNamesLoadOnlyMissing() throws Exception {
+		final UserCache cache = getCache(0, 10000, 10, new TestTicker());
+		final DisplayNameLoader loader = mock(DisplayNameLoader.class);
+		when(loader.load(userNames("foo", "bar", "baz"))).thenReturn(names("foo", "f", "bar", "b"));
+		when(loader.load(userNames("baz", "bat"))).thenReturn(names("bat", "t"));
+
+		assertThat("incorrect names", cache.getDisplayNames(
+				userNames("foo", "bar", "baz"), loader), is(names("foo", "f", "bar", "b")));
+		assertThat("incorrect names", cache.getDisplayNames(
+				userNames("foo", "baz", "bat"), loader), is(names("foo", "f", "bat", "t")));
+		assertThat("incorrect names", cache.getDisplayNames(userNames("foo", "bat"), loader),
+				is(names("foo", "f", "bat", "t")));
+
+		verify(loader).load(userNames("foo", "bar", "baz"));
+		verify(loader).load(userNames("baz", "bat"));
+		// missing users are not cached
+		assertThat("incorrect size", cache.getDisplayNameCacheSize(), is(3L));
+		assertThat("incorrect hits", cache.getDisplayNameHitCount(), is(3L));
+		assertThat("incorrect misses", cache.getDisplayNameMissCount(), is(5L));
+	}
+
+	@Test
+	public void displayNamesExpireAndInvalidate() throws Exception {
+		final TestTicker ticker = new TestTicker();
+		final UserCache cache = getCache(10, 10000, 10, ticker);
+		final DisplayNameLoader loader = mock(DisplayNameLoader.class);
+		when(loader.load(userNames("foo", "bar"))).thenReturn(names("foo", "f", "bar", "b"));
+		when(loader.load(userNames("foo"))).thenReturn(names("foo", "f2"));
+
+		cache.getDisplayNames(userNames("foo", "bar"), loader);
+		cache.invalidate(new UserName("foo"));
+		assertThat("incorrect names", cache.getDisplayNames(userNames("foo", "bar"), loader),
+				is(names("foo", "f2", "bar", "b")));
+
+		ticker.nanos = 10000L * 1000000L;
+		cache.getDisplayNames(userNames("foo", "bar"), loader);
+		verify(loader, times(2)).load(userNames("foo", "bar"));
+
+		cache.invalidateAll();
+		assertThat("incorrect size", cache.getDisplayNameCacheSize(), is(0L));
+	}
+
+	@Test
+	public void displayNamesInvalidateDuringLoad() throws Exception {
+		final UserCache cache = getCache(10, 10000, 10, new TestTicker());
+		final UserName foo = new UserName("foo");
+		final Map<UserName, DisplayName> loaded = names("foo", "f");
+
+		// simulates a user being updated while the display names are being read from storage
+		final Map<UserName, DisplayName> got = cache.getDisplayNames(set(foo), n -> {
+			cache.invalidate(foo);
+			return loaded;
+		});
+
+		assertThat("incorrect names", got, is(loaded));
+		assertThat("incorrect size", cache.getDisplayNameCacheSize(), is(0L));
+	}
+
+	@Test
+	public void displayNamesInvalidateSomeDuringLoad() throws Exception {
+		final UserCache cache = getCache(10, 10000, 10, new TestTicker());
+		final UserName foo = new UserName("foo");
+		final UserName bar = new UserName("bar");
+		final Map<UserName, DisplayName> loaded = names("foo", "f", "bar", "b");
+
+		final Map<UserName, DisplayName> got = cache.getDisplayNames(set(foo, bar), n -> {
+			cache.invalidate(foo);
+			return loaded;
+		});
+
+		assertThat("incorrect names", got, is(loaded));
+		assertThat("incorrect size", cache.getDisplayNameCacheSize(), is(1L));
+	}
+
+	@Test
+	public void displayNamesEmpty() throws Exception {
+		final UserCache cache = getCache(10, 10000, 10, new TestTicker());
+		final DisplayNameLoader loader = mock(DisplayNameLoader.class);
+
+		assertThat("incorrect names", cache.getDisplayNames(Collections.emptySet(), loader),
+				is(Collections.emptyMap()));
+		verify(loader, times(0)).load(Collections.emptySet());
+	}
+
+	@Test
+	public void nulls() throws Exception {
+		final UserCache cache = new UserCache(1, 1);
+		failGet(cache, null, mock(UserLoader.class), new NullPointerException("userName"));
+		failGet(cache, new UserName("foo"), null, new NullPointerException("loader"));
+		try {
+			cache.invalidate(null);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, new NullPointerException("userName"));
+		}
+		failSetLastLogin(cache, null, Instant.now(), new NullPointerException("userName"));
+		failSetLastLogin(cache, new UserName("foo"), null, new NullPointerException("lastLogin"));
+		failGetDisplayNames(cache, null, mock(DisplayNameLoader.class),
+				new NullPointerException("userNames"));
+		failGetDisplayNames(cache, set(new UserName("foo"), null),
+				mock(DisplayNameLoader.class), new NullPointerException("Null name in userNames"));
+		failGetDisplayNames(cache, userNames("foo"), null, new NullPointerException("loader"));
+	}
+
+	private void failSetLastLogin(
+			final UserCache cache,
+			final UserName name,
+			final Instant lastLogin,
+			final Exception expected) {
+		try {
+			cache.setLastLogin(name, lastLogin);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	private void failGetDisplayNames(
+			final UserCache cache,
+			final Set<UserName> names,
+			final DisplayNameLoader loader,
+			final Exception expected) {
+		try {
+			cache.getDisplayNames(names, loader);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+
+	private void failGet(
+			final UserCache cache,
+			final UserName name,
+			final UserLoader loader,
+			final Exception expected) {
+		try {
+			cache.get(name, loader);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, expected);
+		}
+	}
+}
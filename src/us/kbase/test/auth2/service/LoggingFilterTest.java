@@ -96,10 +96,95 @@ public class LoggingFilterTest {
 			return Optional.absent();
 		}
 
+		@Override
+		public Optional<String> getMongoTokenReadPreference() {
+			return Optional.absent();
+		}
+
 		@Override
 		public String getTokenCookieName() {
 			return COOKIE_NAME;
 		}
+
+		@Override
+		public int getTokenCacheSize() {
+			return 0;
+		}
+
+		@Override
+		public int getTokenCacheTimeToLiveSec() {
+			return 0;
+		}
+
+		@Override
+		public int getUserCacheSize() {
+			return 0;
+		}
+
+		@Override
+		public int getUserCacheTimeToLiveSec() {
+			return 0;
+		}
+
+		@Override
+		public int getDisplayNameCacheSize() {
+			return 0;
+		}
+
+		@Override
+		public int getTokenFilterRebuildIntervalSec() {
+			return 0;
+		}
+
+		@Override
+		public boolean isUserSearchIndexEnabled() {
+			return false;
+		}
+
+		@Override
+		public Optional<byte[]> getTokenSigningKey() {
+			return Optional.absent();
+		}
+
+		@Override
+		public int getPasswordHashIterations() {
+			return 0;
+		}
+
+		@Override
+		public int getPasswordHashTargetMillis() {
+			return 0;
+		}
+
+		@Override
+		public int getLoginThrottleUserFailures() {
+			return 0;
+		}
+
+		@Override
+		public int getLoginThrottleAddressFailures() {
+			return 0;
+		}
+
+		@Override
+		public int getLoginThrottleMaxDelaySec() {
+			return 0;
+		}
+
+		@Override
+		public int getUserAgentParsers() {
+			return 0;
+		}
+
+		@Override
+		public int getUserAgentCacheSize() {
+			return 0;
+		}
+
+		@Override
+		public int getUserUpdateFlushIntervalMillis() {
+			return 0;
+		}
 	}
 	
 	@BeforeClass
@@ -0,0 +1,78 @@
+package us.kbase.test.auth2.service;
+
+import static us.kbase.test.auth2.BenchmarkRunner.run;
+
+import nl.basjes.parse.useragent.UserAgent;
+import nl.basjes.parse.useragent.UserAgentAnalyzer;
+import us.kbase.auth2.lib.TokenCreationContext;
+import us.kbase.auth2.service.UserAgentParser;
+import us.kbase.test.auth2.BenchmarkRunner;
+
+/** Compares the throughput of building token creation contexts from user agents from multiple
+ * threads with the previous implementation, which parsed every user agent with a single
+ * analyzer under a lock, to the current implementation, with and without the user agent cache.
+ *
+ * Takes optional arguments for the number of operations per thread, the maximum number of
+ * threads, and the number of distinct user agents. Each method is run with 1, 2, 4... threads up
+ * to the maximum, which defaults to the number of processors. The current parser is allowed one
+ * analyzer per thread. Each thread cycles through the user agents starting at a different
+ * user agent. See {@link BenchmarkRunner}.
+ * @author gaprice@lbl.gov
+ *
+ */
+public class UserAgentParserBenchmark {
+
+	private static class PreviousParser {
+
+		private final UserAgentAnalyzer uaa = UserAgentAnalyzer.newBuilder()
+				.withField(UserAgent.DEVICE_NAME)
+				.withField(UserAgent.OPERATING_SYSTEM_NAME)
+				.withField(UserAgent.OPERATING_SYSTEM_VERSION)
+				.withField(UserAgent.AGENT_NAME)
+				.withField(UserAgent.AGENT_VERSION)
+				.build();
+
+		public synchronized TokenCreationContext.Builder getTokenContextFromUserAgent(
+				final String userAgent) {
+			final UserAgent ua = uaa.parse(userAgent);
+			return TokenCreationContext.getBuilder()
+					.withNullableAgent(ua.getValue(UserAgent.AGENT_NAME),
+							ua.getValue(UserAgent.AGENT_VERSION))
+					.withNullableOS(ua.getValue(UserAgent.OPERATING_SYSTEM_NAME),
+							ua.getValue(UserAgent.OPERATING_SYSTEM_VERSION))
+					.withNullableDevice(ua.getValue(UserAgent.DEVICE_NAME));
+		}
+	}
+
+	public static void main(final String[] args) throws Exception {
+		final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		final int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) :
+				Runtime.getRuntime().availableProcessors();
+		final int agents = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		final String[] userAgents = new String[agents];
+		for (int i = 0; i < agents; i++) {
+			userAgents[i] = String.format("Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 " +
+					"(KHTML, like Gecko) Chrome/58.0.%s.110 Safari/537.36", 3000 + i);
+		}
+		final PreviousParser previous = new PreviousParser();
+
+		System.out.println(String.format("%s iterations per thread, %s distinct user agents",
+				iterations, agents));
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			final UserAgentParser cached = new UserAgentParser(threads, 10000);
+			final UserAgentParser uncached = new UserAgentParser(threads, 0);
+			run("Previous       ", threads, iterations,
+					(t, i) -> previous.getTokenContextFromUserAgent(ua(userAgents, t, i)).build());
+			run("Cached         ", threads, iterations,
+					(t, i) -> cached.getTokenContextFromUserAgent(ua(userAgents, t, i)).build());
+			run("Uncached       ", threads, iterations / 10,
+					(t, i) -> uncached.getTokenContextFromUserAgent(ua(userAgents, t, i)).build());
+			System.out.println(String.format("Cached hit rate %.4f, uncached parsers built %s",
+					cached.getCacheHitRate(), uncached.getParserCount()));
+		}
+	}
+
+	private static String ua(final String[] userAgents, final int thread, final int iteration) {
+		return userAgents[(iteration + thread) % userAgents.length];
+	}
+}
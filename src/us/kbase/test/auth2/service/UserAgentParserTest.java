@@ -0,0 +1,166 @@
+package us.kbase.test.auth2.service;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.google.common.base.Optional;
+
+import us.kbase.auth2.lib.TokenCreationContext;
+import us.kbase.auth2.service.UserAgentParser;
+import us.kbase.test.auth2.TestCommon;
+
+public class UserAgentParserTest {
+
+	private static final String CHROME = "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 " +
+			"(KHTML, like Gecko) Chrome/58.0.3029.110 Safari/537.36";
+	private static final String FIREFOX = "Mozilla/5.0 (Macintosh; Intel Mac OS X 10.12; " +
+			"rv:53.0) Gecko/20100101 Firefox/53.0";
+
+	private static final TokenCreationContext CHROME_CTX = TokenCreationContext.getBuilder()
+			.withNullableAgent("Chrome", "58.0.3029.110")
+			.withNullableOS("Linux", "Intel x86_64")
+			.withNullableDevice("Linux Desktop").build();
+	private static final TokenCreationContext FIREFOX_CTX = TokenCreationContext.getBuilder()
+			.withNullableAgent("Firefox", "53.0")
+			.withNullableOS("Mac OS X", "10.12")
+			.withNullableDevice("Apple Macintosh").build();
+
+	@Test
+	public void construct() throws Exception {
+		final UserAgentParser p = new UserAgentParser(0, 0);
+		assertThat("incorrect max parsers", p.getMaxParserCount(), is(1));
+		assertThat("incorrect parsers", p.getParserCount(), is(1));
+		assertThat("incorrect hits", p.getCacheHitCount(), is(0L));
+		assertThat("incorrect misses", p.getCacheMissCount(), is(0L));
+		assertThat("incorrect hit rate", p.getCacheHitRate(), is(1.0));
+		assertThat("incorrect size", p.getCacheSize(), is(0L));
+
+		final UserAgentParser p2 = new UserAgentParser(3, 10);
+		assertThat("incorrect max parsers", p2.getMaxParserCount(), is(3));
+		assertThat("incorrect parsers", p2.getParserCount(), is(1));
+	}
+
+	@Test
+	public void constructFail() throws Exception {
+		failConstruct(-1, 0, new IllegalArgumentException("maxParsers must be at least 0"));
+		failConstruct(0, -1, new IllegalArgumentException("cacheSize must be at least 0"));
+	}
+
+	private void failConstruct(final int maxParsers, final int cacheSize, final Exception e) {
+		try {
+			new UserAgentParser(maxParsers, cacheSize);
+			fail("expected exception");
+		} catch (Exception got) {
+			TestCommon.assertExceptionCorrect(got, e);
+		}
+	}
+
+	@Test
+	public void parse() throws Exception {
+		final UserAgentParser p = new UserAgentParser(1, 10);
+		assertThat("incorrect context", p.getTokenContextFromUserAgent(CHROME).build(),
+				is(CHROME_CTX));
+		assertThat("incorrect context", p.getTokenContextFromUserAgent(FIREFOX).build(),
+				is(FIREFOX_CTX));
+	}
+
+	@Test
+	public void cache() throws Exception {
+		final UserAgentParser p = new UserAgentParser(1, 10);
+		assertThat("incorrect context", p.getTokenContextFromUserAgent(CHROME).build(),
+				is(CHROME_CTX));
+		assertThat("incorrect context", p.getTokenContextFromUserAgent(CHROME).build(),
+				is(CHROME_CTX));
+		assertThat("incorrect context", p.getTokenContextFromUserAgent(FIREFOX).build(),
+				is(FIREFOX_CTX));
+		assertThat("incorrect context", p.getTokenContextFromUserAgent(CHROME).build(),
+				is(CHROME_CTX));
+		assertThat("incorrect hits", p.getCacheHitCount(), is(2L));
+		assertThat("incorrect misses", p.getCacheMissCount(), is(2L));
+		assertThat("incorrect hit rate", p.getCacheHitRate(), is(0.5));
+		assertThat("incorrect size", p.getCacheSize(), is(2L));
+	}
+
+	@Test
+	public void cachedBuilderIsNotShared() throws Exception {
+		final UserAgentParser p = new UserAgentParser(1, 10);
+		p.getTokenContextFromUserAgent(CHROME)
+				.withIpAddress(InetAddress.getByName("127.0.0.1"))
+				.withCustomContext("foo", "bar");
+		final TokenCreationContext ctx = p.getTokenContextFromUserAgent(CHROME).build();
+		assertThat("incorrect context", ctx, is(CHROME_CTX));
+		assertThat("incorrect address", ctx.getIpAddress(), is(Optional.absent()));
+		assertThat("incorrect hits", p.getCacheHitCount(), is(1L));
+	}
+
+	@Test
+	public void cacheDisabled() throws Exception {
+		final UserAgentParser p = new UserAgentParser(1, 0);
+		assertThat("incorrect context", p.getTokenContextFromUserAgent(CHROME).build(),
+				is(CHROME_CTX));
+		assertThat("incorrect context", p.getTokenContextFromUserAgent(CHROME).build(),
+				is(CHROME_CTX));
+		assertThat("incorrect hits", p.getCacheHitCount(), is(0L));
+		assertThat("incorrect misses", p.getCacheMissCount(), is(2L));
+		assertThat("incorrect hit rate", p.getCacheHitRate(), is(0.0));
+		assertThat("incorrect size", p.getCacheSize(), is(0L));
+	}
+
+	@Test
+	public void cacheEviction() throws Exception {
+		final UserAgentParser p = new UserAgentParser(1, 1);
+		p.getTokenContextFromUserAgent(CHROME);
+		p.getTokenContextFromUserAgent(FIREFOX);
+		p.getTokenContextFromUserAgent(CHROME);
+		assertThat("incorrect hits", p.getCacheHitCount(), is(0L));
+		assertThat("incorrect misses", p.getCacheMissCount(), is(3L));
+		assertThat("incorrect size", p.getCacheSize(), is(1L));
+	}
+
+	@Test
+	public void uncachedUserAgents() throws Exception {
+		final UserAgentParser p = new UserAgentParser(1, 10);
+		final String max = TestCommon.LONG1001.substring(0, 1000);
+		p.getTokenContextFromUserAgent(null);
+		p.getTokenContextFromUserAgent(null);
+		p.getTokenContextFromUserAgent(max + "a");
+		p.getTokenContextFromUserAgent(max + "a");
+		p.getTokenContextFromUserAgent(max);
+		p.getTokenContextFromUserAgent(max);
+		assertThat("incorrect hits", p.getCacheHitCount(), is(1L));
+		assertThat("incorrect misses", p.getCacheMissCount(), is(5L));
+		assertThat("incorrect size", p.getCacheSize(), is(1L));
+	}
+
+	@Test
+	public void concurrentParsers() throws Exception {
+		final UserAgentParser p = new UserAgentParser(2, 0);
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<TokenCreationContext>> results = new LinkedList<>();
+			for (int i = 0; i < 40; i++) {
+				final String ua = i % 2 == 0 ? CHROME : FIREFOX;
+				results.add(executor.submit(() -> p.getTokenContextFromUserAgent(ua).build()));
+			}
+			int i = 0;
+			for (final Future<TokenCreationContext> f: results) {
+				assertThat("incorrect context", f.get(),
+						is(i++ % 2 == 0 ? CHROME_CTX : FIREFOX_CTX));
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertThat("incorrect parsers", p.getParserCount() <= 2, is(true));
+		assertThat("incorrect misses", p.getCacheMissCount(), is(40L));
+	}
+}
@@ -7,7 +7,10 @@ import static us.kbase.test.auth2.service.ServiceTestUtils.failRequestJSON;
 import java.net.URI;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -172,6 +175,207 @@ public class TokenEndpointTest {
 		failRequestJSON(res, 401, "Unauthorized", new InvalidTokenException());
 	}
 	
+	@Test
+	public void getTokenBatch() throws Exception {
+		final UUID id = UUID.randomUUID();
+		final IncomingToken it = new IncomingToken("foobarbaz");
+		
+		manager.storage.storeToken(StoredToken.getBuilder(
+				TokenType.AGENT, id, new UserName("foo"))
+				.withLifeTime(Instant.ofEpochMilli(10000), Instant.ofEpochMilli(1000000000000000L))
+				.withTokenName(new TokenName("bar"))
+				.build(), it.getHashedToken().getTokenHash());
+		
+		final URI target = UriBuilder.fromUri(host).path("/api/V2/token/batch").build();
+		
+		final WebTarget wt = CLI.target(target);
+		final Builder req = wt.request();
+
+		final Response res = req.post(Entity.json(ImmutableMap.of("tokens",
+				Arrays.asList("whee", it.getToken(), "  ", it.getToken()))));
+		
+		assertThat("incorrect response code", res.getStatus(), is(200));
+		
+		@SuppressWarnings("unchecked")
+		final Map<String, Object> response = res.readEntity(Map.class);
+		
+		final Map<String, Object> token = MapBuilder.<String, Object>newHashMap()
+				.with("type", "Agent")
+				.with("id", id.toString())
+				.with("created", 10000)
+				.with("expires", 1000000000000000L)
+				.with("name", "bar")
+				.with("user", "foo")
+				.with("custom", Collections.emptyMap())
+				.with("cachefor", 300000)
+				.build();
+		
+		assertThat("incorrect tokens", response, is(ImmutableMap.of("tokens", Arrays.asList(
+				ImmutableMap.of("error", ImmutableMap.of(
+						"appcode", 10020, "apperror", "Invalid token")),
+				token,
+				ImmutableMap.of("error", ImmutableMap.of(
+						"appcode", 10010, "apperror", "No authentication token")),
+				token))));
+	}
+	
+	@Test
+	public void getTokenBatchFailNoBody() throws Exception {
+		final URI target = UriBuilder.fromUri(host).path("/api/V2/token/batch").build();
+		final WebTarget wt = CLI.target(target);
+		final Builder req = wt.request()
+				.header("accept", MediaType.APPLICATION_JSON);
+		
+		final Response res = req.post(Entity.json(null));
+		
+		failRequestJSON(res, 400, "Bad Request",
+				new MissingParameterException("JSON body missing"));
+	}
+	
+	@Test
+	public void getTokenBatchFailNoTokens() throws Exception {
+		final URI target = UriBuilder.fromUri(host).path("/api/V2/token/batch").build();
+		final WebTarget wt = CLI.target(target);
+		final Builder req = wt.request()
+				.header("accept", MediaType.APPLICATION_JSON);
+		
+		final Response res = req.post(Entity.json(Collections.emptyMap()));
+		
+		failRequestJSON(res, 400, "Bad Request", new MissingParameterException("tokens"));
+	}
+	
+	@Test
+	public void getTokenBatchFailAdditionalProperties() throws Exception {
+		final URI target = UriBuilder.fromUri(host).path("/api/V2/token/batch").build();
+		final WebTarget wt = CLI.target(target);
+		final Builder req = wt.request()
+				.header("accept", MediaType.APPLICATION_JSON);
+		
+		final Response res = req.post(Entity.json(ImmutableMap.of("foo", "bar")));
+		
+		failRequestJSON(res, 400, "Bad Request",
+				new IllegalParameterException("Unexpected parameters in request: foo"));
+	}
+	
+	@Test
+	public void getTokenBatchFailTooManyTokens() throws Exception {
+		final URI target = UriBuilder.fromUri(host).path("/api/V2/token/batch").build();
+		final WebTarget wt = CLI.target(target);
+		final Builder req = wt.request()
+				.header("accept", MediaType.APPLICATION_JSON);
+		final List<String> tokens = new LinkedList<>();
+		for (int i = 0; i < 1001; i++) {
+			tokens.add("token" + i);
+		}
+		
+		final Response res = req.post(Entity.json(ImmutableMap.of("tokens", tokens)));
+		
+		failRequestJSON(res, 400, "Bad Request",
+				new IllegalParameterException("Token count exceeds maximum of 1000"));
+	}
+	
+	@Test
+	public void getTokenBatchFailTooManyDuplicateTokens() throws Exception {
+		final URI target = UriBuilder.fromUri(host).path("/api/V2/token/batch").build();
+		final WebTarget wt = CLI.target(target);
+		final Builder req = wt.request()
+				.header("accept", MediaType.APPLICATION_JSON);
+		final List<String> tokens = new LinkedList<>();
+		for (int i = 0; i < 1001; i++) {
+			tokens.add("token");
+		}
+		
+		final Response res = req.post(Entity.json(ImmutableMap.of("tokens", tokens)));
+		
+		failRequestJSON(res, 400, "Bad Request",
+				new IllegalParameterException("Token count exceeds maximum of 1000"));
+	}
+	
+	@Test
+	public void getTokenRevocations() throws Exception {
+		final IncomingToken serv = new IncomingToken("servtoken");
+		final Instant now = Instant.now();
+		manager.storage.storeToken(StoredToken.getBuilder(
+				TokenType.SERV, UUID.randomUUID(), new UserName("foo"))
+				.withLifeTime(now, now.plusSeconds(3600)).build(),
+				serv.getHashedToken().getTokenHash());
+		final StoredToken revoked = StoredToken.getBuilder(
+				TokenType.AGENT, UUID.randomUUID(), new UserName("bar"))
+				.withLifeTime(Instant.ofEpochMilli(10000), Instant.ofEpochMilli(1000000000000000L))
+				.build();
+		manager.storage.storeToken(revoked, "somehash");
+		
+		final URI target = UriBuilder.fromUri(host).path("/api/V2/token/revocations").build();
+		final Response res = CLI.target(target).request()
+				.header("authorization", serv.getToken()).get();
+		
+		assertThat("incorrect response code", res.getStatus(), is(200));
+		@SuppressWarnings("unchecked")
+		final Map<String, Object> response = res.readEntity(Map.class);
+		assertThat("incorrect response", response, is(ImmutableMap.of(
+				"revocations", Collections.emptyList(),
+				"next", 0,
+				"reset", false)));
+		
+		manager.storage.deleteToken(new UserName("bar"), revoked.getId());
+		
+		final URI target2 = UriBuilder.fromUri(host).path("/api/V2/token/revocations")
+				.queryParam("after", 0).build();
+		final Response res2 = CLI.target(target2).request()
+				.header("authorization", serv.getToken()).get();
+		
+		assertThat("incorrect response code", res2.getStatus(), is(200));
+		@SuppressWarnings("unchecked")
+		final Map<String, Object> response2 = res2.readEntity(Map.class);
+		@SuppressWarnings("unchecked")
+		final List<Map<String, Object>> revs =
+				(List<Map<String, Object>>) response2.get("revocations");
+		assertThat("incorrect revocation count", revs.size(), is(1));
+		final long revtime = ((Number) revs.get(0).remove("revoked")).longValue();
+		assertThat("incorrect revoked time", revtime >= now.toEpochMilli(), is(true));
+		assertThat("incorrect revocation", revs.get(0), is(ImmutableMap.of(
+				"seq", 1,
+				"id", revoked.getId().toString(),
+				"user", "bar",
+				"expires", 1000000000000000L)));
+		assertThat("incorrect next", response2.get("next"), is(1));
+		assertThat("incorrect reset", response2.get("reset"), is(false));
+	}
+	
+	@Test
+	public void getTokenRevocationsFailBadAfter() throws Exception {
+		failGetTokenRevocations("after", "foo",
+				new IllegalParameterException("after must be an integer"));
+		failGetTokenRevocations("after", "-1",
+				new IllegalParameterException("after must be at least 0"));
+	}
+	
+	private void failGetTokenRevocations(
+			final String param,
+			final String value,
+			final AuthException expected)
+			throws Exception {
+		final URI target = UriBuilder.fromUri(host).path("/api/V2/token/revocations")
+				.queryParam(param, value).build();
+		final Builder req = CLI.target(target).request()
+				.header("accept", MediaType.APPLICATION_JSON)
+				.header("authorization", "whee");
+		
+		failRequestJSON(req.get(), 400, "Bad Request", expected);
+	}
+	
+	@Test
+	public void getTokenRevocationsFailLoginToken() throws Exception {
+		final NewToken nt = setUpUser();
+		final URI target = UriBuilder.fromUri(host).path("/api/V2/token/revocations").build();
+		final Builder req = CLI.target(target).request()
+				.header("accept", MediaType.APPLICATION_JSON)
+				.header("authorization", nt.getToken());
+		
+		failRequestJSON(req.get(), 401, "Unauthorized", new UnauthorizedException(
+				ErrorType.UNAUTHORIZED, "Login tokens are not allowed for this operation"));
+	}
+	
 	@Test
 	public void createTokenNoCustomContext() throws Exception {
 		final NewToken nt = setUpUser();
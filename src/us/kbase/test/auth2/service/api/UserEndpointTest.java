@@ -631,6 +631,60 @@ public class UserEndpointTest {
 		failRequestJSON(res, code, error, e);
 	}
 	
+	@Test
+	public void postUserList() throws Exception {
+		final IncomingToken token = setUpUsersForTesting();
+
+		final URI target = UriBuilder.fromUri(host).path("/api/V2/users").build();
+		
+		final WebTarget wt = CLI.target(target);
+		final Builder req = wt.request()
+				.header("authorization", token.getToken());
+		
+		final Response res = req.post(Entity.json(ImmutableMap.of("list",
+				Arrays.asList("  baz", "mua  ", "whoo"))));
+		
+		assertThat("incorrect response code", res.getStatus(), is(200));
+		
+		@SuppressWarnings("unchecked")
+		final Map<String, Object> response = res.readEntity(Map.class);
+		
+		assertThat("incorrect users", response, is(ImmutableMap.of("baz", "fuz", "mua", "paz")));
+	}
+	
+	@Test
+	public void postUserListFailMissingList() throws Exception {
+		failPostUserList(Collections.emptyMap(), new MissingParameterException("list"));
+	}
+	
+	@Test
+	public void postUserListFailAdditionalProps() throws Exception {
+		failPostUserList(ImmutableMap.of("list", Arrays.asList("foo"), "foo", "bar"),
+				new IllegalParameterException("Unexpected parameters in request: foo"));
+	}
+	
+	@Test
+	public void postUserListFailIllegalUser() throws Exception {
+		failPostUserList(ImmutableMap.of("list", Arrays.asList("u1", "aA")),
+				new IllegalParameterException(ErrorType.ILLEGAL_USER_NAME,
+						"Illegal user name [aA]: 30010 Illegal user name: " +
+						"Illegal character in user name aA: A"));
+	}
+	
+	private void failPostUserList(final Map<String, Object> body, final AuthException e)
+			throws Exception {
+		final URI target = UriBuilder.fromUri(host).path("/api/V2/users").build();
+		
+		final WebTarget wt = CLI.target(target);
+		final Builder req = wt.request()
+				.header("authorization", "foobar")
+				.header("accept", MediaType.APPLICATION_JSON);
+
+		final Response res = req.post(Entity.json(body));
+		
+		failRequestJSON(res, 400, "Bad Request", e);
+	}
+	
 	@Test
 	public void searchUsersBlankFields() throws Exception {
 		searchUsers("f", "   \t ,   ", ImmutableMap.of("foo", "bar", "baz", "fuz"));
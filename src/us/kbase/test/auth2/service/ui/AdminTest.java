@@ -0,0 +1,216 @@
+package us.kbase.test.auth2.service.ui;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static us.kbase.test.auth2.TestCommon.set;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.UUID;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Form;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriBuilder;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+import us.kbase.auth2.kbase.KBaseAuthConfig;
+import us.kbase.auth2.lib.DisplayName;
+import us.kbase.auth2.lib.PasswordHashAndSalt;
+import us.kbase.auth2.lib.Role;
+import us.kbase.auth2.lib.UserName;
+import us.kbase.auth2.lib.identity.RemoteIdentity;
+import us.kbase.auth2.lib.identity.RemoteIdentityDetails;
+import us.kbase.auth2.lib.identity.RemoteIdentityID;
+import us.kbase.auth2.lib.token.IncomingToken;
+import us.kbase.auth2.lib.token.StoredToken;
+import us.kbase.auth2.lib.token.TokenType;
+import us.kbase.auth2.lib.user.LocalUser;
+import us.kbase.auth2.lib.user.NewUser;
+import us.kbase.test.auth2.MapBuilder;
+import us.kbase.test.auth2.MongoStorageTestManager;
+import us.kbase.test.auth2.StandaloneAuthServer;
+import us.kbase.test.auth2.StandaloneAuthServer.ServerThread;
+import us.kbase.test.auth2.TestCommon;
+import us.kbase.test.auth2.service.ServiceTestUtils;
+
+public class AdminTest {
+
+	private static final String DB_NAME = "test_admin_ui";
+	private static final String COOKIE_NAME = "login-cookie";
+
+	private static final Client CLI = ClientBuilder.newClient();
+
+	private static MongoStorageTestManager manager = null;
+	private static StandaloneAuthServer server = null;
+	private static int port = -1;
+	private static String host = null;
+
+	@BeforeClass
+	public static void beforeClass() throws Exception {
+		TestCommon.stfuLoggers();
+		manager = new MongoStorageTestManager(DB_NAME);
+		final Path cfgfile = ServiceTestUtils.generateTempConfigFile(manager, DB_NAME, COOKIE_NAME);
+		TestCommon.getenv().put("KB_DEPLOYMENT_CONFIG", cfgfile.toString());
+		server = new StandaloneAuthServer(KBaseAuthConfig.class.getName());
+		new ServerThread(server).start();
+		System.out.println("Main thread waiting for server to start up");
+		while (server.getPort() == null) {
+			Thread.sleep(1000);
+		}
+		port = server.getPort();
+		host = "http://localhost:" + port;
+	}
+
+	@AfterClass
+	public static void afterClass() throws Exception {
+		if (server != null) {
+			server.stop();
+		}
+		if (manager != null) {
+			manager.destroy();
+		}
+	}
+
+	@Before
+	public void beforeTest() throws Exception {
+		ServiceTestUtils.resetServer(manager, host, COOKIE_NAME);
+	}
+
+	private IncomingToken setUpAdmin() throws Exception {
+		manager.storage.createLocalUser(LocalUser.getLocalUserBuilder(new UserName("admin1"),
+				new DisplayName("admin"), Instant.ofEpochMilli(20000)).build(),
+				new PasswordHashAndSalt("foobarbazbing".getBytes(), "aa".getBytes()));
+		manager.storage.updateRoles(new UserName("admin1"), set(Role.ADMIN), set());
+		final IncomingToken token = new IncomingToken("whee");
+		manager.storage.storeToken(StoredToken.getBuilder(TokenType.LOGIN, UUID.randomUUID(),
+				new UserName("admin1")).withLifeTime(Instant.ofEpochMilli(10000),
+						Instant.ofEpochMilli(1000000000000000L)).build(),
+				token.getHashedToken().getTokenHash());
+		return token;
+	}
+
+	private void createUser(final String user, final String display, final int id)
+			throws Exception {
+		manager.storage.createUser(NewUser.getBuilder(
+				new UserName(user), new DisplayName(display), Instant.ofEpochMilli(20000),
+				new RemoteIdentity(new RemoteIdentityID("prov", "id" + id),
+						new RemoteIdentityDetails("user" + id, "full", "e@g.com")))
+				.build());
+	}
+
+	private String cursor(final String user) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(
+				user.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void searchForUsersAcceptAny() throws Exception {
+		final IncomingToken token = setUpAdmin();
+		createUser("foo", "bar", 1);
+
+		final URI target = UriBuilder.fromUri(host).path("/admin/search").build();
+		final WebTarget wt = CLI.target(target);
+		final Form form = new Form();
+		form.param("prefix", "fo");
+
+		final Response res = wt.request()
+				.header("accept", MediaType.WILDCARD)
+				.cookie(COOKIE_NAME, token.getToken())
+				.post(Entity.form(form));
+
+		assertThat("incorrect response code", res.getStatus(), is(200));
+		assertThat("incorrect content type", res.getMediaType().isCompatible(
+				MediaType.TEXT_HTML_TYPE), is(true));
+		assertThat("incorrect response", res.readEntity(String.class),
+				containsString(">foo (bar)</a>"));
+	}
+
+	@Test
+	public void searchForUsersJSON() throws Exception {
+		final IncomingToken token = setUpAdmin();
+		createUser("foo", "bar", 1);
+		createUser("foo2", "baz", 2);
+		createUser("whoo", "fooish", 3);
+
+		final URI target = UriBuilder.fromUri(host).path("/admin/search/users").build();
+		final WebTarget wt = CLI.target(target);
+		final Form form = new Form();
+		form.param("prefix", "fo");
+		form.param("limit", "2");
+
+		final Response res = wt.request()
+				.header("accept", MediaType.APPLICATION_JSON)
+				.header("authorization", token.getToken())
+				.post(Entity.form(form));
+
+		assertThat("incorrect response code", res.getStatus(), is(200));
+		@SuppressWarnings("unchecked")
+		final Map<String, Object> response = res.readEntity(Map.class);
+
+		assertThat("incorrect response", response, is(MapBuilder.<String, Object>newHashMap()
+				.with("users", Arrays.asList(
+						ImmutableMap.of("user", "foo", "display", "bar"),
+						ImmutableMap.of("user", "foo2", "display", "baz")))
+				.with("next", cursor("foo2"))
+				.build()));
+
+		form.param("cursor", cursor("foo2"));
+		final Response res2 = wt.request()
+				.header("accept", MediaType.APPLICATION_JSON)
+				.header("authorization", token.getToken())
+				.post(Entity.form(form));
+
+		assertThat("incorrect response code", res2.getStatus(), is(200));
+		@SuppressWarnings("unchecked")
+		final Map<String, Object> response2 = res2.readEntity(Map.class);
+
+		assertThat("incorrect response", response2, is(MapBuilder.<String, Object>newHashMap()
+				.with("users", Arrays.asList(ImmutableMap.of("user", "whoo", "display", "fooish")))
+				.with("next", null)
+				.build()));
+	}
+
+	@Test
+	public void searchForUsersJSONAcceptAny() throws Exception {
+		final IncomingToken token = setUpAdmin();
+		createUser("foo", "bar", 1);
+
+		final URI target = UriBuilder.fromUri(host).path("/admin/search/users").build();
+		final WebTarget wt = CLI.target(target);
+		final Form form = new Form();
+		form.param("prefix", "fo");
+
+		final Response res = wt.request()
+				.header("accept", MediaType.WILDCARD)
+				.header("authorization", token.getToken())
+				.post(Entity.form(form));
+
+		assertThat("incorrect response code", res.getStatus(), is(200));
+		assertThat("incorrect content type", res.getMediaType().isCompatible(
+				MediaType.APPLICATION_JSON_TYPE), is(true));
+		@SuppressWarnings("unchecked")
+		final Map<String, Object> response = res.readEntity(Map.class);
+
+		assertThat("incorrect response", response, is(MapBuilder.<String, Object>newHashMap()
+				.with("users", Arrays.asList(ImmutableMap.of("user", "foo", "display", "bar")))
+				.with("next", null)
+				.build()));
+	}
+}